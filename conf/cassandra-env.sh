@@ -175,6 +175,10 @@ JVM_OPTS="$JVM_OPTS -XX:+UseCMSInitiatingOccupancyOnly"
 # JVM_OPTS="$JVM_OPTS -XX:PrintFLSStatistics=1"
 # JVM_OPTS="$JVM_OPTS -Xloggc:/var/log/cassandra/gc-`date +%s`.log"
 
+# uncomment to version writes with a hybrid logical clock (wall clock milliseconds plus a
+# counter) instead of a pure Lamport clock.  Clients must be started with the same option.
+# JVM_OPTS="$JVM_OPTS -Dcassandra.hybrid_logical_clock=true"
+
 # uncomment to have Cassandra JVM listen for remote debuggers/profilers on port 1414
 # JVM_OPTS="$JVM_OPTS -Xdebug -Xnoagent -Xrunjdwp:transport=dt_socket,server=y,suspend=n,address=1414"
 
@@ -0,0 +1,150 @@
+package org.apache.cassandra.client;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Cassandra.AsyncClient.set_keyspace_call;
+import org.apache.cassandra.utils.LamportClock;
+import org.apache.thrift.async.TAsyncClientManager;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.*;
+
+/**
+ * Connections to the local servers, shared by all ClientLibrary instances in this JVM.
+ *
+ * All async clients share a fixed set of TAsyncClientManagers (selector threads), sized by
+ * cassandra.client.selector_threads.  A thrift async client only runs one call at a time, so
+ * connections are not multiplexed; instead each connection (a sync and an async client to one
+ * server) is used by one session at a time and goes back to the pool when the session releases it.
+ */
+public class ClientConnectionPool
+{
+    public static final int SELECTOR_THREADS = Integer.parseInt(System.getProperty("cassandra.client.selector_threads",
+                                                                                   String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+
+    private static ClientConnectionPool instance;
+
+    private final TAsyncClientManager[] clientManagers;
+    private final AtomicInteger nextClientManager = new AtomicInteger();
+    private final ConcurrentMap<String, Queue<Connection>> idleConnections = new ConcurrentHashMap<String, Queue<Connection>>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+
+    public static synchronized ClientConnectionPool instance() throws IOException
+    {
+        if (instance == null)
+            instance = new ClientConnectionPool(SELECTOR_THREADS);
+        return instance;
+    }
+
+    private ClientConnectionPool(int selectorThreads) throws IOException
+    {
+        assert selectorThreads > 0;
+        clientManagers = new TAsyncClientManager[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++)
+            clientManagers[i] = new TAsyncClientManager();
+    }
+
+    /**
+     * @return an idle connection to ip:port using keyspace, or a new one
+     */
+    public Connection borrow(String ip, int port, String keyspace) throws Exception
+    {
+        Connection connection = borrowIdle(ip, port, keyspace);
+        if (connection != null)
+            return connection;
+        return open(poolKey(ip, port, keyspace), ip, port, keyspace);
+    }
+
+    /**
+     * Never blocks, unlike borrow(), which opening a connection does; so this is the one to use on a
+     * selector thread, where opening would wait on a response that same thread has to read.
+     *
+     * @return an idle connection to ip:port using keyspace, or null if there is none
+     */
+    public Connection borrowIdle(String ip, int port, String keyspace)
+    {
+        Queue<Connection> idle = idleConnections.get(poolKey(ip, port, keyspace));
+        return idle == null ? null : idle.poll();
+    }
+
+    private static String poolKey(String ip, int port, String keyspace)
+    {
+        return ip + ":" + port + "/" + keyspace;
+    }
+
+    public void release(Connection connection)
+    {
+        Queue<Connection> idle = idleConnections.get(connection.poolKey);
+        if (idle == null)
+        {
+            Queue<Connection> newIdle = new ConcurrentLinkedQueue<Connection>();
+            idle = idleConnections.putIfAbsent(connection.poolKey, newIdle);
+            if (idle == null)
+                idle = newIdle;
+        }
+        idle.offer(connection);
+    }
+
+    /**
+     * Closes a connection instead of returning it, for connections left in an unknown state by an
+     * error.
+     */
+    public void discard(Connection connection)
+    {
+        connection.client.getInputProtocol().getTransport().close();
+        connection.nonblockingTransport.close();
+        openConnections.decrementAndGet();
+    }
+
+    public int getOpenConnections()
+    {
+        return openConnections.get();
+    }
+
+    private Connection open(String poolKey, String ip, int port, String keyspace) throws Exception
+    {
+        TTransport tFramedTransport = new TFramedTransport(new TSocket(ip, port));
+        TProtocol binaryProtoOnFramed = new TBinaryProtocol(tFramedTransport);
+        Cassandra.Client client = new Cassandra.Client(binaryProtoOnFramed);
+        tFramedTransport.open();
+
+        TNonblockingTransport tNonblockingTransport = new TNonblockingSocket(ip, port);
+        TAsyncClientManager clientManager = clientManagers[Math.abs(nextClientManager.getAndIncrement() % clientManagers.length)];
+        Cassandra.AsyncClient asyncClient = new Cassandra.AsyncClient(new TBinaryProtocol.Factory(), clientManager, tNonblockingTransport);
+
+        // Set the keyspace for both synchronous and asynchronous clients
+        LamportClock.updateTime(client.set_keyspace(keyspace, LamportClock.sendTimestamp()));
+
+        BlockingQueueCallback<set_keyspace_call> callback = new BlockingQueueCallback<set_keyspace_call>();
+        asyncClient.set_keyspace(keyspace, LamportClock.sendTimestamp(), callback);
+        callback.getResponseNoInterruption();
+
+        openConnections.incrementAndGet();
+        return new Connection(poolKey, InetAddress.getByName(ip), client, asyncClient, tNonblockingTransport);
+    }
+
+    public static class Connection
+    {
+        private final String poolKey;
+        public final InetAddress address;
+        public final Cassandra.Client client;
+        public final Cassandra.AsyncClient asyncClient;
+        private final TNonblockingTransport nonblockingTransport;
+
+        private Connection(String poolKey, InetAddress address, Cassandra.Client client, Cassandra.AsyncClient asyncClient, TNonblockingTransport nonblockingTransport)
+        {
+            this.poolKey = poolKey;
+            this.address = address;
+            this.client = client;
+            this.asyncClient = asyncClient;
+            this.nonblockingTransport = nonblockingTransport;
+        }
+    }
+}
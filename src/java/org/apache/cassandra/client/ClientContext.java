@@ -1,9 +1,11 @@
 package org.apache.cassandra.client;
 
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.cassandra.thrift.*;
 
@@ -11,25 +13,69 @@ import org.apache.cassandra.thrift.*;
  * The client context and dependency tracking is quite simple in COPS2 because
  * we only care about "nearest" dependencies.
  *
+ * Deps are compacted as they are added: only the newest dep per locator key is
+ * kept, and a write's returned dep replaces all the deps the write carried.  An
+ * optional cap (cassandra.client.max_deps, 0 for none) bounds the deps attached
+ * to a write by dropping the oldest ones, trading strict causality for bounded
+ * metadata.
+ *
  * @author wlloyd
  *
  */
 public class ClientContext {
-    // TODO: We could track the full key (columnPath and row key) and then we
-    // could ensure we only have one dependency per full key
-    private final HashSet<Dep> deps = new HashSet<Dep>();
+    public static final int DEFAULT_MAX_DEPS = Integer.parseInt(System.getProperty("cassandra.client.max_deps", "0"));
+
+    // counters over all contexts in this JVM, for the stress tool
+    private static final AtomicLong totalWrites = new AtomicLong();
+    private static final AtomicLong totalDepsAttached = new AtomicLong();
+    private static final AtomicLong totalDepsCompacted = new AtomicLong();
+    private static final AtomicLong totalDepsDropped = new AtomicLong();
+
+    private final HashMap<ByteBuffer, Dep> newestDepPerKey = new HashMap<ByteBuffer, Dep>();
+    private final int maxDeps;
 
     public final static int NOT_YET_SUPPORTED = -1;
 
-    public HashSet<Dep> getDeps() {
-        return deps;
+    public ClientContext() {
+        this(DEFAULT_MAX_DEPS);
+    }
+
+    public ClientContext(int maxDeps) {
+        assert maxDeps >= 0;
+        this.maxDeps = maxDeps;
+    }
+
+    public synchronized HashSet<Dep> getDeps() {
+        return new HashSet<Dep>(newestDepPerKey.values());
+    }
+
+    public synchronized int size() {
+        return newestDepPerKey.size();
     }
 
-    public void addDep(Dep dep) {
-        deps.add(dep);
+    public synchronized void addDep(Dep dep) {
+        Dep current = newestDepPerKey.get(dep.locator_key);
+        if (current != null) {
+            totalDepsCompacted.incrementAndGet();
+            if (current.timestamp >= dep.timestamp)
+                return;
+        }
+        newestDepPerKey.put(dep.locator_key, dep);
+        if (maxDeps > 0 && newestDepPerKey.size() > maxDeps)
+            dropOldestDep();
     }
 
-    public void addDeps(Set<Dep> deps) {
+    private void dropOldestDep() {
+        Dep oldest = null;
+        for (Dep dep : newestDepPerKey.values()) {
+            if (oldest == null || dep.timestamp < oldest.timestamp)
+                oldest = dep;
+        }
+        newestDepPerKey.remove(oldest.locator_key);
+        totalDepsDropped.incrementAndGet();
+    }
+
+    public synchronized void addDeps(Set<Dep> deps) {
         for (Dep dep : deps) {
             addDep(dep);
         }
@@ -41,8 +87,36 @@ public class ClientContext {
         assert false;
     }
 
-    public void clearDeps() {
-        deps.clear();
+    public synchronized void clearDeps() {
+        newestDepPerKey.clear();
+    }
+
+    /**
+     * Clears the deps a write carried, they are covered by the deps the write returns.
+     */
+    public synchronized void clearDepsAfterWrite() {
+        totalWrites.incrementAndGet();
+        totalDepsAttached.addAndGet(newestDepPerKey.size());
+        newestDepPerKey.clear();
+    }
+
+    public static long getTotalWrites() {
+        return totalWrites.get();
+    }
+
+    /** deps sent with writes, over all writes */
+    public static long getTotalDepsAttached() {
+        return totalDepsAttached.get();
+    }
+
+    /** deps that were merged into a dep on the same locator key */
+    public static long getTotalDepsCompacted() {
+        return totalDepsCompacted.get();
+    }
+
+    /** deps dropped because of the cap */
+    public static long getTotalDepsDropped() {
+        return totalDepsDropped.get();
     }
 
     public void addDep(ByteBuffer key, ColumnOrSuperColumn cosc)
@@ -161,7 +235,7 @@ public class ClientContext {
 
 
     @Override
-    public String toString() {
-        return deps.toString();
+    public synchronized String toString() {
+        return newestDepPerKey.values().toString();
     }
 }
@@ -0,0 +1,124 @@
+package org.apache.cassandra.client;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.concurrent.NamedThreadFactory;
+import org.apache.cassandra.service.ClientIdRegistry;
+import org.apache.cassandra.thrift.AuthenticationRequest;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.utils.LamportClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The client ids of one ClientLibrary, leased from the ClientIdRegistry of the local datacenter
+ * and renewed in the background for as long as the library keeps them.
+ *
+ * A leased id belongs to one session at a time, so the servers' pruning of a client's older
+ * read-only transactions only ever drops that session's own, and its transaction ids, (clock << 16)
+ * plus the id, increase with every transaction it starts.
+ */
+public class ClientIdLeases
+{
+    private static final Logger logger = LoggerFactory.getLogger(ClientIdLeases.class);
+
+    // with this off, client ids are derived from this host's address and a per-thread counter
+    public static final boolean REGISTERED = LamportClock.REGISTERED_CLIENT_IDS;
+
+    private final Cassandra.Client registry;
+    private final Set<Lease> leases = new HashSet<Lease>();
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ClientIdRenewer"));
+    private long leaseInMs = 0;
+
+    public static class Lease
+    {
+        private final String session = UUID.randomUUID().toString();
+        private volatile int id = 0;
+
+        public int id()
+        {
+            return id;
+        }
+
+        public long nextTransactionId()
+        {
+            return LamportClock.sendRegisteredTranId(id);
+        }
+    }
+
+    /**
+     * @param registry a connection of its own to the registry server, used only by this
+     */
+    public ClientIdLeases(Cassandra.Client registry)
+    {
+        this.registry = registry;
+    }
+
+    public synchronized Lease lease() throws Exception
+    {
+        Lease lease = new Lease();
+        register(lease);
+        leases.add(lease);
+        if (leases.size() == 1 && logger.isDebugEnabled())
+            logger.debug("Leased client id {}, leases last {} ms", lease.id, leaseInMs);
+        return lease;
+    }
+
+    /**
+     * Stops renewing the leases, so the registry can hand their ids out again once they end.
+     */
+    public synchronized void drop(Collection<Lease> dropped)
+    {
+        leases.removeAll(dropped);
+    }
+
+    public synchronized int getLeases()
+    {
+        return leases.size();
+    }
+
+    private synchronized void renew()
+    {
+        for (Lease lease : leases) {
+            try {
+                register(lease);
+            } catch (Exception e) {
+                // keep using the id, the lease may not have lapsed by the next try
+                logger.warn("Could not renew the lease on client id " + lease.id, e);
+            }
+        }
+    }
+
+    private void register(Lease lease) throws Exception
+    {
+        Map<String, String> credentials = new HashMap<String, String>();
+        credentials.put(ClientIdRegistry.SESSION, lease.session);
+        if (lease.id > 0)
+            credentials.put(ClientIdRegistry.PREFERRED_ID, Integer.toString(lease.id));
+        long result = registry.login(new AuthenticationRequest(credentials), LamportClock.NO_CLOCK_TICK);
+
+        int id = (int) (result & 0xFFFF);
+        if (lease.id > 0 && id != lease.id)
+            logger.error("Client id {} went to another session while its lease had lapsed, continuing as {}", lease.id, id);
+        lease.id = id;
+
+        long length = result >>> 16;
+        if (length != leaseInMs) {
+            // renewing every quarter of the lease rides out a few failed renewals
+            if (leaseInMs == 0) {
+                Runnable renewal = new Runnable()
+                {
+                    public void run()
+                    {
+                        renew();
+                    }
+                };
+                renewer.scheduleWithFixedDelay(renewal, length / 4, length / 4, TimeUnit.MILLISECONDS);
+            }
+            leaseInMs = length;
+        }
+    }
+}
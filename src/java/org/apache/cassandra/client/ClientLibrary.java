@@ -1,11 +1,15 @@
 package org.apache.cassandra.client;
 
+import org.apache.cassandra.concurrent.NamedThreadFactory;
 import org.apache.cassandra.config.DatabaseDescriptor;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cassandra.db.RowPosition;
 import org.apache.cassandra.dht.*;
@@ -25,12 +29,16 @@ import org.apache.cassandra.utils.*;
 import org.apache.cassandra.utils.ColumnOrSuperColumnHelper.EvtAndLvt;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ValueFuture;
 /**
  * This client library provide the extra functionality needed for COPS2.
  * Namely:
@@ -38,6 +46,22 @@ import org.slf4j.LoggerFactory;
  * 2) Read (get) transactions
  * 3) Write (put) transactions
  *
+ * The *_async calls return immediately with a future, so one session can have several read-only
+ * transactions and writes outstanding (up to cassandra.client.max_outstanding).  Their
+ * OperationPipeline keeps them in causal order.  Don't make synchronous calls on a session while
+ * it has async calls outstanding, they would bypass that ordering.
+ *
+ * With cassandra.client.server_side_rot set, a read-only transaction goes to a single server, the
+ * owner of most of its keys, which reads the rest from their owners for it.  That costs the
+ * client one round trip and one connection per transaction instead of one per server touched.
+ *
+ * Client ids are derived from the last 10 bits of this host's address and a per-thread counter,
+ * which allows 64 per host; a thread or pipeline past that fails rather than reuse an id.  With cassandra.client.registered_client_ids set, each session instead leases a client id
+ * from the local datacenter's ClientIdRegistry (and one per outstanding async read), so its
+ * transaction ids are unique and increase with every transaction.  Every client of a cluster must
+ * agree on the option, as address-derived ids then use 9 bits of the address to leave the leased
+ * ids' tag bit clear.
+ *
  * This should be used instead of directly calling any thrift functions.
  *
  * @author wlloyd
@@ -45,14 +69,29 @@ import org.slf4j.LoggerFactory;
  */
 public class ClientLibrary {
     private static Logger logger = LoggerFactory.getLogger(ClientLibrary.class);
-    private final HashMap<InetAddress, Cassandra.Client> addressToClient = new HashMap<InetAddress, Cassandra.Client>();
-    private final HashMap<InetAddress, Cassandra.AsyncClient> addressToAsyncClient = new HashMap<InetAddress, Cassandra.AsyncClient>();
+    // opens connections for async operations, whose sends may run on a selector thread that must not block
+    private static final ExecutorService connectionOpener = Executors.newCachedThreadPool(new NamedThreadFactory("ClientConnectionOpener"));
+    public static final boolean SERVER_SIDE_ROT = Boolean.parseBoolean(System.getProperty("cassandra.client.server_side_rot", "false"));
+    private final Map<String, Integer> localServerIPAndPorts;
+    private final Map<InetAddress, Entry<String, Integer>> addressToIPAndPort = new HashMap<InetAddress, Entry<String, Integer>>();
+    // the local servers, indexed as the router and each session index them
+    private final InetAddress[] localAddresses;
+    private final String keyspace;
+    private final ClientConnectionPool connectionPool;
+
+    // in thread safe mode each thread gets its own session, otherwise there is just the one
+    private final boolean threadSafe;
+    private final Session sharedSession;
+    private final ThreadLocal<Session> threadSessions = new ThreadLocal<Session>();
 
-    private final ClientContext clientContext = new ClientContext();
     private final ConsistencyLevel consistencyLevel;
     private final IPartitioner partitioner;
     private final RingCache ringCache;
+    private final TokenRouter router;
 
+    // null if clients don't register their ids
+    private final ClientIdLeases clientIdLeases;
+    // for write transaction ids of unregistered clients
     private final Random randomizer = new Random();
 
     /* trackers by khiem
@@ -67,38 +106,37 @@ public class ClientLibrary {
 
     public ClientLibrary(Map<String, Integer> localServerIPAndPorts, String keyspace, ConsistencyLevel consistencyLevel)
     throws Exception
+    {
+        this(localServerIPAndPorts, keyspace, consistencyLevel, false);
+    }
+
+    /**
+     * @param threadSafe if true, the library may be shared by any number of threads, each of which
+     * is its own causal session with its own context and connections
+     */
+    public ClientLibrary(Map<String, Integer> localServerIPAndPorts, String keyspace, ConsistencyLevel consistencyLevel, boolean threadSafe)
+    throws Exception
     {
         // if (logger.isTraceEnabled()) {
         //     logger.trace("ClientLibrary(localServerIPAndPorts = {}, keyspace = {}, consistencyLevel = {})", new Object[]{localServerIPAndPorts, keyspace, consistencyLevel});
         //}
 
+        this.localServerIPAndPorts = localServerIPAndPorts;
+        this.localAddresses = new InetAddress[localServerIPAndPorts.size()];
+        int serverIndex = 0;
         for (Entry<String, Integer> ipAndPort : localServerIPAndPorts.entrySet()) {
-            String ip = ipAndPort.getKey();
-            Integer port = ipAndPort.getValue();
-
-            TTransport tFramedTransport = new TFramedTransport(new TSocket(ip, port));
-            TProtocol binaryProtoOnFramed = new TBinaryProtocol(tFramedTransport);
-            Cassandra.Client client = new Cassandra.Client(binaryProtoOnFramed);
-            tFramedTransport.open();
-            addressToClient.put(InetAddress.getByName(ip), client);
-
-            TNonblockingTransport tNonblockingTransport = new TNonblockingSocket(ip, port);
-            //TODO: 1 or many clientManagers?!?
-            TAsyncClientManager clientManager = new TAsyncClientManager();
-            Cassandra.AsyncClient asyncClient = new Cassandra.AsyncClient(new TBinaryProtocol.Factory(), clientManager, tNonblockingTransport);
-            addressToAsyncClient.put(InetAddress.getByName(ip), asyncClient);
-            //if(logger.isTraceEnabled()) {
-            //    logger.trace("IP={}  client={}", new Object[]{ip, asyncClient});
-            //}
-            // Set the keyspace for both synchronous and asynchronous clients
-            client.set_keyspace(keyspace, LamportClock.sendTimestamp());
-
-            BlockingQueueCallback<set_keyspace_call> callback = new BlockingQueueCallback<set_keyspace_call>();
-            asyncClient.set_keyspace(keyspace, LamportClock.sendTimestamp(), callback);
-            callback.getResponseNoInterruption();
+            InetAddress address = InetAddress.getByName(ipAndPort.getKey());
+            addressToIPAndPort.put(address, ipAndPort);
+            localAddresses[serverIndex++] = address;
         }
+        this.keyspace = keyspace;
+        this.connectionPool = ClientConnectionPool.instance();
+        this.clientIdLeases = ClientIdLeases.REGISTERED ? new ClientIdLeases(registryConnection().client) : null;
+        this.threadSafe = threadSafe;
+        this.sharedSession = threadSafe ? null : openSession();
+        Session session = session();
 
-        String partitionerName = addressToClient.values().iterator().next().describe_partitioner();
+        String partitionerName = session.addressToClient.values().iterator().next().describe_partitioner();
 
         this.partitioner = FBUtilities.newPartitioner(partitionerName);
 
@@ -108,10 +146,313 @@ public class ClientLibrary {
         ConfigHelper.setOutputRpcPort(conf, localServerIPAndPorts.entrySet().iterator().next().getValue().toString());
         ConfigHelper.setOutputColumnFamily(conf, keyspace, "ColumnFamilyEntryIgnored");
         this.ringCache = new RingCache(conf);
+        this.router = new TokenRouter(partitioner, localAddresses, ringCache);
 
         this.consistencyLevel = consistencyLevel;
     }
 
+    private static class Session
+    {
+        private final List<ClientConnectionPool.Connection> connections = new ArrayList<ClientConnectionPool.Connection>();
+        private final HashMap<InetAddress, Cassandra.Client> addressToClient = new HashMap<InetAddress, Cassandra.Client>();
+        private final HashMap<InetAddress, Cassandra.AsyncClient> addressToAsyncClient = new HashMap<InetAddress, Cassandra.AsyncClient>();
+        // the clients again, indexed like localAddresses
+        private final Cassandra.Client[] clients;
+        private final Cassandra.AsyncClient[] asyncClients;
+        private final ClientContext clientContext = new ClientContext();
+        // for the session's synchronous transactions, null if clients don't register their ids
+        private ClientIdLeases.Lease lease;
+        // one per read the pipeline may have outstanding
+        private final List<ClientIdLeases.Lease> pipelineLeases = new ArrayList<ClientIdLeases.Lease>();
+        // created on the first async call
+        private OperationPipeline pipeline;
+
+        private Session(int servers)
+        {
+            clients = new Cassandra.Client[servers];
+            asyncClients = new Cassandra.AsyncClient[servers];
+        }
+    }
+
+    /**
+     * Every client of a datacenter registers with the same server, the lowest addressed one, over
+     * a connection of its own.
+     */
+    private ClientConnectionPool.Connection registryConnection() throws Exception
+    {
+        InetAddress registry = localAddresses[0];
+        for (InetAddress address : localAddresses) {
+            byte[] bytes = address.getAddress();
+            byte[] registryBytes = registry.getAddress();
+            if (FBUtilities.compareUnsigned(bytes, registryBytes, 0, 0, bytes.length, registryBytes.length) < 0)
+                registry = address;
+        }
+        Entry<String, Integer> ipAndPort = addressToIPAndPort.get(registry);
+        return connectionPool.borrow(ipAndPort.getKey(), ipAndPort.getValue(), keyspace);
+    }
+
+    private OperationPipeline pipeline(Session session)
+    {
+        if (session.pipeline == null) {
+            if (clientIdLeases == null) {
+                session.pipeline = new OperationPipeline(OperationPipeline.DEFAULT_MAX_OUTSTANDING);
+            } else {
+                List<Integer> clientIds = new ArrayList<Integer>(OperationPipeline.DEFAULT_MAX_OUTSTANDING);
+                try {
+                    for (int i = 0; i < OperationPipeline.DEFAULT_MAX_OUTSTANDING; i++) {
+                        ClientIdLeases.Lease lease = clientIdLeases.lease();
+                        session.pipelineLeases.add(lease);
+                        clientIds.add(lease.id());
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException("Could not lease client ids", e);
+                }
+                session.pipeline = new OperationPipeline(OperationPipeline.DEFAULT_MAX_OUTSTANDING, clientIds);
+            }
+        }
+        return session.pipeline;
+    }
+
+    private Session openSession() throws Exception
+    {
+        Session session = new Session(localAddresses.length);
+        for (int i = 0; i < localAddresses.length; i++) {
+            Entry<String, Integer> ipAndPort = addressToIPAndPort.get(localAddresses[i]);
+            ClientConnectionPool.Connection connection = connectionPool.borrow(ipAndPort.getKey(), ipAndPort.getValue(), keyspace);
+            session.connections.add(connection);
+            session.addressToClient.put(connection.address, connection.client);
+            session.addressToAsyncClient.put(connection.address, connection.asyncClient);
+            session.clients[i] = connection.client;
+            session.asyncClients[i] = connection.asyncClient;
+        }
+        if (clientIdLeases != null)
+            session.lease = clientIdLeases.lease();
+        return session;
+    }
+
+    private Session session()
+    {
+        if (!threadSafe)
+            return sharedSession;
+
+        Session session = threadSessions.get();
+        if (session == null) {
+            try {
+                session = openSession();
+            } catch (Exception e) {
+                throw new RuntimeException("Could not connect to the local servers", e);
+            }
+            threadSessions.set(session);
+        }
+        return session;
+    }
+
+    /**
+     * Returns the calling thread's connections to the shared pool.  In thread safe mode the thread
+     * gets a new session (and context) on its next call.
+     */
+    public void releaseConnections()
+    {
+        Session session = threadSafe ? threadSessions.get() : sharedSession;
+        if (session == null)
+            return;
+        for (ClientConnectionPool.Connection connection : session.connections)
+            connectionPool.release(connection);
+        session.connections.clear();
+        session.addressToClient.clear();
+        session.addressToAsyncClient.clear();
+        Arrays.fill(session.clients, null);
+        Arrays.fill(session.asyncClients, null);
+        if (session.pipeline != null) {
+            //operations still in flight finish first, the next async call gets a new pipeline
+            session.pipeline.close();
+            session.pipeline = null;
+        }
+        if (session.lease != null) {
+            clientIdLeases.drop(Collections.singleton(session.lease));
+            clientIdLeases.drop(session.pipelineLeases);
+            session.lease = null;
+            session.pipelineLeases.clear();
+        }
+        if (threadSafe)
+            threadSessions.remove();
+    }
+
+    /**
+     * An async call, made of one thrift call per local server it touches.  It completes (and
+     * frees its place in the pipeline) once every part has answered or failed.
+     */
+    private abstract class AsyncOperation<R> extends OperationPipeline.Operation
+    {
+        protected final Session session;
+        private final OperationPipeline pipeline;
+        private final ValueFuture<R> future = ValueFuture.create();
+        private final AtomicInteger remainingParts;
+        private volatile Exception failure;
+
+        private final Collection<InetAddress> addresses;
+
+        /**
+         * @param addresses the local servers the operation sends a part to
+         */
+        protected AsyncOperation(Session session, boolean isWrite, Collection<InetAddress> addresses)
+        {
+            super(isWrite);
+            this.session = session;
+            this.pipeline = pipeline(session);
+            this.addresses = addresses;
+            this.remainingParts = new AtomicInteger(addresses.size());
+        }
+
+        /**
+         * Sends every part, each on its own connection, which its PooledCallback returns to the pool.
+         */
+        protected abstract void sendParts(int clientId, Map<InetAddress, ClientConnectionPool.Connection> connections);
+
+        /** @return the result of the operation, once all parts have completed successfully */
+        protected abstract R result();
+
+        protected final void send(final int clientId)
+        {
+            final Map<InetAddress, ClientConnectionPool.Connection> connections = new HashMap<InetAddress, ClientConnectionPool.Connection>();
+            for (InetAddress address : addresses) {
+                ClientConnectionPool.Connection connection = borrowIdleConnection(address);
+                if (connection != null)
+                    connections.put(address, connection);
+            }
+            if (connections.size() == addresses.size()) {
+                sendParts(clientId, connections);
+                return;
+            }
+
+            //opening a connection blocks, and send() may be running on a selector thread
+            connectionOpener.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try {
+                        for (InetAddress address : addresses) {
+                            if (!connections.containsKey(address))
+                                connections.put(address, borrowConnection(address));
+                        }
+                    } catch (Exception e) {
+                        logger.warn("Could not connect to a local server", e);
+                        failAll(connections, e);
+                        return;
+                    }
+                    sendParts(clientId, connections);
+                }
+            });
+        }
+
+        /**
+         * Fails every part before any was sent, returning their connections.
+         */
+        protected void failAll(Map<InetAddress, ClientConnectionPool.Connection> connections, Exception e)
+        {
+            for (ClientConnectionPool.Connection connection : connections.values())
+                connectionPool.release(connection);
+            for (int i = 0; i < addresses.size(); i++)
+                partFailed(e);
+        }
+
+        protected void partDone()
+        {
+            if (remainingParts.decrementAndGet() == 0)
+                finish();
+        }
+
+        protected void partFailed(Exception e)
+        {
+            failure = e;
+            partDone();
+        }
+
+        protected void finishIfEmpty()
+        {
+            if (remainingParts.get() == 0)
+                finish();
+        }
+
+        private void finish()
+        {
+            //a read's result adds its deps to the context, which must happen before completed()
+            //sends the writes waiting on it
+            R result = null;
+            if (failure == null) {
+                try {
+                    result = result();
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            pipeline.completed(this);
+            if (failure != null)
+                future.setException(failure);
+            else
+                future.set(result);
+        }
+
+        ListenableFuture<R> submit()
+        {
+            pipeline.submit(this);
+            return future;
+        }
+    }
+
+    /**
+     * Callback for one part of an AsyncOperation, on a connection borrowed from the pool for it.
+     * The connection goes back to the pool once the call completes, or is discarded on an error.
+     */
+    private abstract class PooledCallback<T> implements AsyncMethodCallback<T>
+    {
+        private final AsyncOperation<?> operation;
+        private final ClientConnectionPool.Connection connection;
+
+        protected PooledCallback(AsyncOperation<?> operation, ClientConnectionPool.Connection connection)
+        {
+            this.operation = operation;
+            this.connection = connection;
+        }
+
+        protected abstract void handle(T response) throws Exception;
+
+        public void onComplete(T response)
+        {
+            //the async client is free again as soon as its call completes
+            connectionPool.release(connection);
+            try {
+                handle(response);
+            } catch (Exception e) {
+                operation.partFailed(e);
+                return;
+            }
+            operation.partDone();
+        }
+
+        public void onError(Exception e)
+        {
+            connectionPool.discard(connection);
+            operation.partFailed(e);
+        }
+    }
+
+    private ClientConnectionPool.Connection borrowConnection(InetAddress address)
+    throws Exception
+    {
+        Entry<String, Integer> ipAndPort = addressToIPAndPort.get(address);
+        return connectionPool.borrow(ipAndPort.getKey(), ipAndPort.getValue(), keyspace);
+    }
+
+    /**
+     * @return an idle connection to address, or null if opening one would block
+     */
+    private ClientConnectionPool.Connection borrowIdleConnection(InetAddress address)
+    {
+        Entry<String, Integer> ipAndPort = addressToIPAndPort.get(address);
+        return connectionPool.borrowIdle(ipAndPort.getKey(), ipAndPort.getValue(), keyspace);
+    }
+
     private String printKey(ByteBuffer key)
     {
         try {
@@ -134,54 +475,65 @@ public class ClientLibrary {
 
     private Cassandra.AsyncClient findAsyncClient(ByteBuffer key)
     {
-        List<InetAddress> addrs = ringCache.getEndpoint(key);
-        Cassandra.AsyncClient client = null;
-        for (InetAddress addr : addrs) {
-            if (addressToAsyncClient.containsKey(addr)) {
-                assert client == null : "We should only have 1 match for this key in the local datacenter";
-                client = addressToAsyncClient.get(addr);
-            }
-        }
-        assert client != null : "There must be a match for this key in this datacenter";
-        return client;
+        return session().asyncClients[router.route(key)];
     }
 
-    private Map<Cassandra.AsyncClient, List<ByteBuffer>> partitionByAsyncClients(Collection<ByteBuffer> keys)
+    private InetAddress findLocalAddress(ByteBuffer key)
     {
-        Map<Cassandra.AsyncClient, List<ByteBuffer>> asyncClientToKeys = new HashMap<Cassandra.AsyncClient, List<ByteBuffer>>();
-        for (ByteBuffer key : keys) {
-            Cassandra.AsyncClient asyncClient = findAsyncClient(key);
-            if (!asyncClientToKeys.containsKey(asyncClient)) {
-                asyncClientToKeys.put(asyncClient, new ArrayList<ByteBuffer>());
-            }
-            asyncClientToKeys.get(asyncClient).add(key);
+        return localAddresses[router.route(key)];
+    }
+
+    private Map<InetAddress, List<ByteBuffer>> partitionByAddress(Collection<ByteBuffer> keys)
+    {
+        return router.partition(keys, localAddresses);
+    }
+
+    /**
+     * @return the keys, all sent to the server with the most of them, if read-only transactions
+     * are coordinated server side.  Otherwise the keys as partitioned.
+     */
+    private static <T> Map<T, List<ByteBuffer>> forTransactionCoordinator(Map<T, List<ByteBuffer>> partitionedKeys)
+    {
+        if (!SERVER_SIDE_ROT || partitionedKeys.size() < 2)
+            return partitionedKeys;
+
+        T coordinator = null;
+        List<ByteBuffer> allKeys = new ArrayList<ByteBuffer>();
+        for (Entry<T, List<ByteBuffer>> entry : partitionedKeys.entrySet()) {
+            if (coordinator == null || entry.getValue().size() > partitionedKeys.get(coordinator).size())
+                coordinator = entry.getKey();
+            allKeys.addAll(entry.getValue());
         }
-        return asyncClientToKeys;
+        return Collections.singletonMap(coordinator, allKeys);
     }
 
+    private Map<Cassandra.AsyncClient, List<ByteBuffer>> partitionByAsyncClients(Collection<ByteBuffer> keys)
+    {
+        return router.partition(keys, session().asyncClients);
+    }
 
     private Cassandra.Client findClient(ByteBuffer key)
     {
-        List<InetAddress> addrs = ringCache.getEndpoint(key);
-        Cassandra.Client client = null;
-        for (InetAddress addr : addrs) {
-            if (addressToClient.containsKey(addr)) {
-                assert client == null : "We should only have 1 match for this key in the local datacenter";
-                client = addressToClient.get(addr);
-            }
-        }
-        assert client != null : "There must be a match for this key in this datacenter";
-        return client;
+        return session().clients[router.route(key)];
+    }
+
+    /**
+     * Fetches the ring again, for after servers have joined, left or moved.  Keys routed to a
+     * range with no local server refresh it too.
+     */
+    public void refreshRing()
+    {
+        router.refresh();
     }
 
     public Cassandra.Client getAnyClient()
     {
-        return addressToClient.values().iterator().next();
+        return session().addressToClient.values().iterator().next();
     }
 
     public ClientContext getContext()
     {
-        return clientContext;
+        return session().clientContext;
     }
 
     public List<ColumnOrSuperColumn> get_slice(ByteBuffer key, ColumnParent column_parent, SlicePredicate predicate)
@@ -196,7 +548,7 @@ public class ClientLibrary {
         for (Iterator<ColumnOrSuperColumn> cosc_it = result.value.iterator(); cosc_it.hasNext(); ) {
             ColumnOrSuperColumn cosc = cosc_it.next();
             try {
-                clientContext.addDep(key, cosc);
+                getContext().addDep(key, cosc);
             } catch (NotFoundException nfe) {
                 // we can get exceptions from recently deleted columns that
                 // weren't included in the slice, let's remove them
@@ -291,7 +643,7 @@ public class ClientLibrary {
         //}
         //Split up into one request for each server in the local cluster
         //logger.info("transactional_multiget_slice(allKeys = {}, column_parent = {}, predicate = {}, afterFirstReadWriteHook = {}, afterFirstRoundWriteHook = {})", new Object[]{printKeys(allKeys), column_parent, predicate, afterFirstReadWriteHook, afterFirstRoundWriteHook});
-        Map<Cassandra.AsyncClient, List<ByteBuffer>> asyncClientToFirstRoundKeys = partitionByAsyncClients(allKeys);
+        Map<Cassandra.AsyncClient, List<ByteBuffer>> asyncClientToFirstRoundKeys = forTransactionCoordinator(partitionByAsyncClients(allKeys));
 
         //testing only logic -- ensure we can create a 2 rounds situation by sending 1st round request in at least 2 batches
         /*
@@ -307,7 +659,7 @@ public class ClientLibrary {
             //asyncClientToFirstRoundKeys = partitionByAsyncClients(allKeys.subList(allKeys.size()-1, allKeys.size()));
         }
         if (afterFirstReadWriteHook != null || afterFirstRoundWriteHook != null) {
-            assert clientContext.getDeps().size() == 0 : "you must clear the clientContext before you use these testing hooks";
+            assert getContext().getDeps().size() == 0 : "you must clear the clientContext before you use these testing hooks";
         }
         */
         //Send Round 1 Requests
@@ -315,7 +667,7 @@ public class ClientLibrary {
         //boolean firstIteration = true;
 	//numReadKeys += allKeys.size(); //Khiem: increase num of read keys
 	//numReadTxns++; // Khiem: increase num of read txns
-        long lts = LamportClock.sendTranId(); // snow, new way for generating tranId
+        long lts = getReadTransactionId(); // snow, new way for generating tranId
         for (Entry<Cassandra.AsyncClient, List<ByteBuffer>> entry : asyncClientToFirstRoundKeys.entrySet()) {
             Cassandra.AsyncClient asyncClient = entry.getKey();
             List<ByteBuffer> keysForThisClient = entry.getValue();
@@ -343,7 +695,7 @@ public class ClientLibrary {
 
                     //logger.trace("Issuing afterFirstRead writes during round 1");
                     afterFirstReadWriteHook.issueWrites();
-                    clientContext.clearDeps();
+                    getContext().clearDeps();
 
                     if (laterKeys != null) {
                         BlockingQueueCallback<multiget_slice_call> laterCallback = new BlockingQueueCallback<multiget_slice_call>();
@@ -375,7 +727,7 @@ public class ClientLibrary {
             //logger.trace("Issuing afterFirstRound writes between rounds");
             //HL: We commented this out as we don't need to test this
             //afterFirstRoundWriteHook.issueWrites();
-            //clientContext.clearDeps();
+            //getContext().clearDeps();
         }
         */
 
@@ -485,7 +837,7 @@ public class ClientLibrary {
             for (Iterator<ColumnOrSuperColumn> cosc_it = coscList.iterator(); cosc_it.hasNext(); ) {
                 ColumnOrSuperColumn cosc = cosc_it.next();
                 try {
-                    clientContext.addDep(key, cosc);
+                    getContext().addDep(key, cosc);
                 } catch (NotFoundException nfe) {
                     //remove deleted results, it's okay for all result to be removed
                     cosc_it.remove();
@@ -502,6 +854,70 @@ public class ClientLibrary {
         return keyToResult;
     }
 
+    /**
+     * Non-blocking transactional_multiget_slice.  The read is sent once every earlier write of this
+     * session has completed, and runs concurrently with the session's other reads.
+     */
+    public ListenableFuture<Map<ByteBuffer, List<ColumnOrSuperColumn>>> transactional_multiget_slice_async(List<ByteBuffer> allKeys, final ColumnParent column_parent, final SlicePredicate predicate)
+    {
+        final Map<InetAddress, List<ByteBuffer>> addressToKeys = forTransactionCoordinator(partitionByAddress(allKeys));
+        final Map<ByteBuffer, List<ColumnOrSuperColumn>> keyToResult = new HashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+
+        return new AsyncOperation<Map<ByteBuffer, List<ColumnOrSuperColumn>>>(session(), false, addressToKeys.keySet())
+        {
+            protected void sendParts(int clientId, Map<InetAddress, ClientConnectionPool.Connection> connections)
+            {
+                long lts;
+                try {
+                    //a distinct client id per outstanding read, the servers track one read per client id
+                    lts = clientIdLeases != null ? LamportClock.sendRegisteredTranId(clientId) : LamportClock.sendTranId(clientId);
+                } catch (Exception e) {
+                    failAll(connections, e);
+                    return;
+                }
+
+                for (Entry<InetAddress, List<ByteBuffer>> entry : addressToKeys.entrySet()) {
+                    ClientConnectionPool.Connection connection = connections.get(entry.getKey());
+                    try {
+                        connection.asyncClient.multiget_slice(entry.getValue(), column_parent, predicate, consistencyLevel, lts,
+                                                              new PooledCallback<multiget_slice_call>(this, connection)
+                        {
+                            protected void handle(multiget_slice_call response) throws Exception
+                            {
+                                MultigetSliceResult result = response.getResult();
+                                LamportClock.updateTime(result.lts);
+                                synchronized (keyToResult) {
+                                    keyToResult.putAll(result.value);
+                                }
+                            }
+                        });
+                    } catch (Exception e) {
+                        connectionPool.discard(connection);
+                        partFailed(e);
+                    }
+                }
+                finishIfEmpty();
+            }
+
+            protected Map<ByteBuffer, List<ColumnOrSuperColumn>> result()
+            {
+                //Add dependencies on anything returned and removed deleted columns
+                for (Entry<ByteBuffer, List<ColumnOrSuperColumn>> entry : keyToResult.entrySet()) {
+                    ByteBuffer key = entry.getKey();
+                    for (Iterator<ColumnOrSuperColumn> cosc_it = entry.getValue().iterator(); cosc_it.hasNext(); ) {
+                        ColumnOrSuperColumn cosc = cosc_it.next();
+                        try {
+                            session.clientContext.addDep(key, cosc);
+                        } catch (NotFoundException nfe) {
+                            cosc_it.remove();
+                        }
+                    }
+                }
+                return keyToResult;
+            }
+        }.submit();
+    }
+
     //this version is for micro-benchmarking only
     public Map<ByteBuffer, List<ColumnOrSuperColumn>> forced_2round_multiget_slice(List<ByteBuffer> allKeys, ColumnParent column_parent, SlicePredicate predicate)
     throws Exception
@@ -513,7 +929,7 @@ public class ClientLibrary {
         Map<Cassandra.AsyncClient, List<ByteBuffer>> asyncClientToFirstRoundKeys = partitionByAsyncClients(allKeys);
 
         //Send Round 1 Requests
-        long lts = LamportClock.sendTranId();
+        long lts = getReadTransactionId();
         Queue<BlockingQueueCallback<multiget_slice_call>> firstRoundCallbacks = new LinkedList<BlockingQueueCallback<multiget_slice_call>>();
         for (Entry<Cassandra.AsyncClient, List<ByteBuffer>> entry : asyncClientToFirstRoundKeys.entrySet()) {
             Cassandra.AsyncClient asyncClient = entry.getKey();
@@ -600,7 +1016,7 @@ public class ClientLibrary {
             for (Iterator<ColumnOrSuperColumn> cosc_it = coscList.iterator(); cosc_it.hasNext(); ) {
                 ColumnOrSuperColumn cosc = cosc_it.next();
                 try {
-                    clientContext.addDep(key, cosc);
+                    getContext().addDep(key, cosc);
                 } catch (NotFoundException nfe) {
                     //remove deleted results, it's okay for all result to be removed
                     cosc_it.remove();
@@ -624,7 +1040,7 @@ public class ClientLibrary {
         Map<Cassandra.AsyncClient, List<ByteBuffer>> asyncClientToKeys = partitionByAsyncClients(keys);
 
         //Send Requests
-        long lts = LamportClock.sendTranId();
+        long lts = getReadTransactionId();
         Queue<BlockingQueueCallback<multiget_slice_call>> callbacks = new LinkedList<BlockingQueueCallback<multiget_slice_call>>();
         for (Entry<Cassandra.AsyncClient, List<ByteBuffer>> entry : asyncClientToKeys.entrySet()) {
             Cassandra.AsyncClient asyncClient = entry.getKey();
@@ -650,7 +1066,7 @@ public class ClientLibrary {
                 for (Iterator<ColumnOrSuperColumn> cosc_it = coscList.iterator(); cosc_it.hasNext(); ) {
                     ColumnOrSuperColumn cosc = cosc_it.next();
                     try {
-                        clientContext.addDep(key, cosc);
+                        getContext().addDep(key, cosc);
                     } catch (NotFoundException nfe) {
                         //remove deleted results, it's okay for all result to be removed
                         cosc_it.remove();
@@ -674,7 +1090,7 @@ public class ClientLibrary {
 
         GetResult result = findClient(key).get(key, column_path, consistencyLevel, LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.addDep(key, result.value);
+        getContext().addDep(key, result.value);
         //if (logger.isTraceEnabled()) {
         //    logger.trace("get result = {}", result.value);
         //}
@@ -690,7 +1106,7 @@ public class ClientLibrary {
 
         GetCountResult result = findClient(key).get_count(key, column_parent, predicate, consistencyLevel, LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.addDeps(result.deps);
+        getContext().addDeps(result.deps);
         //if (logger.isTraceEnabled()) {
         //    logger.trace("get_count result = {}", result.value);
         //}
@@ -808,7 +1224,7 @@ public class ClientLibrary {
 
         //Add dependencies from counts we return
         for (Set<Dep> deps : keyToDeps.values()) {
-            clientContext.addDeps(deps);
+            getContext().addDeps(deps);
         }
 
         //if (logger.isTraceEnabled()) {
@@ -851,7 +1267,7 @@ public class ClientLibrary {
             LamportClock.updateTime(result.lts);
             for (Entry<ByteBuffer, CountWithMetadata> entry : result.value.entrySet()) {
                 combinedResults.put(entry.getKey(), entry.getValue().count);
-                clientContext.addDeps(entry.getValue().deps);
+                getContext().addDeps(entry.getValue().deps);
             }
         }
         //if (logger.isTraceEnabled()) {
@@ -914,7 +1330,7 @@ public class ClientLibrary {
             Range<Token> serverRange = entry.getKey();
             InetAddress addr = entry.getValue();
 
-            Cassandra.AsyncClient asyncClient = addressToAsyncClient.get(addr);
+            Cassandra.AsyncClient asyncClient = session().addressToAsyncClient.get(addr);
             if (asyncClient == null) {
                 //this addr is not in the local datacenter
                 continue;
@@ -984,7 +1400,7 @@ public class ClientLibrary {
                 for (Iterator<ColumnOrSuperColumn> cosc_it = coscList.iterator(); cosc_it.hasNext(); ) {
                     ColumnOrSuperColumn cosc = cosc_it.next();
                     try {
-                        clientContext.addDep(key, cosc);
+                        getContext().addDep(key, cosc);
                     } catch (NotFoundException nfe) {
                         //remove deleted results, it's okay for all result to be removed
                         cosc_it.remove();
@@ -1027,7 +1443,7 @@ public class ClientLibrary {
             Range<Token> serverRange = entry.getKey();
             InetAddress addr = entry.getValue();
 
-            Cassandra.AsyncClient asyncClient = addressToAsyncClient.get(addr);
+            Cassandra.AsyncClient asyncClient = session().addressToAsyncClient.get(addr);
             if (asyncClient == null) {
                 //this addr is not in the local datacenter
                 continue;
@@ -1193,7 +1609,7 @@ public class ClientLibrary {
 
         //Add dependencies from counts we return
         for (Set<Dep> deps : keyToDeps.values()) {
-            clientContext.addDeps(deps);
+            getContext().addDeps(deps);
         }
 
         List<KeySlice> combinedResults = new ArrayList<KeySlice>();
@@ -1228,10 +1644,10 @@ public class ClientLibrary {
 
         //Set the timestamp (version) to 0 so the accepting datacenter sets it
         column.timestamp = 0;
-        WriteResult result = findClient(key).insert(key, column_parent, column, consistencyLevel, clientContext.getDeps(), LamportClock.sendTimestamp());
+        WriteResult result = findClient(key).insert(key, column_parent, column, consistencyLevel, getContext().getDeps(), LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.clearDeps();
-        clientContext.addDep(new Dep(key, result.version));
+        getContext().clearDepsAfterWrite();
+        getContext().addDep(new Dep(key, result.version));
     }
 
     public void batch_mutate(Map<ByteBuffer,Map<String,List<Mutation>>> mutation_map)
@@ -1241,20 +1657,7 @@ public class ClientLibrary {
         //    logger.trace("batch_mutate(mutation_map = {})", new Object[]{mutation_map});
         //}
 
-        //mutation_map: key -> columnFamily -> list<mutation>, mutation is a ColumnOrSuperColumn insert or a delete
-        // 0 out all timestamps
-        for (Map<String, List<Mutation>> cfToMutations : mutation_map.values()) {
-            for (List<Mutation> mutations : cfToMutations.values()) {
-                for (Mutation mutation : mutations) {
-                    if (mutation.isSetColumn_or_supercolumn()) {
-                        ColumnOrSuperColumnHelper.updateTimestamp(mutation.column_or_supercolumn, 0);
-                    } else {
-                        assert mutation.isSetDeletion();
-                        mutation.deletion.timestamp = 0L;
-                    }
-                }
-            }
-        }
+        zeroTimestamps(mutation_map);
 
         //split it into a set of batch_mutations, one for each server in the cluster
         Map<Cassandra.AsyncClient, Map<ByteBuffer,Map<String,List<Mutation>>>> asyncClientToMutations = new HashMap<Cassandra.AsyncClient, Map<ByteBuffer,Map<String,List<Mutation>>>>();
@@ -1278,25 +1681,74 @@ public class ClientLibrary {
 
             BlockingQueueCallback<batch_mutate_call> callback = new BlockingQueueCallback<batch_mutate_call>();
             callbacks.add(callback);
-            asyncClient.batch_mutate(mutations, consistencyLevel, clientContext.getDeps(), LamportClock.sendTimestamp(), callback);
+            asyncClient.batch_mutate(mutations, consistencyLevel, getContext().getDeps(), LamportClock.sendTimestamp(), callback);
         }
 
-        clientContext.clearDeps();
+        getContext().clearDepsAfterWrite();
         for (BlockingQueueCallback<batch_mutate_call> callback : callbacks) {
             BatchMutateResult result = callback.getResponseNoInterruption().getResult();
             LamportClock.updateTime(result.lts);
-            clientContext.addDeps(result.deps);
+            getContext().addDeps(result.deps);
         }
     }
 
-    public void transactional_batch_mutate(Map<ByteBuffer,Map<String,List<Mutation>>> mutation_map)
-    throws Exception
+    /**
+     * Non-blocking batch_mutate.  The write is sent once every earlier operation of this session
+     * has completed, so it carries their deps, and later operations wait for it.
+     */
+    public ListenableFuture<Void> batch_mutate_async(Map<ByteBuffer,Map<String,List<Mutation>>> mutation_map)
     {
-        //if (logger.isTraceEnabled()) {
-        //    logger.trace("batch_mutate(mutation_map = {})", new Object[]{mutation_map});
-        //}
+        zeroTimestamps(mutation_map);
 
-        //mutation_map: key -> columnFamily -> list<mutation>, mutation is a ColumnOrSuperColumn insert or a delete
+        //split it into a set of batch_mutations, one for each server in the cluster
+        final Map<InetAddress, Map<ByteBuffer,Map<String,List<Mutation>>>> addressToMutations = new HashMap<InetAddress, Map<ByteBuffer,Map<String,List<Mutation>>>>();
+        for (Entry<ByteBuffer, Map<String,List<Mutation>>> entry : mutation_map.entrySet()) {
+            InetAddress address = findLocalAddress(entry.getKey());
+            if (!addressToMutations.containsKey(address)) {
+                addressToMutations.put(address, new HashMap<ByteBuffer,Map<String,List<Mutation>>>());
+            }
+            addressToMutations.get(address).put(entry.getKey(), entry.getValue());
+        }
+
+        return new AsyncOperation<Void>(session(), true, addressToMutations.keySet())
+        {
+            protected void sendParts(int clientId, Map<InetAddress, ClientConnectionPool.Connection> connections)
+            {
+                //nothing else of this session is outstanding, so the context is ours until we complete
+                Set<Dep> deps = session.clientContext.getDeps();
+                session.clientContext.clearDepsAfterWrite();
+
+                for (Entry<InetAddress, Map<ByteBuffer,Map<String,List<Mutation>>>> entry : addressToMutations.entrySet()) {
+                    ClientConnectionPool.Connection connection = connections.get(entry.getKey());
+                    try {
+                        connection.asyncClient.batch_mutate(entry.getValue(), consistencyLevel, deps, LamportClock.sendTimestamp(),
+                                                            new PooledCallback<batch_mutate_call>(this, connection)
+                        {
+                            protected void handle(batch_mutate_call response) throws Exception
+                            {
+                                BatchMutateResult result = response.getResult();
+                                LamportClock.updateTime(result.lts);
+                                session.clientContext.addDeps(result.deps);
+                            }
+                        });
+                    } catch (Exception e) {
+                        connectionPool.discard(connection);
+                        partFailed(e);
+                    }
+                }
+                finishIfEmpty();
+            }
+
+            protected Void result()
+            {
+                return null;
+            }
+        }.submit();
+    }
+
+    //mutation_map: key -> columnFamily -> list<mutation>, mutation is a ColumnOrSuperColumn insert or a delete
+    private static void zeroTimestamps(Map<ByteBuffer,Map<String,List<Mutation>>> mutation_map)
+    {
         // 0 out all timestamps
         for (Map<String, List<Mutation>> cfToMutations : mutation_map.values()) {
             for (List<Mutation> mutations : cfToMutations.values()) {
@@ -1310,6 +1762,16 @@ public class ClientLibrary {
                 }
             }
         }
+    }
+
+    public void transactional_batch_mutate(Map<ByteBuffer,Map<String,List<Mutation>>> mutation_map)
+    throws Exception
+    {
+        //if (logger.isTraceEnabled()) {
+        //    logger.trace("batch_mutate(mutation_map = {})", new Object[]{mutation_map});
+        //}
+
+        zeroTimestamps(mutation_map);
 
         //split it into a set of batch_mutations, one for each server in the cluster
         Map<Cassandra.AsyncClient, Map<ByteBuffer,Map<String,List<Mutation>>>> asyncClientToMutations = new HashMap<Cassandra.AsyncClient, Map<ByteBuffer,Map<String,List<Mutation>>>>();
@@ -1360,7 +1822,7 @@ public class ClientLibrary {
             if (mutations.containsKey(coordinatorKey)) {
                 coordinatorCallback = new BlockingQueueCallback<transactional_batch_mutate_coordinator_call>();
                 Set<ByteBuffer> allKeys = mutation_map.keySet();
-                asyncClient.transactional_batch_mutate_coordinator(mutations, consistencyLevel, clientContext.getDeps(), coordinatorKey, allKeys, transactionId, LamportClock.sendTimestamp(), coordinatorCallback);
+                asyncClient.transactional_batch_mutate_coordinator(mutations, consistencyLevel, getContext().getDeps(), coordinatorKey, allKeys, transactionId, LamportClock.sendTimestamp(), coordinatorCallback);
             } else {
 		BlockingQueueCallback<transactional_batch_mutate_cohort_call> callback = new BlockingQueueCallback<transactional_batch_mutate_cohort_call>();
                 asyncClient.transactional_batch_mutate_cohort(mutations, coordinatorKey, transactionId, LamportClock.sendTimestamp(), callback);
@@ -1368,10 +1830,10 @@ public class ClientLibrary {
             }
         }
 
-        clientContext.clearDeps();
+        getContext().clearDepsAfterWrite();
         BatchMutateResult result = coordinatorCallback.getResponseNoInterruption().getResult();
         LamportClock.updateTime(result.lts);
-        clientContext.addDeps(result.deps);
+        getContext().addDeps(result.deps);
 
 	// Also wait for cohorts so we can safely reuse these connections
         for (BlockingQueueCallback<transactional_batch_mutate_cohort_call> callback : cohortCallbacks) {
@@ -1405,11 +1867,21 @@ public class ClientLibrary {
 
     private long getTransactionId()
     {
-        //Random 64bit longs should be enough to distinguish ongoing transactions for now
-        //TODO: have client ids and have them increase ... fawn-kv style
+        Session session = session();
+        if (session.lease != null)
+            return session.lease.nextTransactionId();
+        //Random 64bit longs should be enough to distinguish ongoing transactions of unregistered clients
         return randomizer.nextLong();
     }
 
+    private long getReadTransactionId() throws Exception
+    {
+        Session session = session();
+        if (session.lease != null)
+            return session.lease.nextTransactionId();
+        return LamportClock.sendTranId();
+    }
+
     public void remove(ByteBuffer key, ColumnPath column_path)
     throws InvalidRequestException, UnavailableException, TimedOutException, TException
     {
@@ -1418,10 +1890,10 @@ public class ClientLibrary {
         //}
 
         long timestamp = 0;
-        WriteResult result = findClient(key).remove(key, column_path, timestamp, consistencyLevel, clientContext.getDeps(), LamportClock.sendTimestamp());
+        WriteResult result = findClient(key).remove(key, column_path, timestamp, consistencyLevel, getContext().getDeps(), LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.clearDeps();
-        clientContext.addDep(new Dep(key, result.version));
+        getContext().clearDepsAfterWrite();
+        getContext().addDep(new Dep(key, result.version));
     }
 
     public void truncate(String cfname)
@@ -1434,10 +1906,10 @@ public class ClientLibrary {
         // option two sounds better to me
 
         //TODO: Set the timestamp (version) to 0 so the accepting datacenter sets it
-        long returnTime = getAnyClient().truncate(cfname, clientContext.getDeps(), LamportClock.sendTimestamp());
+        long returnTime = getAnyClient().truncate(cfname, getContext().getDeps(), LamportClock.sendTimestamp());
         LamportClock.updateTime(returnTime);
-        clientContext.clearDeps();
-        clientContext.addDep(ClientContext.NOT_YET_SUPPORTED);
+        getContext().clearDepsAfterWrite();
+        getContext().addDep(ClientContext.NOT_YET_SUPPORTED);
     }
 
     public void add(ByteBuffer key, ColumnParent column_parent, CounterColumn column)
@@ -1447,10 +1919,10 @@ public class ClientLibrary {
         //    logger.trace("add(key = {}, column_parent = {}, column = {})", new Object[]{printKey(key),column_parent, column});
         //}
 
-        WriteResult result = findClient(key).add(key, column_parent, column, consistencyLevel, clientContext.getDeps(), LamportClock.sendTimestamp());
+        WriteResult result = findClient(key).add(key, column_parent, column, consistencyLevel, getContext().getDeps(), LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.clearDeps();
-        clientContext.addDep(new Dep(key, result.version));
+        getContext().clearDepsAfterWrite();
+        getContext().addDep(new Dep(key, result.version));
     }
 
     public void remove_counter(ByteBuffer key, ColumnPath path)
@@ -1473,17 +1945,17 @@ public class ClientLibrary {
         //}
 
         //clients must wait until their remove counter has propagated everywhere before reissuing adds to it, so to be "safe" you delete with ALL consistency
-        WriteResult result = findClient(key).remove_counter(key, path, safe ? ConsistencyLevel.ALL : consistencyLevel, clientContext.getDeps(), LamportClock.sendTimestamp());
+        WriteResult result = findClient(key).remove_counter(key, path, safe ? ConsistencyLevel.ALL : consistencyLevel, getContext().getDeps(), LamportClock.sendTimestamp());
         LamportClock.updateTime(result.lts);
-        clientContext.clearDeps();
-        clientContext.addDep(new Dep(key, result.version));
+        getContext().clearDepsAfterWrite();
+        getContext().addDep(new Dep(key, result.version));
     }
 
     public void login(AuthenticationRequest auth_request)
     throws AuthorizationException, TException, AuthenticationException
     {
         //WL TODO: Should I have dependencies on this operation?
-        for (Cassandra.Client client : addressToClient.values()) {
+        for (Cassandra.Client client : session().addressToClient.values()) {
             long returnTime = client.login(auth_request, LamportClock.sendTimestamp());
             LamportClock.updateTime(returnTime);
         }
@@ -1493,7 +1965,7 @@ public class ClientLibrary {
     throws InvalidRequestException, TException
     {
         //WL TODO: Should I have dependencies on this operation?
-        for (Cassandra.Client client : addressToClient.values()) {
+        for (Cassandra.Client client : session().addressToClient.values()) {
             long returnTime = client.set_keyspace(keyspace, LamportClock.sendTimestamp());
             LamportClock.updateTime(returnTime);
         }
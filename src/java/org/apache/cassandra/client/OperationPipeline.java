@@ -0,0 +1,192 @@
+package org.apache.cassandra.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.apache.cassandra.utils.LamportClock;
+
+/**
+ * Orders the asynchronous operations of one client session so they keep the session's causal
+ * order while in flight together:
+ * 1) reads run concurrently, but wait for every earlier write to complete, so they see it
+ * 2) writes wait for every earlier operation to complete, so they carry its deps
+ *
+ * The server keeps only the newest read-only transaction of each client id, which assumes a
+ * client's transactions run one at a time.  So each read in flight gets a client id of its own,
+ * from a set of ids leased from the registry, or taken from LamportClock when clients don't
+ * register.  Ids taken from LamportClock go back to it once the pipeline is closed.
+ *
+ * Operations are sent from the thread that submits them or from the thread completing the
+ * operation they waited for, so send() must not block.
+ */
+public class OperationPipeline
+{
+    public static final int DEFAULT_MAX_OUTSTANDING = Integer.parseInt(System.getProperty("cassandra.client.max_outstanding", "8"));
+
+    public static abstract class Operation
+    {
+        private final boolean isWrite;
+        private int clientId = -1;
+
+        protected Operation(boolean isWrite)
+        {
+            this.isWrite = isWrite;
+        }
+
+        /**
+         * Starts the operation, which must call completed() once it finishes, successfully or not.
+         *
+         * @param clientId the client id to use for read-only transaction ids, unset for writes
+         */
+        protected abstract void send(int clientId);
+    }
+
+    private final Semaphore permits;
+    private final ArrayDeque<Operation> waiting = new ArrayDeque<Operation>();
+    private final ArrayDeque<Integer> freeClientIds = new ArrayDeque<Integer>();
+    // whether the client ids came from LamportClock, and so go back to it on close
+    private final boolean allocatedClientIds;
+    private int outstandingReads = 0;
+    private int outstandingWrites = 0;
+    private boolean closed = false;
+
+    /**
+     * @throws IllegalStateException if LamportClock has too few client ids left
+     */
+    public OperationPipeline(int maxOutstanding)
+    {
+        this(maxOutstanding, allocateClientIds(maxOutstanding), true);
+    }
+
+    /**
+     * @param clientIds one client id per operation that may be outstanding
+     */
+    public OperationPipeline(int maxOutstanding, Collection<Integer> clientIds)
+    {
+        this(maxOutstanding, clientIds, false);
+    }
+
+    private OperationPipeline(int maxOutstanding, Collection<Integer> clientIds, boolean allocatedClientIds)
+    {
+        assert maxOutstanding > 0 && clientIds.size() == maxOutstanding;
+        this.permits = new Semaphore(maxOutstanding);
+        this.allocatedClientIds = allocatedClientIds;
+        freeClientIds.addAll(clientIds);
+    }
+
+    private static List<Integer> allocateClientIds(int count)
+    {
+        List<Integer> clientIds = new ArrayList<Integer>(count);
+        try
+        {
+            for (int i = 0; i < count; i++)
+                clientIds.add(LamportClock.allocateClientId());
+        }
+        catch (IllegalStateException e)
+        {
+            for (int clientId : clientIds)
+                LamportClock.releaseClientId(clientId);
+            throw e;
+        }
+        return clientIds;
+    }
+
+    /**
+     * Queues an operation behind the session's earlier ones, blocking while the session has its
+     * maximum number of operations outstanding.
+     */
+    public void submit(Operation operation)
+    {
+        permits.acquireUninterruptibly();
+        synchronized (this)
+        {
+            if (closed)
+            {
+                permits.release();
+                throw new IllegalStateException("The pipeline is closed");
+            }
+            waiting.add(operation);
+        }
+        sendReady();
+    }
+
+    /**
+     * Takes no more operations.  The ones already submitted still run, and the client ids go back
+     * to LamportClock once the last of them completes.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+            releaseClientIdsIfDone();
+        }
+    }
+
+    public void completed(Operation operation)
+    {
+        synchronized (this)
+        {
+            if (operation.isWrite)
+            {
+                outstandingWrites--;
+            }
+            else
+            {
+                outstandingReads--;
+                freeClientIds.push(operation.clientId);
+            }
+            releaseClientIdsIfDone();
+        }
+        permits.release();
+        sendReady();
+    }
+
+    public synchronized int getOutstanding()
+    {
+        return outstandingReads + outstandingWrites;
+    }
+
+    private void releaseClientIdsIfDone()
+    {
+        assert Thread.holdsLock(this);
+        if (!closed || !waiting.isEmpty() || outstandingReads + outstandingWrites > 0)
+            return;
+        if (allocatedClientIds)
+        {
+            for (int clientId : freeClientIds)
+                LamportClock.releaseClientId(clientId);
+        }
+        freeClientIds.clear();
+    }
+
+    private void sendReady()
+    {
+        List<Operation> ready = new ArrayList<Operation>();
+        synchronized (this)
+        {
+            while (!waiting.isEmpty())
+            {
+                Operation next = waiting.peek();
+                if (outstandingWrites > 0 || (next.isWrite && outstandingReads > 0))
+                    break;
+                waiting.poll();
+                if (next.isWrite)
+                {
+                    outstandingWrites++;
+                }
+                else
+                {
+                    outstandingReads++;
+                    next.clientId = freeClientIds.pop();
+                }
+                ready.add(next);
+            }
+        }
+        for (Operation operation : ready)
+            operation.send(operation.clientId);
+    }
+}
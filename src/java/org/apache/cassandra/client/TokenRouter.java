@@ -0,0 +1,237 @@
+package org.apache.cassandra.client;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Maps keys to the local server that owns them, for routing every key of every operation.
+ *
+ * RingCache finds a key's range with a linear search and returns its endpoints in every
+ * datacenter.  The router flattens the ring once into the right tokens of its ranges, in order,
+ * and the index of the local server owning each range, so routing a key is a binary search that
+ * allocates nothing beyond the key's token.  Partitioning a batch of keys reuses per-thread
+ * scratch arrays and only allocates the lists it hands back.
+ *
+ * Local servers are identified by their index in the array given to the constructor, so callers
+ * can keep their per-server clients in arrays too.  A key whose range has no local owner means the
+ * ring has changed, and the router refreshes it from the RingCache before giving up.
+ */
+public class TokenRouter
+{
+    private final IPartitioner<?> partitioner;
+    private final InetAddress[] servers;
+    private final RingCache ringCache;
+    private volatile Routes routes;
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+    {
+        protected Scratch initialValue()
+        {
+            return new Scratch(servers.length);
+        }
+    };
+
+    private static class Routes
+    {
+        // right (inclusive) token of each range, ascending
+        final Token[] rightTokens;
+        // index of the local server owning each range, -1 if none does
+        final int[] owners;
+
+        Routes(Token[] rightTokens, int[] owners)
+        {
+            this.rightTokens = rightTokens;
+            this.owners = owners;
+        }
+    }
+
+    private static class Scratch
+    {
+        int[] ownerOfKey = new int[64];
+        final int[] keysPerServer;
+        final List<ByteBuffer>[] lists;
+
+        @SuppressWarnings("unchecked")
+        Scratch(int servers)
+        {
+            keysPerServer = new int[servers];
+            lists = (List<ByteBuffer>[]) new List[servers];
+        }
+    }
+
+    public TokenRouter(IPartitioner<?> partitioner, InetAddress[] servers, RingCache ringCache)
+    {
+        this(partitioner, servers, ringCache, ringCache.getRangeMap());
+    }
+
+    // for routing over a fixed ring
+    TokenRouter(IPartitioner<?> partitioner, InetAddress[] servers, Multimap<Range<Token>, InetAddress> rangeMap)
+    {
+        this(partitioner, servers, null, rangeMap);
+    }
+
+    private TokenRouter(IPartitioner<?> partitioner, InetAddress[] servers, RingCache ringCache, Multimap<Range<Token>, InetAddress> rangeMap)
+    {
+        this.partitioner = partitioner;
+        this.servers = servers;
+        this.ringCache = ringCache;
+        build(rangeMap);
+    }
+
+    /**
+     * Fetches the ring again and rebuilds the routes from it.
+     */
+    public synchronized void refresh()
+    {
+        if (ringCache == null)
+            return;
+        ringCache.refreshEndpointMap();
+        build(ringCache.getRangeMap());
+    }
+
+    private void build(Multimap<Range<Token>, InetAddress> rangeMap)
+    {
+        List<Range<Token>> ranges = new ArrayList<Range<Token>>(rangeMap.keySet());
+        Collections.sort(ranges, new Comparator<Range<Token>>()
+        {
+            public int compare(Range<Token> lhs, Range<Token> rhs)
+            {
+                return lhs.right.compareTo(rhs.right);
+            }
+        });
+
+        Token[] rightTokens = new Token[ranges.size()];
+        int[] owners = new int[ranges.size()];
+        for (int i = 0; i < ranges.size(); i++)
+        {
+            Range<Token> range = ranges.get(i);
+            rightTokens[i] = range.right;
+            owners[i] = -1;
+            for (InetAddress endpoint : rangeMap.get(range))
+            {
+                int server = indexOf(endpoint);
+                if (server >= 0)
+                {
+                    assert owners[i] < 0 : "We should only have 1 match for this range in the local datacenter";
+                    owners[i] = server;
+                }
+            }
+        }
+        routes = new Routes(rightTokens, owners);
+    }
+
+    public int servers()
+    {
+        return servers.length;
+    }
+
+    public InetAddress server(int index)
+    {
+        return servers[index];
+    }
+
+    /**
+     * @return the index of the local server owning key
+     */
+    public int route(ByteBuffer key)
+    {
+        Token token = partitioner.getToken(key);
+        int owner = route(routes, token);
+        if (owner < 0)
+        {
+            Routes stale = routes;
+            synchronized (this)
+            {
+                // another thread may have refreshed the ring already
+                if (routes == stale)
+                    refresh();
+            }
+            owner = route(routes, token);
+        }
+        assert owner >= 0 : "There must be a match for this key in this datacenter";
+        return owner;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int route(Routes current, Token token)
+    {
+        Token[] rightTokens = current.rightTokens;
+
+        // the first range ending at or after the token, or the one wrapping around the ring
+        int low = 0;
+        int high = rightTokens.length - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            if (rightTokens[mid].compareTo(token) < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return current.owners[low == rightTokens.length ? 0 : low];
+    }
+
+    /**
+     * Groups keys by their local server, keeping their order within each server.
+     *
+     * @param targets what to key the groups by, indexed like the servers
+     * @return the groups, whose lists belong to the caller
+     */
+    public <T> Map<T, List<ByteBuffer>> partition(Collection<ByteBuffer> keys, T[] targets)
+    {
+        assert targets.length == servers.length;
+        if (keys.isEmpty())
+            return Collections.emptyMap();
+
+        Scratch s = scratch.get();
+        if (s.ownerOfKey.length < keys.size())
+            s.ownerOfKey = new int[Math.max(keys.size(), s.ownerOfKey.length * 2)];
+        int[] ownerOfKey = s.ownerOfKey;
+        int[] keysPerServer = s.keysPerServer;
+        Arrays.fill(keysPerServer, 0);
+
+        int n = 0;
+        int serversTouched = 0;
+        for (ByteBuffer key : keys)
+        {
+            int owner = route(key);
+            ownerOfKey[n++] = owner;
+            if (keysPerServer[owner]++ == 0)
+                serversTouched++;
+        }
+
+        if (serversTouched == 1)
+            return Collections.singletonMap(targets[ownerOfKey[0]], (List<ByteBuffer>) new ArrayList<ByteBuffer>(keys));
+
+        List<ByteBuffer>[] lists = s.lists;
+        Map<T, List<ByteBuffer>> partitioned = new HashMap<T, List<ByteBuffer>>(serversTouched * 2);
+        for (int server = 0; server < servers.length; server++)
+        {
+            if (keysPerServer[server] > 0)
+            {
+                lists[server] = new ArrayList<ByteBuffer>(keysPerServer[server]);
+                partitioned.put(targets[server], lists[server]);
+            }
+        }
+        n = 0;
+        for (ByteBuffer key : keys)
+            lists[ownerOfKey[n++]].add(key);
+        Arrays.fill(lists, null);
+        return partitioned;
+    }
+
+    private int indexOf(InetAddress endpoint)
+    {
+        for (int i = 0; i < servers.length; i++)
+            if (servers[i].equals(endpoint))
+                return i;
+        return -1;
+    }
+}
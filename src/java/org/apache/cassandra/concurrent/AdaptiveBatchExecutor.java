@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands queued items to process() in batches, from a single thread.  A batch is flushed when it
+ * reaches maxBatchSize or when its window has passed since the first item was taken.
+ *
+ * The window adapts to load: it grows while waiting gathers more items, and shrinks back to zero
+ * while it doesn't, so at low load an item is processed as soon as it is queued.  Items that queue
+ * up while a batch is being processed are always picked up together, window or not.
+ */
+public abstract class AdaptiveBatchExecutor<T>
+{
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchExecutor.class);
+
+    // windows below this are not worth waiting for
+    private static final long MIN_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final BlockingQueue<T> queue;
+    private final int maxBatchSize;
+    private final long maxWindowNanos;
+    private volatile long windowNanos = 0;
+
+    public AdaptiveBatchExecutor(String name, int maxBatchSize, long maxWindowInMs)
+    {
+        assert maxBatchSize > 0;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWindowNanos = TimeUnit.MILLISECONDS.toNanos(maxWindowInMs);
+        // a few batches worth of items may wait while one is processed, beyond that adding blocks
+        this.queue = new LinkedBlockingQueue<T>(maxBatchSize * 4);
+
+        Runnable runnable = new Runnable()
+        {
+            public void run()
+            {
+                while (true)
+                {
+                    try
+                    {
+                        List<T> batch = nextBatch();
+                        process(batch);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        continue;
+                    }
+                    catch (Throwable t)
+                    {
+                        logger.error("Error processing batch", t);
+                    }
+                }
+            }
+        };
+        new NamedThreadFactory(name).newThread(runnable).start();
+    }
+
+    protected abstract void process(List<T> batch);
+
+    /**
+     * Queues an item, blocking while the queue is full.
+     */
+    public void add(T item)
+    {
+        boolean interrupted = false;
+        while (true)
+        {
+            try
+            {
+                queue.put(item);
+                break;
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public long getWindowMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(windowNanos);
+    }
+
+    public int getPendingItems()
+    {
+        return queue.size();
+    }
+
+    List<T> nextBatch() throws InterruptedException
+    {
+        List<T> batch = new ArrayList<T>();
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatchSize - batch.size());
+        int drained = batch.size();
+
+        long window = windowNanos;
+        if (window > 0 && batch.size() < maxBatchSize)
+        {
+            long deadline = System.nanoTime() + window;
+            while (batch.size() < maxBatchSize)
+            {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                T next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null)
+                    break;
+                batch.add(next);
+                queue.drainTo(batch, maxBatchSize - batch.size());
+            }
+        }
+
+        adaptWindow(batch.size() - drained, batch.size());
+        return batch;
+    }
+
+    /**
+     * @param waited the items gathered by waiting for the window
+     * @param size the size of the batch
+     */
+    void adaptWindow(int waited, int size)
+    {
+        long window = windowNanos;
+        if (size >= maxBatchSize)
+            return; // flushed on size, the window didn't matter
+        if (waited > 0 || (window == 0 && size > 1))
+            window = Math.min(maxWindowNanos, Math.max(MIN_WINDOW_NANOS, window * 2));
+        else
+            window = window / 2 < MIN_WINDOW_NANOS ? 0 : window / 2;
+        windowNanos = window;
+    }
+}
@@ -27,6 +27,8 @@ import java.util.concurrent.TimeUnit;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
+import org.apache.cassandra.utils.LatencyTracker;
+
 /**
  * This is a wrapper class for the <i>ScheduledThreadPoolExecutor</i>. It provides an implementation
  * for the <i>afterExecute()</i> found in the <i>ThreadPoolExecutor</i> class to log any unexpected 
@@ -39,6 +41,16 @@ public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor i
 
     private final AtomicInteger totalBlocked = new AtomicInteger(0);
     private final AtomicInteger currentBlocked = new AtomicInteger(0);
+    // time from a task being taken off the queue to its completion
+    private final LatencyTracker serviceTime = new LatencyTracker();
+    private final ThreadLocal<long[]> taskStart = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
 
     public JMXEnabledThreadPoolExecutor(String threadPoolName)
     {
@@ -145,6 +157,30 @@ public class JMXEnabledThreadPoolExecutor extends DebuggableThreadPoolExecutor i
         return getTaskCount() - getCompletedTaskCount();
     }
 
+    public long getTotalServiceTimeMicros()
+    {
+        return serviceTime.getTotalLatencyMicros();
+    }
+
+    public double getRecentServiceTimeMicros()
+    {
+        return serviceTime.getRecentLatencyMicros();
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r)
+    {
+        super.beforeExecute(t, r);
+        taskStart.get()[0] = System.nanoTime();
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t)
+    {
+        serviceTime.addNano(System.nanoTime() - taskStart.get()[0]);
+        super.afterExecute(r, t);
+    }
+
     public int getTotalBlockedTasks()
     {
         return totalBlocked.get();
@@ -31,4 +31,15 @@ public interface JMXEnabledThreadPoolExecutorMBean extends IExecutorMBean
      * the executor (because all threads are busy and the backing queue is full).
      */
     public int getCurrentlyBlockedTasks();
+
+    /**
+     * Get the total time tasks have taken to run, from leaving the queue
+     * to completion.
+     */
+    public long getTotalServiceTimeMicros();
+
+    /**
+     * Get the mean time tasks have taken to run since the last call.
+     */
+    public double getRecentServiceTimeMicros();
 }
@@ -0,0 +1,89 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.concurrent;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stage whose tasks run in priority order, then in the order they were submitted.  Tasks given
+ * to execute(Runnable), such as delivered messages, run at NORMAL_PRIORITY.
+ */
+public class PrioritizedThreadPoolExecutor extends JMXConfigurableThreadPoolExecutor
+{
+    public static final int NORMAL_PRIORITY = 0;
+    public static final int HIGH_PRIORITY = 1;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    public PrioritizedThreadPoolExecutor(int corePoolSize,
+                                         long keepAliveTime,
+                                         TimeUnit unit,
+                                         NamedThreadFactory threadFactory,
+                                         String jmxPath)
+    {
+        super(corePoolSize, keepAliveTime, unit, new PriorityBlockingQueue<Runnable>(), threadFactory, jmxPath);
+    }
+
+    @Override
+    public void execute(Runnable task)
+    {
+        execute(task, NORMAL_PRIORITY);
+    }
+
+    public void execute(Runnable task, int priority)
+    {
+        super.execute(new PrioritizedTask(task, priority, sequence.getAndIncrement()));
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t)
+    {
+        // hand on the task itself, so a FutureTask from submit() can still be checked for the
+        // exception it caught
+        super.afterExecute(r instanceof PrioritizedTask ? ((PrioritizedTask) r).task : r, t);
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask>
+    {
+        private final Runnable task;
+        private final int priority;
+        private final long sequence;
+
+        PrioritizedTask(Runnable task, int priority, long sequence)
+        {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run()
+        {
+            task.run();
+        }
+
+        public int compareTo(PrioritizedTask other)
+        {
+            if (priority != other.priority)
+                return priority > other.priority ? -1 : 1;
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
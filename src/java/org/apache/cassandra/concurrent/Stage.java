@@ -34,7 +34,8 @@ public enum Stage
     INTERNAL_RESPONSE,
     READ_REPAIR,
     REPLICATE_ON_WRITE,
-    FETCHID;
+    FETCHID,
+    DEPENDENCY_CHECK;
 
     public String getJmxType()
     {
@@ -53,6 +54,7 @@ public enum Stage
             case REPLICATE_ON_WRITE:
             case READ_REPAIR:
             case FETCHID:
+            case DEPENDENCY_CHECK:
                 return "request";
             default:
                 throw new AssertionError("Unknown stage " + this);
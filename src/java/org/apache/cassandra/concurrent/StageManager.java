@@ -18,8 +18,10 @@
 
 package org.apache.cassandra.concurrent;
 
+import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentDependencyChecks;
 import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentReaders;
 import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentReplicators;
+import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentTxnIdFetches;
 import static org.apache.cassandra.config.DatabaseDescriptor.getConcurrentWriters;
 
 import java.util.EnumMap;
@@ -54,7 +56,13 @@ public class StageManager
         stages.put(Stage.MIGRATION, new JMXEnabledThreadPoolExecutor(Stage.MIGRATION));
         stages.put(Stage.MISC, new JMXEnabledThreadPoolExecutor(Stage.MISC));
         stages.put(Stage.READ_REPAIR, multiThreadedStage(Stage.READ_REPAIR, Runtime.getRuntime().availableProcessors()));
-        stages.put(Stage.FETCHID, multiThreadedConfigurableStage(Stage.FETCHID, Runtime.getRuntime().availableProcessors()));
+        stages.put(Stage.FETCHID, multiThreadedConfigurableStage(Stage.FETCHID, getConcurrentTxnIdFetches()));
+        // replies to satisfied dep checks go ahead of new checks, see AppliedOperations
+        stages.put(Stage.DEPENDENCY_CHECK, new PrioritizedThreadPoolExecutor(getConcurrentDependencyChecks(),
+                                                                             KEEPALIVE,
+                                                                             TimeUnit.SECONDS,
+                                                                             new NamedThreadFactory(Stage.DEPENDENCY_CHECK.getJmxName()),
+                                                                             Stage.DEPENDENCY_CHECK.getJmxType()));
     }
 
     private static ThreadPoolExecutor multiThreadedStage(Stage stage, int numThreads)
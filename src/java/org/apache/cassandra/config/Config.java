@@ -132,6 +132,25 @@ public class Config
     public String row_cache_provider = ConcurrentLinkedHashCacheProvider.class.getSimpleName();
     public int get_transaction_timeout_in_ms = 5000;
     public boolean forced_by_time_read_indirection = false;
+    public int dependency_check_timeout_in_ms = 10000;
+    public int max_blocked_dependency_checks = 100000;
+    public int max_outstanding_dependency_checks = 100000;
+    public boolean batch_local_txn_id_fetches = true;
+    public boolean batch_replicated_dependency_checks = false;
+    public int write_batch_max_size = 1000;
+    public int write_batch_max_window_in_ms = 10;
+    public int previous_version_horizon_in_ms = 0;
+    public int previous_version_sweep_interval_in_ms = 1000;
+    public int previous_version_retention_in_ms = 0;
+    public boolean cache_satisfied_dependencies = true;
+    public int concurrent_dependency_checks = 0;
+    public int concurrent_txn_id_fetches = 0;
+    public boolean prioritize_dependency_check_replies = true;
+    public boolean batch_transaction_messages = false;
+    public boolean parallel_transaction_apply = false;
+    public boolean single_server_transaction_fast_path = true;
+    public int transaction_state_expiry_in_ms = 0;
+    public int client_id_lease_in_ms = 60000;
 
     public static enum CommitLogSync {
         periodic,
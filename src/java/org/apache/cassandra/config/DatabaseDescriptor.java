@@ -446,6 +446,10 @@ public class DatabaseDescriptor
             }
             if (seedProvider.getSeeds().size() == 0)
                 throw new ConfigurationException("The seed provider lists no seeds.");
+
+            if (conf.transaction_state_expiry_in_ms > 0 && conf.transaction_state_expiry_in_ms < getMinTransactionStateExpiryInMs())
+                throw new ConfigurationException("transaction_state_expiry_in_ms must be at least " + getMinTransactionStateExpiryInMs()
+                                                 + ", the previous version retention plus the rpc and get transaction timeouts");
         }
         catch (ConfigurationException e)
         {
@@ -1011,4 +1015,134 @@ public class DatabaseDescriptor
     {
         return conf.forced_by_time_read_indirection;
     }
+
+    public static int getDependencyCheckTimeoutInMs()
+    {
+        return conf.dependency_check_timeout_in_ms;
+    }
+
+    public static int getMaxBlockedDependencyChecks()
+    {
+        return conf.max_blocked_dependency_checks;
+    }
+
+    public static int getMaxOutstandingDependencyChecks()
+    {
+        return conf.max_outstanding_dependency_checks;
+    }
+
+    public static boolean isBatchLocalTxnIdFetches()
+    {
+        return conf.batch_local_txn_id_fetches;
+    }
+
+    public static boolean isBatchReplicatedDependencyChecks()
+    {
+        return conf.batch_replicated_dependency_checks;
+    }
+
+    public static int getWriteBatchMaxSize()
+    {
+        return conf.write_batch_max_size;
+    }
+
+    public static int getWriteBatchMaxWindowInMs()
+    {
+        return conf.write_batch_max_window_in_ms;
+    }
+
+    /**
+     * @return how long a previous version is kept after its last access, the get transaction timeout unless set
+     */
+    public static int getPreviousVersionHorizonInMs()
+    {
+        return conf.previous_version_horizon_in_ms > 0 ? conf.previous_version_horizon_in_ms : conf.get_transaction_timeout_in_ms;
+    }
+
+    public static int getPreviousVersionSweepIntervalInMs()
+    {
+        return conf.previous_version_sweep_interval_in_ms;
+    }
+
+    /**
+     * @return how long compaction keeps a previous version after its last access, never less than the horizon
+     */
+    public static int getPreviousVersionRetentionInMs()
+    {
+        return Math.max(conf.previous_version_retention_in_ms, getPreviousVersionHorizonInMs());
+    }
+
+    public static void setPreviousVersionRetentionInMs(int retentionInMs)
+    {
+        conf.previous_version_retention_in_ms = retentionInMs;
+    }
+
+    public static boolean isCacheSatisfiedDependencies()
+    {
+        return conf.cache_satisfied_dependencies;
+    }
+
+    public static int getConcurrentDependencyChecks()
+    {
+        return conf.concurrent_dependency_checks > 0 ? conf.concurrent_dependency_checks : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static int getConcurrentTxnIdFetches()
+    {
+        return conf.concurrent_txn_id_fetches > 0 ? conf.concurrent_txn_id_fetches : Runtime.getRuntime().availableProcessors();
+    }
+
+    public static boolean isPrioritizeDependencyCheckReplies()
+    {
+        return conf.prioritize_dependency_check_replies;
+    }
+
+    public static boolean isBatchTransactionMessages()
+    {
+        return conf.batch_transaction_messages;
+    }
+
+    public static boolean isParallelTransactionApply()
+    {
+        return conf.parallel_transaction_apply;
+    }
+
+    public static boolean isSingleServerTransactionFastPath()
+    {
+        return conf.single_server_transaction_fast_path;
+    }
+
+    public static void setSingleServerTransactionFastPath(boolean value)
+    {
+        conf.single_server_transaction_fast_path = value;
+    }
+
+    /**
+     * @return how long the commit time of a finished transaction is kept, unless set the larger of
+     * six times the rpc and get transaction timeouts and getMinTransactionStateExpiryInMs()
+     */
+    public static long getTransactionStateExpiryInMs()
+    {
+        if (conf.transaction_state_expiry_in_ms > 0)
+            return conf.transaction_state_expiry_in_ms;
+        return Math.max(6 * Math.max(conf.rpc_timeout_in_ms, conf.get_transaction_timeout_in_ms), getMinTransactionStateExpiryInMs());
+    }
+
+    /**
+     * A transaction's pending columns may be read, and checked against its commit time, for as long
+     * as previous versions are kept, plus a check in flight.  A commit time dropped before then
+     * reads as not yet committed, and moves the pending column's EVT past a write committed long ago.
+     *
+     * @return the shortest transaction_state_expiry_in_ms allowed
+     */
+    public static long getMinTransactionStateExpiryInMs()
+    {
+        return Math.max(getPreviousVersionRetentionInMs(), getPreviousVersionHorizonInMs())
+               + conf.rpc_timeout_in_ms + conf.get_transaction_timeout_in_ms;
+    }
+
+    public static long getClientIdLeaseInMs()
+    {
+        return conf.client_id_lease_in_ms;
+    }
 }
@@ -5,10 +5,26 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.concurrent.PrioritizedThreadPoolExecutor;
+import org.apache.cassandra.concurrent.Stage;
+import org.apache.cassandra.concurrent.StageManager;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,36 +35,324 @@ import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.db.DBConstants;
 import org.xerial.snappy.Snappy;
 
-public class AppliedOperations
+public class AppliedOperations implements AppliedOperationsMBean
 {
     private static Logger logger = LoggerFactory.getLogger(AppliedOperations.class);
 
-    enum OpStatus {
-        PENDING,
-        APPLIED
-    }
+    private static final int EXPIRE_INTERVAL_IN_MS = 1000;
+
+    public static final AppliedOperations instance = new AppliedOperations();
 
     /**
      * Pending Operations are partitioned by node (via it's ShortNodeId that is embedded in timestamps).
      * We know that ops arrive from each node in order here, but can then be processed in a different order
      * because we're multithreaded.  So we can only clean up applied Ops that are older than the oldest of
      * the per-thread newest ops.
+     *
+     * Each origin node keeps a watermark that everything at or below has been applied, so the common
+     * dependency check is a single comparison against a volatile.  None of it takes a lock.
      */
+    static final ConcurrentMap<Short, OriginShard> shortNodeIdToPendingOps = new ConcurrentHashMap<Short, OriginShard>();
+    static final ConcurrentMap<String, AtomicLong> threadIdToNewestOp = new ConcurrentHashMap<String, AtomicLong>();
 
-    static Map<Short, SortedMap<Long, OpStatus>> shortNodeIdToPendingOps = new HashMap<Short, SortedMap<Long, OpStatus>>();
-    static Map<String, Long> threadIdToNewestOp = new HashMap<String, Long>();
+    /**
+     * Blocked dep checks hold on to their message until they are satisfied, so they are bounded both in
+     * time and in number.  A check that times out or doesn't fit under the cap is answered with
+     * DEP_CHECK_RETRY, and its sender checks again later (DepCheckCallback).
+     */
+    private static volatile int dependencyCheckTimeoutInMs = DatabaseDescriptor.getDependencyCheckTimeoutInMs();
+    private static volatile int maxBlockedDependencyChecks = DatabaseDescriptor.getMaxBlockedDependencyChecks();
+    private static final AtomicInteger blockedDependencyChecks = new AtomicInteger();
+    private static final AtomicLong dependencyCheckTimeouts = new AtomicLong();
+    private static final AtomicLong dependencyCheckRejections = new AtomicLong();
+    private static final long REJECTION_WARNING_INTERVAL_IN_MS = 10000;
+    private static final AtomicLong lastRejectionWarning = new AtomicLong();
+    private static final EstimatedHistogram totalWaitHistogram = new EstimatedHistogram();
+    private static final EstimatedHistogram recentWaitHistogram = new EstimatedHistogram();
+
+    // the first byte of a dep check reply, from MessagingService.VERSION_DEP_CHECK_RETRY on
+    public static final byte DEP_CHECK_SATISFIED = 0;
+    public static final byte DEP_CHECK_RETRY = 1;
+
+    private AppliedOperations() {}
+
+    static
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName("org.apache.cassandra.db:type=AppliedOperations"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
 
-    private static class DepCheckReplyInfo
+        Runnable expireBlocked = new Runnable()
+        {
+            public void run()
+            {
+                expireBlockedDepChecks();
+            }
+        };
+        StorageService.scheduledTasks.scheduleWithFixedDelay(expireBlocked, EXPIRE_INTERVAL_IN_MS, EXPIRE_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+    }
+
+    enum OpStatus {
+        PENDING,
+        APPLIED
+    }
+
+    static class OriginShard
+    {
+        // ops above the watermark; applied ones are dropped once the watermark moves past them
+        final ConcurrentSkipListMap<Long, OpStatus> pendingOps = new ConcurrentSkipListMap<Long, OpStatus>();
+        // every op from this origin at or below the watermark has been applied, only written by the advancing thread
+        volatile long appliedWatermark = Long.MIN_VALUE;
+        // requests to advance the watermark; the thread that takes it from 0 advances until no more came in
+        private final AtomicInteger advanceRequests = new AtomicInteger();
+        private volatile long advanceBound = Long.MAX_VALUE;
+        // blocked dep checks keyed by the op they wait for, sorted so a moving watermark releases them in one batch
+        final ConcurrentSkipListMap<Long, Queue<BlockedDep>> blockedDepChecks = new ConcurrentSkipListMap<Long, Queue<BlockedDep>>();
+
+        boolean isApplied(long timestamp)
+        {
+            // an APPLIED entry is only removed after the watermark has moved past it, so read it first
+            return pendingOps.get(timestamp) == OpStatus.APPLIED || timestamp <= appliedWatermark;
+        }
+
+        void addPending(long timestamp)
+        {
+            if (timestamp > appliedWatermark)
+                pendingOps.putIfAbsent(timestamp, OpStatus.PENDING);
+        }
+
+        /**
+         * @return the dep checks that were waiting on this op, or on ops the watermark moved past
+         */
+        List<DepCheckReplyInfo> addApplied(long timestamp, long oldestNewestOp)
+        {
+            if (timestamp > appliedWatermark)
+                pendingOps.put(timestamp, OpStatus.APPLIED);
+            advanceWatermark(oldestNewestOp);
+
+            List<DepCheckReplyInfo> released = release(blockedDepChecks.remove(timestamp), null);
+            if (!blockedDepChecks.isEmpty()) {
+                for (Entry<Long, Queue<BlockedDep>> waiters : blockedDepChecks.headMap(appliedWatermark, true).entrySet()) {
+                    if (blockedDepChecks.remove(waiters.getKey(), waiters.getValue()))
+                        released = release(waiters.getValue(), released);
+                }
+            }
+            return released;
+        }
+
+        private static List<DepCheckReplyInfo> release(Queue<BlockedDep> waiters, List<DepCheckReplyInfo> released)
+        {
+            if (waiters == null)
+                return released;
+            for (BlockedDep waiter : waiters) {
+                if (waiter.claim()) {
+                    if (released == null)
+                        released = new ArrayList<DepCheckReplyInfo>();
+                    released.add(waiter.replyInfo);
+                }
+            }
+            return released;
+        }
+
+        private void advanceWatermark(long oldestNewestOp)
+        {
+            advanceBound = oldestNewestOp;
+            if (advanceRequests.getAndIncrement() != 0)
+                return;
+            int requests;
+            do {
+                requests = advanceRequests.get();
+                advanceWatermarkOnce(advanceBound);
+            } while (!advanceRequests.compareAndSet(requests, 0));
+        }
+
+        private void advanceWatermarkOnce(long oldestNewestOp)
+        {
+            long watermark = appliedWatermark;
+            long lastApplied = watermark;
+            for (Entry<Long, OpStatus> op : pendingOps.entrySet()) {
+                if (op.getKey() <= watermark)
+                    continue; // inserted late, behind the watermark, dropped below
+                if (op.getValue() == OpStatus.PENDING || op.getKey() > oldestNewestOp)
+                    break;
+                lastApplied = op.getKey();
+            }
+            if (lastApplied == watermark)
+                return;
+
+            appliedWatermark = lastApplied;
+            // only remove APPLIED entries, so a late PENDING insert above the old watermark is never lost
+            for (Entry<Long, OpStatus> op : pendingOps.headMap(lastApplied, true).entrySet()) {
+                if (op.getKey() <= watermark || op.getValue() == OpStatus.APPLIED)
+                    pendingOps.remove(op.getKey(), op.getValue());
+            }
+        }
+
+        /**
+         * Registers the dep check and then re-checks the op, so an apply racing with it can't be missed.
+         *
+         * @return false if the op has already been applied and the dep check wasn't blocked
+         */
+        boolean block(long timestamp, DepCheckReplyInfo replyInfo)
+        {
+            BlockedDep waiter = new BlockedDep(replyInfo);
+            enqueue(timestamp, waiter);
+            // if the applying thread claimed it first, it will release the check
+            return !(isApplied(timestamp) && waiter.claim());
+        }
+
+        private void enqueue(long timestamp, BlockedDep waiter)
+        {
+            while (true) {
+                Queue<BlockedDep> waiters = blockedDepChecks.get(timestamp);
+                if (waiters == null) {
+                    waiters = new ConcurrentLinkedQueue<BlockedDep>();
+                    Queue<BlockedDep> existing = blockedDepChecks.putIfAbsent(timestamp, waiters);
+                    if (existing != null)
+                        waiters = existing;
+                }
+                waiters.add(waiter);
+                // the queue may have been taken out of the map meanwhile, then go again, claiming counts once
+                if (blockedDepChecks.get(timestamp) == waiters)
+                    return;
+            }
+        }
+
+        /**
+         * Drops waiters that are past their deadline, or were already finished through another shard.
+         *
+         * @return the waiters that are past their deadline
+         */
+        List<DepCheckReplyInfo> removeExpired(long now)
+        {
+            List<DepCheckReplyInfo> expired = null;
+            for (Entry<Long, Queue<BlockedDep>> entry : blockedDepChecks.entrySet()) {
+                Queue<BlockedDep> waiters = entry.getValue();
+                for (Iterator<BlockedDep> it = waiters.iterator(); it.hasNext(); ) {
+                    BlockedDep waiter = it.next();
+                    if (waiter.replyInfo.isFinished()) {
+                        it.remove();
+                    } else if (waiter.replyInfo.isExpired(now)) {
+                        it.remove();
+                        if (waiter.claim()) {
+                            if (expired == null)
+                                expired = new ArrayList<DepCheckReplyInfo>();
+                            expired.add(waiter.replyInfo);
+                        }
+                    }
+                }
+                if (waiters.isEmpty() && blockedDepChecks.remove(entry.getKey(), waiters)) {
+                    // a waiter that slipped in after the emptiness check is put back, or released if its op got applied
+                    for (BlockedDep waiter : waiters) {
+                        enqueue(entry.getKey(), waiter);
+                        if (isApplied(entry.getKey()) && waiter.claim())
+                            waiter.replyInfo.satisfied();
+                    }
+                }
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * A single dependency of a DependencyCheck that is waiting for its op to be applied.  It may be
+     * released by the applying thread, the checking thread's re-check or expiry, but counts only once.
+     */
+    static class BlockedDep
+    {
+        final DepCheckReplyInfo replyInfo;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        BlockedDep(DepCheckReplyInfo replyInfo)
+        {
+            this.replyInfo = replyInfo;
+        }
+
+        boolean claim()
+        {
+            return released.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * One per received DependencyCheck message.  The reply is sent once, after every
+     * dependency in the message has been satisfied.
+     */
+    static class DepCheckReplyInfo
     {
         private final Message message;
         private final String id;
-        private final ByteBuffer locatorKey;    //HL: keep locator key
-
-        public DepCheckReplyInfo(Message message, String id, ByteBuffer locatorKey)
+        private final List<ByteBuffer> locatorKeys;    //HL: keep locator key
+        private final List<int[]> writeDependencies;
+        private final Set<Short> remoteOrigins;
+        private final AtomicInteger unsatisfied;
+        private final long startTime = System.nanoTime();
+        private final long deadline;
+        // set once the reply is sent or the check is dropped, whichever happens first
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private volatile boolean blocked = false;
+
+        public DepCheckReplyInfo(Message message, String id, List<ByteBuffer> locatorKeys, List<int[]> writeDependencies, Set<Short> remoteOrigins, int unsatisfied, long timeoutInMs)
         {
             this.message = message;
             this.id = id;
-            this.locatorKey = locatorKey;
+            this.locatorKeys = locatorKeys;
+            this.writeDependencies = writeDependencies;
+            this.remoteOrigins = remoteOrigins;
+            this.unsatisfied = new AtomicInteger(unsatisfied);
+            this.deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeoutInMs);
+        }
+
+        public void satisfied()
+        {
+            if (unsatisfied.decrementAndGet() == 0 && finished.compareAndSet(false, true)) {
+                if (blocked) {
+                    long waitMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime);
+                    totalWaitHistogram.add(waitMicros);
+                    recentWaitHistogram.add(waitMicros);
+                    unblocked();
+                }
+                try {
+                    sendDepCheckReply(message, id, locatorKeys, writeDependencies, remoteOrigins);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        /** counts this check as blocked, until it is satisfied or dropped */
+        public void markBlocked()
+        {
+            if (!blocked) {
+                blocked = true;
+                blockedDependencyChecks.incrementAndGet();
+            }
+        }
+
+        /** @return true if the check was dropped here, false if it had already finished */
+        public boolean drop()
+        {
+            if (!finished.compareAndSet(false, true))
+                return false;
+            if (blocked)
+                unblocked();
+            return true;
+        }
+
+        public boolean isFinished()
+        {
+            return finished.get();
+        }
+
+        public boolean isExpired(long now)
+        {
+            return now - deadline >= 0;
         }
 
         public Message getMessage()
@@ -60,43 +364,74 @@ public class AppliedOperations
         {
             return id;
         }
+    }
+
+    private static void unblocked()
+    {
+        blockedDependencyChecks.decrementAndGet();
+    }
 
-        public ByteBuffer getLocatorKey() { return locatorKey; }
+    static void expireBlockedDepChecks()
+    {
+        long now = System.nanoTime();
+        for (OriginShard shard : shortNodeIdToPendingOps.values()) {
+            List<DepCheckReplyInfo> expired = shard.removeExpired(now);
+            if (expired == null)
+                continue;
+            for (DepCheckReplyInfo dcri : expired) {
+                if (dcri.drop()) {
+                    dependencyCheckTimeouts.incrementAndGet();
+                    logger.warn("Dependency check from {} timed out after {} ms", dcri.getMessage().getFrom(), dependencyCheckTimeoutInMs);
+                    sendDepCheckRetry(dcri.getMessage(), dcri.getId());
+                }
+            }
+        }
     }
-    static Map<Long, Queue<DepCheckReplyInfo>> blockedDepChecks = new HashMap<Long, Queue<DepCheckReplyInfo>>();
 
-    private static void updateNewestOp(String threadName, Long opTimestamp)
+    private static OriginShard getShard(long timestamp)
+    {
+        Short shortNodeId = VersionUtil.extractShortNodeId(timestamp);
+        OriginShard shard = shortNodeIdToPendingOps.get(shortNodeId);
+        if (shard == null) {
+            shard = new OriginShard();
+            OriginShard existing = shortNodeIdToPendingOps.putIfAbsent(shortNodeId, shard);
+            if (existing != null)
+                shard = existing;
+        }
+        return shard;
+    }
+
+    private static void updateNewestOp(String threadName, long opTimestamp)
     {
         if (!threadName.contains("MutationStage") && !threadName.contains("RequestResponseStage")) {
             //We ignore updates that aren't mutations, they only show up at system start up and we don't care about them
             logger.debug("Ignoring updateNewestOp for: " + threadName);
             return;
         }
-        Long previousOpTimestamp = threadIdToNewestOp.get(threadName);
+        AtomicLong previousOpTimestamp = threadIdToNewestOp.get(threadName);
         if (previousOpTimestamp == null) {
 	        //Replicated operations get written too, we'll have more writing threads if we have local writers and replicated writers
             //WL TODO: keep the size of threadIdToNewestOp bounded
-            //assert threadIdToNewestOp.size() <= 2*DatabaseDescriptor.getConcurrentWriters() : "Set of writing threads should be static (" + threadIdToNewestOp.size() + ", " + DatabaseDescriptor.getConcurrentWriters() + "), adding " + threadName + " to " + threadIdToNewestOp;
-            threadIdToNewestOp.put(threadName, opTimestamp);
-        } else {
-            if (opTimestamp > previousOpTimestamp) {
-                threadIdToNewestOp.put(threadName, opTimestamp);
-            }
+            previousOpTimestamp = threadIdToNewestOp.putIfAbsent(threadName, new AtomicLong(opTimestamp));
+            if (previousOpTimestamp == null)
+                return;
+        }
+        // only the named thread updates its own entry, so a plain check-then-set is enough
+        if (opTimestamp > previousOpTimestamp.get()) {
+            previousOpTimestamp.set(opTimestamp);
         }
     }
 
-    private static Long oldestNewestOp()
+    private static long oldestNewestOp()
     {
-        Long oldest = Long.MAX_VALUE;
-        for (Long opTimestamp : threadIdToNewestOp.values()) {
-            oldest = Math.min(oldest, opTimestamp);
+        long oldest = Long.MAX_VALUE;
+        for (AtomicLong opTimestamp : threadIdToNewestOp.values()) {
+            oldest = Math.min(oldest, opTimestamp.get());
         }
         return oldest;
     }
 
-    //WL TODO reduce the granularity of synchronization here
-
-    public static synchronized void addPendingOp(ByteBuffer locatorKey, long timestamp)
+    public static void addPendingOp(ByteBuffer locatorKey, long timestamp)
     {
         if (VersionUtil.extractDatacenter(timestamp) == ShortNodeId.getLocalDC()) {
             if (logger.isDebugEnabled())
@@ -109,162 +444,210 @@ public class AppliedOperations
 
         updateNewestOp(Thread.currentThread().getName(), timestamp);
 
-        SortedMap<Long, OpStatus> pendingOps = shortNodeIdToPendingOps.get(VersionUtil.extractShortNodeId(timestamp));
-        if (pendingOps == null) {
-            pendingOps = new TreeMap<Long, OpStatus>();
-            shortNodeIdToPendingOps.put(VersionUtil.extractShortNodeId(timestamp), pendingOps);
-        }
-
-        pendingOps.put(timestamp, OpStatus.PENDING);
+        getShard(timestamp).addPending(timestamp);
     }
 
-    public static synchronized void addAppliedOp(ByteBuffer locatorKey, long timestamp)
+    public static void addAppliedOp(ByteBuffer locatorKey, long timestamp)
     {
-        logger.debug("addAppliedOp called: {}", new Dependency(locatorKey, timestamp));
-
         if (VersionUtil.extractDatacenter(timestamp) == ShortNodeId.getLocalDC()) {
             return;
         }
 
-        logger.debug("Add applied op: {}", new Dependency(locatorKey, timestamp));
+        if (logger.isDebugEnabled())
+            logger.debug("Add applied op: {}", new Dependency(locatorKey, timestamp));
 
         updateNewestOp(Thread.currentThread().getName(), timestamp);
 
-        SortedMap<Long, OpStatus> pendingOps = shortNodeIdToPendingOps.get(VersionUtil.extractShortNodeId(timestamp));
         //Note: We can get applied ops that weren't pending because they don't have deps
-        if (pendingOps == null) {
-            pendingOps = new TreeMap<Long, OpStatus>();
-            shortNodeIdToPendingOps.put(VersionUtil.extractShortNodeId(timestamp), pendingOps);
-        }
-
-        pendingOps.put(timestamp, OpStatus.APPLIED);
-
-        //remove all but one of the prefix of pendingOps that have been applied and are older than the oldest entry in threadIdToNewestOp
-        if (pendingOps.size() > 1) {
-            Iterator<Entry<Long, OpStatus>> firstNeededIt = pendingOps.entrySet().iterator();
-            Entry<Long, OpStatus> firstNeededOp = firstNeededIt.next();
-            Long lastAppliedKey;
-            if (firstNeededOp.getValue() == OpStatus.PENDING) {
-                lastAppliedKey = null;
-            } else {
-                lastAppliedKey = firstNeededOp.getKey();
-            }
-            Long oldestNewestOp = oldestNewestOp();
-            while (firstNeededIt.hasNext()) {
-                firstNeededOp = firstNeededIt.next();
-                if (firstNeededOp.getValue() == OpStatus.PENDING) {
-                    break;
-                } else if (firstNeededOp.getKey() > oldestNewestOp) {
-                    break;
-                } else {
-                    lastAppliedKey = firstNeededOp.getKey();
-                }
-            }
-
-            if (lastAppliedKey != null) {
-                for (Iterator<Entry<Long, OpStatus>> opIt = pendingOps.entrySet().iterator(); opIt.hasNext(); ) {
-                    Entry<Long, OpStatus> op = opIt.next();
-                    if (opIt.hasNext() && op.getKey() != lastAppliedKey) {
-                        opIt.remove();
-                    } else {
-                        break;
-                    }
+        List<DepCheckReplyInfo> released = getShard(timestamp).addApplied(timestamp, oldestNewestOp());
+
+        //respond to any blocked dep checks on this op, or below the watermark
+        if (released != null) {
+            if (DatabaseDescriptor.isPrioritizeDependencyCheckReplies()) {
+                //the replies unblock writes on other nodes, so they go ahead of checks that may only block
+                PrioritizedThreadPoolExecutor stage = (PrioritizedThreadPoolExecutor) StageManager.getStage(Stage.DEPENDENCY_CHECK);
+                for (final DepCheckReplyInfo dcri : released) {
+                    stage.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            dcri.satisfied();
+                        }
+                    }, PrioritizedThreadPoolExecutor.HIGH_PRIORITY);
                 }
-            }
-        }
-
-        //respond to any blocked dep checks on this op
-        Queue<DepCheckReplyInfo> blockedQueue = blockedDepChecks.get(timestamp);
-        if (blockedQueue != null) {
-            for (DepCheckReplyInfo dcri : blockedQueue) {
-                try {
-                    sendDepCheckReply(dcri.getMessage(), dcri.getId(), dcri.getLocatorKey());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            } else {
+                for (DepCheckReplyInfo dcri : released) {
+                    dcri.satisfied();
                 }
             }
         }
     }
 
-    public static synchronized void checkDependency(DependencyCheck depCheck, Message depCheckMessage, String id) {
+    public static void checkDependency(DependencyCheck depCheck, Message depCheckMessage, String id) {
         // now depcheck has a list of dependencies to check, we iterate through them
+        // Don't check dependencies for values written in this DC, we know they've been applied
+        List<Dependency> remoteDeps = new ArrayList<Dependency>(depCheck.getDependencies().size());
+        List<ByteBuffer> locatorKeys = new ArrayList<ByteBuffer>(depCheck.getDependencies().size());
+        Set<Short> remoteOrigins = new HashSet<Short>();
         for (Dependency dep : depCheck.getDependencies()) {
-            // Don't check dependencies for values written in this DC, we know they've been applied
-            if (VersionUtil.extractDatacenter(dep.getTimestamp()) == ShortNodeId.getLocalDC()) {
-                continue;
-            }
-            ByteBuffer locatorKey = dep.getLocatorKey();
-            SortedMap<Long, OpStatus> pendingOps = shortNodeIdToPendingOps.get(VersionUtil.extractShortNodeId(dep.getTimestamp()));
-            if (pendingOps == null || pendingOps.size() == 0) {
-                //no pendingOps => nothing's been received from that node yet
-                blockDepCheck(dep.getTimestamp(), depCheckMessage, id, locatorKey);
-            } else if (pendingOps.get(pendingOps.firstKey()) == OpStatus.PENDING) {
-                //first op pending => nothing's been applied yet
-                blockDepCheck(dep.getTimestamp(), depCheckMessage, id, locatorKey);
-            } else if (dep.getTimestamp() <= pendingOps.firstKey()) {
-                //firstKey and everything older than it have been applied => respond immediately
-                try {
-                    sendDepCheckReply(depCheckMessage, id, locatorKey);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            } else if (dep.getTimestamp() > pendingOps.lastKey()) {
-                //lastKey is the mostly recently received op from this node => hasn't been applied yet
-                blockDepCheck(dep.getTimestamp(), depCheckMessage, id, locatorKey);
-            } else {
-                OpStatus opStatus = pendingOps.get(dep.getTimestamp());
-                if (opStatus == null || opStatus == OpStatus.PENDING) {
-                    blockDepCheck(dep.getTimestamp(), depCheckMessage, id, locatorKey);
-                } else {
-                    try {
-                        sendDepCheckReply(depCheckMessage, id, locatorKey);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+            locatorKeys.add(dep.getLocatorKey());
+            if (VersionUtil.extractDatacenter(dep.getTimestamp()) != ShortNodeId.getLocalDC()) {
+                remoteDeps.add(dep);
+                remoteOrigins.add(VersionUtil.extractShortNodeId(dep.getTimestamp()));
             }
         }
-    }
 
-    private static void blockDepCheck(long timestamp, Message depCheckMessage, String id, ByteBuffer locatorKey)
-    {
-        logger.debug("Block dependency check. (dcm.lt={})", depCheckMessage.getLamportTimestamp());
-
-        //TODO add timeouts to cause an error if they are never satisfied
+        // one extra count is held until every dep has been looked at, so the reply can't go out early
+        DepCheckReplyInfo replyInfo = new DepCheckReplyInfo(depCheckMessage, id, locatorKeys, depCheck.getWriteDependencies(), remoteOrigins, remoteDeps.size() + 1, dependencyCheckTimeoutInMs);
+        for (Dependency dep : remoteDeps) {
+            OriginShard shard = getShard(dep.getTimestamp());
+            //also catches ops applied out of order above the watermark, which must not be shed or counted as blocked
+            if (shard.isApplied(dep.getTimestamp())) {
+                replyInfo.satisfied();
+                continue;
+            }
 
-        Queue<DepCheckReplyInfo> blockedQueue = blockedDepChecks.get(timestamp);
-        if (blockedQueue == null) {
-            blockedQueue = new LinkedList<DepCheckReplyInfo>();
-            blockedDepChecks.put(timestamp, blockedQueue);
+            if (!replyInfo.blocked && blockedDependencyChecks.get() >= maxBlockedDependencyChecks) {
+                // nothing of this check has been registered yet, so dropping it here is all that's needed
+                replyInfo.drop();
+                long rejections = dependencyCheckRejections.incrementAndGet();
+                //this happens in bursts under overload, so warn once per interval and leave the rest to JMX
+                long now = System.currentTimeMillis();
+                long lastWarning = lastRejectionWarning.get();
+                if (now - lastWarning >= REJECTION_WARNING_INTERVAL_IN_MS && lastRejectionWarning.compareAndSet(lastWarning, now))
+                    logger.warn("Dropping dependency checks, {} are already blocked; {} dropped so far", maxBlockedDependencyChecks, rejections);
+                else if (logger.isDebugEnabled())
+                    logger.debug("Dropping dependency check from {}, {} checks are already blocked", depCheckMessage.getFrom(), maxBlockedDependencyChecks);
+                sendDepCheckRetry(depCheckMessage, id);
+                return;
+            }
+            replyInfo.markBlocked();
+            if (shard.block(dep.getTimestamp(), replyInfo)) {
+                logger.debug("Block dependency check. (dcm.lt={})", depCheckMessage.getLamportTimestamp());
+            } else {
+                replyInfo.satisfied();
+            }
         }
-        blockedQueue.add(new DepCheckReplyInfo(depCheckMessage, id, locatorKey));
+        replyInfo.satisfied();
     }
 
     //HL: check and pass along read-only transaction ids when sending dep_check_response back
-    private static void sendDepCheckReply(Message depCheckMessage, String id, ByteBuffer locatorKey) throws IOException
+    private static void sendDepCheckReply(Message depCheckMessage, String id, List<ByteBuffer> locatorKeys, List<int[]> writeDependencies, Set<Short> remoteOrigins) throws IOException
     {
         logger.debug("Send dependency check reply. (dcm.lt={})", depCheckMessage.getLamportTimestamp());
 
-        //HL: now before sending back dep_check response, we find all the txnIds associated with this
-        //locator key, and put this list of ids into message body to be sent back
-        ArrayList<Long> txnIdList = new ArrayList<Long>();
-        txnIdList.addAll(ReadTransactionIdTracker.getReadTxnIds(locatorKey));
+        //HL: now before sending back dep_check response, we find all the txnIds associated with the
+        //locator keys of this check, and put this list of ids into message body to be sent back
         //convert txnIds to byte array and pass it into dep_check reply message
-        int size = DBConstants.intSize + txnIdList.size() * DBConstants.longSize;
-        DataOutputBuffer buffer = new DataOutputBuffer(size);
-        buffer.writeInt(txnIdList.size());
-        for (Long txnId : txnIdList) {
-            buffer.writeLong(txnId);
+        int version = depCheckMessage.getVersion();
+        List<Set<Long>> txnIdLists = new ArrayList<Set<Long>>();
+        if (version >= MessagingService.VERSION_DEP_CHECK_WRITES && !writeDependencies.isEmpty()) {
+            //the ids of each write's own keys, so the sender records them against that write only
+            for (int[] indexes : writeDependencies) {
+                Set<Long> txnIdList = new HashSet<Long>();
+                for (int index : indexes) {
+                    txnIdList.addAll(ReadTransactionIdTracker.getReadTxnIds(locatorKeys.get(index)));
+                }
+                txnIdLists.add(txnIdList);
+            }
+        } else {
+            txnIdLists.add(getReadTxnIds(locatorKeys));
+        }
+
+        byte[] body;
+        if (CompactEncoding.isCompact(version)) {
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            buffer.writeByte(DEP_CHECK_SATISFIED);
+            CompactEncoding.writeUnsignedVarLong(txnIdLists.size(), buffer);
+            for (Set<Long> txnIdList : txnIdLists) {
+                CompactEncoding.writeIds(txnIdList, buffer);
+            }
+            //piggyback our applied watermark of each remote origin checked, so the sender can skip checks
+            //on ops below it (SatisfiedDependencyCache)
+            if (version >= MessagingService.VERSION_DEP_WATERMARKS)
+                CompactEncoding.writeIds(getAppliedWatermarks(remoteOrigins), buffer);
+            body = CompactEncoding.wrap(buffer.getData(), buffer.getLength());
+        } else {
+            int size = 0;
+            if (version >= MessagingService.VERSION_DEP_CHECK_RETRY)
+                size += 1;
+            if (version >= MessagingService.VERSION_DEP_CHECK_WRITES)
+                size += DBConstants.intSize;
+            for (Set<Long> txnIdList : txnIdLists) {
+                size += DBConstants.intSize + txnIdList.size() * DBConstants.longSize;
+            }
+            DataOutputBuffer buffer = new DataOutputBuffer(size);
+            if (version >= MessagingService.VERSION_DEP_CHECK_RETRY)
+                buffer.writeByte(DEP_CHECK_SATISFIED);
+            if (version >= MessagingService.VERSION_DEP_CHECK_WRITES)
+                buffer.writeInt(txnIdLists.size());
+            for (Set<Long> txnIdList : txnIdLists) {
+                buffer.writeInt(txnIdList.size());
+                for (Long txnId : txnIdList) {
+                    buffer.writeLong(txnId);
+                }
+            }
+            body = buffer.getData();
         }
         /* Comment out Eiger's code
         byte[] empty = new byte[0];
         Message reply = depCheckMessage.getReply(FBUtilities.getBroadcastAddress(), empty, depCheckMessage.getVersion());
         MessagingService.instance().sendReply(reply, id, depCheckMessage.getFrom());
         */
-        Message reply = depCheckMessage.getReply(FBUtilities.getBroadcastAddress(), buffer.getData(), depCheckMessage.getVersion());
+        Message reply = depCheckMessage.getReply(FBUtilities.getBroadcastAddress(), body, depCheckMessage.getVersion());
         MessagingService.instance().sendReply(reply, id, depCheckMessage.getFrom());
     }
 
+    private static Set<Long> getReadTxnIds(List<ByteBuffer> locatorKeys)
+    {
+        Set<Long> txnIdList = new HashSet<Long>();
+        for (ByteBuffer locatorKey : locatorKeys) {
+            txnIdList.addAll(ReadTransactionIdTracker.getReadTxnIds(locatorKey));
+        }
+        return txnIdList;
+    }
+
+    /**
+     * Tells the sender of a dep check that was dropped unsatisfied to send it again.  Senders too old to
+     * understand this send it again once their callback expires.
+     */
+    private static void sendDepCheckRetry(Message depCheckMessage, String id)
+    {
+        if (depCheckMessage.getVersion() < MessagingService.VERSION_DEP_CHECK_RETRY)
+            return;
+        try {
+            byte[] body = new byte[]{ DEP_CHECK_RETRY };
+            if (CompactEncoding.isCompact(depCheckMessage.getVersion()))
+                body = CompactEncoding.wrap(body, body.length);
+            Message reply = depCheckMessage.getReply(FBUtilities.getBroadcastAddress(), body, depCheckMessage.getVersion());
+            MessagingService.instance().sendReply(reply, id, depCheckMessage.getFrom());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the applied watermarks of the given remote origins, leaving out those without any applied op
+     */
+    public static List<Long> getAppliedWatermarks(Collection<Short> origins)
+    {
+        List<Long> watermarks = new ArrayList<Long>(origins.size());
+        for (Short origin : origins) {
+            OriginShard shard = shortNodeIdToPendingOps.get(origin);
+            if (shard != null && shard.appliedWatermark != Long.MIN_VALUE)
+                watermarks.add(shard.appliedWatermark);
+        }
+        return watermarks;
+    }
+
+    /**
+     * @return the applied watermarks of all remote origins this node has applied ops from
+     */
+    public static List<Long> getAppliedWatermarks()
+    {
+        return getAppliedWatermarks(shortNodeIdToPendingOps.keySet());
+    }
+
     private static void sendTxnIdsBack(Message fetchIdMessage, String id, Set<ByteBuffer> keyList) throws IOException
     {
         logger.debug("Send dependency check reply. (dcm.lt={})", fetchIdMessage.getLamportTimestamp());
@@ -280,19 +663,30 @@ public class AppliedOperations
             numIds += subTxnIdList.size();
             totalIdList.put(key, subTxnIdList);
         }
-        int size = (numKeys + 1) * DBConstants.intSize + DBConstants.shortSize * numKeys + numIds * DBConstants.longSize;
-        //convert txnIds to byte array and pass it into dep_check reply message
-        DataOutputBuffer buffer = new DataOutputBuffer(size);
-        buffer.writeInt(numKeys);
-        for (Map.Entry<ByteBuffer, ArrayList<Long>> keyids : totalIdList.entrySet()) {
-            buffer.writeInt(keyids.getValue().size());
-            ByteBufferUtil.writeWithShortLength(keyids.getKey(), buffer);
-            for (Long eachid : keyids.getValue()) {
-                buffer.writeLong(eachid);
+        byte[] body;
+        if (CompactEncoding.isCompact(fetchIdMessage.getVersion())) {
+            DataOutputBuffer buffer = new DataOutputBuffer();
+            CompactEncoding.writeUnsignedVarLong(numKeys, buffer);
+            for (Map.Entry<ByteBuffer, ArrayList<Long>> keyids : totalIdList.entrySet()) {
+                CompactEncoding.writeKey(keyids.getKey(), buffer);
+                CompactEncoding.writeIds(keyids.getValue(), buffer);
+            }
+            body = CompactEncoding.wrap(buffer.getData(), buffer.getLength());
+        } else {
+            int size = (numKeys + 1) * DBConstants.intSize + DBConstants.shortSize * numKeys + numIds * DBConstants.longSize;
+            //convert txnIds to byte array and pass it into dep_check reply message
+            DataOutputBuffer buffer = new DataOutputBuffer(size);
+            buffer.writeInt(numKeys);
+            for (Map.Entry<ByteBuffer, ArrayList<Long>> keyids : totalIdList.entrySet()) {
+                buffer.writeInt(keyids.getValue().size());
+                ByteBufferUtil.writeWithShortLength(keyids.getKey(), buffer);
+                for (Long eachid : keyids.getValue()) {
+                    buffer.writeLong(eachid);
+                }
             }
+            body = Snappy.compress(buffer.getData());
         }
-        byte[] compressed = Snappy.compress(buffer.getData());
-        Message reply = fetchIdMessage.getReply(FBUtilities.getBroadcastAddress(), compressed, fetchIdMessage.getVersion());
+        Message reply = fetchIdMessage.getReply(FBUtilities.getBroadcastAddress(), body, fetchIdMessage.getVersion());
         MessagingService.instance().sendReply(reply, id, fetchIdMessage.getFrom());
 
         totalIdList.clear();
@@ -311,4 +705,49 @@ public class AppliedOperations
             throw new RuntimeException(e);
         }
     }
+
+    public int getBlockedDependencyChecks()
+    {
+        return blockedDependencyChecks.get();
+    }
+
+    public long getDependencyCheckTimeouts()
+    {
+        return dependencyCheckTimeouts.get();
+    }
+
+    public long getDependencyCheckRejections()
+    {
+        return dependencyCheckRejections.get();
+    }
+
+    public long[] getTotalDependencyCheckWaitHistogramMicros()
+    {
+        return totalWaitHistogram.getBuckets(false);
+    }
+
+    public long[] getRecentDependencyCheckWaitHistogramMicros()
+    {
+        return recentWaitHistogram.getBuckets(true);
+    }
+
+    public int getDependencyCheckTimeout()
+    {
+        return dependencyCheckTimeoutInMs;
+    }
+
+    public void setDependencyCheckTimeout(int timeoutInMillis)
+    {
+        dependencyCheckTimeoutInMs = timeoutInMillis;
+    }
+
+    public int getMaxBlockedDependencyChecks()
+    {
+        return maxBlockedDependencyChecks;
+    }
+
+    public void setMaxBlockedDependencyChecks(int maxBlocked)
+    {
+        maxBlockedDependencyChecks = maxBlocked;
+    }
 }
@@ -0,0 +1,21 @@
+package org.apache.cassandra.db;
+
+public interface AppliedOperationsMBean
+{
+    /** dependency check messages currently waiting on replicated writes */
+    public int getBlockedDependencyChecks();
+
+    /** dependency checks turned away because they waited longer than the timeout, their senders check again */
+    public long getDependencyCheckTimeouts();
+
+    /** dependency checks turned away because the cap on blocked checks was reached, their senders check again */
+    public long getDependencyCheckRejections();
+
+    public long[] getTotalDependencyCheckWaitHistogramMicros();
+    public long[] getRecentDependencyCheckWaitHistogramMicros();
+
+    public int getDependencyCheckTimeout();
+    public void setDependencyCheckTimeout(int timeoutInMillis);
+    public int getMaxBlockedDependencyChecks();
+    public void setMaxBlockedDependencyChecks(int maxBlocked);
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -56,13 +57,17 @@ public class Column implements IColumn
     protected final ByteBuffer value;
     protected long timestamp;
 
-    protected Long lastAccessTime;
-    protected Long lastAccessTimeOfAPreviousVersion;
-    protected Long earliestValidTime;
-    protected Long latestValidTime;
-    // previousVersions should only be accessed when synchronized on the column
-    // they are in. Avoid deadlocks by synchronizing on columns in evt order
-    NavigableSet<IColumn> previousVersions;
+    // marks an unset time, it is also how unset times are serialized
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    protected long lastAccessTime;
+    protected long lastAccessTimeOfAPreviousVersion;
+    protected long earliestValidTime;
+    protected long latestValidTime;
+    // previousVersions is an immutable chain, replaced with CAS so readers and writers never lock
+    volatile VersionChain previousVersions;
+    private static final AtomicReferenceFieldUpdater<Column, VersionChain> previousVersionsUpdater =
+        AtomicReferenceFieldUpdater.newUpdater(Column.class, VersionChain.class, "previousVersions");
     protected final ByteBuffer transactionCoordinatorKey;
 
     //protected final String constructionStackTrace;
@@ -90,23 +95,7 @@ public class Column implements IColumn
     }
 
 
-    //sorts things so we see newest first
-    protected static class EVTComparator implements Comparator<IColumn>
-    {
-        @Override
-        public int compare(IColumn lhs, IColumn rhs)
-        {
-            if (lhs.earliestValidTime() > rhs.earliestValidTime()) {
-                return -1;
-            } else if (lhs.earliestValidTime() < rhs.earliestValidTime()) {
-                return 1;
-            } else {
-                return 0;
-            }
-        }
-    }
-
-    public Column(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long lastAccessTimeOfAPreviousVersion, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions, ByteBuffer transactionCoordinatorKey)
+    public Column(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long lastAccessTimeOfAPreviousVersion, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions, ByteBuffer transactionCoordinatorKey)
     {
         assert name != null;
         assert value != null;
@@ -119,17 +108,13 @@ public class Column implements IColumn
 //HL        this.lastAccessTime = lastAccessTime;
 	this.lastAccessTime = lastAccessTime == null ? System.currentTimeMillis() : lastAccessTime;	
         
-	this.lastAccessTimeOfAPreviousVersion = lastAccessTimeOfAPreviousVersion;
+	this.lastAccessTimeOfAPreviousVersion = lastAccessTimeOfAPreviousVersion == null ? NO_TIME : lastAccessTimeOfAPreviousVersion;
 	//this.lastAccessTimeOfAPreviousVersion = lastAccessTimeOfAPreviousVersion == null ? System.currentTimeMillis() : lastAccessTimeOfAPreviousVersion;
 
-        this.earliestValidTime = earliestValidTime;
-        this.latestValidTime = latestValidTime;
-        if (previousVersions != null) {
-            this.previousVersions = new TreeSet<IColumn>(new EVTComparator());
-            this.previousVersions.addAll(previousVersions);
-        } else {
-            this.previousVersions = null;
-        }
+        this.earliestValidTime = earliestValidTime == null ? NO_TIME : earliestValidTime;
+        this.latestValidTime = latestValidTime == null ? NO_TIME : latestValidTime;
+        //chains are immutable, so copies of a column can share one
+        this.previousVersions = previousVersions;
         this.transactionCoordinatorKey = transactionCoordinatorKey;
 
         // StringWriter stackTrace = new StringWriter();
@@ -225,7 +210,7 @@ public class Column implements IColumn
     public long earliestValidTime()
     {
         if (sanityCheck) {
-            assert earliestValidTime != null : "earliestValidTime must be set when a value is written which must be before now for " + toString(); // + " created by: " + constructionStackTrace;
+            assert earliestValidTime != NO_TIME : "earliestValidTime must be set when a value is written which must be before now for " + toString(); // + " created by: " + constructionStackTrace;
             long currentTime = LamportClock.currentVersion();
             assert earliestValidTime <= currentTime : "Sanity Check: " + earliestValidTime + " !< " + currentTime + " for " + this; // + " construction: " + constructionStackTrace;
         }
@@ -235,7 +220,7 @@ public class Column implements IColumn
     @Override
     public boolean isSetLatestValidTime()
     {
-        return !(latestValidTime == null);
+        return latestValidTime != NO_TIME;
     }
 
     @Override
@@ -251,13 +236,38 @@ public class Column implements IColumn
         return latestValidTime;
     }
 
-    //to be safe, any operation looking at previousVersions needs to synchronize on this column (in case previousVersions is null)
     @Override
-    public NavigableSet<IColumn> previousVersions()
+    public VersionChain previousVersions()
     {
         return previousVersions;
     }
 
+    /**
+     * Finds the version of this column that was visible at time without locking, in O(log versions).
+     *
+     * @return this column, one of its previous versions, or null if every version we still have is newer
+     */
+    public Column versionAt(long time)
+    {
+        if (earliestValidTime <= time) {
+            return this;
+        }
+        VersionChain chain = previousVersions;
+        return chain == null ? null : (Column) chain.versionAt(time);
+    }
+
+    /**
+     * Reorders previousVersions after the earliestValidTime of one of them moved.
+     */
+    public void resortPreviousVersions()
+    {
+        while (true) {
+            VersionChain current = previousVersions;
+            if (current == null || previousVersionsUpdater.compareAndSet(this, current, current.resort()))
+                return;
+        }
+    }
+
     @Override
     public ByteBuffer transactionCoordinatorKey()
     {
@@ -279,11 +289,10 @@ public class Column implements IColumn
          * + 1 int + if set (transactionCoordinatorKey length + 1) for transactionCoordinatorKey
         */
         int size = DBConstants.shortSize + name.remaining() + 1 + DBConstants.tsSize + DBConstants.intSize + value.remaining() + 4*DBConstants.longSize + DBConstants.intSize;
-        synchronized (this) {
-            if (previousVersions != null) {
-                for (IColumn previousVersion : previousVersions) {
-                    size += previousVersion.serializedSize();
-                }
+        VersionChain chain = previousVersions;
+        if (chain != null) {
+            for (IColumn previousVersion : chain) {
+                size += previousVersion.serializedSize();
             }
         }
         size += DBConstants.intSize + ((transactionCoordinatorKey == null) ? 0 : DBConstants.intSize + transactionCoordinatorKey.remaining());
@@ -363,7 +372,7 @@ public class Column implements IColumn
     {
         //Must be < otherColumn.evt - 1, < this.lvt, >= this.evt
 
-        if (this.latestValidTime != null) {
+        if (this.latestValidTime != NO_TIME) {
             this.latestValidTime = Math.min(otherColumn.earliestValidTime - 1, this.latestValidTime);
         } else {
             this.latestValidTime = otherColumn.earliestValidTime - 1;
@@ -398,86 +407,87 @@ public class Column implements IColumn
         }
     }
 
-    //WL TODO Trigger this after the read txn timeout has passed
-    private void removeOldPreviousVersions()
+    /**
+     * @return the time before which a version's last access no longer lets a read transaction ask for it
+     */
+    public static long previousVersionSafeTime()
     {
-        synchronized (this) {
-            if (this.previousVersions == null) {
-                return;
-            }
+        return System.currentTimeMillis() - DatabaseDescriptor.getPreviousVersionHorizonInMs();
+    }
+
+    private static VersionChain removeOldPreviousVersions(VersionChain chain)
+    {
+        //HL: seems previousVersions list from head to tail is most recent value to least recent value
+        return chain.withoutAccessedBefore(previousVersionSafeTime());
+    }
 
-	    //HL: User our own safty timer
-            long safeTime = System.currentTimeMillis() - 5000;
-            //long safeTime = System.currentTimeMillis() - DatabaseDescriptor.getGetTransactionTimeoutInMs();
-
-	    //HL: seems previousVersions list from head to tail is most recent value to least recent value
-            //So we use descendingIterator to navigate from the tail.
-            Iterator<IColumn> prevVersionIt = this.previousVersions.iterator();
-            while (prevVersionIt.hasNext()) {
-                IColumn prevVersion = prevVersionIt.next();
-       //         logger.info("old version time = {}", prevVersion.lastAccessTime());
-       //         logger.info("safetime = {}", safeTime);
-       //         logger.info("earliest valid time = {}", prevVersion.earliestValidTime());
-                if (prevVersion.lastAccessTime() < safeTime) {
-                    prevVersionIt.remove();
-prevVersion = null;
-                } else {
-                    // lastAccessTimeOfAPreviousVersions are monotonically increasing so nothing else can be cleaned now
-                    return;
-                }
+    /**
+     * Drops the previous versions no read transaction can still ask for, the same way a write
+     * does when it replaces this column.  Called by PreviousVersionSweeper for columns that are
+     * not written to again.
+     *
+     * @return the number of versions dropped
+     */
+    public int reclaimPreviousVersions(long safeTime)
+    {
+        while (true) {
+            VersionChain current = previousVersions;
+            if (current == null) {
+                return 0;
             }
-/*
-            Iterator<IColumn> prevVersionIt = this.previousVersions.iterator();
-            while (prevVersionIt.hasNext()) {
-                IColumn prevVersion = prevVersionIt.next();
-
-                if (prevVersion.lastAccessTimeOfAPreviousVersion() < safeTime) {
-                    prevVersionIt.remove();
-                } else {
-                    // lastAccessTimeOfAPreviousVersions are monotonically increasing so nothing else can be cleaned now
-                    return;
-                }
+            VersionChain kept = current.withoutAccessedBefore(safeTime);
+            if (kept == current) {
+                return 0;
+            }
+            if (previousVersionsUpdater.compareAndSet(this, current, kept.isEmpty() ? null : kept)) {
+                return current.size() - kept.size();
             }
-*/
         }
     }
 
+    /**
+     * @return the serialized size of the previous versions this column holds
+     */
+    public long previousVersionsSize()
+    {
+        VersionChain chain = previousVersions;
+        if (chain == null) {
+            return 0;
+        }
+        long size = 0;
+        for (IColumn previousVersion : chain) {
+            size += previousVersion.serializedSize();
+        }
+        return size;
+    }
+
     private void addPreviousVersion(Column previousColumn)
     {
         //WL TODO: Add just a minimal "OldColumn" here?
 
-        synchronized (this) {
-            if (this.previousVersions == null) {
-                //TODO: could special case to reduce synchronization
-                synchronized (previousColumn) {
-                    if (previousColumn.previousVersions == null) {
-                        this.previousVersions = new TreeSet<IColumn>(new EVTComparator());
-                    } else {
-                        previousColumn.removeOldPreviousVersions();
-                        this.previousVersions = previousColumn.previousVersions;
-                        previousColumn.previousVersions = null;
-                    }
-                }
-                this.previousVersions.add(previousColumn);
-            } else {
-                this.previousVersions.add(previousColumn);
-                //TODO: could special case to reduce synchronization
-                synchronized (previousColumn) {
-                    if (previousColumn.previousVersions != null) {
-                        previousColumn.removeOldPreviousVersions();
-                        this.previousVersions.addAll(previousColumn.previousVersions);
-                        previousColumn.previousVersions = null;
-                    }
-                }
+        //previousColumn is no longer visible, so its versions move over to this column
+        VersionChain inherited = previousVersionsUpdater.getAndSet(previousColumn, null);
+        if (inherited != null) {
+            inherited = removeOldPreviousVersions(inherited);
+        }
+
+        while (true) {
+            VersionChain current = previousVersions;
+            VersionChain updated = (current == null ? VersionChain.EMPTY : current).with(previousColumn);
+            if (inherited != null) {
+                updated = updated.withAll(inherited);
+            }
+            if (previousVersionsUpdater.compareAndSet(this, current, updated)) {
+                return;
             }
         }
     }
 
-    private Long nullSafeMax(Long a, Long b)
+    private long nullSafeMax(long a, long b)
     {
-        if (a == null)
+        if (a == NO_TIME)
             return b;
-        if (b == null)
+        if (b == NO_TIME)
             return a;
         return a > b ? a : b;
     }
@@ -491,7 +501,7 @@ prevVersion = null;
 
         // Special Cases
         //TODO: Understand this HACK, added to avoid an occasional error during compaction, delete to make it reappear
-        if (previousColumn.earliestValidTime == null) {
+        if (previousColumn.earliestValidTime == NO_TIME) {
             return this;
         }
 
@@ -513,8 +523,8 @@ prevVersion = null;
 	//HL
 //	addPreviousVersion(previousColumn);
 
-	if (previousColumn.lastAccessTimeOfAPreviousVersion == null ||
-	    previousColumn.lastAccessTimeOfAPreviousVersion > System.currentTimeMillis() - 5000) {
+	if (previousColumn.lastAccessTimeOfAPreviousVersion == NO_TIME ||
+	    previousColumn.lastAccessTimeOfAPreviousVersion > previousVersionSafeTime()) {
             //need to keep the older version for potential get_by_time
             addPreviousVersion(previousColumn);
 //            logger.debug("Saving an old version:" + previousColumn);
@@ -576,9 +586,7 @@ prevVersion = null;
     @Override
     public IColumn localCopy(ColumnFamilyStore cfs, Allocator allocator)
     {
-        synchronized (this) {
-            return new Column(cfs.internOrCopy(name, allocator), allocator.clone(value), timestamp, lastAccessTime, lastAccessTimeOfAPreviousVersion, earliestValidTime, latestValidTime, previousVersions, transactionCoordinatorKey);
-        }
+        return new Column(cfs.internOrCopy(name, allocator), allocator.clone(value), timestamp, lastAccessTime, lastAccessTimeOfAPreviousVersion, earliestValidTime, latestValidTime, previousVersions, transactionCoordinatorKey);
     }
 
     @Override
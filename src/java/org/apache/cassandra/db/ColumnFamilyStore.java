@@ -94,6 +94,7 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
     {
         // (can block if flush queue fills up, so don't put on scheduledTasks)
         StorageService.optionalTasks.scheduleWithFixedDelay(new MeteredFlusher(), 1000, 1000, TimeUnit.MILLISECONDS);
+        PreviousVersionSweeper.start();
     }
 
     public final Table table;
@@ -761,6 +762,26 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         }
     }
 
+    /**
+     * Drops the previous versions last accessed before safeTime from the columns of cf, which
+     * must not be shared with readers (a row read back for compaction, not a memtable row).
+     */
+    public static void removeOldPreviousVersions(ColumnFamily cf, long safeTime)
+    {
+        for (IColumn c : cf)
+        {
+            if (c instanceof SuperColumn)
+            {
+                for (IColumn subColumn : c.getSubColumns())
+                    ((Column) subColumn).reclaimPreviousVersions(safeTime);
+            }
+            else
+            {
+                ((Column) c).reclaimPreviousVersions(safeTime);
+            }
+        }
+    }
+
     private static void removeDeletedSuper(ColumnFamily cf, int gcBefore)
     {
         // TODO assume deletion means "most are deleted?" and add to clone, instead of remove from original?
@@ -912,6 +933,20 @@ public class ColumnFamilyStore implements ColumnFamilyStoreMBean
         return getMemtableThreadSafe().getLiveSize();
     }
 
+    public long getPreviousVersionBytes()
+    {
+        return getMemtableThreadSafe().getPreviousVersionBytes();
+    }
+
+    /**
+     * Drops expired previous versions from the current memtable, see Memtable.sweepPreviousVersions.
+     * Memtables pending flush are left alone, they are about to go away.
+     */
+    int sweepPreviousVersions(long safeTime, int maxRows)
+    {
+        return getMemtableThreadSafe().sweepPreviousVersions(safeTime, maxRows);
+    }
+
     public long getTotalMemtableLiveSize()
     {
         return getMemtableDataSize() + indexManager.getTotalLiveSize();
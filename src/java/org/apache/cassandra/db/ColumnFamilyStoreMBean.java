@@ -49,6 +49,15 @@ public interface ColumnFamilyStoreMBean
      */
     public long getMemtableColumnsCount();
 
+    /**
+     * Returns the serialized size of the previous versions of columns that
+     * the memtable keeps for read-only transactions, as of the last sweep.
+     * getMemtableDataSize includes it.
+     *
+     * @return The size in bytes.
+     */
+    public long getPreviousVersionBytes();
+
     /**
      * Returns the number of times that a flush has resulted in the
      * memtable being switched out.
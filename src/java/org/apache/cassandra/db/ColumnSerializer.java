@@ -25,11 +25,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.NavigableSet;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
-import org.apache.cassandra.db.Column.EVTComparator;
 import org.apache.cassandra.db.transaction.PendingTransactionColumn;
 import org.apache.cassandra.io.IColumnSerializer;
 import org.apache.cassandra.io.util.FileDataInput;
@@ -65,24 +61,22 @@ public class ColumnSerializer implements IColumnSerializer
                 dos.writeInt(column.getLocalDeletionTime());
             }
             dos.writeLong(column.timestamp());
-            ByteBufferUtil.writeWithLength(column.value(), dos);
+            // Column.value() counts as an access, writing a version out (to an sstable, or another node) must not
+            ByteBufferUtil.writeWithLength(column instanceof Column ? ((Column) column).value : column.value(), dos);
             if (column instanceof Column)
             {
                 Column col = (Column) column;
-                dos.writeLong(col.lastAccessTime != null ? col.lastAccessTime : Long.MIN_VALUE);
-                dos.writeLong(col.lastAccessTimeOfAPreviousVersion != null ? col.lastAccessTimeOfAPreviousVersion : Long.MIN_VALUE);
-                dos.writeLong(col.earliestValidTime != null ? col.earliestValidTime : Long.MIN_VALUE);
-                dos.writeLong(col.latestValidTime != null ? col.latestValidTime : Long.MIN_VALUE);
-                synchronized (col) {
-                    if (col.previousVersions == null) {
-                        dos.writeInt(-1);
-                    } else {
-                        dos.writeInt(col.previousVersions.size());
-                        if (col.previousVersions != null) {
-                            for (IColumn prevVersion : col.previousVersions) {
-                                serialize(prevVersion, dos);
-                            }
-                        }
+                dos.writeLong(col.lastAccessTime);
+                dos.writeLong(col.lastAccessTimeOfAPreviousVersion);
+                dos.writeLong(col.earliestValidTime);
+                dos.writeLong(col.latestValidTime);
+                VersionChain previousVersions = col.previousVersions;
+                if (previousVersions == null) {
+                    dos.writeInt(-1);
+                } else {
+                    dos.writeInt(previousVersions.size());
+                    for (IColumn prevVersion : previousVersions) {
+                        serialize(prevVersion, dos);
                     }
                 }
                 if (col.transactionCoordinatorKey != null) {
@@ -145,14 +139,14 @@ public class ColumnSerializer implements IColumnSerializer
             if (earliestValidTime == Long.MIN_VALUE) { earliestValidTime = null; }
             Long latestValidTime = dis.readLong();
             if (latestValidTime == Long.MIN_VALUE) { latestValidTime = null; }
-            NavigableSet<IColumn> previousVersions;
+            VersionChain previousVersions;
             int previousVersionsLength = dis.readInt();
             if (previousVersionsLength == -1) {
                 previousVersions = null;
             } else {
-                previousVersions = new TreeSet<IColumn>(new EVTComparator());
+                previousVersions = VersionChain.EMPTY;
                 for (int i = 0; i < previousVersionsLength; ++i) {
-                    previousVersions.add(deserialize(dis));
+                    previousVersions = previousVersions.with(deserialize(dis));
                 }
             }
             int transactionCoordinatorKeyLength = dis.readInt();
@@ -177,14 +171,14 @@ public class ColumnSerializer implements IColumnSerializer
             if (earliestValidTime == Long.MIN_VALUE) { earliestValidTime = null; }
             Long latestValidTime = dis.readLong();
             if (latestValidTime == Long.MIN_VALUE) { latestValidTime = null; }
-            SortedSet<IColumn> previousVersions;
+            VersionChain previousVersions;
             int previousVersionsLength = dis.readInt();
             if (previousVersionsLength == -1) {
                 previousVersions = null;
             } else {
-                previousVersions = new TreeSet<IColumn>(new EVTComparator());
+                previousVersions = VersionChain.EMPTY;
                 for (int i = 0; i < previousVersionsLength; ++i) {
-                    previousVersions.add(deserialize(dis));
+                    previousVersions = previousVersions.with(deserialize(dis));
                 }
             }
             int transactionCoordinatorKeyLength = dis.readInt();
@@ -207,14 +201,14 @@ public class ColumnSerializer implements IColumnSerializer
             if (earliestValidTime == Long.MIN_VALUE) { earliestValidTime = null; }
             Long latestValidTime = dis.readLong();
             if (latestValidTime == Long.MIN_VALUE) { latestValidTime = null; }
-            NavigableSet<IColumn> previousVersions;
+            VersionChain previousVersions;
             int previousVersionsLength = dis.readInt();
             if (previousVersionsLength == -1) {
                 previousVersions = null;
             } else {
-                previousVersions = new TreeSet<IColumn>(new EVTComparator());
+                previousVersions = VersionChain.EMPTY;
                 for (int i = 0; i < previousVersionsLength; ++i) {
-                    previousVersions.add(deserialize(dis));
+                    previousVersions = previousVersions.with(deserialize(dis));
                 }
             }
             int transactionCoordinatorKeyLength = dis.readInt();
@@ -0,0 +1,341 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.xerial.snappy.Snappy;
+
+/**
+ * The compact wire format of dep checks, txn id fetches and their replies, used from
+ * MessagingService.VERSION_COMPACT_DEPS on.
+ *
+ * Versions and txn ids both have the form (time << 16) + id, where id is the origin node or the
+ * client.  Values are grouped by id; the message carries the smallest time once, and each value
+ * is written as a varint delta from the previous time in its group.  Keys
+ * are written with a varint length.  Bodies past COMPRESSION_THRESHOLD bytes are Snappy
+ * compressed, flagged by a leading byte.
+ */
+public class CompactEncoding
+{
+    private static final int COMPRESSION_THRESHOLD = 1024;
+    private static final byte UNCOMPRESSED = 0;
+    private static final byte SNAPPY = 1;
+
+    private CompactEncoding()
+    {
+        //just helper methods, don't instantiate
+    }
+
+    public static boolean isCompact(int version)
+    {
+        return version >= MessagingService.VERSION_COMPACT_DEPS;
+    }
+
+    public static void writeUnsignedVarLong(long value, DataOutput out) throws IOException
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readUnsignedVarLong(DataInput in) throws IOException
+    {
+        long value = 0;
+        int shift = 0;
+        while (true)
+        {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+            shift += 7;
+            if (shift > 63)
+                throw new IOException("Malformed varint");
+        }
+    }
+
+    public static void writeSignedVarLong(long value, DataOutput out) throws IOException
+    {
+        // zigzag, so small negative numbers stay short
+        writeUnsignedVarLong((value << 1) ^ (value >> 63), out);
+    }
+
+    public static long readSignedVarLong(DataInput in) throws IOException
+    {
+        long raw = readUnsignedVarLong(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    public static int readCount(DataInput in) throws IOException
+    {
+        long count = readUnsignedVarLong(in);
+        if (count < 0 || count > Integer.MAX_VALUE)
+            throw new IOException("Invalid count " + count);
+        return (int) count;
+    }
+
+    public static void writeKey(ByteBuffer key, DataOutput out) throws IOException
+    {
+        writeUnsignedVarLong(key.remaining(), out);
+        ByteBufferUtil.write(key, out);
+    }
+
+    public static ByteBuffer readKey(DataInput in) throws IOException
+    {
+        byte[] key = new byte[readCount(in)];
+        in.readFully(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static long time(long value)
+    {
+        return value >> 16;
+    }
+
+    private static int id(long value)
+    {
+        return (int) (value & 0xFFFF);
+    }
+
+    private static final long TIME_MASK = (1L << 48) - 1;
+    private static final long TIME_BIAS = 1L << 47;
+
+    /**
+     * The id in the top 16 bits and the time, biased to sort as unsigned, below: sorting these
+     * groups values by id, ordered by time within each group.
+     */
+    private static long toSortKey(long value)
+    {
+        return ((long) id(value) << 48) | ((value >>> 16) ^ TIME_BIAS);
+    }
+
+    private static long fromSortKey(long key)
+    {
+        return (((key & TIME_MASK) ^ TIME_BIAS) << 16) | (key >>> 48);
+    }
+
+    /**
+     * Writes txn ids (or versions) grouped by their low 16 bits, with delta-encoded times.
+     */
+    public static void writeIds(Collection<Long> ids, DataOutput out) throws IOException
+    {
+        writeUnsignedVarLong(ids.size(), out);
+        if (ids.isEmpty())
+            return;
+
+        long[] sorted = new long[ids.size()];
+        int n = 0;
+        long base = Long.MAX_VALUE;
+        for (Long id : ids)
+        {
+            sorted[n++] = toSortKey(id);
+            base = Math.min(base, time(id));
+        }
+        Arrays.sort(sorted);
+
+        // at most 10 bytes per varint: the base, plus the id and size of every group and a delta per id
+        byte[] buffer = new byte[10 * (1 + 3 * sorted.length)];
+        int length = putUnsignedVarLong((base << 1) ^ (base >> 63), buffer, 0);
+        int start = 0;
+        while (start < sorted.length)
+        {
+            long id = sorted[start] >>> 48;
+            int end = start + 1;
+            while (end < sorted.length && sorted[end] >>> 48 == id)
+                end++;
+            length = putUnsignedVarLong(id, buffer, length);
+            length = putUnsignedVarLong(end - start, buffer, length);
+            long previous = base;
+            for (int i = start; i < end; i++)
+            {
+                long time = time(fromSortKey(sorted[i]));
+                length = putUnsignedVarLong(time - previous, buffer, length);
+                previous = time;
+            }
+            start = end;
+        }
+        out.write(buffer, 0, length);
+    }
+
+    private static int putUnsignedVarLong(long value, byte[] buffer, int offset)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    public static void readIds(DataInput in, Collection<Long> ids) throws IOException
+    {
+        int remaining = readCount(in);
+        if (remaining == 0)
+            return;
+
+        long base = readSignedVarLong(in);
+        while (remaining > 0)
+        {
+            long id = readUnsignedVarLong(in);
+            int groupSize = readCount(in);
+            if (id > 0xFFFF || groupSize == 0 || groupSize > remaining)
+                throw new IOException("Malformed id group");
+            long time = base;
+            for (int i = 0; i < groupSize; i++)
+            {
+                time += readUnsignedVarLong(in);
+                ids.add((time << 16) | id);
+            }
+            remaining -= groupSize;
+        }
+    }
+
+    /**
+     * Writes dependencies grouped by the origin node of their version.  Dependencies keep their
+     * order within a group, so times are written as signed deltas.
+     */
+    public static void writeDependencies(List<Dependency> dependencies, DataOutput out) throws IOException
+    {
+        writeUnsignedVarLong(dependencies.size(), out);
+        if (dependencies.isEmpty())
+            return;
+
+        // (id << 32) + index, sorting these groups by id without reordering within a group
+        long[] order = new long[dependencies.size()];
+        long base = Long.MAX_VALUE;
+        int keyBytes = 0;
+        for (int i = 0; i < order.length; i++)
+        {
+            Dependency dep = dependencies.get(i);
+            order[i] = ((long) id(dep.getTimestamp()) << 32) | i;
+            base = Math.min(base, time(dep.getTimestamp()));
+            keyBytes += dep.getLocatorKey().remaining();
+        }
+        Arrays.sort(order);
+
+        // at most 10 bytes per varint: the base, plus the id and size of every group, and a delta and key length per dependency
+        byte[] buffer = new byte[10 * (1 + 4 * order.length) + keyBytes];
+        int length = putUnsignedVarLong((base << 1) ^ (base >> 63), buffer, 0);
+        int start = 0;
+        while (start < order.length)
+        {
+            long id = order[start] >>> 32;
+            int end = start + 1;
+            while (end < order.length && order[end] >>> 32 == id)
+                end++;
+            length = putUnsignedVarLong(id, buffer, length);
+            length = putUnsignedVarLong(end - start, buffer, length);
+            long previous = base;
+            for (int i = start; i < end; i++)
+            {
+                Dependency dep = dependencies.get((int) order[i]);
+                long time = time(dep.getTimestamp());
+                long delta = time - previous;
+                length = putUnsignedVarLong((delta << 1) ^ (delta >> 63), buffer, length);
+                ByteBuffer key = dep.getLocatorKey();
+                length = putUnsignedVarLong(key.remaining(), buffer, length);
+                ByteBufferUtil.arrayCopy(key, key.position(), buffer, length, key.remaining());
+                length += key.remaining();
+                previous = time;
+            }
+            start = end;
+        }
+        out.write(buffer, 0, length);
+    }
+
+    public static ArrayList<Dependency> readDependencies(DataInput in) throws IOException
+    {
+        int remaining = readCount(in);
+        ArrayList<Dependency> dependencies = new ArrayList<Dependency>(remaining);
+        if (remaining == 0)
+            return dependencies;
+
+        long base = readSignedVarLong(in);
+        while (remaining > 0)
+        {
+            long id = readUnsignedVarLong(in);
+            int groupSize = readCount(in);
+            if (id > 0xFFFF || groupSize == 0 || groupSize > remaining)
+                throw new IOException("Malformed dependency group");
+            long time = base;
+            for (int i = 0; i < groupSize; i++)
+            {
+                time += readSignedVarLong(in);
+                dependencies.add(new Dependency(readKey(in), (time << 16) | id));
+            }
+            remaining -= groupSize;
+        }
+        return dependencies;
+    }
+
+    /**
+     * Prefixes a serialized body with its compression flag, compressing large bodies.
+     */
+    public static byte[] wrap(byte[] body, int length) throws IOException
+    {
+        if (length > COMPRESSION_THRESHOLD)
+        {
+            byte[] compressed = new byte[Snappy.maxCompressedLength(length) + 1];
+            int compressedLength = Snappy.rawCompress(body, 0, length, compressed, 1);
+            if (compressedLength < length)
+            {
+                compressed[0] = SNAPPY;
+                return Arrays.copyOf(compressed, compressedLength + 1);
+            }
+        }
+        byte[] wrapped = new byte[length + 1];
+        wrapped[0] = UNCOMPRESSED;
+        System.arraycopy(body, 0, wrapped, 1, length);
+        return wrapped;
+    }
+
+    /**
+     * Opens a body written by wrap().
+     */
+    public static DataInputStream unwrap(byte[] wrapped) throws IOException
+    {
+        if (wrapped.length == 0)
+            throw new IOException("Empty message body");
+        switch (wrapped[0])
+        {
+            case UNCOMPRESSED:
+                return new DataInputStream(new FastByteArrayInputStream(wrapped, 1, wrapped.length - 1));
+            case SNAPPY:
+                byte[] body = new byte[Snappy.uncompressedLength(wrapped, 1, wrapped.length - 1)];
+                Snappy.rawUncompress(wrapped, 1, wrapped.length - 1, body, 0);
+                return new DataInputStream(new FastByteArrayInputStream(body));
+            default:
+                throw new IOException("Unknown compression flag " + wrapped[0]);
+        }
+    }
+}
@@ -23,7 +23,6 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Collection;
-import java.util.NavigableSet;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.cassandra.config.CFMetaData;
@@ -53,14 +52,14 @@ public class CounterColumn extends Column
     private final long timestampOfLastDelete;
 
     public CounterColumn(ByteBuffer name, ByteBuffer value, long timestamp,
-            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions)
+            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions)
     {
         super(name, value, timestamp, lastAccessTime, previousVersionLastAccessTime, earliestValidTime, latestValidTime, previousVersions, null);
         this.timestampOfLastDelete = Long.MIN_VALUE;
     }
 
     public CounterColumn(ByteBuffer name, ByteBuffer value, long timestamp, long timestampOfLastDelete,
-            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions)
+            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions)
     {
         super(name, value, timestamp, lastAccessTime, previousVersionLastAccessTime, earliestValidTime, latestValidTime, previousVersions, null);
 
@@ -90,7 +89,7 @@ public class CounterColumn extends Column
     }
 
     public static CounterColumn create(ByteBuffer name, ByteBuffer value, long timestamp, long timestampOfLastDelete, IColumnSerializer.Flag flag,
-            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions)
+            Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions)
     {
         // #elt being negative means we have to clean delta
         short count = value.getShort(value.position());
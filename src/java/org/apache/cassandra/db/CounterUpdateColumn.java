@@ -19,7 +19,6 @@
 package org.apache.cassandra.db;
 
 import java.nio.ByteBuffer;
-import java.util.NavigableSet;
 
 import org.apache.cassandra.db.context.CounterContext;
 import org.apache.cassandra.utils.*;
@@ -47,7 +46,7 @@ public class CounterUpdateColumn extends Column
         logger.trace("new CounterUpdateColumn(" + ByteBufferUtil.bytesToHex(name) + ", " + ByteBufferUtil.toLong(value) + ", " + VersionUtil.toString(timestamp) + " = " + this);
     }
 
-    public CounterUpdateColumn(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions, ByteBuffer transactionCoordinatorKey)
+    public CounterUpdateColumn(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions, ByteBuffer transactionCoordinatorKey)
     {
         super(name, value, timestamp, lastAccessTime, previousVersionLastAccessTime, earliestValidTime, latestValidTime, previousVersions, transactionCoordinatorKey);
     }
@@ -70,6 +70,23 @@ public class Dependency
         }
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof Dependency))
+            return false;
+        Dependency that = (Dependency) o;
+        return timestamp == that.timestamp && locatorKey.equals(that.locatorKey);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * locatorKey.hashCode() + (int) (timestamp ^ (timestamp >>> 32));
+    }
+
     @Override
     public String toString()
     {
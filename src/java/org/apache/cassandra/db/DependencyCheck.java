@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.io.IVersionedSerializer;
@@ -14,6 +16,7 @@ import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessageProducer;
+import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 
@@ -27,17 +30,34 @@ public class DependencyCheck implements MessageProducer
     }
 
     private final ArrayList<Dependency> dependencies = new ArrayList<Dependency>();
+    // for a check coalesced from several writes, the indexes into dependencies of each write's deps
+    private final List<int[]> writeDependencies;
     private final InetAddress inquiringNode;
 
     public DependencyCheck(ArrayList<Dependency> dependencies)
+    {
+        this(dependencies, Collections.<int[]>emptyList());
+    }
+
+    /**
+     * A check for several writes at once, answered with the read txn ids of each write's deps separately.
+     */
+    public DependencyCheck(ArrayList<Dependency> dependencies, List<int[]> writeDependencies)
     {
         this.dependencies.addAll(dependencies);
+        this.writeDependencies = writeDependencies;
         this.inquiringNode = DatabaseDescriptor.getListenAddress();
     }
 
     public DependencyCheck(ArrayList<Dependency> dependencies, InetAddress inquiringNode)
+    {
+        this(dependencies, Collections.<int[]>emptyList(), inquiringNode);
+    }
+
+    public DependencyCheck(ArrayList<Dependency> dependencies, List<int[]> writeDependencies, InetAddress inquiringNode)
     {
         this.dependencies.addAll(dependencies);
+        this.writeDependencies = writeDependencies;
         this.inquiringNode = inquiringNode;
     }
 
@@ -46,6 +66,14 @@ public class DependencyCheck implements MessageProducer
         return dependencies;
     }
 
+    /**
+     * @return the indexes of each write's deps, empty if the check is answered as a whole
+     */
+    public List<int[]> getWriteDependencies()
+    {
+        return writeDependencies;
+    }
+
     public InetAddress getInquiringNode()
     {
         return inquiringNode;
@@ -53,6 +81,8 @@ public class DependencyCheck implements MessageProducer
 
     public static DependencyCheck fromBytes(byte[] raw, int version) throws IOException
     {
+        if (CompactEncoding.isCompact(version))
+            return serializer_.deserialize(CompactEncoding.unwrap(raw), version);
         return serializer_.deserialize(new DataInputStream(new FastByteArrayInputStream(raw)), version);
     }
 
@@ -61,6 +91,21 @@ public class DependencyCheck implements MessageProducer
         @Override
         public void serialize(DependencyCheck depCheck, DataOutput dos, int version) throws IOException
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                CompactEncoding.writeDependencies(depCheck.getDependencies(), dos);
+                byte[] address = depCheck.getInquiringNode().getAddress();
+                dos.writeByte(address.length);
+                dos.write(address);
+                CompactEncoding.writeUnsignedVarLong(depCheck.getWriteDependencies().size(), dos);
+                for (int[] indexes : depCheck.getWriteDependencies())
+                {
+                    CompactEncoding.writeUnsignedVarLong(indexes.length, dos);
+                    for (int index : indexes)
+                        CompactEncoding.writeUnsignedVarLong(index, dos);
+                }
+                return;
+            }
             int size = depCheck.getDependencies().size();
             dos.writeInt(size);
             for (Dependency dep : depCheck.getDependencies()) {
@@ -68,11 +113,39 @@ public class DependencyCheck implements MessageProducer
             }
             dos.writeInt(depCheck.getInquiringNode().getAddress().length);
             dos.write(depCheck.getInquiringNode().getAddress());
+            if (version >= MessagingService.VERSION_DEP_CHECK_WRITES) {
+                dos.writeInt(depCheck.getWriteDependencies().size());
+                for (int[] indexes : depCheck.getWriteDependencies()) {
+                    dos.writeInt(indexes.length);
+                    for (int index : indexes)
+                        dos.writeInt(index);
+                }
+            } else {
+                assert depCheck.getWriteDependencies().isEmpty() : "Can't split the reply for version " + version;
+            }
         }
 
         @Override
         public DependencyCheck deserialize(DataInput dis, int version) throws IOException
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                ArrayList<Dependency> dependencies = CompactEncoding.readDependencies(dis);
+                byte[] rawAddr = new byte[dis.readUnsignedByte()];
+                dis.readFully(rawAddr);
+                List<int[]> writeDependencies = Collections.emptyList();
+                int writes = CompactEncoding.readCount(dis);
+                if (writes > 0)
+                    writeDependencies = new ArrayList<int[]>(writes);
+                for (int i = 0; i < writes; i++)
+                {
+                    int[] indexes = new int[CompactEncoding.readCount(dis)];
+                    for (int j = 0; j < indexes.length; j++)
+                        indexes[j] = readIndex(CompactEncoding.readCount(dis), dependencies);
+                    writeDependencies.add(indexes);
+                }
+                return new DependencyCheck(dependencies, writeDependencies, InetAddress.getByAddress(rawAddr));
+            }
             int size = dis.readInt();
             ArrayList<Dependency> dependencies = new ArrayList<Dependency>();
             for (int i = 0; i < size; ++i) {
@@ -83,12 +156,44 @@ public class DependencyCheck implements MessageProducer
             byte[] rawAddr = new byte[addrSize];
             dis.readFully(rawAddr);
             InetAddress addr = InetAddress.getByAddress(rawAddr);
-            return new DependencyCheck(dependencies, addr);
+            List<int[]> writeDependencies = Collections.emptyList();
+            if (version >= MessagingService.VERSION_DEP_CHECK_WRITES) {
+                int writes = dis.readInt();
+                if (writes > 0)
+                    writeDependencies = new ArrayList<int[]>(writes);
+                for (int i = 0; i < writes; i++) {
+                    int[] indexes = new int[dis.readInt()];
+                    for (int j = 0; j < indexes.length; j++)
+                        indexes[j] = readIndex(dis.readInt(), dependencies);
+                    writeDependencies.add(indexes);
+                }
+            }
+            return new DependencyCheck(dependencies, writeDependencies, addr);
+        }
+
+        private static int readIndex(int index, List<Dependency> dependencies) throws IOException
+        {
+            if (index < 0 || index >= dependencies.size())
+                throw new IOException("Invalid dependency index " + index);
+            return index;
         }
 
         @Override
         public long serializedSize(DependencyCheck depCheck, int version)
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                DataOutputBuffer dob = new DataOutputBuffer();
+                try
+                {
+                    serialize(depCheck, dob, version);
+                }
+                catch (IOException e)
+                {
+                    throw new AssertionError(e);
+                }
+                return dob.getLength();
+            }
             int numDep = depCheck.getDependencies().size();
             long size = 0L;
             for (int i = 0; i < numDep; ++i) {
@@ -97,6 +202,11 @@ public class DependencyCheck implements MessageProducer
             size += DBConstants.intSize;	// for size (num of deps)
             size += DBConstants.intSize;
             size += depCheck.getInquiringNode().getAddress().length;
+            if (version >= MessagingService.VERSION_DEP_CHECK_WRITES) {
+                size += DBConstants.intSize;
+                for (int[] indexes : depCheck.getWriteDependencies())
+                    size += DBConstants.intSize * (1 + indexes.length);
+            }
             return size;
         }
     }
@@ -107,6 +217,8 @@ public class DependencyCheck implements MessageProducer
         DataOutputBuffer dob = new DataOutputBuffer();
         serializer_.serialize(this, dob, version);
 
+        if (CompactEncoding.isCompact(version))
+            return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.DEPENDENCY_CHECK, CompactEncoding.wrap(dob.getData(), dob.getLength()), version);
         return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.DEPENDENCY_CHECK, Arrays.copyOf(dob.getData(), dob.getLength()), version);
     }
 }
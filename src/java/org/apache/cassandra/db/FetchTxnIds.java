@@ -57,8 +57,14 @@ public class FetchTxnIds implements MessageProducer {
         return inquiringNode;
     }
 
+    /**
+     * @param raw the message body, as built by getMessage for this version
+     */
     public static FetchTxnIds fromBytes(byte[] raw, int version) throws IOException
     {
+        if (CompactEncoding.isCompact(version))
+            return serializer_.deserialize(CompactEncoding.unwrap(raw), version);
+        raw = Snappy.uncompress(raw);
         return serializer_.deserialize(new DataInputStream(new FastByteArrayInputStream(raw)), version);
     }
 
@@ -67,6 +73,16 @@ public class FetchTxnIds implements MessageProducer {
         @Override
         public void serialize(FetchTxnIds fetchId, DataOutput dos, int version) throws IOException
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                CompactEncoding.writeUnsignedVarLong(fetchId.getInquiryKeys().size(), dos);
+                for (ByteBuffer key : fetchId.getInquiryKeys())
+                    CompactEncoding.writeKey(key, dos);
+                byte[] address = fetchId.getInquiringNode().getAddress();
+                dos.writeByte(address.length);
+                dos.write(address);
+                return;
+            }
             int size = fetchId.getInquiryKeys().size();
             dos.writeInt(size);
             for (ByteBuffer key : fetchId.getInquiryKeys()) {
@@ -79,6 +95,16 @@ public class FetchTxnIds implements MessageProducer {
         @Override
         public FetchTxnIds deserialize(DataInput dis, int version) throws IOException
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                int size = CompactEncoding.readCount(dis);
+                Set<ByteBuffer> inquiryKeys = new HashSet<ByteBuffer>();
+                for (int i = 0; i < size; ++i)
+                    inquiryKeys.add(CompactEncoding.readKey(dis));
+                byte[] rawAddr = new byte[dis.readUnsignedByte()];
+                dis.readFully(rawAddr);
+                return new FetchTxnIds(inquiryKeys, InetAddress.getByAddress(rawAddr));
+            }
             int size = dis.readInt();
             Set<ByteBuffer> inquiryKeys = new HashSet<ByteBuffer>();
             for (int i = 0; i < size; ++i) {
@@ -95,6 +121,19 @@ public class FetchTxnIds implements MessageProducer {
         @Override
         public long serializedSize(FetchTxnIds fetchId, int version)
         {
+            if (CompactEncoding.isCompact(version))
+            {
+                DataOutputBuffer dob = new DataOutputBuffer();
+                try
+                {
+                    serialize(fetchId, dob, version);
+                }
+                catch (IOException e)
+                {
+                    throw new AssertionError(e);
+                }
+                return dob.getLength();
+            }
             int numKeys = fetchId.getInquiryKeys().size();
             long size = 0L;
             size = DBConstants.shortSize * numKeys;
@@ -111,6 +150,8 @@ public class FetchTxnIds implements MessageProducer {
         DataOutputBuffer dob = new DataOutputBuffer();
         serializer_.serialize(this, dob, version);
 
+        if (CompactEncoding.isCompact(version))
+            return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.FETCH_TXNIDS, CompactEncoding.wrap(dob.getData(), dob.getLength()), version);
         byte[] msg = Snappy.compress(dob.getData());
         return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.FETCH_TXNIDS, Arrays.copyOf(msg, msg.length), version);
     }
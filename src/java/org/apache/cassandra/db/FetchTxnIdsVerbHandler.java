@@ -7,8 +7,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 
-import org.xerial.snappy.Snappy;
-
 /**
  * Created by yangyang333 on 15-7-8.
  */
@@ -20,8 +18,7 @@ public class FetchTxnIdsVerbHandler implements IVerbHandler {
     {
         FetchTxnIds fetchId = null;
         try {
-            byte[] raw_msg = Snappy.uncompress(message.getMessageBody());
-            fetchId = FetchTxnIds.fromBytes(raw_msg, message.getVersion());
+            fetchId = FetchTxnIds.fromBytes(message.getMessageBody(), message.getVersion());
         } catch (IOException e) {
             logger_.error("Error in decoding fetchTxnIds");
         }
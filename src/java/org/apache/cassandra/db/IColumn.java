@@ -21,7 +21,6 @@ package org.apache.cassandra.db;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Collection;
-import java.util.SortedSet;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -65,7 +64,7 @@ public interface IColumn
     public boolean isSetLatestValidTime();
     public void setLatestValidTime(long latestValidTime);
     public long latestValidTime();
-    public SortedSet<IColumn> previousVersions();
+    public VersionChain previousVersions();
 
 
     /** clones the column for the row cache, interning column names and making copies of other underlying byte buffers */
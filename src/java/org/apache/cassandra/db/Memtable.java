@@ -82,6 +82,13 @@ public class Memtable
     private final AtomicLong currentThroughput = new AtomicLong(0);
     private final AtomicLong currentOperations = new AtomicLong(0);
 
+    // serialized size of the previous versions held by this memtable's columns, as of the last
+    // complete PreviousVersionSweeper pass.  Writes don't count the versions they push into a chain.
+    private volatile long previousVersionBytes = 0;
+    // where the sweep in progress resumes, and what it has counted so far; only touched by the sweeper
+    private RowPosition sweepPosition;
+    private long sweepBytes;
+
     // We index the memtable by RowPosition only for the purpose of being able
     // to select key range using Token.KeyBound. However put() ensures that we
     // actually only store DecoratedKey.
@@ -121,7 +128,59 @@ public class Memtable
     {
         // 25% fudge factor on the base throughput * liveRatio calculation.  (Based on observed
         // pre-slabbing behavior -- not sure what accounts for this. May have changed with introduction of slabbing.)
-        return (long) (currentThroughput.get() * cfs.liveRatio * 1.25);
+        return (long) ((currentThroughput.get() + previousVersionBytes) * cfs.liveRatio * 1.25);
+    }
+
+    public long getPreviousVersionBytes()
+    {
+        return previousVersionBytes;
+    }
+
+    /**
+     * Drops the previous versions last accessed before safeTime from up to maxRows rows, resuming
+     * where the last call stopped.  previousVersionBytes is updated each time a pass over the whole
+     * memtable completes.
+     *
+     * @return the number of versions dropped
+     */
+    int sweepPreviousVersions(long safeTime, int maxRows)
+    {
+        Iterator<Map.Entry<RowPosition, ColumnFamily>> iter = sweepPosition == null
+                                                            ? columnFamilies.entrySet().iterator()
+                                                            : columnFamilies.tailMap(sweepPosition, false).entrySet().iterator();
+        int reclaimed = 0;
+        for (int rows = 0; rows < maxRows; rows++)
+        {
+            if (!iter.hasNext())
+            {
+                previousVersionBytes = sweepBytes;
+                sweepPosition = null;
+                sweepBytes = 0;
+                return reclaimed;
+            }
+            Map.Entry<RowPosition, ColumnFamily> entry = iter.next();
+            for (IColumn column : entry.getValue())
+            {
+                if (column instanceof SuperColumn)
+                {
+                    for (IColumn subColumn : column.getSubColumns())
+                        reclaimed += sweepColumn((Column) subColumn, safeTime);
+                }
+                else
+                {
+                    reclaimed += sweepColumn((Column) column, safeTime);
+                }
+            }
+            sweepPosition = entry.getKey();
+        }
+        return reclaimed;
+    }
+
+    private int sweepColumn(Column column, long safeTime)
+    {
+        int reclaimed = column.reclaimPreviousVersions(safeTime);
+        sweepBytes += column.previousVersionsSize();
+        return reclaimed;
     }
 
     public long getSerializedSize()
@@ -0,0 +1,86 @@
+package org.apache.cassandra.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.concurrent.DebuggableScheduledThreadPoolExecutor;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the previous versions of memtable columns once no read transaction can ask for them.
+ *
+ * A write drops the expired versions of the column it replaces, but a column that is not written
+ * to again keeps its versions until its memtable is flushed.  The sweeper walks each memtable a
+ * batch of rows at a time, so a large memtable is never held up for long, and counts the versions
+ * left so memtable flushing can account for them (Memtable.getLiveSize).
+ */
+public class PreviousVersionSweeper implements PreviousVersionSweeperMBean, Runnable
+{
+    private static final Logger logger = LoggerFactory.getLogger(PreviousVersionSweeper.class);
+
+    // rows of each memtable looked at per sweep
+    public static final int ROWS_PER_SWEEP = 10000;
+
+    public static final PreviousVersionSweeper instance = new PreviousVersionSweeper();
+    private static final DebuggableScheduledThreadPoolExecutor sweeper = new DebuggableScheduledThreadPoolExecutor("PreviousVersionSweeper");
+
+    private final AtomicLong reclaimedVersions = new AtomicLong();
+    private final AtomicLong sweeps = new AtomicLong();
+    private volatile long lastSweepMicros = 0;
+
+    private PreviousVersionSweeper() {}
+
+    static
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName("org.apache.cassandra.db:type=PreviousVersionSweeper"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void start()
+    {
+        int interval = DatabaseDescriptor.getPreviousVersionSweepIntervalInMs();
+        sweeper.scheduleWithFixedDelay(instance, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void run()
+    {
+        long start = System.nanoTime();
+        long safeTime = Column.previousVersionSafeTime();
+        int reclaimed = 0;
+        for (ColumnFamilyStore cfs : ColumnFamilyStore.all())
+            reclaimed += cfs.sweepPreviousVersions(safeTime, ROWS_PER_SWEEP);
+
+        reclaimedVersions.addAndGet(reclaimed);
+        sweeps.incrementAndGet();
+        lastSweepMicros = (System.nanoTime() - start) / 1000;
+        if (reclaimed > 0)
+            logger.debug("Reclaimed {} previous versions in {} us", reclaimed, lastSweepMicros);
+    }
+
+    public long getReclaimedVersions()
+    {
+        return reclaimedVersions.get();
+    }
+
+    public long getSweeps()
+    {
+        return sweeps.get();
+    }
+
+    public long getLastSweepMicros()
+    {
+        return lastSweepMicros;
+    }
+}
@@ -0,0 +1,13 @@
+package org.apache.cassandra.db;
+
+public interface PreviousVersionSweeperMBean
+{
+    /** previous versions dropped by the sweeper since startup */
+    public long getReclaimedVersions();
+
+    /** sweeps run since startup */
+    public long getSweeps();
+
+    /** time taken by the most recent sweep */
+    public long getLastSweepMicros();
+}
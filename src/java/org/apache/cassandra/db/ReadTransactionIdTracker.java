@@ -4,40 +4,82 @@ package org.apache.cassandra.db;
  * HL: Created by Haonan on 15-2-1.
  */
 
-import java.lang.reflect.Array;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
-import org.apache.cassandra.net.Message;
-import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.concurrent.DebuggableScheduledThreadPoolExecutor;
 import org.apache.cassandra.utils.*;
-import org.apache.hadoop.util.hash.Hash;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-public class ReadTransactionIdTracker {
+public class ReadTransactionIdTracker implements ReadTransactionIdTrackerMBean {
+    private static final Logger logger = LoggerFactory.getLogger(ReadTransactionIdTracker.class);
+
     public static final long SAFTYTIMER = 50;    // used for garbage collection of old versions, 50 milliseconds
+    // ids are reclaimed a whole epoch at a time, off the read and dep_check paths
+    public static final long EPOCH_IN_MS = 10;
     /**
      * keyToReadTxnIds contains all read transactions just partly happened on this node
-     * It is a map of <locator_key, map<transaction_id, ArrayList<txnTime, record_time>>>.
+     * It is a map of <locator_key, table of transaction_id -> (txnTime, record_time)>.
      * So, those transaction ids are stored with locator_key each read txn touched.
      * record_time is used for garbage collection. txnTime is used for multiget_slice_by_time
-     * We do garbage collection everytime we have a dep_check (seems reasonable)
+     *
+     * checkIfTxnIdBeenRecorded runs for every key of every read transaction, so once a key's table exists
+     * recording and looking up ids allocates nothing.
+     */
+    static ConcurrentHashMap<ByteBuffer, TxnIdTable> keyToReadTxnIds = new ConcurrentHashMap<ByteBuffer, TxnIdTable>(100000);
+    // client ids are the low 16 bits of a transaction id, so the newest id of every client fits in a flat array;
+    // ids leased from the ClientIdRegistry belong to one session each, so a newer id really supersedes an older one
+    static final AtomicLongArray clientToMaxTxnId = new AtomicLongArray(1 << 16);
+
+    /**
+     * Keys that recorded new ids in each epoch (recordTime / EPOCH_IN_MS).  A key is listed once per epoch
+     * it records ids in, so once an epoch is older than SAFTYTIMER its keys are the only ones that can
+     * hold ids from it, and none of them needs a look before that.
      */
-    static ConcurrentHashMap<ByteBuffer, ConcurrentHashMap<Long, ArrayList<Long>>> keyToReadTxnIds = new ConcurrentHashMap<ByteBuffer, ConcurrentHashMap<Long, ArrayList<Long>>>(100000);
-    static ConcurrentHashMap<Long, Long> clientToMaxTxnId = new ConcurrentHashMap<>(2048);
-    // Used to store last accessed time for each key. The first ROT set the access time for an empty
-    // key entry, then after that only write's dep_check updates last accessed time. If a key' accessed time longer then
-    // 5 seconds, Then a read will also trigger garbage collection.
-    static ConcurrentHashMap<ByteBuffer, Long> keyToLastAccessedTime = new ConcurrentHashMap<ByteBuffer, Long>(100000);
+    static final ConcurrentMap<Long, Queue<ByteBuffer>> epochToKeys = new ConcurrentHashMap<Long, Queue<ByteBuffer>>();
+
+    private static final AtomicLong trackedTxnIds = new AtomicLong();
+    private static final AtomicLong reclaimedTxnIds = new AtomicLong();
+    private static final AtomicLong reclaimedKeys = new AtomicLong();
+    private static volatile long lastReclaimMicros = 0;
+
+    public static final ReadTransactionIdTracker instance = new ReadTransactionIdTracker();
+    private static final DebuggableScheduledThreadPoolExecutor reclaimer = new DebuggableScheduledThreadPoolExecutor("ReadTxnIdReclaimer");
+
+    private ReadTransactionIdTracker() {}
+
+    static
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName("org.apache.cassandra.db:type=ReadTransactionIdTracker"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        Runnable reclaim = new Runnable()
+        {
+            public void run()
+            {
+                reclaim(System.currentTimeMillis());
+            }
+        };
+        reclaimer.scheduleWithFixedDelay(reclaim, EPOCH_IN_MS, EPOCH_IN_MS, TimeUnit.MILLISECONDS);
+    }
 
     // method overloading
     public static void checkIfTxnIdBeenRecorded(ByteBuffer locatorKey, ArrayList<Long> txnIds, long chosenTime) {
-        for (Long id: txnIds) {
-            checkIfTxnIdBeenRecorded(locatorKey, id, true, chosenTime);
+        for (int i = 0; i < txnIds.size(); i++) {
+            checkIfTxnIdBeenRecorded(locatorKey, txnIds.get(i), true, chosenTime);
         }
     }
     /*
@@ -46,96 +88,310 @@ public class ReadTransactionIdTracker {
      */
     public static long checkIfTxnIdBeenRecorded(ByteBuffer locatorKey, long txnId, boolean forWrites, long chosenTime)
     {
-        Long transactionId = new Long(txnId);
-        long txnId_clientId = LamportClock.extractClientId(txnId);
-        if(!clientToMaxTxnId.contains(txnId_clientId) || txnId > clientToMaxTxnId.get(txnId_clientId))
-            clientToMaxTxnId.put(txnId_clientId, txnId);
-        long txnTimeToReturn = 0;
+        updateClientMaxTxnId(txnId);
         //recordTime is real time for garbage collection
-        Long recordTime = new Long(System.currentTimeMillis());
-        Long txnTime = !forWrites ? new Long(0) : chosenTime;  // a place holder, txnTime should be filled in by writes after done dep_check
-        //prepare time entry for this transaction. A time entry has transaction's effective time and record time
-        ArrayList<Long> timesEntry = new ArrayList<Long>();
-        timesEntry.add(txnTime);
-        timesEntry.add(recordTime);
-        ConcurrentHashMap<Long, ArrayList<Long>> txnIdList = keyToReadTxnIds.get(locatorKey);
-        if (txnIdList == null) {
-            //the locator_key is even not touched by other read txns yet
-            ConcurrentHashMap<Long, ArrayList<Long>> txnEntry = new ConcurrentHashMap<Long, ArrayList<Long>>();
-            txnEntry.put(transactionId, timesEntry);
-            keyToLastAccessedTime.put(locatorKey, System.currentTimeMillis());
-            keyToReadTxnIds.put(locatorKey, txnEntry);
-            //            logger.trace("KeyRead "+ByteBufferUtil.bytesToHex(locatorKey));
-//            txnEntry.clear();
-//            txnEntry = null;
-        }
-        else {
-            long safetyTime = System.currentTimeMillis() - SAFTYTIMER;
-            // this key has not been checked by dep_check for a while, we need to explicitly do garbage collection
-            if (keyToLastAccessedTime.get(locatorKey) < safetyTime) {
-                for (Entry<Long, ArrayList<Long>> entry : txnIdList.entrySet()) {
-                    Long oldId = entry.getKey();
-                    Long oldId_client = LamportClock.extractClientId(oldId);
-                    //SBJ: No need to maintain older transaction when newer transaction from same client exists
-                    if (entry.getValue().get(1) < safetyTime || (clientToMaxTxnId.get(oldId_client) > oldId)) {
-                        txnIdList.remove(oldId);
-                    }
-                }
-                keyToLastAccessedTime.put(locatorKey, System.currentTimeMillis());
-            }
-            ArrayList<Long> findTxnId = txnIdList.get(transactionId);
-            if (findTxnId == null) {
-                // locator_key exists but this txnId is not in the record
-                txnIdList.put(transactionId, timesEntry);
-            } else {
-                // if we did find this txnId recorded before, then we return its effective time
-
-                // we took this assertion out, because if could happen txntime = 0, when a sub read arrived when dep_check flying
-                //assert findTxnId.get(0) != 0 : "if we found a matched id, then its time must have been filled in by some writes";
-                // if forWrites, to see if we need to update the txnTime, we keep the min of all txnTimes of this txnId
-                txnTimeToReturn = findTxnId.get(0);
-                if (forWrites) {
-                    if (txnTimeToReturn > txnTime ) {
-                        //SBJ: Causes NullPointerException possibly because another thread removed the transactionId  because of safety timen
-                        // keyToReadTxnIds.get(locatorKey).get(transactionId).set(0, txnTime); //update txnTime
-                        //Avoids NullPointer Exception, but if another thread removed txnid, this update is meaningless.
-                        findTxnId.set(0, txnTime); //update txnTime
-                    }
-                }
-//                findTxnId.clear();
-//                findTxnId = null;
+        long recordTime = System.currentTimeMillis();
+        long txnTime = !forWrites ? 0 : chosenTime;  // a place holder, txnTime should be filled in by writes after done dep_check
+
+        long epoch = recordTime / EPOCH_IN_MS;
+
+        while (true) {
+            TxnIdTable txnIdList = keyToReadTxnIds.get(locatorKey);
+            if (txnIdList == null) {
+                //the locator_key is even not touched by other read txns yet
+                txnIdList = new TxnIdTable();
+                TxnIdTable existing = keyToReadTxnIds.putIfAbsent(locatorKey, txnIdList);
+                if (existing != null)
+                    txnIdList = existing;
             }
-//            txnIdList.clear();
-//            txnIdList = null;
+            // if the returned time is not equal to 0, then it also means we found this txnId in our record
+            long txnTimeToReturn = txnIdList.record(txnId, txnTime, forWrites, recordTime, epoch, locatorKey);
+            if (txnTimeToReturn != TxnIdTable.RECLAIMED)
+                return txnTimeToReturn;
+            // the reclaimer dropped this key's table under us, record into a fresh one
+            keyToReadTxnIds.remove(locatorKey, txnIdList);
         }
-        // if txnTimeToReturn not equal to 0, then it also means we found this txnId in our record
-        return txnTimeToReturn;
     }
 
     //Return a list of txnIds associated with a locatorKey
     //Called by sendDepCheckReply to incorporate ROT ids
     public static ArrayList<Long> getReadTxnIds(ByteBuffer locatorKey) {
         ArrayList<Long> returnedIdList = new ArrayList<Long>();
-        if (keyToReadTxnIds.get(locatorKey) == null)
+        TxnIdTable txnIdList = keyToReadTxnIds.get(locatorKey);
+        if (txnIdList == null)
             return returnedIdList;
-        for (Entry<Long, ArrayList<Long>> entry : keyToReadTxnIds.get(locatorKey).entrySet()) {
-            long safeTime = System.currentTimeMillis() - SAFTYTIMER;
-            Long oldId = entry.getKey();
-            Long oldId_client = LamportClock.extractClientId(oldId);
-            //SBJ: Only adding latest transaction from each client
-            if (entry.getValue().get(1) >= safeTime && clientToMaxTxnId.get(oldId_client).equals(oldId)) {
-                returnedIdList.add(oldId);
-            } else {
-                keyToReadTxnIds.get(locatorKey).remove(oldId);
+        txnIdList.collectLatest(returnedIdList, System.currentTimeMillis());
+        return returnedIdList;
+    }
+
+    private static void registerForEpoch(long epoch, ByteBuffer locatorKey) {
+        Queue<ByteBuffer> keys = epochToKeys.get(epoch);
+        if (keys == null) {
+            keys = new ConcurrentLinkedQueue<ByteBuffer>();
+            Queue<ByteBuffer> existing = epochToKeys.putIfAbsent(epoch, keys);
+            if (existing != null)
+                keys = existing;
+        }
+        keys.add(locatorKey);
+    }
+
+    /**
+     * Drops the ids of every epoch that ended more than SAFTYTIMER before now, and the tables of keys
+     * that are left without ids.
+     */
+    static synchronized void reclaim(long now) {
+        long start = System.nanoTime();
+        long safetyTime = now - SAFTYTIMER;
+        // the last epoch that ended before safetyTime
+        long expiredEpoch = safetyTime / EPOCH_IN_MS - 1;
+        long ids = 0;
+        long keys = 0;
+        // only a handful of epochs are live at a time
+        for (Iterator<Map.Entry<Long, Queue<ByteBuffer>>> it = epochToKeys.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Queue<ByteBuffer>> entry = it.next();
+            if (entry.getKey() > expiredEpoch)
+                continue;
+            it.remove();
+            for (ByteBuffer locatorKey : entry.getValue()) {
+                TxnIdTable txnIdList = keyToReadTxnIds.get(locatorKey);
+                if (txnIdList == null)
+                    continue;
+                ids += txnIdList.removeStale(safetyTime);
+                if (txnIdList.retireIfEmpty()) {
+                    keyToReadTxnIds.remove(locatorKey, txnIdList);
+                    keys++;
+                }
             }
         }
-        keyToLastAccessedTime.put(locatorKey, System.currentTimeMillis());
-        return returnedIdList;
+
+        trackedTxnIds.addAndGet(-ids);
+        reclaimedTxnIds.addAndGet(ids);
+        reclaimedKeys.addAndGet(keys);
+        lastReclaimMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        if (logger.isDebugEnabled() && ids > 0)
+            logger.debug("Reclaimed {} read txn ids and {} keys", ids, keys);
+    }
+
+    static void updateClientMaxTxnId(long txnId) {
+        int clientId = (int) LamportClock.extractClientId(txnId);
+        long max;
+        do {
+            max = clientToMaxTxnId.get(clientId);
+            if (txnId <= max)
+                return;
+        } while (!clientToMaxTxnId.compareAndSet(clientId, max, txnId));
+    }
+
+    //SBJ: No need to maintain older transaction when newer transaction from same client exists
+    static boolean isSuperseded(long txnId) {
+        return clientToMaxTxnId.get((int) LamportClock.extractClientId(txnId)) > txnId;
     }
 
     //Clear stored txn Id map
     public static void clearContext() {
         keyToReadTxnIds.clear();
-        keyToLastAccessedTime.clear();
+        epochToKeys.clear();
+        trackedTxnIds.set(0);
+    }
+
+    public long getTrackedKeys() {
+        return keyToReadTxnIds.size();
+    }
+
+    public long getTrackedTxnIds() {
+        return trackedTxnIds.get();
+    }
+
+    public long getReclaimedTxnIds() {
+        return reclaimedTxnIds.get();
+    }
+
+    public long getReclaimedKeys() {
+        return reclaimedKeys.get();
+    }
+
+    public long getLastReclaimMicros() {
+        return lastReclaimMicros;
+    }
+
+    /**
+     * Open addressed (linear probing) table of txnId -> (txnTime, recordTime) for a single key, kept in
+     * parallel primitive arrays.  Removal shifts the rest of the probe sequence back instead of leaving
+     * tombstones, so the table only ever reallocates to grow.
+     */
+    static class TxnIdTable
+    {
+        // returned by record once the reclaimer has dropped the table
+        static final long RECLAIMED = -1;
+        private static final int INITIAL_CAPACITY = 8;
+
+        private long[] txnIds = new long[INITIAL_CAPACITY];
+        private long[] txnTimes = new long[INITIAL_CAPACITY];
+        private long[] recordTimes = new long[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private int size = 0;
+        // the newest epoch this key is registered for reclamation in
+        private long lastEpoch = -1;
+        private boolean retired = false;
+
+        /**
+         * @return the txnTime recorded for txnId before this call, 0 if it was not recorded,
+         * or RECLAIMED if the table has been dropped and the caller must use a new one
+         */
+        synchronized long record(long txnId, long txnTime, boolean forWrites, long now, long epoch, ByteBuffer locatorKey)
+        {
+            if (retired)
+                return RECLAIMED;
+
+            int slot = find(txnId);
+            if (slot < 0) {
+                // locator_key exists but this txnId is not in the record
+                insert(txnId, txnTime, now);
+                trackedTxnIds.incrementAndGet();
+                if (epoch > lastEpoch) {
+                    lastEpoch = epoch;
+                    registerForEpoch(epoch, locatorKey);
+                }
+                return 0;
+            }
+
+            // if we did find this txnId recorded before, then we return its effective time
+            // txntime can be 0 here, when a sub read arrived while the dep_check was in flight
+            long txnTimeToReturn = txnTimes[slot];
+            // if forWrites, to see if we need to update the txnTime, we keep the min of all txnTimes of this txnId
+            if (forWrites && txnTimeToReturn > txnTime) {
+                txnTimes[slot] = txnTime;
+            }
+            return txnTimeToReturn;
+        }
+
+        /**
+         * Adds the latest still valid txnId of each client to ids.  The others are left for the reclaimer.
+         */
+        synchronized void collectLatest(List<Long> ids, long now)
+        {
+            long safetyTime = now - SAFTYTIMER;
+            for (int i = 0; i < used.length; i++) {
+                //SBJ: Only adding latest transaction from each client
+                if (used[i] && recordTimes[i] >= safetyTime && !isSuperseded(txnIds[i]))
+                    ids.add(txnIds[i]);
+            }
+        }
+
+        /**
+         * Marks the table as dropped if it holds no ids, later records go to a new table.
+         */
+        synchronized boolean retireIfEmpty()
+        {
+            if (size == 0)
+                retired = true;
+            return retired;
+        }
+
+        synchronized int size()
+        {
+            return size;
+        }
+
+        /**
+         * Drops the ids recorded before safetyTime or superseded by a newer id from the same client.
+         *
+         * @return the number of ids dropped
+         */
+        synchronized int removeStale(long safetyTime)
+        {
+            int before = size;
+            // start right after a free slot, so shifting back never moves an entry we already visited
+            int mask = used.length - 1;
+            int start = 0;
+            while (used[start]) {
+                start++;
+            }
+            int visited = 0;
+            int slot = (start + 1) & mask;
+            while (visited < used.length) {
+                if (used[slot] && (recordTimes[slot] < safetyTime || isSuperseded(txnIds[slot]))) {
+                    // an entry further along the probe sequence may have moved into this slot, look again
+                    remove(slot);
+                    continue;
+                }
+                slot = (slot + 1) & mask;
+                visited++;
+            }
+            return before - size;
+        }
+
+        private int find(long txnId)
+        {
+            int mask = used.length - 1;
+            for (int slot = hash(txnId) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (txnIds[slot] == txnId)
+                    return slot;
+            }
+            return -1;
+        }
+
+        private void insert(long txnId, long txnTime, long recordTime)
+        {
+            // keep at least a quarter of the slots free so probing stays short
+            if ((size + 1) * 4 > used.length * 3)
+                grow();
+
+            int mask = used.length - 1;
+            int slot = hash(txnId) & mask;
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            txnIds[slot] = txnId;
+            txnTimes[slot] = txnTime;
+            recordTimes[slot] = recordTime;
+            used[slot] = true;
+            size++;
+        }
+
+        private void remove(int slot)
+        {
+            int mask = used.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; used[next]; next = (next + 1) & mask) {
+                int ideal = hash(txnIds[next]) & mask;
+                // entries whose ideal slot is cyclically in (hole, next] can't move before it
+                boolean stays = hole <= next ? (hole < ideal && ideal <= next) : (hole < ideal || ideal <= next);
+                if (stays)
+                    continue;
+                txnIds[hole] = txnIds[next];
+                txnTimes[hole] = txnTimes[next];
+                recordTimes[hole] = recordTimes[next];
+                hole = next;
+            }
+            used[hole] = false;
+            size--;
+        }
+
+        private void grow()
+        {
+            long[] oldTxnIds = txnIds;
+            long[] oldTxnTimes = txnTimes;
+            long[] oldRecordTimes = recordTimes;
+            boolean[] oldUsed = used;
+
+            int capacity = oldUsed.length * 2;
+            txnIds = new long[capacity];
+            txnTimes = new long[capacity];
+            recordTimes = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (oldUsed[i])
+                    insert(oldTxnIds[i], oldTxnTimes[i], oldRecordTimes[i]);
+            }
+        }
+
+        private static int hash(long txnId)
+        {
+            // the low bits are the client id, mix in the time so one client's ids spread out
+            long h = txnId * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
     }
 }
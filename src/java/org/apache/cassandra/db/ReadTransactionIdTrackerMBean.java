@@ -0,0 +1,16 @@
+package org.apache.cassandra.db;
+
+public interface ReadTransactionIdTrackerMBean
+{
+    /** keys with a table of read transaction ids */
+    public long getTrackedKeys();
+
+    /** read transaction ids currently recorded, over all keys */
+    public long getTrackedTxnIds();
+
+    public long getReclaimedTxnIds();
+    public long getReclaimedKeys();
+
+    /** time taken by the most recent reclamation pass */
+    public long getLastReclaimMicros();
+}
@@ -25,7 +25,6 @@ import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.SortedSet;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.db.marshal.AbstractType;
@@ -352,7 +351,7 @@ public class SuperColumn extends AbstractColumnContainer implements IColumn
     }
 
     @Override
-    public SortedSet<IColumn> previousVersions()
+    public VersionChain previousVersions()
     {
         throw new UnsupportedOperationException("This operation is unsupported on super columns.");
     }
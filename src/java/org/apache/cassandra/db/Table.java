@@ -23,10 +23,15 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.cassandra.concurrent.Stage;
+import org.apache.cassandra.concurrent.StageManager;
 import org.apache.cassandra.config.*;
 import org.apache.cassandra.db.commitlog.CommitLog;
 import org.apache.cassandra.db.filter.QueryFilter;
@@ -58,6 +63,9 @@ public class Table
      */
     static final ReentrantReadWriteLock switchLock = new ReentrantReadWriteLock();
 
+    // below this many mutations per thread, handing them to another thread costs more than it saves
+    static final int MIN_MUTATIONS_PER_GROUP = 4;
+
     // It is possible to call Table.open without a running daemon, so it makes sense to ensure
     // proper directories here as well as in CassandraDaemon.
     static
@@ -339,18 +347,150 @@ public class Table
         apply(mutation, writeCommitLog, true);
     }
 
+    /**
+     * Applies the mutations as RowMutation.apply() would, but adds them to the commit log together
+     * so they wait for one sync in batch mode.  The switch lock is held across the log and memtable
+     * writes, as in apply, so a flush can't discard their log entries before they are in a memtable.
+     *
+     * With parallel_transaction_apply set, the memtable writes are spread over the MUTATION stage.
+     */
+    public static void applyAll(List<RowMutation> mutations) throws IOException
+    {
+        applyAll(mutations, DatabaseDescriptor.isParallelTransactionApply());
+    }
+
+    static void applyAll(List<RowMutation> mutations, boolean parallel) throws IOException
+    {
+        List<RowMutation> durable = new ArrayList<RowMutation>(mutations.size());
+        for (RowMutation mutation : mutations)
+        {
+            if (Schema.instance.getTableDefinition(mutation.getTable()).durableWrites)
+                durable.add(mutation);
+        }
+
+        switchLock.readLock().lock();
+        try
+        {
+            CommitLog.instance.add(durable);
+            List<List<RowMutation>> groups = parallel
+                                           ? groupByRow(mutations, DatabaseDescriptor.getConcurrentWriters())
+                                           : Collections.singletonList(mutations);
+            if (groups.size() == 1)
+            {
+                for (RowMutation mutation : mutations)
+                    open(mutation.getTable()).apply(mutation, false);
+            }
+            else
+            {
+                applyInParallel(groups);
+            }
+        }
+        finally
+        {
+            switchLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits the mutations into at most maxGroups groups, keeping every mutation of a row in the
+     * same group and in order, so the groups can be applied concurrently.
+     */
+    static List<List<RowMutation>> groupByRow(List<RowMutation> mutations, int maxGroups)
+    {
+        int groupCount = Math.min(maxGroups, mutations.size() / MIN_MUTATIONS_PER_GROUP);
+        if (groupCount <= 1)
+            return Collections.singletonList(mutations);
+
+        List<List<RowMutation>> groups = new ArrayList<List<RowMutation>>(groupCount);
+        for (int i = 0; i < groupCount; i++)
+            groups.add(new ArrayList<RowMutation>(mutations.size() / groupCount + 1));
+        for (RowMutation mutation : mutations)
+            groups.get((mutation.key().hashCode() & Integer.MAX_VALUE) % groupCount).add(mutation);
+
+        // a skewed batch may leave some groups empty
+        for (Iterator<List<RowMutation>> iter = groups.iterator(); iter.hasNext(); )
+        {
+            if (iter.next().isEmpty())
+                iter.remove();
+        }
+        return groups;
+    }
+
+    /**
+     * Applies the groups on this thread and on the MUTATION stage, whichever gets to each group
+     * first.  The caller holds the switch lock for the other threads, so they don't queue behind a
+     * flush waiting for it.  This thread only waits for groups another thread has started, so it
+     * can't deadlock on a MUTATION stage full of threads doing the same.
+     */
+    private static void applyInParallel(final List<List<RowMutation>> groups) throws IOException
+    {
+        final AtomicInteger nextGroup = new AtomicInteger(0);
+        final CountDownLatch applied = new CountDownLatch(groups.size());
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Runnable applier = new Runnable()
+        {
+            public void run()
+            {
+                int group;
+                while ((group = nextGroup.getAndIncrement()) < groups.size())
+                {
+                    try
+                    {
+                        for (RowMutation mutation : groups.get(group))
+                            open(mutation.getTable()).apply(mutation, false, true, false);
+                    }
+                    catch (Throwable t)
+                    {
+                        failure.compareAndSet(null, t);
+                    }
+                    finally
+                    {
+                        applied.countDown();
+                    }
+                }
+            }
+        };
+
+        for (int i = 1; i < groups.size(); i++)
+            StageManager.getStage(Stage.MUTATION).execute(applier);
+        applier.run();
+        try
+        {
+            applied.await();
+        }
+        catch (InterruptedException e)
+        {
+            throw new AssertionError(e);
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t != null)
+            throw new RuntimeException(t);
+    }
+
     /**
      * This method adds the row to the Commit Log associated with this table.
      * Once this happens the data associated with the individual column families
      * is also written to the column family store's memtable.
     */
     public void apply(RowMutation mutation, boolean writeCommitLog, boolean updateIndexes) throws IOException
+    {
+        apply(mutation, writeCommitLog, updateIndexes, true);
+    }
+
+    /**
+     * @param lockSwitch false if the switch lock is held for us, by a thread waiting for this
+     */
+    private void apply(RowMutation mutation, boolean writeCommitLog, boolean updateIndexes, boolean lockSwitch) throws IOException
     {
         if (logger.isDebugEnabled())
             logger.debug("applying mutation of row {}", ByteBufferUtil.bytesToHex(mutation.key()));
 
         // write the mutation to the commitlog and memtables
-        switchLock.readLock().lock();
+        if (lockSwitch)
+            switchLock.readLock().lock();
         try
         {
             if (writeCommitLog)
@@ -465,7 +605,8 @@ public class Table
         }
         finally
         {
-            switchLock.readLock().unlock();
+            if (lockSwitch)
+                switchLock.readLock().unlock();
         }
     }
 
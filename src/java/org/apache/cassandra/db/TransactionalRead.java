@@ -0,0 +1,72 @@
+package org.apache.cassandra.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessageProducer;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+
+/**
+ * The part of a read-only transaction that one server owns, sent by the server coordinating the
+ * transaction.  The owner checks the transaction id against its ReadTransactionIdTracker exactly
+ * as if the client had asked it directly (CassandraServer.multiget_slice).
+ */
+public class TransactionalRead implements MessageProducer
+{
+    private static final TransactionalReadSerializer serializer = new TransactionalReadSerializer();
+
+    public static TransactionalReadSerializer serializer()
+    {
+        return serializer;
+    }
+
+    public final long transactionId;
+    public final List<ReadCommand> commands;
+
+    public TransactionalRead(long transactionId, List<ReadCommand> commands)
+    {
+        this.transactionId = transactionId;
+        this.commands = commands;
+    }
+
+    public Message getMessage(Integer version) throws IOException
+    {
+        byte[] bytes = FBUtilities.serialize(this, serializer, version);
+        return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.TRANSACTIONAL_READ, bytes, version);
+    }
+
+    public static class TransactionalReadSerializer implements IVersionedSerializer<TransactionalRead>
+    {
+        public void serialize(TransactionalRead read, DataOutput dos, int version) throws IOException
+        {
+            dos.writeLong(read.transactionId);
+            dos.writeInt(read.commands.size());
+            for (ReadCommand command : read.commands)
+                ReadCommand.serializer().serialize(command, dos, version);
+        }
+
+        public TransactionalRead deserialize(DataInput dis, int version) throws IOException
+        {
+            long transactionId = dis.readLong();
+            int size = dis.readInt();
+            List<ReadCommand> commands = new ArrayList<ReadCommand>(size);
+            for (int i = 0; i < size; i++)
+                commands.add(ReadCommand.serializer().deserialize(dis, version));
+            return new TransactionalRead(transactionId, commands);
+        }
+
+        public long serializedSize(TransactionalRead read, int version)
+        {
+            long size = DBConstants.longSize + DBConstants.intSize;
+            for (ReadCommand command : read.commands)
+                size += ReadCommand.serializer().serializedSize(command, version);
+            return size;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.apache.cassandra.db;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.io.IColumnSerializer;
+import org.apache.cassandra.io.IVersionedSerializer;
+
+/**
+ * An owner's rows for a TransactionalRead.  The rows carry their previous versions, so when the
+ * owner found the transaction had already read one of its keys (chosenTime != CURRENT) the
+ * coordinator picks the versions visible at chosenTime, as multiget_slice does for a direct read.
+ */
+public class TransactionalReadResponse
+{
+    // no key was read by the transaction before, return the current versions
+    public static final long CURRENT = 0L;
+
+    private static final TransactionalReadResponseSerializer serializer = new TransactionalReadResponseSerializer();
+
+    public static TransactionalReadResponseSerializer serializer()
+    {
+        return serializer;
+    }
+
+    public final long chosenTime;
+    public final List<Row> rows;
+
+    public TransactionalReadResponse(long chosenTime, List<Row> rows)
+    {
+        this.chosenTime = chosenTime;
+        this.rows = rows;
+    }
+
+    public static class TransactionalReadResponseSerializer implements IVersionedSerializer<TransactionalReadResponse>
+    {
+        public void serialize(TransactionalReadResponse response, DataOutput dos, int version) throws IOException
+        {
+            dos.writeLong(response.chosenTime);
+            dos.writeInt(response.rows.size());
+            for (Row row : response.rows)
+                Row.serializer().serialize(row, dos, version);
+        }
+
+        public TransactionalReadResponse deserialize(DataInput dis, int version) throws IOException
+        {
+            long chosenTime = dis.readLong();
+            int size = dis.readInt();
+            List<Row> rows = new ArrayList<Row>(size);
+            for (int i = 0; i < size; i++)
+                rows.add(Row.serializer().deserialize(dis, version, IColumnSerializer.Flag.FROM_REMOTE, ArrayBackedSortedColumns.factory()));
+            return new TransactionalReadResponse(chosenTime, rows);
+        }
+
+        public long serializedSize(TransactionalReadResponse response, int version)
+        {
+            long size = DBConstants.longSize + DBConstants.intSize;
+            for (Row row : response.rows)
+                size += Row.serializer().serializedSize(row, version);
+            return size;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.cassandra.db;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.net.IVerbHandler;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads an owner's part of a read-only transaction coordinated by another server.
+ */
+public class TransactionalReadVerbHandler implements IVerbHandler
+{
+    private static final Logger logger_ = LoggerFactory.getLogger(TransactionalReadVerbHandler.class);
+
+    public void doVerb(Message message, String id)
+    {
+        if (StorageService.instance.isBootstrapMode())
+        {
+            throw new RuntimeException("Cannot service reads while bootstrapping!");
+        }
+
+        try
+        {
+            FastByteArrayInputStream in = new FastByteArrayInputStream(message.getMessageBody());
+            TransactionalRead read = TransactionalRead.serializer().deserialize(new DataInputStream(in), message.getVersion());
+
+            TransactionalReadResponse response = read(read);
+            byte[] bytes = FBUtilities.serialize(response, TransactionalReadResponse.serializer(), message.getVersion());
+            Message reply = message.getReply(FBUtilities.getBroadcastAddress(), bytes, message.getVersion());
+
+            if (logger_.isDebugEnabled())
+                logger_.debug("Read {} keys of transaction {}; sending response to {}@{}",
+                              new Object[]{ read.commands.size(), read.transactionId, id, message.getFrom() });
+            MessagingService.instance().sendReply(reply, id, message.getFrom());
+        }
+        catch (IOException ex)
+        {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Records the transaction id on each key.  If the transaction already read (and so recorded
+     * its id on) one of the keys, every key is read at the earliest time recorded for it, like
+     * CassandraServer.multiget_slice.
+     */
+    public static TransactionalReadResponse read(TransactionalRead read) throws IOException
+    {
+        long chosenTime = Long.MAX_VALUE;
+        boolean returnOld = false;
+        for (ReadCommand command : read.commands)
+        {
+            long returnedTxnTime = ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(command.key, read.transactionId, false, 0L);
+            if (returnedTxnTime != 0)
+            {
+                returnOld = true;
+                chosenTime = Math.min(chosenTime, returnedTxnTime);
+            }
+        }
+
+        List<Row> rows = new ArrayList<Row>(read.commands.size());
+        for (ReadCommand command : read.commands)
+            rows.add(command.getRow(Table.open(command.table)));
+        return new TransactionalReadResponse(returnOld ? chosenTime : TransactionalReadResponse.CURRENT, rows);
+    }
+}
@@ -0,0 +1,235 @@
+package org.apache.cassandra.db;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The previous versions of a column, newest (highest earliestValidTime) first.
+ *
+ * Chains are immutable: adding or removing versions returns a new chain.  A column publishes its
+ * chain with a single CAS, so writers append without locks and readers never block.  The versions
+ * sit in one array with a parallel array of their earliest valid times, which costs a reference
+ * and a long per version.  A TreeSet costs a TreeMap entry per version plus the set and map
+ * around them.  Copying on write is O(versions), which is cheap because a chain only holds the
+ * versions a read transaction may still ask for.
+ *
+ * Like the TreeSet ordered by EVTComparator that this replaces, a chain holds at most one version
+ * per earliestValidTime.
+ */
+public final class VersionChain implements Iterable<IColumn>
+{
+    public static final VersionChain EMPTY = new VersionChain(new IColumn[0], new long[0]);
+
+    private final IColumn[] versions;
+    // earliestValidTimes[i] is versions[i].earliestValidTime() when the chain was built, descending
+    private final long[] earliestValidTimes;
+
+    private VersionChain(IColumn[] versions, long[] earliestValidTimes)
+    {
+        this.versions = versions;
+        this.earliestValidTimes = earliestValidTimes;
+    }
+
+    /**
+     * @return a chain of the given versions, dropping all but the first version seen for an earliestValidTime
+     */
+    public static VersionChain of(Collection<? extends IColumn> columns)
+    {
+        VersionChain chain = EMPTY;
+        for (IColumn column : columns)
+            chain = chain.with(column);
+        return chain;
+    }
+
+    public int size()
+    {
+        return versions.length;
+    }
+
+    public boolean isEmpty()
+    {
+        return versions.length == 0;
+    }
+
+    public IColumn get(int index)
+    {
+        return versions[index];
+    }
+
+    public long earliestValidTime(int index)
+    {
+        return earliestValidTimes[index];
+    }
+
+    /**
+     * @return the index of the newest version with an earliestValidTime at or before time, or -1
+     * if every version is newer
+     */
+    public int indexAt(long time)
+    {
+        int index = search(time);
+        if (index >= 0)
+            return index;
+        //the insertion point is the first version older than time
+        int insertAt = -(index + 1);
+        return insertAt < earliestValidTimes.length ? insertAt : -1;
+    }
+
+    /**
+     * @return the version that was visible at time, or null if every version is newer
+     */
+    public IColumn versionAt(long time)
+    {
+        int index = indexAt(time);
+        return index < 0 ? null : versions[index];
+    }
+
+    /**
+     * @return this chain with version added, or this chain if it already has a version with the same earliestValidTime
+     */
+    public VersionChain with(IColumn version)
+    {
+        long evt = version.earliestValidTime();
+        int index = search(evt);
+        if (index >= 0)
+            return this;
+
+        int insertAt = -(index + 1);
+        IColumn[] newVersions = new IColumn[versions.length + 1];
+        long[] newEarliestValidTimes = new long[versions.length + 1];
+        System.arraycopy(versions, 0, newVersions, 0, insertAt);
+        System.arraycopy(earliestValidTimes, 0, newEarliestValidTimes, 0, insertAt);
+        newVersions[insertAt] = version;
+        newEarliestValidTimes[insertAt] = evt;
+        System.arraycopy(versions, insertAt, newVersions, insertAt + 1, versions.length - insertAt);
+        System.arraycopy(earliestValidTimes, insertAt, newEarliestValidTimes, insertAt + 1, versions.length - insertAt);
+        return new VersionChain(newVersions, newEarliestValidTimes);
+    }
+
+    /**
+     * @return the merge of this chain and other, keeping this chain's version on ties
+     */
+    public VersionChain withAll(VersionChain other)
+    {
+        if (other.isEmpty())
+            return this;
+        if (isEmpty())
+            return other;
+
+        IColumn[] newVersions = new IColumn[versions.length + other.versions.length];
+        long[] newEarliestValidTimes = new long[newVersions.length];
+        int i = 0, j = 0, n = 0;
+        while (i < versions.length || j < other.versions.length)
+        {
+            boolean takeThis;
+            if (j == other.versions.length)
+                takeThis = true;
+            else if (i == versions.length)
+                takeThis = false;
+            else if (earliestValidTimes[i] == other.earliestValidTimes[j])
+            {
+                j++;
+                continue;
+            }
+            else
+                takeThis = earliestValidTimes[i] > other.earliestValidTimes[j];
+
+            if (takeThis)
+            {
+                newVersions[n] = versions[i];
+                newEarliestValidTimes[n++] = earliestValidTimes[i++];
+            }
+            else
+            {
+                newVersions[n] = other.versions[j];
+                newEarliestValidTimes[n++] = other.earliestValidTimes[j++];
+            }
+        }
+        if (n < newVersions.length)
+        {
+            newVersions = Arrays.copyOf(newVersions, n);
+            newEarliestValidTimes = Arrays.copyOf(newEarliestValidTimes, n);
+        }
+        return new VersionChain(newVersions, newEarliestValidTimes);
+    }
+
+    /**
+     * Drops versions from the newest end of the chain while they were last accessed before safeTime.
+     */
+    public VersionChain withoutAccessedBefore(long safeTime)
+    {
+        int dropped = 0;
+        while (dropped < versions.length && versions[dropped].lastAccessTime() < safeTime)
+            dropped++;
+        if (dropped == 0)
+            return this;
+        return new VersionChain(Arrays.copyOfRange(versions, dropped, versions.length),
+                                Arrays.copyOfRange(earliestValidTimes, dropped, earliestValidTimes.length));
+    }
+
+    /**
+     * @return this chain reordered by the current earliestValidTime of its versions, for when a
+     * version's earliestValidTime has been moved (a pending transaction committed)
+     */
+    public VersionChain resort()
+    {
+        return of(Arrays.asList(versions));
+    }
+
+    /**
+     * @return the index of the version with earliestValidTime evt, or (-(insertion point) - 1)
+     */
+    private int search(long evt)
+    {
+        int low = 0;
+        int high = earliestValidTimes.length - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long midEvt = earliestValidTimes[mid];
+            if (midEvt > evt)
+                low = mid + 1;
+            else if (midEvt < evt)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the versions, newest first
+     */
+    public Iterator<IColumn> iterator()
+    {
+        return new Iterator<IColumn>()
+        {
+            private int next = 0;
+
+            public boolean hasNext()
+            {
+                return next < versions.length;
+            }
+
+            public IColumn next()
+            {
+                if (next >= versions.length)
+                    throw new NoSuchElementException();
+                return versions[next++];
+            }
+
+            public void remove()
+            {
+                throw new UnsupportedOperationException("version chains are immutable");
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(earliestValidTimes);
+    }
+}
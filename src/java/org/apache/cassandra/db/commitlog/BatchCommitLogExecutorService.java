@@ -23,6 +23,7 @@ package org.apache.cassandra.db.commitlog;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -153,6 +154,31 @@ class BatchCommitLogExecutorService extends AbstractCommitLogExecutorService
         }
     }
 
+    public void addAll(List<CommitLog.LogRecordAdder> adders)
+    {
+        // queue every adder before waiting on any, so they are written with the same sync
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(adders.size());
+        for (CommitLog.LogRecordAdder adder : adders)
+        {
+            // an adder is a Runnable too, so name the submit(Callable) this needs
+            Callable<Object> callable = adder;
+            futures.add(submit(callable));
+        }
+        try
+        {
+            for (Future<Object> future : futures)
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void shutdown()
     {
         new Thread(new WrappedRunnable()
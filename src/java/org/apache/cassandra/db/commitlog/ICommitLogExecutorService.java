@@ -21,6 +21,7 @@ package org.apache.cassandra.db.commitlog;
  */
 
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 
@@ -49,6 +50,11 @@ public interface ICommitLogExecutorService
      */
     public void add(CommitLog.LogRecordAdder adder);
 
+    /**
+     * submits the adders together and blocks for all of them to be synced, if necessary
+     */
+    public void addAll(List<CommitLog.LogRecordAdder> adders);
+
     /** shuts down the CommitLogExecutor in an orderly fashion */
     public void shutdown();
 
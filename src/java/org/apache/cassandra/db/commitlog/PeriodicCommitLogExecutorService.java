@@ -22,6 +22,7 @@ package org.apache.cassandra.db.commitlog;
 
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.*;
 
 import org.apache.cassandra.config.DatabaseDescriptor;
@@ -101,6 +102,12 @@ class PeriodicCommitLogExecutorService implements ICommitLogExecutorService
         }
     }
 
+    public void addAll(List<CommitLog.LogRecordAdder> adders)
+    {
+        for (CommitLog.LogRecordAdder adder : adders)
+            add(adder);
+    }
+
     public <T> Future<T> submit(Callable<T> task)
     {
         FutureTask<T> ft = new FutureTask<T>(task);
@@ -46,6 +46,8 @@ public class CompactionController
     public final int gcBefore;
     public boolean keyExistenceIsExpensive;
     public final int mergeShardBefore;
+    // previous versions last accessed before this are not written out again
+    public final long previousVersionSafeTime;
 
     public CompactionController(ColumnFamilyStore cfs, Collection<SSTableReader> sstables, int gcBefore, boolean forceDeserialize)
     {
@@ -58,6 +60,8 @@ public class CompactionController
         // add 5 minutes to be sure we're on the safe side in terms of thread safety (though we should be fine in our
         // current 'stop all write during memtable switch' situation).
         this.mergeShardBefore = (int) ((cfs.oldestUnflushedMemtable() + 5 * 3600) / 1000);
+        // fixed for the whole compaction, so both passes of a LazilyCompactedRow keep the same versions
+        this.previousVersionSafeTime = System.currentTimeMillis() - DatabaseDescriptor.getPreviousVersionRetentionInMs();
         this.forceDeserialize = forceDeserialize;
         keyExistenceIsExpensive = cfs.getCompactionStrategy().isKeyExistenceExpensive(this.sstables);
     }
@@ -68,6 +68,8 @@ public class PrecompactedRow extends AbstractCompactedRow
         // it is still ok to collect column that shadowed by their (deleted)
         // container, which removeDeleted(cf, Integer.MAX_VALUE) will do
         ColumnFamily compacted = ColumnFamilyStore.removeDeleted(cf, shouldPurge != null && shouldPurge ? controller.gcBefore : Integer.MIN_VALUE);
+        if (compacted != null)
+            ColumnFamilyStore.removeOldPreviousVersions(compacted, controller.previousVersionSafeTime);
 
         if (compacted != null && compacted.metadata().getDefaultValidator().isCommutative())
         {
@@ -84,6 +86,8 @@ public class PrecompactedRow extends AbstractCompactedRow
     {
         // See comment in preceding method
         ColumnFamily compacted = ColumnFamilyStore.removeDeleted(cf, shouldPurge ? controller.gcBefore : Integer.MIN_VALUE);
+        if (compacted != null)
+            ColumnFamilyStore.removeOldPreviousVersions(compacted, controller.previousVersionSafeTime);
         if (shouldPurge && compacted != null && compacted.metadata().getDefaultValidator().isCommutative())
             CounterColumn.mergeAndRemoveOldShards(key, compacted, controller.gcBefore, controller.mergeShardBefore);
         return compacted;
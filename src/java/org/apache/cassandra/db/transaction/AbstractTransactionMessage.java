@@ -14,6 +14,7 @@ import org.apache.cassandra.io.util.DataOutputBuffer;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
 import org.apache.cassandra.net.Message;
 import org.apache.cassandra.net.MessageProducer;
+import org.apache.cassandra.net.MessagingService;
 import org.apache.cassandra.service.StorageService;
 import org.apache.cassandra.utils.FBUtilities;
 import org.slf4j.Logger;
@@ -46,11 +47,27 @@ public abstract class AbstractTransactionMessage implements MessageProducer
         public final static int COMMIT_MASK  = 0x10;
         public final static int CHECK_MASK   = 0x20;
         public final static int CHECKED_MASK = 0x40;
+        // set along with the mask of the messages a BatchedTransactionMessage carries
+        public final static int BATCH_MASK   = 0x80;
 
         @Override
         public void serialize(AbstractTransactionMessage transactionMessage, DataOutput dos, int version) throws IOException
         {
             dos.writeByte(transactionMessage.serializationFlags());
+            if (transactionMessage instanceof BatchedTransactionMessage) {
+                assert version >= MessagingService.VERSION_BATCHED_TXN_MESSAGES : "batched for a peer at version " + version;
+                BatchedTransactionMessage batchedMessage = (BatchedTransactionMessage) transactionMessage;
+                dos.writeInt(batchedMessage.messages.size());
+                for (AbstractTransactionMessage message : batchedMessage.messages) {
+                    serializeBody(message, dos);
+                }
+            } else {
+                serializeBody(transactionMessage, dos);
+            }
+        }
+
+        private void serializeBody(AbstractTransactionMessage transactionMessage, DataOutput dos) throws IOException
+        {
             if (transactionMessage instanceof CohortMessage) {
                 CohortMessage cohortMessage = (CohortMessage) transactionMessage;
                 dos.writeLong(cohortMessage.transactionId);
@@ -84,7 +101,24 @@ public abstract class AbstractTransactionMessage implements MessageProducer
         @Override
         public AbstractTransactionMessage deserialize(DataInput dis, int version) throws IOException
         {
-            Byte typeByte = dis.readByte();
+            int typeByte = dis.readUnsignedByte();
+            if ((typeByte & BATCH_MASK) != 0) {
+                if (version < MessagingService.VERSION_BATCHED_TXN_MESSAGES)
+                    throw new IOException("Batched transaction message at version " + version);
+                int messageType = typeByte & ~BATCH_MASK;
+                int numMessages = dis.readInt();
+                List<AbstractTransactionMessage> messages = new ArrayList<AbstractTransactionMessage>(numMessages);
+                for (int i = 0; i < numMessages; ++i) {
+                    messages.add(deserializeBody(messageType, dis));
+                }
+                return new BatchedTransactionMessage(messages);
+            } else {
+                return deserializeBody(typeByte, dis);
+            }
+        }
+
+        private AbstractTransactionMessage deserializeBody(int typeByte, DataInput dis) throws IOException
+        {
             if ((typeByte & NOTIFY_MASK) != 0) {
                 long transactionId = dis.readLong();
                 int localKeyCount = dis.readInt();
@@ -129,17 +163,30 @@ public abstract class AbstractTransactionMessage implements MessageProducer
 
         @Override
         public long serializedSize(AbstractTransactionMessage transactionMessage, int version)
+        {
+            if (transactionMessage instanceof BatchedTransactionMessage) {
+                long size = 1 + DBConstants.intSize;
+                for (AbstractTransactionMessage message : ((BatchedTransactionMessage) transactionMessage).messages) {
+                    size += bodySize(message);
+                }
+                return size;
+            } else {
+                return 1 + bodySize(transactionMessage);
+            }
+        }
+
+        private long bodySize(AbstractTransactionMessage transactionMessage)
         {
             if (transactionMessage instanceof CohortMessage) {
-                return 1 + DBConstants.longSize + DBConstants.intSize;
+                return DBConstants.longSize + DBConstants.intSize;
             } else if (transactionMessage instanceof PrepareMessage) {
-                return 1 + DBConstants.longSize;
+                return DBConstants.longSize;
             } else if (transactionMessage instanceof CommitMessage) {
-                return 1 + DBConstants.longSize + DBConstants.longSize;
+                return DBConstants.longSize + DBConstants.longSize;
             } else if (transactionMessage instanceof CheckTransactionMessage) {
-                return 1 + DBConstants.intSize + (((CheckTransactionMessage) transactionMessage).transactionIds.size() * DBConstants.longSize);
+                return DBConstants.intSize + (((CheckTransactionMessage) transactionMessage).transactionIds.size() * DBConstants.longSize);
             } else if (transactionMessage instanceof TransactionsCheckedMessage) {
-                return 1 + DBConstants.intSize + (((TransactionsCheckedMessage) transactionMessage).transactionIdToResult.size()) * (DBConstants.longSize + DBConstants.longSize);
+                return DBConstants.intSize + (((TransactionsCheckedMessage) transactionMessage).transactionIdToResult.size()) * (DBConstants.longSize + DBConstants.longSize);
             } else {
                 assert false : "Unknown type: " + transactionMessage.getClass();
                 return Long.MIN_VALUE;
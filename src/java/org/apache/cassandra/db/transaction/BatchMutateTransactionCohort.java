@@ -48,9 +48,9 @@ public class BatchMutateTransactionCohort implements MessageProducer
 
     private final Logger logger = LoggerFactory.getLogger(BatchMutateTransactionCohort.class);
 
-    private static Map<Long, BatchMutateTransactionCohort> idToCohort = Collections.synchronizedMap(new HashMap<Long, BatchMutateTransactionCohort>());
+    private static TransactionStateTable<BatchMutateTransactionCohort> idToCohort = new TransactionStateTable<BatchMutateTransactionCohort>("Cohorts", 0);
 
-    public static BatchMutateTransactionCohort findCohort(Long transactionId)
+    public static BatchMutateTransactionCohort findCohort(long transactionId)
     {
         return idToCohort.get(transactionId);
     }
@@ -202,6 +202,49 @@ public class BatchMutateTransactionCohort implements MessageProducer
     }
 
     public void receiveCommit(long localCommitTime)
+    {
+        startCommit(localCommitTime);
+
+        try {
+            BatchMutateTransactionUtil.applyTransaction(keyspace, mutations, timestamp, localCommitTime, coordinatorKey);
+        } catch (Exception e) {
+	    e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+
+        finishCommit();
+    }
+
+    /**
+     * Commits the cohorts of a batch of commits like receiveCommit, but applies the mutations of
+     * all of them together so they share one commit log sync.
+     */
+    public static void receiveCommits(List<CommitMessage> commits)
+    {
+        List<BatchMutateTransactionCohort> cohorts = new ArrayList<BatchMutateTransactionCohort>(commits.size());
+        List<IMutation> mutations = new ArrayList<IMutation>();
+        for (CommitMessage commit : commits) {
+            BatchMutateTransactionCohort cohort = findCohort(commit.getTransactionId());
+            assert cohort != null;
+            cohort.startCommit(commit.getCommitTime());
+            BatchMutateTransactionUtil.updateTimestamps(cohort.mutations, cohort.timestamp, cohort.localCommitTime);
+            mutations.addAll(cohort.mutations);
+            cohorts.add(cohort);
+        }
+
+        try {
+            BatchMutateTransactionUtil.applyTransactions(mutations);
+        } catch (Exception e) {
+	    e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+
+        for (BatchMutateTransactionCohort cohort : cohorts) {
+            cohort.finishCommit();
+        }
+    }
+
+    private void startCommit(long localCommitTime)
     {
 	if (sanityCheckFireOnces) {
 	    synchronized(receivedCommit) {
@@ -220,14 +263,10 @@ public class BatchMutateTransactionCohort implements MessageProducer
         if (local) {
             this.timestamp = localCommitTime;
         }
+    }
 
-        try {
-            BatchMutateTransactionUtil.applyTransaction(keyspace, mutations, timestamp, localCommitTime, coordinatorKey);
-        } catch (Exception e) {
-	    e.printStackTrace();
-            throw new RuntimeException(e);
-        }
-
+    private void finishCommit()
+    {
         try {
             TransactionProxy.sendAck(keyspace, coordinatorKey, transactionId, localKeyCount);
         } catch (IOException e) {
@@ -10,6 +10,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.*;
 import org.apache.cassandra.io.IVersionedSerializer;
 import org.apache.cassandra.io.util.FastByteArrayInputStream;
@@ -58,12 +59,11 @@ public class BatchMutateTransactionCoordinator implements MessageProducer
     private static final Logger static_logger = LoggerFactory.getLogger(BatchMutateTransactionCoordinator.class);
     private final Logger logger = LoggerFactory.getLogger(BatchMutateTransactionCoordinator.class);
 
-    // TODO: Switch to ConcurrentHashMap?
-    private static Map<Long, BatchMutateTransactionCoordinator> idToCoordinator = Collections.synchronizedMap(new HashMap<Long, BatchMutateTransactionCoordinator>());
+    private static TransactionStateTable<BatchMutateTransactionCoordinator> idToCoordinator = new TransactionStateTable<BatchMutateTransactionCoordinator>("Coordinators", 0);
     private static Map<Long, Integer> queuedNotifications = new HashMap<Long, Integer>();
     private static Map<Long, Integer> queuedYesVotes = new HashMap<Long, Integer>();
 
-    public static BatchMutateTransactionCoordinator findCoordinator(Long transactionId)
+    public static BatchMutateTransactionCoordinator findCoordinator(long transactionId)
     {
         return idToCoordinator.get(transactionId);
     }
@@ -416,13 +416,21 @@ public class BatchMutateTransactionCoordinator implements MessageProducer
             logger.trace("commit() on {}", new Object[]{transactionId});
         }
 
+        //with every key here, no other node of this datacenter sees the transaction before it is
+        //applied: a single row is one write with one version, like a batch_mutate of that row, and
+        //needs no pending columns; more rows still need them, for reads that see one row before we
+        //apply it and another after, but only in memory, as the commit below logs every row
+        boolean singleServer = local && remoteKeys.isEmpty() && DatabaseDescriptor.isSingleServerTransactionFastPath();
+
         //set latestValidTime on local keys
         //NOTE: Need to set a "don't" update flag here
-        try {
-            BatchMutateTransactionUtil.markTransactionPending(keyspace, mutations, transactionId);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+        if (!singleServer || mutations.size() > 1) {
+            try {
+                BatchMutateTransactionUtil.markTransactionPending(keyspace, mutations, transactionId, !singleServer);
+            } catch (Exception e) {
+                e.printStackTrace();
+                throw new RuntimeException(e);
+            }
         }
 
         //commit now
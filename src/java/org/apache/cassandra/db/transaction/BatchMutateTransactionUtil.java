@@ -3,13 +3,13 @@ package org.apache.cassandra.db.transaction;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map.Entry;
 
 import org.apache.cassandra.config.CFMetaData;
-import org.apache.cassandra.db.CounterMutation;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.IMutation;
 import org.apache.cassandra.db.RowMutation;
+import org.apache.cassandra.db.Table;
 import org.apache.cassandra.thrift.ConsistencyLevel;
 import org.apache.cassandra.thrift.InvalidRequestException;
 import org.apache.cassandra.thrift.Mutation;
@@ -21,9 +21,9 @@ import org.slf4j.LoggerFactory;
 public class BatchMutateTransactionUtil
 {
     private static final Logger logger = LoggerFactory.getLogger(BatchMutateTransactionUtil.class);
-    private static Map<Long, ByteBuffer> transactionIdToCoordinatorKey = new ConcurrentHashMap<Long, ByteBuffer>();
-    //WL TODO: Garbage Collect Old Entries in transactionIdToCommitTime
-    private static Map<Long, Long> transactionIdToLocalCommitTime = new ConcurrentHashMap<Long, Long>();
+    private static TransactionStateTable<ByteBuffer> transactionIdToCoordinatorKey = new TransactionStateTable<ByteBuffer>("CoordinatorKeys", 0);
+    // other nodes check a transaction for as long as its pending columns can be read, which the expiry outlasts
+    private static TransactionStateTable<Long> transactionIdToLocalCommitTime = new TransactionStateTable<Long>("CommitTimes", DatabaseDescriptor.getTransactionStateExpiryInMs());
 
     public static class CommitOrNotYetTime
     {
@@ -37,7 +37,7 @@ public class BatchMutateTransactionUtil
             this.notYetCommittedTime = notYetCommittedTime;
         }
     }
-    private static Map<Long, CommitOrNotYetTime> checkedTransactions = new HashMap<Long, CommitOrNotYetTime>();
+    private static TransactionStateTable<CommitOrNotYetTime> checkedTransactions = new TransactionStateTable<CommitOrNotYetTime>("CheckedTransactions", DatabaseDescriptor.getTransactionStateExpiryInMs());
 
     private BatchMutateTransactionUtil() {
         //don't instantiate, helper functions only
@@ -56,7 +56,7 @@ public class BatchMutateTransactionUtil
         assert removedKey == coordinatorKey;
     }
 
-    public static ByteBuffer findCoordinatorKey(Long transactionId)
+    public static ByteBuffer findCoordinatorKey(long transactionId)
     {
         return transactionIdToCoordinatorKey.get(transactionId);
     }
@@ -124,31 +124,58 @@ public class BatchMutateTransactionUtil
 
     public static void markTransactionPending(String keyspace, List<IMutation> mutations, long transactionId)
     throws InvalidRequestException, IOException
+    {
+        markTransactionPending(keyspace, mutations, transactionId, true);
+    }
+
+    /**
+     * @param durable false to keep the pending columns out of the commit log, for a transaction
+     * whose mutations are logged before anything outside this node hears of it.  If the node
+     * fails before then, the transaction never happened and its pending columns shouldn't return.
+     */
+    public static void markTransactionPending(String keyspace, List<IMutation> mutations, long transactionId, boolean durable)
+    throws InvalidRequestException, IOException
     {
         long pendingTime = LamportClock.getVersion();
 
         for (IMutation mutation : mutations) {
-            mutation.convertToPending(pendingTime, transactionId).apply();
+            if (durable) {
+                mutation.convertToPending(pendingTime, transactionId).apply();
+            } else {
+                mutation.convertToPending(pendingTime, transactionId).applyUnsafe();
+            }
         }
     }
 
     public static void applyTransaction(String keyspace, List<IMutation> mutations, long timestamp, long localCommitTime, ByteBuffer coordinatorKey)
     throws InvalidRequestException, IOException
+    {
+        updateTimestamps(mutations, timestamp, localCommitTime);
+
+        //apply mutations locally, note these are not applied atomically, but that's fine because get_transactions will ensure they are seen atomically
+        applyTransactions(mutations);
+    }
+
+    public static void updateTimestamps(List<IMutation> mutations, long timestamp, long localCommitTime)
     {
         for (IMutation mutation : mutations) {
             mutation.updateTimestamps(timestamp, localCommitTime);
         }
+    }
 
-        //apply mutations locally, note these are not applied atomically, but that's fine because get_transactions will ensure they are seen atomically
-        for (final IMutation mutation : mutations) {
-            if (mutation instanceof CounterMutation) {
-                assert false : "Not yet handled";
-                //responseHandlers.add(mutateCounter((CounterMutation)mutation, localDataCenter));
-            } else {
-                assert mutation instanceof RowMutation;
-                mutation.apply();
-            }
+    /**
+     * Applies the already timestamped mutations of one or more transactions, with one commit log
+     * sync for all of them, spread over the MUTATION stage if parallel_transaction_apply is set.
+     */
+    public static void applyTransactions(List<IMutation> mutations)
+    throws IOException
+    {
+        List<RowMutation> rowMutations = new ArrayList<RowMutation>(mutations.size());
+        for (IMutation mutation : mutations) {
+            assert mutation instanceof RowMutation : "Not yet handled";
+            rowMutations.add((RowMutation) mutation);
         }
+        Table.applyAll(rowMutations);
     }
 
     /**
@@ -200,26 +227,31 @@ public class BatchMutateTransactionUtil
             if (commitTime != Long.MIN_VALUE) {
                 checkedTransactions.put(transactionId, new CommitOrNotYetTime(commitTime, null));
             } else {
-                //not yet committed as of checkedTime
-                if (checkedTransactions.containsKey(transactionId)) {
+                //not yet committed as of checkedTime, callbacks for the same transaction may race so only replace what we saw
+                while (true) {
                     CommitOrNotYetTime conyt = checkedTransactions.get(transactionId);
-                    if (conyt.commitTime != null) {
-                        //already committed, don't update
-                        assert commitTime > checkedTime;
-                        continue;
-                    } else {
+                    CommitOrNotYetTime updated;
+                    if (conyt != null) {
+                        if (conyt.commitTime != null) {
+                            //already committed, don't update
+                            assert conyt.commitTime > checkedTime;
+                            break;
+                        }
                         //ensure notYetCommittedTime is monotonically increasing
                         long notYetCommittedTime = Math.max(conyt.notYetCommittedTime, checkedTime);
-                        checkedTransactions.put(transactionId, new CommitOrNotYetTime(null, notYetCommittedTime));
+                        updated = new CommitOrNotYetTime(null, notYetCommittedTime);
+                    } else {
+                        updated = new CommitOrNotYetTime(null, checkedTime);
+                    }
+                    if (checkedTransactions.replace(transactionId, conyt, updated)) {
+                        break;
                     }
-                } else {
-                    checkedTransactions.put(transactionId, new CommitOrNotYetTime(null, checkedTime));
                 }
             }
         }
     }
 
-    public static CommitOrNotYetTime findCheckedTransactionResult(Long transactionId)
+    public static CommitOrNotYetTime findCheckedTransactionResult(long transactionId)
     {
         return checkedTransactions.get(transactionId);
     }
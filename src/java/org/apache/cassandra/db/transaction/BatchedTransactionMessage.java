@@ -0,0 +1,39 @@
+package org.apache.cassandra.db.transaction;
+
+import java.util.List;
+
+/**
+ * Messages of one phase (all notifies, all commits, ...) for different transactions, sent to the
+ * same endpoint together by TransactionMessageBatcher.
+ */
+public class BatchedTransactionMessage extends AbstractTransactionMessage
+{
+    final int messageFlags;
+    final List<AbstractTransactionMessage> messages;
+
+    public BatchedTransactionMessage(List<AbstractTransactionMessage> messages)
+    {
+        assert !messages.isEmpty();
+        this.messageFlags = messages.get(0).serializationFlags();
+        for (AbstractTransactionMessage message : messages) {
+            assert message.serializationFlags() == messageFlags : "Messages of different phases may not be batched together";
+        }
+        this.messages = messages;
+    }
+
+    public List<AbstractTransactionMessage> getMessages()
+    {
+        return messages;
+    }
+
+    public int getMessageFlags()
+    {
+        return messageFlags;
+    }
+
+    @Override
+    public int serializationFlags()
+    {
+        return TransactionMessageSerializer.BATCH_MASK | messageFlags;
+    }
+}
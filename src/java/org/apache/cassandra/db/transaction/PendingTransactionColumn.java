@@ -1,12 +1,12 @@
 package org.apache.cassandra.db.transaction;
 
 import java.nio.ByteBuffer;
-import java.util.NavigableSet;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.db.Column;
 import org.apache.cassandra.db.ColumnSerializer;
 import org.apache.cassandra.db.IColumn;
+import org.apache.cassandra.db.VersionChain;
 import org.apache.cassandra.db.marshal.MarshalException;
 import org.apache.cassandra.utils.ByteBufferUtil;
 
@@ -38,7 +38,7 @@ public class PendingTransactionColumn extends Column
         this(name, value, timestamp, null, null, timestamp, null, null, null);
     }
 
-    public PendingTransactionColumn(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, NavigableSet<IColumn> previousVersions, ByteBuffer transactionCoordinatorKey)
+    public PendingTransactionColumn(ByteBuffer name, ByteBuffer value, long timestamp, Long lastAccessTime, Long previousVersionLastAccessTime, Long earliestValidTime, Long latestValidTime, VersionChain previousVersions, ByteBuffer transactionCoordinatorKey)
     {
         super(name, value, timestamp, lastAccessTime, previousVersionLastAccessTime, earliestValidTime, latestValidTime, previousVersions, transactionCoordinatorKey);
     }
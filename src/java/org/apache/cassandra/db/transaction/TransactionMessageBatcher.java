@@ -0,0 +1,163 @@
+package org.apache.cassandra.db.transaction;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.concurrent.AdaptiveBatchExecutor;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Sends the one-way 2PC messages of write transactions, coalescing the messages that the
+ * coordinators and cohorts of this node send to the same endpoint close together.  Messages are
+ * only batched with others of the same phase, so one BatchedTransactionMessage is sent per
+ * endpoint and phase, and a cohort receiving a batch of commits applies them together.  Endpoints
+ * older than VERSION_BATCHED_TXN_MESSAGES can't read a batch, and get each message on its own.
+ *
+ * There is only a batcher (and its thread and MBean) with batch_transaction_messages on; otherwise
+ * TransactionProxy sends each message through sendUnbatched.
+ */
+public class TransactionMessageBatcher extends AdaptiveBatchExecutor<TransactionMessageBatcher.PendingMessage> implements TransactionMessageBatcherMBean
+{
+    private static final Logger logger = LoggerFactory.getLogger(TransactionMessageBatcher.class);
+
+    // messages handed to the batcher, and the messages actually sent for them
+    private static final AtomicLong messagesRequested = new AtomicLong();
+    private static final AtomicLong messagesSent = new AtomicLong();
+
+    public TransactionMessageBatcher()
+    {
+        super("TransactionMessageBatcher", DatabaseDescriptor.getWriteBatchMaxSize(), DatabaseDescriptor.getWriteBatchMaxWindowInMs());
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName("org.apache.cassandra.db:type=TransactionMessageBatcher"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void enqueue(InetAddress endpoint, AbstractTransactionMessage message)
+    {
+        add(new PendingMessage(endpoint, message));
+    }
+
+    public static void sendUnbatched(InetAddress endpoint, AbstractTransactionMessage message) throws IOException
+    {
+        messagesRequested.getAndIncrement();
+        send(endpoint, message);
+    }
+
+    @Override
+    protected void process(List<PendingMessage> batch)
+    {
+        List<Pair<InetAddress, AbstractTransactionMessage>> grouped = group(batch, new Predicate<InetAddress>()
+        {
+            public boolean apply(InetAddress endpoint)
+            {
+                return Gossiper.instance.getVersion(endpoint) >= MessagingService.VERSION_BATCHED_TXN_MESSAGES;
+            }
+        });
+        for (Pair<InetAddress, AbstractTransactionMessage> message : grouped)
+        {
+            try
+            {
+                send(message.left, message.right);
+            }
+            catch (IOException e)
+            {
+                logger.error("Error sending " + message.right + " to " + message.left, e);
+            }
+        }
+        messagesRequested.getAndAdd(batch.size());
+        if (logger.isDebugEnabled())
+            logger.debug("Sent {} transaction messages as {}, window {} us", new Object[]{ batch.size(), grouped.size(), getWindowMicros() });
+    }
+
+    /**
+     * Groups the messages by endpoint and phase, keeping their order within each group.
+     *
+     * @param canBatch whether an endpoint reads batched messages
+     * @return one message per group, batched if the group has more than one, and each message to
+     * an endpoint that can't read batches on its own
+     */
+    static List<Pair<InetAddress, AbstractTransactionMessage>> group(List<PendingMessage> batch, Predicate<InetAddress> canBatch)
+    {
+        List<Pair<InetAddress, AbstractTransactionMessage>> grouped = new ArrayList<Pair<InetAddress, AbstractTransactionMessage>>();
+        Map<InetAddress, Map<Integer, List<AbstractTransactionMessage>>> endpointToPhases = new LinkedHashMap<InetAddress, Map<Integer, List<AbstractTransactionMessage>>>();
+        for (PendingMessage pending : batch)
+        {
+            if (!canBatch.apply(pending.endpoint))
+            {
+                grouped.add(new Pair<InetAddress, AbstractTransactionMessage>(pending.endpoint, pending.message));
+                continue;
+            }
+
+            Map<Integer, List<AbstractTransactionMessage>> phases = endpointToPhases.get(pending.endpoint);
+            if (phases == null)
+            {
+                phases = new LinkedHashMap<Integer, List<AbstractTransactionMessage>>();
+                endpointToPhases.put(pending.endpoint, phases);
+            }
+            List<AbstractTransactionMessage> messages = phases.get(pending.message.serializationFlags());
+            if (messages == null)
+            {
+                messages = new ArrayList<AbstractTransactionMessage>();
+                phases.put(pending.message.serializationFlags(), messages);
+            }
+            messages.add(pending.message);
+        }
+
+        for (Map.Entry<InetAddress, Map<Integer, List<AbstractTransactionMessage>>> entry : endpointToPhases.entrySet())
+        {
+            for (List<AbstractTransactionMessage> messages : entry.getValue().values())
+            {
+                AbstractTransactionMessage message = messages.size() == 1 ? messages.get(0) : new BatchedTransactionMessage(messages);
+                grouped.add(new Pair<InetAddress, AbstractTransactionMessage>(entry.getKey(), message));
+            }
+        }
+        return grouped;
+    }
+
+    private static void send(InetAddress endpoint, AbstractTransactionMessage message) throws IOException
+    {
+        messagesSent.getAndIncrement();
+        MessagingService.instance().sendOneWay(message.getMessage(Gossiper.instance.getVersion(endpoint)), endpoint);
+    }
+
+    public long getMessagesSent()
+    {
+        return messagesSent.get();
+    }
+
+    public long getMessagesSaved()
+    {
+        return messagesRequested.get() - messagesSent.get();
+    }
+
+    static class PendingMessage
+    {
+        final InetAddress endpoint;
+        final AbstractTransactionMessage message;
+
+        PendingMessage(InetAddress endpoint, AbstractTransactionMessage message)
+        {
+            this.endpoint = endpoint;
+            this.message = message;
+        }
+    }
+}
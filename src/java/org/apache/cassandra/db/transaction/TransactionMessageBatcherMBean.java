@@ -0,0 +1,13 @@
+package org.apache.cassandra.db.transaction;
+
+public interface TransactionMessageBatcherMBean
+{
+    /** transaction messages sent, a batch counting as one */
+    public long getMessagesSent();
+
+    /** messages saved by sending one per endpoint per phase per batch instead of one per transaction */
+    public long getMessagesSaved();
+
+    /** the current batching window, which adapts to load */
+    public long getWindowMicros();
+}
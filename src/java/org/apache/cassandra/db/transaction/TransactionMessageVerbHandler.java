@@ -1,6 +1,8 @@
 package org.apache.cassandra.db.transaction;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.cassandra.net.IVerbHandler;
 import org.apache.cassandra.net.Message;
@@ -22,6 +24,27 @@ public class TransactionMessageVerbHandler implements IVerbHandler
             logger_.error("Error in decoding transactionMessage");
         }
 
+        if (transactionMessage instanceof BatchedTransactionMessage) {
+            BatchedTransactionMessage batch = (BatchedTransactionMessage) transactionMessage;
+            if (batch.getMessageFlags() == AbstractTransactionMessage.TransactionMessageSerializer.COMMIT_MASK) {
+                //group commit: apply the mutations of all the batched transactions with one commit log sync
+                List<CommitMessage> commits = new ArrayList<CommitMessage>(batch.getMessages().size());
+                for (AbstractTransactionMessage commit : batch.getMessages()) {
+                    commits.add((CommitMessage) commit);
+                }
+                BatchMutateTransactionCohort.receiveCommits(commits);
+            } else {
+                for (AbstractTransactionMessage batchedMessage : batch.getMessages()) {
+                    deliver(batchedMessage, message, id);
+                }
+            }
+        } else {
+            deliver(transactionMessage, message, id);
+        }
+    }
+
+    private void deliver(AbstractTransactionMessage transactionMessage, Message message, String id)
+    {
         if (transactionMessage instanceof NotifyMessage) {
             //call deliverNotification function in case the coordinator hasn't been created yet
             NotifyMessage notify = (NotifyMessage) transactionMessage;
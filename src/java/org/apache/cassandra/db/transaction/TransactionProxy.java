@@ -30,9 +30,20 @@ public class TransactionProxy
 {
     private static final Logger logger = LoggerFactory.getLogger(TransactionProxy.class);
     public static final long FAKE_PENDING_TRANSACTION_ID = Long.MIN_VALUE;
+    // null unless batch_transaction_messages is on, so its thread and MBean only exist when used
+    private static final TransactionMessageBatcher batcher = DatabaseDescriptor.isBatchTransactionMessages() ? new TransactionMessageBatcher() : null;
 
     private TransactionProxy() {}
 
+    private static void send(InetAddress endpoint, AbstractTransactionMessage transactionMessage)
+    throws IOException
+    {
+        if (batcher != null)
+            batcher.enqueue(endpoint, transactionMessage);
+        else
+            TransactionMessageBatcher.sendUnbatched(endpoint, transactionMessage);
+    }
+
     private static void sendTransactionMessage(String keyspace, ByteBuffer key, AbstractTransactionMessage transactionMessage)
     throws IOException
     {
@@ -40,7 +51,7 @@ public class TransactionProxy
         assert localEndpoints.size() == 1 : "Assumed for now";
         InetAddress localEndpoint = localEndpoints.get(0);
 
-        MessagingService.instance().sendOneWay(transactionMessage.getMessage(Gossiper.instance.getVersion(localEndpoint)), localEndpoint);
+        send(localEndpoint, transactionMessage);
     }
 
     private static void sendTransactionMessages(String keyspace, List<ByteBuffer> keys, AbstractTransactionMessage transactionMessage)
@@ -57,7 +68,7 @@ public class TransactionProxy
         }
 
         for (InetAddress endpoint : allLocalEndpoints) {
-            MessagingService.instance().sendOneWay(transactionMessage.getMessage(Gossiper.instance.getVersion(endpoint)), endpoint);
+            send(endpoint, transactionMessage);
         }
     }
 
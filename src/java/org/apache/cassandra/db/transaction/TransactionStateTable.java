@@ -0,0 +1,337 @@
+package org.apache.cassandra.db.transaction;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Per-transaction state of this node, keyed by transaction id.
+ *
+ * Ids are kept as primitive longs in open addressed tables, split over a fixed number of segments
+ * with a lock each, so lookups from the read path only contend with other accesses to the same
+ * segment.  A table with an expiry drops its entries a generation at a time instead of tracking
+ * each entry's age: entries go into the current generation, and once per expiry period the
+ * previous generation is dropped and the current one takes its place.  An entry is therefore kept
+ * for at least one and at most two expiry periods, and the table's memory is bounded by the
+ * transactions of the last two periods however long the node runs.
+ */
+public class TransactionStateTable<V> implements TransactionStateTableMBean
+{
+    private static final int SEGMENTS = 64;
+
+    private final long expiryInMs;
+    // segment i of both generations is guarded by locks[i]
+    private final Object[] locks = new Object[SEGMENTS];
+    private volatile Generation current = new Generation();
+    // null unless the table expires its entries
+    private volatile Generation previous;
+    private volatile long rotateAt;
+    private final AtomicLong expiredEntries = new AtomicLong();
+
+    /**
+     * @param name the table's name in its MBean, org.apache.cassandra.db:type=TransactionState,table=name
+     * @param expiryInMs how long entries are kept at least, 0 to keep them until they are removed
+     */
+    public TransactionStateTable(String name, long expiryInMs)
+    {
+        this(expiryInMs, System.currentTimeMillis());
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName("org.apache.cassandra.db:type=TransactionState,table=" + name));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // for tables outside of JMX, on a given clock
+    TransactionStateTable(long expiryInMs, long now)
+    {
+        assert expiryInMs >= 0;
+        this.expiryInMs = expiryInMs;
+        for (int i = 0; i < SEGMENTS; i++)
+            locks[i] = new Object();
+        if (expiryInMs > 0)
+        {
+            previous = new Generation();
+            rotateAt = now + expiryInMs;
+        }
+    }
+
+    public V get(long transactionId)
+    {
+        int segment = segmentFor(transactionId);
+        synchronized (locks[segment])
+        {
+            return find(transactionId, segment);
+        }
+    }
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    public V put(long transactionId, V value)
+    {
+        return put(transactionId, value, System.currentTimeMillis());
+    }
+
+    V put(long transactionId, V value, long now)
+    {
+        assert value != null;
+        maybeRotate(now);
+        int segment = segmentFor(transactionId);
+        synchronized (locks[segment])
+        {
+            V old = removeOld(transactionId, segment);
+            V replaced = current.segments[segment].put(transactionId, value);
+            return replaced != null ? replaced : old;
+        }
+    }
+
+    /**
+     * Sets the value if it is still the expected one, like ConcurrentMap.replace.
+     *
+     * @param expected the current value, or null if there should be none
+     * @return true if the value was set
+     */
+    public boolean replace(long transactionId, V expected, V value)
+    {
+        return replace(transactionId, expected, value, System.currentTimeMillis());
+    }
+
+    boolean replace(long transactionId, V expected, V value, long now)
+    {
+        assert value != null;
+        maybeRotate(now);
+        int segment = segmentFor(transactionId);
+        synchronized (locks[segment])
+        {
+            if (find(transactionId, segment) != expected)
+                return false;
+            removeOld(transactionId, segment);
+            current.segments[segment].put(transactionId, value);
+            return true;
+        }
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    public V remove(long transactionId)
+    {
+        int segment = segmentFor(transactionId);
+        synchronized (locks[segment])
+        {
+            V removed = current.segments[segment].remove(transactionId);
+            V old = removeOld(transactionId, segment);
+            return removed != null ? removed : old;
+        }
+    }
+
+    public long getSize()
+    {
+        Generation old = previous;
+        return current.size() + (old == null ? 0 : old.size());
+    }
+
+    public long getExpiryInMs()
+    {
+        return expiryInMs;
+    }
+
+    public long getExpiredEntries()
+    {
+        return expiredEntries.get();
+    }
+
+    private V find(long transactionId, int segment)
+    {
+        V value = current.segments[segment].get(transactionId);
+        if (value == null && previous != null)
+            value = previous.segments[segment].get(transactionId);
+        return value;
+    }
+
+    // entries only ever live in one generation, an update moves them to the current one
+    private V removeOld(long transactionId, int segment)
+    {
+        Generation old = previous;
+        return old == null ? null : old.segments[segment].remove(transactionId);
+    }
+
+    private void maybeRotate(long now)
+    {
+        if (expiryInMs == 0 || now < rotateAt)
+            return;
+        synchronized (this)
+        {
+            if (now < rotateAt)
+                return;
+            Generation dropped = previous;
+            // take every lock so no update is in the middle of moving an entry between generations
+            rotate(0);
+            expiredEntries.addAndGet(dropped.size());
+            rotateAt = now + expiryInMs;
+        }
+    }
+
+    private void rotate(int segment)
+    {
+        if (segment == SEGMENTS)
+        {
+            previous = current;
+            current = new Generation();
+            return;
+        }
+        synchronized (locks[segment])
+        {
+            rotate(segment + 1);
+        }
+    }
+
+    private static int segmentFor(long transactionId)
+    {
+        return Segment.hash(transactionId) >>> 26;
+    }
+
+    private class Generation
+    {
+        final Segment<V>[] segments;
+
+        @SuppressWarnings("unchecked")
+        Generation()
+        {
+            segments = (Segment<V>[]) new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++)
+                segments[i] = new Segment<V>();
+        }
+
+        // unlocked, for gauges
+        long size()
+        {
+            long size = 0;
+            for (Segment<V> segment : segments)
+                size += segment.size;
+            return size;
+        }
+    }
+
+    /**
+     * Open addressed (linear probing) table of transactionId -> value in parallel arrays, with an
+     * empty slot holding a null value.  Removal shifts the rest of the probe sequence back instead
+     * of leaving tombstones.  Callers hold the segment's lock.
+     */
+    static class Segment<V>
+    {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private long[] ids = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        int size = 0;
+
+        @SuppressWarnings("unchecked")
+        V get(long id)
+        {
+            int slot = find(id);
+            return slot < 0 ? null : (V) values[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(long id, V value)
+        {
+            int slot = find(id);
+            if (slot >= 0)
+            {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+            insert(id, value);
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        V remove(long id)
+        {
+            int slot = find(id);
+            if (slot < 0)
+                return null;
+            V old = (V) values[slot];
+            removeSlot(slot);
+            // shrink back once a burst of transactions has drained
+            if (values.length > INITIAL_CAPACITY && size * 8 < values.length)
+                resize(values.length / 2);
+            return old;
+        }
+
+        private int find(long id)
+        {
+            int mask = values.length - 1;
+            for (int slot = hash(id) & mask; values[slot] != null; slot = (slot + 1) & mask)
+            {
+                if (ids[slot] == id)
+                    return slot;
+            }
+            return -1;
+        }
+
+        private void insert(long id, Object value)
+        {
+            // keep at least a quarter of the slots free so probing stays short
+            if ((size + 1) * 4 > values.length * 3)
+                resize(values.length * 2);
+
+            int mask = values.length - 1;
+            int slot = hash(id) & mask;
+            while (values[slot] != null)
+                slot = (slot + 1) & mask;
+            ids[slot] = id;
+            values[slot] = value;
+            size++;
+        }
+
+        private void removeSlot(int slot)
+        {
+            int mask = values.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask)
+            {
+                int ideal = hash(ids[next]) & mask;
+                // entries whose ideal slot is cyclically in (hole, next] can't move before it
+                boolean stays = hole <= next ? (hole < ideal && ideal <= next) : (hole < ideal || ideal <= next);
+                if (stays)
+                    continue;
+                ids[hole] = ids[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            values[hole] = null;
+            size--;
+        }
+
+        private void resize(int capacity)
+        {
+            long[] oldIds = ids;
+            Object[] oldValues = values;
+            ids = new long[capacity];
+            values = new Object[capacity];
+            size = 0;
+            for (int i = 0; i < oldValues.length; i++)
+            {
+                if (oldValues[i] != null)
+                    insert(oldIds[i], oldValues[i]);
+            }
+        }
+
+        static int hash(long id)
+        {
+            // the low bits are the client or node id, mix in the time so one client's ids spread out
+            long h = id * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.apache.cassandra.db.transaction;
+
+public interface TransactionStateTableMBean
+{
+    /** transactions with an entry in the table */
+    public long getSize();
+
+    /** how long an entry is kept at least, 0 if entries are kept until removed */
+    public long getExpiryInMs();
+
+    /** entries dropped because they expired rather than being removed */
+    public long getExpiredEntries();
+}
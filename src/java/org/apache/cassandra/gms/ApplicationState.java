@@ -32,8 +32,9 @@ public enum ApplicationState
     REMOVAL_COORDINATOR,
     INTERNAL_IP,
     RPC_ADDRESS,
+    // applied watermarks of remote origins, see SatisfiedDependencyCache
+    APPLIED_WATERMARKS,
     // pad to allow adding new states to existing cluster
-    X1,
     X2,
     X3,
     X4,
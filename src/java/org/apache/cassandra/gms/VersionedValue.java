@@ -20,6 +20,7 @@ package org.apache.cassandra.gms;
 
 import java.io.*;
 import java.net.InetAddress;
+import java.util.Collection;
 import java.util.UUID;
 
 import org.apache.cassandra.dht.IPartitioner;
@@ -179,6 +180,18 @@ public class VersionedValue implements Comparable<VersionedValue>
         {
             return new VersionedValue(private_ip);
         }
+
+        public VersionedValue appliedWatermarks(Collection<Long> watermarks)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (Long watermark : watermarks)
+            {
+                if (sb.length() > 0)
+                    sb.append(VersionedValue.DELIMITER);
+                sb.append(watermark);
+            }
+            return new VersionedValue(sb.toString());
+        }
     }
 
     private static class VersionedValueSerializer implements IVersionedSerializer<VersionedValue>
@@ -106,6 +106,19 @@ public abstract class AbstractReplicationStrategy
         return new ArrayList<InetAddress>(endpoints);
     }
 
+    /**
+     * Like getNaturalEndpoints(searchPosition).contains(endpoint), but without copying the
+     * endpoints once they are cached.
+     */
+    public boolean isNaturalEndpoint(RingPosition searchPosition, InetAddress endpoint)
+    {
+        Token keyToken = TokenMetadata.firstToken(tokenMetadata.sortedTokens(), searchPosition.getToken());
+        ArrayList<InetAddress> endpoints = getCachedEndpoints(keyToken);
+        if (endpoints == null)
+            endpoints = getNaturalEndpoints(searchPosition);
+        return endpoints.contains(endpoint);
+    }
+
     /**
      * calculate the natural endpoints for the given token
      *
@@ -73,7 +73,17 @@ public final class MessagingService implements MessagingServiceMBean
     public static final int VERSION_080 = 2;
     public static final int VERSION_10 = 3;
     public static final int VERSION_11 = 4;
-    public static final int version_ = VERSION_11;
+    // dep check replies that ask the sender to check again
+    public static final int VERSION_DEP_CHECK_RETRY = 5;
+    // dep checks coalesced from several writes, answered per write
+    public static final int VERSION_DEP_CHECK_WRITES = 6;
+    // compact encoding of dep checks, txn id fetches and their replies, see CompactEncoding
+    public static final int VERSION_COMPACT_DEPS = 7;
+    // applied watermarks on dep check replies
+    public static final int VERSION_DEP_WATERMARKS = 8;
+    // 2PC messages batched per endpoint and phase, see BatchedTransactionMessage
+    public static final int VERSION_BATCHED_TXN_MESSAGES = 9;
+    public static final int version_ = VERSION_BATCHED_TXN_MESSAGES;
 
     static SerializerType serializerType_ = SerializerType.BINARY;
 
@@ -183,6 +193,9 @@ public final class MessagingService implements MessagingServiceMBean
                 if (recentTimeoutsPerHost.get(ip) == null)
                     recentTimeoutsPerHost.put(ip, new AtomicLong());
 
+                if (expiredCallbackInfo.callback instanceof IAsyncCallbackWithFailure)
+                    ((IAsyncCallbackWithFailure) expiredCallbackInfo.callback).onFailure(expiredCallbackInfo.target);
+
                 if (expiredCallbackInfo.shouldHint())
                 {
                     assert expiredCallbackInfo.message != null;
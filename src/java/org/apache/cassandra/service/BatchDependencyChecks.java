@@ -0,0 +1,383 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.service;
+
+import java.io.IOError;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.concurrent.AdaptiveBatchExecutor;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.AppliedOperations;
+import org.apache.cassandra.db.DependencyCheck;
+import org.apache.cassandra.db.Dependency;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.net.ICompletable;
+import org.apache.cassandra.net.MessagingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends the dep checks of replicated writes, coalescing the checks of writes that arrive close
+ * together into one DependencyCheck message per local endpoint.  Replicated writes often depend on
+ * the same hot keys, so a dependency (key and version) is only sent once per message however many
+ * writes of the batch have it.  The message says which deps belong to which write, and the reply
+ * carries the read txn ids of each write separately, so each is recorded against its own write.
+ */
+public class BatchDependencyChecks extends AdaptiveBatchExecutor<BatchDependencyChecks.PendingCheck> implements BatchDependencyChecksMBean
+{
+    private static final Logger logger = LoggerFactory.getLogger(BatchDependencyChecks.class);
+
+    private static final AtomicLong dependenciesRequested = new AtomicLong();
+    private static final AtomicLong dependenciesSent = new AtomicLong();
+    // messages the checks would have taken sent one write at a time, and the messages actually sent
+    private static final AtomicLong messagesRequested = new AtomicLong();
+    private static final AtomicLong messagesSent = new AtomicLong();
+    // dependencies not sent at all, because SatisfiedDependencyCache knew them to be satisfied
+    private static final AtomicLong dependenciesSatisfiedLocally = new AtomicLong();
+    // replicated writes whose checks have been sent, or are about to be, but not answered yet
+    private static final AtomicInteger outstandingChecks = new AtomicInteger();
+    private static volatile int maxOutstandingChecks = DatabaseDescriptor.getMaxOutstandingDependencyChecks();
+    private static final Object capacityMonitor = new Object();
+
+    public BatchDependencyChecks()
+    {
+        super("BatchDependencyChecks", DatabaseDescriptor.getWriteBatchMaxSize(), DatabaseDescriptor.getWriteBatchMaxWindowInMs());
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(this, new ObjectName("org.apache.cassandra.db:type=BatchDependencyChecks"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Back-pressure for the replication path: waits while the checks of the maximum number of replicated
+     * writes are outstanding, but no longer than a check may take, since the slowness may be the other
+     * datacenter's and not the checked nodes'.
+     */
+    public static void awaitOutstandingCapacity()
+    {
+        if (outstandingChecks.get() < maxOutstandingChecks)
+            return;
+
+        long start = System.currentTimeMillis();
+        long timeout = AppliedOperations.instance.getDependencyCheckTimeout();
+        long remaining = timeout;
+        synchronized (capacityMonitor)
+        {
+            while (outstandingChecks.get() >= maxOutstandingChecks && remaining > 0)
+            {
+                try
+                {
+                    capacityMonitor.wait(remaining);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = timeout - (System.currentTimeMillis() - start);
+            }
+        }
+        logger.debug("Waited {} ms for outstanding dependency check capacity", System.currentTimeMillis() - start);
+    }
+
+    private static void checkFinished()
+    {
+        if (outstandingChecks.decrementAndGet() < maxOutstandingChecks)
+        {
+            synchronized (capacityMonitor)
+            {
+                capacityMonitor.notifyAll();
+            }
+        }
+    }
+
+    public void enqueue(PendingCheck check)
+    {
+        outstandingChecks.incrementAndGet();
+        if (DatabaseDescriptor.isBatchReplicatedDependencyChecks())
+            add(check);
+        else
+            send(Collections.singletonList(check));
+    }
+
+    @Override
+    protected void process(List<PendingCheck> batch)
+    {
+        int contacted = send(batch);
+        StorageProxy.numBatches.getAndIncrement();
+        StorageProxy.numWrites.getAndAdd(batch.size());
+        StorageProxy.numServersContacted.getAndAdd(contacted);
+        if (logger.isDebugEnabled())
+            logger.debug("Checked deps of {} writes at {} endpoints, window {} us", new Object[]{ batch.size(), contacted, getWindowMicros() });
+    }
+
+    /**
+     * Sends one dep check to each local endpoint holding deps of the given writes.  An endpoint too old
+     * to answer each write of a check separately gets one check per write instead.
+     *
+     * @return the number of endpoints contacted
+     */
+    static int send(List<PendingCheck> checks)
+    {
+        Map<InetAddress, EndpointChecks> groupedChecks = group(checks);
+        for (Map.Entry<InetAddress, EndpointChecks> entry : groupedChecks.entrySet())
+        {
+            InetAddress ep = entry.getKey();
+            try
+            {
+                for (DepCheckCallback callback : callbacks(ep, entry.getValue(), Gossiper.instance.getVersion(ep)))
+                    callback.send();
+            }
+            catch (IOException e)
+            {
+                throw new IOError(e);
+            }
+        }
+        //DepCheckCallbacks will gather the responses and then complete the blocked actions
+        return groupedChecks.size();
+    }
+
+    /**
+     * Groups the deps of the given writes by the local endpoint to check them at, and completes the
+     * writes that have none left to check.
+     */
+    static Map<InetAddress, EndpointChecks> group(List<PendingCheck> checks)
+    {
+        Map<InetAddress, EndpointChecks> groupedChecks = new HashMap<InetAddress, EndpointChecks>();
+        int requested = 0;
+        int satisfiedLocally = 0;
+        boolean useCache = DatabaseDescriptor.isCacheSatisfiedDependencies();
+        long now = System.nanoTime();
+        for (PendingCheck check : checks)
+        {
+            requested += check.deps.size();
+            for (Dependency dep : check.deps)
+            {
+                List<InetAddress> localEndpoints = StorageService.instance.getLocalLiveNaturalEndpoints(check.keyspace, dep.getLocatorKey());
+                assert localEndpoints.size() == 1 : "Assumed for now";
+                InetAddress localEndpoint = localEndpoints.get(0);
+                if (useCache && SatisfiedDependencyCache.instance.isSatisfied(localEndpoint, dep.getTimestamp(), now))
+                {
+                    satisfiedLocally++;
+                    continue;
+                }
+                EndpointChecks endpointChecks = groupedChecks.get(localEndpoint);
+                if (endpointChecks == null)
+                {
+                    endpointChecks = new EndpointChecks();
+                    groupedChecks.put(localEndpoint, endpointChecks);
+                }
+                endpointChecks.add(check, dep);
+            }
+        }
+
+        // every write waits for one reply from each endpoint it has deps at, count them all before any can arrive
+        int sent = 0;
+        int uncoalescedMessages = 0;
+        for (EndpointChecks endpointChecks : groupedChecks.values())
+        {
+            sent += endpointChecks.deps.size();
+            uncoalescedMessages += endpointChecks.writes.size();
+            for (PendingCheck check : endpointChecks.writes.keySet())
+                check.unanswered.incrementAndGet();
+        }
+        dependenciesRequested.addAndGet(requested);
+        dependenciesSent.addAndGet(sent);
+        dependenciesSatisfiedLocally.addAndGet(satisfiedLocally);
+        messagesRequested.addAndGet(uncoalescedMessages);
+
+        //writes whose deps were all satisfied here have nothing to wait for
+        for (PendingCheck check : checks)
+        {
+            if (check.unanswered.get() == 0)
+                check.complete();
+        }
+        return groupedChecks;
+    }
+
+    /**
+     * @return the callbacks of the dep check messages for one endpoint, not sent yet
+     */
+    static List<DepCheckCallback> callbacks(InetAddress ep, EndpointChecks endpointChecks, int version) throws IOException
+    {
+        List<DepCheckCallback> callbacks = new ArrayList<DepCheckCallback>();
+        if (endpointChecks.writes.size() == 1)
+        {
+            DependencyCheck depCheck = new DependencyCheck(new ArrayList<Dependency>(endpointChecks.deps.keySet()));
+            callbacks.add(new DepCheckCallback(new ArrayList<PendingCheck>(endpointChecks.writes.keySet()), ep, depCheck.getMessage(version)));
+        }
+        else if (version >= MessagingService.VERSION_DEP_CHECK_WRITES)
+        {
+            DependencyCheck depCheck = new DependencyCheck(new ArrayList<Dependency>(endpointChecks.deps.keySet()), endpointChecks.writeDependencies());
+            callbacks.add(new DepCheckCallback(new ArrayList<PendingCheck>(endpointChecks.writes.keySet()), ep, depCheck.getMessage(version)));
+        }
+        else
+        {
+            for (Map.Entry<PendingCheck, List<Dependency>> write : endpointChecks.writes.entrySet())
+            {
+                DependencyCheck depCheck = new DependencyCheck(new ArrayList<Dependency>(write.getValue()));
+                callbacks.add(new DepCheckCallback(Collections.singletonList(write.getKey()), ep, depCheck.getMessage(version)));
+            }
+        }
+        messagesSent.addAndGet(callbacks.size());
+        return callbacks;
+    }
+
+    /**
+     * The deps to check at one endpoint, each once, and the deps of each write among them.
+     */
+    static class EndpointChecks
+    {
+        final Map<Dependency, Integer> deps = new LinkedHashMap<Dependency, Integer>();
+        final Map<PendingCheck, List<Dependency>> writes = new LinkedHashMap<PendingCheck, List<Dependency>>();
+
+        void add(PendingCheck check, Dependency dep)
+        {
+            if (!deps.containsKey(dep))
+                deps.put(dep, deps.size());
+            List<Dependency> writeDeps = writes.get(check);
+            if (writeDeps == null)
+            {
+                writeDeps = new ArrayList<Dependency>();
+                writes.put(check, writeDeps);
+            }
+            writeDeps.add(dep);
+        }
+
+        /**
+         * @return for each write, in order, the indexes of its deps in deps
+         */
+        List<int[]> writeDependencies()
+        {
+            List<int[]> writeDependencies = new ArrayList<int[]>(writes.size());
+            for (List<Dependency> writeDeps : writes.values())
+            {
+                int[] indexes = new int[writeDeps.size()];
+                for (int i = 0; i < indexes.length; i++)
+                    indexes[i] = deps.get(writeDeps.get(i));
+                writeDependencies.add(indexes);
+            }
+            return writeDependencies;
+        }
+    }
+
+    public long getDependenciesRequested()
+    {
+        return dependenciesRequested.get();
+    }
+
+    public long getDependenciesSent()
+    {
+        return dependenciesSent.get();
+    }
+
+    public long getDependenciesSatisfiedLocally()
+    {
+        return dependenciesSatisfiedLocally.get();
+    }
+
+    public double getDependencyDedupRatio()
+    {
+        long requested = dependenciesRequested.get();
+        return requested == 0 ? 0 : 1 - (double) dependenciesSent.get() / requested;
+    }
+
+    public long getMessagesSent()
+    {
+        return messagesSent.get();
+    }
+
+    public long getMessagesSaved()
+    {
+        return messagesRequested.get() - messagesSent.get();
+    }
+
+    public int getOutstandingDependencyChecks()
+    {
+        return outstandingChecks.get();
+    }
+
+    public long getDependencyCheckRetries()
+    {
+        return DepCheckCallback.retries.get();
+    }
+
+    public int getMaxOutstandingDependencyChecks()
+    {
+        return maxOutstandingChecks;
+    }
+
+    public void setMaxOutstandingDependencyChecks(int maxOutstanding)
+    {
+        maxOutstandingChecks = maxOutstanding;
+        synchronized (capacityMonitor)
+        {
+            capacityMonitor.notifyAll();
+        }
+    }
+
+    public static class PendingCheck implements ICompletable
+    {
+        final String keyspace;
+        final ByteBuffer locatorKey;
+        final Set<Dependency> deps;
+        final ICompletable completable;
+        final long chosenTime;
+        // replies still to come, one from each endpoint the write has deps checked at
+        final AtomicInteger unanswered = new AtomicInteger();
+
+        public PendingCheck(String keyspace, ByteBuffer locatorKey, Set<Dependency> deps, ICompletable completable, long chosenTime)
+        {
+            this.keyspace = keyspace;
+            this.locatorKey = locatorKey;
+            this.deps = deps;
+            this.completable = completable;
+            this.chosenTime = chosenTime;
+        }
+
+        /** called with the reply from each endpoint */
+        void answered()
+        {
+            if (unanswered.decrementAndGet() == 0)
+                complete();
+        }
+
+        @Override
+        public void complete()
+        {
+            checkFinished();
+            completable.complete();
+        }
+    }
+}
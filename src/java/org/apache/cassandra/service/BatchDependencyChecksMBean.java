@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.service;
+
+public interface BatchDependencyChecksMBean
+{
+    /** dependencies of replicated writes that had to be checked */
+    public long getDependenciesRequested();
+
+    /** dependencies sent in dep checks, after removing duplicates within each message and those satisfied locally */
+    public long getDependenciesSent();
+
+    /** dependencies not sent because this node knew them to be satisfied, see SatisfiedDependencyCache */
+    public long getDependenciesSatisfiedLocally();
+
+    /** fraction of requested dependencies that were not sent */
+    public double getDependencyDedupRatio();
+
+    public long getMessagesSent();
+
+    /** dep check messages saved by sending one per endpoint per batch instead of one per endpoint per write */
+    public long getMessagesSaved();
+
+    /** replicated writes waiting for the replies to their dep checks */
+    public int getOutstandingDependencyChecks();
+
+    /** dep checks sent again because they came back unsatisfied or got no reply */
+    public long getDependencyCheckRetries();
+
+    public int getMaxOutstandingDependencyChecks();
+    public void setMaxOutstandingDependencyChecks(int maxOutstanding);
+}
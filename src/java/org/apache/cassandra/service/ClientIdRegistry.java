@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.utils.LamportClock;
+import org.apache.cassandra.utils.ShortNodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leases the client ids that clients put in the low 16 bits of their transaction ids.
+ *
+ * Servers keep only the newest read-only transaction of each client id, so a client id must
+ * belong to one client session at a time.  Every client of a datacenter asks the same server (the
+ * lowest addressed one it connects to), which hands out ids round robin, so a released id is only
+ * reused once every other id has been.  The top bit of a leased id is LamportClock's
+ * REGISTERED_CLIENT_ID_TAG, which ids derived from a client's address never have, and the
+ * DC_BITS above the low ID_BITS are the datacenter's index, as ShortNodeId numbers them, so ids are
+ * unique across datacenters too, as write transactions replicated under the same transaction id
+ * need.  A lease lasts client_id_lease_in_ms and is renewed by registering the session again.  A session asking for an id it held before, after this server
+ * restarted, gets it back unless another session has taken it since.
+ *
+ * Clients register through login, the only call taking free-form arguments, with SESSION (and
+ * PREFERRED_ID) in the credentials next to the ones they log in with; the thrift interface is
+ * unchanged.  The id is only leased once the login itself succeeds.
+ */
+public class ClientIdRegistry implements ClientIdRegistryMBean
+{
+    private static final Logger logger = LoggerFactory.getLogger(ClientIdRegistry.class);
+
+    public static final String SESSION = "cops.client_session";
+    public static final String PREFERRED_ID = "cops.client_id";
+    // ids within a datacenter, below its index and the tag; id 0 is never leased
+    public static final int ID_BITS = 11;
+    // as many as ShortNodeId has for a datacenter's index
+    public static final int DC_BITS = 4;
+    public static final int MAX_ID = (1 << ID_BITS) - 1;
+
+    public static final ClientIdRegistry instance = new ClientIdRegistry(DatabaseDescriptor.getClientIdLeaseInMs());
+
+    private final long leaseInMs;
+    // the session holding each id, and when its lease ends
+    private final String[] sessions = new String[MAX_ID + 1];
+    private final long[] leasedUntil = new long[MAX_ID + 1];
+    private final Map<String, Integer> sessionToId = new HashMap<String, Integer>();
+    private int nextId = 1;
+    private long expiredLeases = 0;
+
+    static
+    {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            mbs.registerMBean(instance, new ObjectName("org.apache.cassandra.db:type=ClientIdRegistry"));
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    ClientIdRegistry(long leaseInMs)
+    {
+        assert leaseInMs > 0 && leaseInMs < (1L << 47);
+        this.leaseInMs = leaseInMs;
+    }
+
+    public static boolean isRegistration(Map<String, String> credentials)
+    {
+        return credentials.containsKey(SESSION);
+    }
+
+    /**
+     * Leases an id to the session, or renews its lease.
+     *
+     * @return the lease, the length of the lease in ms shifted left 16 bits plus the id, with the
+     * tag and the datacenter's index in its top bits
+     */
+    public long register(Map<String, String> credentials)
+    {
+        String preferredId = credentials.get(PREFERRED_ID);
+        int id = register(credentials.get(SESSION), preferredId == null ? 0 : Integer.parseInt(preferredId) & MAX_ID, System.currentTimeMillis());
+        return (leaseInMs << 16) + leasedId(ShortNodeId.getLocalDC(), id);
+    }
+
+    static int leasedId(int dcIndex, int id)
+    {
+        // a larger index would carry into the lease length and clear the tag
+        assert dcIndex >= 0 && dcIndex < (1 << DC_BITS) : dcIndex;
+        return LamportClock.REGISTERED_CLIENT_ID_TAG + (dcIndex << ID_BITS) + id;
+    }
+
+    synchronized int register(String session, int preferredId, long now)
+    {
+        Integer id = sessionToId.get(session);
+        if (id == null)
+        {
+            if (preferredId > 0 && preferredId <= MAX_ID && isFree(preferredId, now))
+                id = preferredId;
+            else
+                id = nextFree(now);
+            if (sessions[id] != null)
+            {
+                sessionToId.remove(sessions[id]);
+                expiredLeases++;
+            }
+            sessions[id] = session;
+            sessionToId.put(session, id);
+            if (logger.isDebugEnabled())
+                logger.debug("Leased client id {} to {}", id, session);
+        }
+        leasedUntil[id] = now + leaseInMs;
+        return id;
+    }
+
+    private boolean isFree(int id, long now)
+    {
+        return sessions[id] == null || leasedUntil[id] <= now;
+    }
+
+    private int nextFree(long now)
+    {
+        for (int i = 0; i < MAX_ID; i++)
+        {
+            int id = nextId;
+            nextId = nextId == MAX_ID ? 1 : nextId + 1;
+            if (isFree(id, now))
+                return id;
+        }
+        throw new IllegalStateException("All " + MAX_ID + " client ids are leased");
+    }
+
+    public synchronized int getLeasedIds()
+    {
+        return sessionToId.size();
+    }
+
+    public synchronized long getExpiredLeases()
+    {
+        return expiredLeases;
+    }
+
+    public long getLeaseInMs()
+    {
+        return leaseInMs;
+    }
+}
@@ -0,0 +1,12 @@
+package org.apache.cassandra.service;
+
+public interface ClientIdRegistryMBean
+{
+    /** ids held by a session, including leases that ended but whose id was not taken since */
+    public int getLeasedIds();
+
+    /** leases that ended without being renewed and whose id went to another session */
+    public long getExpiredLeases();
+
+    public long getLeaseInMs();
+}
@@ -3,41 +3,75 @@ package org.apache.cassandra.service;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.Set;
-import java.nio.ByteBuffer;
+import java.net.InetAddress;
+import java.util.List;
 import java.util.ArrayList;
-import org.apache.cassandra.db.DBConstants;
-import org.apache.cassandra.db.Dependency;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.AppliedOperations;
+import org.apache.cassandra.db.CompactEncoding;
 import org.apache.cassandra.db.ReadTransactionIdTracker;
-import org.apache.cassandra.net.IAsyncCallback;
-import org.apache.cassandra.net.ICompletable;
+import org.apache.cassandra.net.IAsyncCallbackWithFailure;
 import org.apache.cassandra.net.Message;
-import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.cassandra.net.MessagingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.cassandra.io.util.*;
 
-public class DepCheckCallback implements IAsyncCallback
+/**
+ * Gathers the reply to one dep check message, sent to one endpoint for one or more replicated writes.
+ * The txn ids in the reply are recorded for the locator key of each write, at its own chosen time,
+ * and each write completes once the replies from all the endpoints it had deps checked at are in.
+ */
+public class DepCheckCallback implements IAsyncCallbackWithFailure
 {
     private static Logger logger_ = LoggerFactory.getLogger(DepCheckCallback.class);
 
+    private static final int RETRY_DELAY_IN_MS = 100;
+    // dep checks sent again because they came back unsatisfied or got no reply
+    static final AtomicLong retries = new AtomicLong();
+
     private final long startTime;
-    private int responses = 0;
-    //private final Set<Dependency> deps;
-    private final ICompletable completable;
-    private final ByteBuffer locatorKey;    //HL: keep locator key in call back so we can use later for
-    //update txnid list
-    private final long chosenTime;          //HL: used to query read by time
-    private final int numEP;		    //HL: number of endpoints
-    //HL: now this callback object also takes locatorKey
-    public DepCheckCallback(ICompletable completable, ByteBuffer locatorKey, long chosenTime, int numEP)
+    // in the order of the message's write dependencies, if it has any
+    private final List<BatchDependencyChecks.PendingCheck> writes;
+    private final InetAddress endpoint;
+    private final Message message;
+    private boolean answered = false;
+
+    public DepCheckCallback(List<BatchDependencyChecks.PendingCheck> writes, InetAddress endpoint, Message message)
     {
-        //this.deps = deps;
         this.startTime = System.currentTimeMillis();
-        this.completable = completable;
-        this.locatorKey = locatorKey;
-        this.chosenTime = chosenTime;
-        this.numEP = numEP;
+        this.writes = writes;
+        this.endpoint = endpoint;
+        this.message = message;
+    }
+
+    /**
+     * Sends the dep check message to its endpoint, and sends it again whenever the check comes back
+     * unsatisfied or gets no reply at all, so the writes waiting on it are applied eventually.
+     */
+    public void send()
+    {
+        MessagingService.instance().sendRR(message, endpoint, this, timeout());
+    }
+
+    private static long timeout()
+    {
+        //outlast the time the other side may keep the check blocked, so its retry reply comes first
+        return DatabaseDescriptor.getRpcTimeout() + AppliedOperations.instance.getDependencyCheckTimeout();
+    }
+
+    private void retry()
+    {
+        retries.incrementAndGet();
+        Runnable resend = new Runnable()
+        {
+            public void run()
+            {
+                MessagingService.instance().sendRR(message, endpoint, DepCheckCallback.this, timeout());
+            }
+        };
+        StorageService.scheduledTasks.schedule(resend, RETRY_DELAY_IN_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -47,6 +81,13 @@ public class DepCheckCallback implements IAsyncCallback
         return false;
     }
 
+    @Override
+    public void onFailure(InetAddress from)
+    {
+        logger_.warn("Dependency check at {} got no reply within {} ms, checking again", from, timeout());
+        retry();
+    }
+
     @Override
     /*
      * HL: Process dep_check reply messages. For each reply, we extract txnId list from
@@ -55,41 +96,64 @@ public class DepCheckCallback implements IAsyncCallback
      */
     synchronized public void response(Message msg)
     {
-        responses++;
-
-        assert responses > 0 && responses <= numEP : responses + "?" + numEP;
-
         //extract txnId List
         try {
-            updateTxnIdList(msg, locatorKey, chosenTime);
+            DataInputStream inputStream = CompactEncoding.isCompact(msg.getVersion())
+                                        ? CompactEncoding.unwrap(msg.getMessageBody())
+                                        : new DataInputStream(new ByteArrayInputStream(msg.getMessageBody()));
+            if (msg.getVersion() >= MessagingService.VERSION_DEP_CHECK_RETRY && inputStream.readByte() == AppliedOperations.DEP_CHECK_RETRY) {
+                logger_.debug("Dependency check at {} was dropped unsatisfied, checking again", msg.getFrom());
+                retry();
+                return;
+            }
+
+            assert !answered : "Second reply to a dep check from " + msg.getFrom();
+            answered = true;
+            updateTxnIdList(msg, inputStream);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        if (responses == numEP) {
-            completable.complete();
+        for (BatchDependencyChecks.PendingCheck write : writes) {
+            write.answered();
         }
     }
 
     //HL: for each dep_check reply, we update txnId List.
-    //locatorKey is the key associated with the write (all deps for)
-    public void updateTxnIdList(Message msg, ByteBuffer locatorKey, long chosenTime) throws IOException{
-        ByteArrayInputStream inputByteStream = new ByteArrayInputStream(msg.getMessageBody());
-        DataInputStream inputStream = new DataInputStream(inputByteStream);
-        int numIds = inputStream.readInt();
-        // if a write keeps a version of 0, we modify it to 1 to be differentiated from reads, not sure necessary or
-        // not, just for safety.
-        if (chosenTime == 0) {
-            chosenTime = 1L;
+    private void updateTxnIdList(Message msg, DataInputStream inputStream) throws IOException{
+        List<ArrayList<Long>> txnIdLists = new ArrayList<ArrayList<Long>>(writes.size());
+        if (CompactEncoding.isCompact(msg.getVersion())) {
+            int lists = CompactEncoding.readCount(inputStream);
+            for (int i = 0; i < lists; i++) {
+                ArrayList<Long> txnIdList = new ArrayList<Long>();
+                CompactEncoding.readIds(inputStream, txnIdList);
+                txnIdLists.add(txnIdList);
+            }
+            if (msg.getVersion() >= MessagingService.VERSION_DEP_WATERMARKS) {
+                ArrayList<Long> watermarks = new ArrayList<Long>();
+                CompactEncoding.readIds(inputStream, watermarks);
+                SatisfiedDependencyCache.instance.learn(msg.getFrom(), watermarks, System.nanoTime());
+            }
+        } else {
+            int lists = msg.getVersion() >= MessagingService.VERSION_DEP_CHECK_WRITES ? inputStream.readInt() : 1;
+            for (int i = 0; i < lists; i++) {
+                int numIds = inputStream.readInt();
+                ArrayList<Long> txnIdList = new ArrayList<Long>(numIds);
+                for (int j = 0; j < numIds; j++) {
+                    txnIdList.add(inputStream.readLong());
+                }
+                txnIdLists.add(txnIdList);
+            }
         }
-        ArrayList<Long> txnIdList = new ArrayList<Long>();
-        while (inputStream.available() > 0) {
-            txnIdList.add(inputStream.readLong());
+        //a message only covers several writes if the reply is split per write
+        assert txnIdLists.size() == writes.size() : txnIdLists.size() + " txn id lists for " + writes.size() + " writes";
+
+        for (int i = 0; i < writes.size(); i++) {
+            BatchDependencyChecks.PendingCheck write = writes.get(i);
+            // if a write keeps a version of 0, we modify it to 1 to be differentiated from reads, not sure necessary or
+            // not, just for safety.
+            long chosenTime = write.chosenTime == 0 ? 1L : write.chosenTime;
+            ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(write.locatorKey, txnIdLists.get(i), chosenTime);
         }
-        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(locatorKey, txnIdList, chosenTime);
-        txnIdList.clear();;
-        txnIdList = null;
     }
-
-    //WL TODO: Add a timeout that fires and complains if this hangs
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package org.apache.cassandra.service;
 
+import org.apache.cassandra.db.CompactEncoding;
 import org.apache.cassandra.db.Dependency;
 import org.apache.cassandra.db.ReadTransactionIdTracker;
 import org.apache.cassandra.net.IAsyncCallback;
@@ -67,10 +68,17 @@ public class FetchTxnIdsCallBack implements IAsyncCallback {
     }
 
     public void updateTxnIdList(Message msg) throws IOException{
-        byte[] uncompressed = Snappy.uncompress(msg.getMessageBody());
-        ByteArrayInputStream inputByteStream = new ByteArrayInputStream(uncompressed);
-        DataInputStream inputStream = new DataInputStream(inputByteStream);
-        int numKeys = inputStream.readInt();
+        boolean compact = CompactEncoding.isCompact(msg.getVersion());
+        DataInputStream inputStream;
+        int numKeys;
+        if (compact) {
+            inputStream = CompactEncoding.unwrap(msg.getMessageBody());
+            numKeys = CompactEncoding.readCount(inputStream);
+        } else {
+            byte[] uncompressed = Snappy.uncompress(msg.getMessageBody());
+            inputStream = new DataInputStream(new ByteArrayInputStream(uncompressed));
+            numKeys = inputStream.readInt();
+        }
         // if a write keeps a version of 0, we modify it to 1 to be differentiated from reads, not sure necessary or
         // not, just for safety.
         long useChosenTime = chosenTime;
@@ -85,12 +93,18 @@ public class FetchTxnIdsCallBack implements IAsyncCallback {
         // str.append("\n }");
         Map<ByteBuffer, ArrayList<Long>> returnedIdsMap = new HashMap<ByteBuffer, ArrayList<Long>>();
         for (int i = 0; i < numKeys; ++i) {
-            int blockSize = inputStream.readInt();
-            ByteBuffer depKey = ByteBufferUtil.readWithShortLength(inputStream);
+            ByteBuffer depKey;
             ArrayList<Long> idList = new ArrayList<Long>();
-            for (int x = 0; x < blockSize; ++x) {
-                long txnId = inputStream.readLong();
-                idList.add(txnId);
+            if (compact) {
+                depKey = CompactEncoding.readKey(inputStream);
+                CompactEncoding.readIds(inputStream, idList);
+            } else {
+                int blockSize = inputStream.readInt();
+                depKey = ByteBufferUtil.readWithShortLength(inputStream);
+                for (int x = 0; x < blockSize; ++x) {
+                    long txnId = inputStream.readLong();
+                    idList.add(txnId);
+                }
             }
             // str.append(ByteBufferUtil.string(depKey)+"::"+idList.size()+",  ");
             StorageProxy.sizeMsgRecvd.getAndAdd(idList.size());
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.service;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.ReadCommand;
+import org.apache.cassandra.db.Table;
+import org.apache.cassandra.db.TransactionalRead;
+import org.apache.cassandra.db.TransactionalReadResponse;
+import org.apache.cassandra.db.TransactionalReadVerbHandler;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.locator.AbstractReplicationStrategy;
+import org.apache.cassandra.net.IAsyncResult;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.thrift.UnavailableException;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.Pair;
+
+/**
+ * Runs a read-only transaction for a client that sent it to one server instead of splitting it
+ * across the owners of its keys itself.
+ *
+ * The keys are grouped by their owner in the local datacenter.  Each owner gets one
+ * TRANSACTIONAL_READ message with its keys and the transaction id, so the ReadTransactionIdTracker
+ * check still runs where the key lives; the coordinator's own keys are read in place.  Sub-reads
+ * of concurrent transactions to the same owner share its messaging connection.
+ */
+public class ReadTransactionCoordinator
+{
+    /**
+     * @return true if this node is the local datacenter owner of every key, so a client asking
+     * it for these keys is reading directly rather than through a coordinator
+     */
+    public static boolean ownsAll(String table, Collection<ByteBuffer> keys)
+    {
+        //every read asks, so this goes straight to the ring's cached endpoints: this node is
+        //always live and in its own datacenter, so filtering them as getLocalLiveNaturalEndpoints
+        //does would change nothing
+        InetAddress local = FBUtilities.getBroadcastAddress();
+        AbstractReplicationStrategy strategy = Table.open(table).getReplicationStrategy();
+        for (ByteBuffer key : keys)
+        {
+            if (!strategy.isNaturalEndpoint(StorageService.getPartitioner().getToken(key), local))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return one response per owner of the commands' keys, in no particular order
+     */
+    public static List<TransactionalReadResponse> read(List<ReadCommand> commands, long transactionId)
+    throws IOException, UnavailableException, TimeoutException
+    {
+        long startTime = System.currentTimeMillis();
+        InetAddress local = FBUtilities.getBroadcastAddress();
+        Map<InetAddress, List<ReadCommand>> ownerToCommands = partitionByOwner(commands);
+
+        List<Pair<IAsyncResult, Integer>> pending = new ArrayList<Pair<IAsyncResult, Integer>>(ownerToCommands.size());
+        for (Map.Entry<InetAddress, List<ReadCommand>> entry : ownerToCommands.entrySet())
+        {
+            InetAddress owner = entry.getKey();
+            if (owner.equals(local))
+                continue;
+            int version = Gossiper.instance.getVersion(owner);
+            TransactionalRead read = new TransactionalRead(transactionId, entry.getValue());
+            pending.add(new Pair<IAsyncResult, Integer>(MessagingService.instance().sendRR(read.getMessage(version), owner), version));
+        }
+
+        List<TransactionalReadResponse> responses = new ArrayList<TransactionalReadResponse>(ownerToCommands.size());
+        List<ReadCommand> localCommands = ownerToCommands.get(local);
+        if (localCommands != null)
+            responses.add(TransactionalReadVerbHandler.read(new TransactionalRead(transactionId, localCommands)));
+
+        for (Pair<IAsyncResult, Integer> result : pending)
+        {
+            long timeout = DatabaseDescriptor.getRpcTimeout() - (System.currentTimeMillis() - startTime);
+            byte[] body = result.left.get(timeout, TimeUnit.MILLISECONDS);
+            responses.add(TransactionalReadResponse.serializer().deserialize(new DataInputStream(new FastByteArrayInputStream(body)), result.right));
+        }
+        return responses;
+    }
+
+    private static Map<InetAddress, List<ReadCommand>> partitionByOwner(List<ReadCommand> commands) throws UnavailableException
+    {
+        Map<InetAddress, List<ReadCommand>> ownerToCommands = new HashMap<InetAddress, List<ReadCommand>>();
+        for (ReadCommand command : commands)
+        {
+            List<InetAddress> localEndpoints = StorageService.instance.getLocalLiveNaturalEndpoints(command.table, command.key);
+            if (localEndpoints.isEmpty())
+                throw new UnavailableException();
+            // one replica per datacenter, as the transaction id tracking assumes
+            InetAddress owner = localEndpoints.get(0);
+            List<ReadCommand> ownerCommands = ownerToCommands.get(owner);
+            if (ownerCommands == null)
+            {
+                ownerCommands = new ArrayList<ReadCommand>();
+                ownerToCommands.put(owner, ownerCommands);
+            }
+            ownerCommands.add(command);
+        }
+        return ownerToCommands;
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.AppliedOperations;
+import org.apache.cassandra.db.ReadTransactionIdTracker;
+import org.apache.cassandra.gms.*;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.VersionUtil;
+
+/**
+ * The applied watermarks of remote origins at the local endpoints we send dep checks to, as
+ * piggybacked on their dep check replies and gossiped as their APPLIED_WATERMARKS: every op from
+ * the origin at or below the watermark had been applied at that endpoint when it replied.
+ *
+ * That alone would let us skip the check of such a dep, but a dep check reply also carries the
+ * read txn ids recorded at the endpoint for the dep's key, and the write must stay invisible to
+ * the transactions that read the key before the dep was applied.  An endpoint only returns ids
+ * recorded in the last SAFTYTIMER ms, and such a transaction records its reads for at most the
+ * get transaction timeout, so once a watermark was learned longer ago than both together, a reply
+ * for an op below it could not carry any of them.  Only then is a dep satisfied here.
+ *
+ * The cache holds two watermarks per endpoint and origin: the newest one old enough to use, and
+ * the newest one learned since, which replaces it once it is old enough in turn.  So it is bounded
+ * by the number of nodes, and a steady stream of replies keeps the usable watermark at most about
+ * twice the minimum age behind.  Gossip arrives later than the watermarks it carries were reached,
+ * which only makes them more conservative.
+ */
+public class SatisfiedDependencyCache implements IEndpointStateChangeSubscriber
+{
+    public static final SatisfiedDependencyCache instance = new SatisfiedDependencyCache();
+
+    private final ConcurrentMap<InetAddress, ConcurrentMap<Short, Watermark>> watermarks = new ConcurrentHashMap<InetAddress, ConcurrentMap<Short, Watermark>>();
+    // what this node gossiped last, only read and written by the broadcast task
+    private List<Long> broadcastWatermarks = new ArrayList<Long>();
+
+    SatisfiedDependencyCache() {}
+
+    static long minAgeNanos()
+    {
+        return TimeUnit.MILLISECONDS.toNanos(DatabaseDescriptor.getGetTransactionTimeoutInMs() + ReadTransactionIdTracker.SAFTYTIMER);
+    }
+
+    /**
+     * Records the watermarks endpoint replied with at now (System.nanoTime()).
+     */
+    public void learn(InetAddress endpoint, Collection<Long> endpointWatermarks, long now)
+    {
+        if (endpointWatermarks.isEmpty())
+            return;
+        ConcurrentMap<Short, Watermark> origins = watermarks.get(endpoint);
+        if (origins == null)
+        {
+            ConcurrentMap<Short, Watermark> newOrigins = new ConcurrentHashMap<Short, Watermark>();
+            origins = watermarks.putIfAbsent(endpoint, newOrigins);
+            if (origins == null)
+                origins = newOrigins;
+        }
+        long minAge = minAgeNanos();
+        for (Long watermark : endpointWatermarks)
+        {
+            Short origin = VersionUtil.extractShortNodeId(watermark);
+            Watermark cached = origins.get(origin);
+            if (cached == null)
+            {
+                Watermark newCached = new Watermark();
+                cached = origins.putIfAbsent(origin, newCached);
+                if (cached == null)
+                    cached = newCached;
+            }
+            cached.learn(watermark, now, minAge);
+        }
+    }
+
+    /**
+     * @return true if a dep check for version at endpoint is known to be satisfied without any read txn ids
+     */
+    public boolean isSatisfied(InetAddress endpoint, long version, long now)
+    {
+        ConcurrentMap<Short, Watermark> origins = watermarks.get(endpoint);
+        if (origins == null)
+            return false;
+        Watermark cached = origins.get(VersionUtil.extractShortNodeId(version));
+        return cached != null && cached.covers(version, now, minAgeNanos());
+    }
+
+    /**
+     * Gossips the applied watermarks of this node every gossip round in which they moved, and learns
+     * them for this node as a dep check endpoint as well.
+     */
+    public void startBroadcasting()
+    {
+        if (!DatabaseDescriptor.isCacheSatisfiedDependencies())
+            return;
+        Gossiper.instance.register(this);
+        Runnable runnable = new Runnable()
+        {
+            public void run()
+            {
+                List<Long> applied = AppliedOperations.getAppliedWatermarks();
+                if (applied.equals(broadcastWatermarks))
+                    return;
+                learn(FBUtilities.getBroadcastAddress(), applied, System.nanoTime());
+                Gossiper.instance.addLocalApplicationState(ApplicationState.APPLIED_WATERMARKS,
+                                                           StorageService.instance.valueFactory.appliedWatermarks(applied));
+                broadcastWatermarks = applied;
+            }
+        };
+        StorageService.scheduledTasks.scheduleWithFixedDelay(runnable, 2 * Gossiper.intervalInMillis, Gossiper.intervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void onChange(InetAddress endpoint, ApplicationState state, VersionedValue value)
+    {
+        if (state != ApplicationState.APPLIED_WATERMARKS)
+            return;
+        List<Long> endpointWatermarks = new ArrayList<Long>();
+        for (String watermark : value.value.split(VersionedValue.DELIMITER_STR))
+        {
+            if (!watermark.isEmpty())
+                endpointWatermarks.add(Long.valueOf(watermark));
+        }
+        learn(endpoint, endpointWatermarks, System.nanoTime());
+    }
+
+    public void onJoin(InetAddress endpoint, EndpointState epState)
+    {
+        VersionedValue value = epState.getApplicationState(ApplicationState.APPLIED_WATERMARKS);
+        if (value != null)
+            onChange(endpoint, ApplicationState.APPLIED_WATERMARKS, value);
+    }
+
+    public void onAlive(InetAddress endpoint, EndpointState state) {}
+
+    public void onDead(InetAddress endpoint, EndpointState state) {}
+
+    public void onRestart(InetAddress endpoint, EndpointState state) {}
+
+    public void onRemove(InetAddress endpoint)
+    {
+        watermarks.remove(endpoint);
+    }
+
+    private static class Watermark
+    {
+        // usable: learned at least minAge ago
+        private long stable = Long.MIN_VALUE;
+        private long latest = Long.MIN_VALUE;
+        private long latestLearnedAt;
+
+        synchronized void learn(long watermark, long now, long minAge)
+        {
+            if (watermark <= latest)
+                return;
+            if (latest != Long.MIN_VALUE)
+            {
+                // keep the older learn time until it can be used, a newer watermark would only delay it
+                if (now - latestLearnedAt < minAge)
+                    return;
+                stable = latest;
+            }
+            latest = watermark;
+            latestLearnedAt = now;
+        }
+
+        synchronized boolean covers(long version, long now, long minAge)
+        {
+            if (latest != Long.MIN_VALUE && now - latestLearnedAt >= minAge)
+            {
+                stable = latest;
+                if (version <= latest)
+                    return true;
+            }
+            return version <= stable;
+        }
+    }
+}
@@ -101,6 +101,8 @@ public class StorageProxy implements StorageProxyMBean
 
     // snow: instantiate a batchwrite object for periodically batching
     static final BatchWrites batchWrites = new BatchWrites();
+    // coalesces the dep checks of replicated writes, see batch_replicated_dependency_checks
+    static final BatchDependencyChecks batchDependencyChecks = new BatchDependencyChecks();
 
     private StorageProxy() {}
 
@@ -1445,27 +1447,10 @@ public class StorageProxy implements StorageProxyMBean
             logger.debug("Checking deps for " + completable);
 
         AppliedOperations.addPendingOp(locatorKey, timestamp);
+        BatchDependencyChecks.awaitOutstandingCapacity();
 
-        //Send out all dep_checks in parallel
-        // use a map to group deps into each endpoint
-        ConcurrentHashMap<InetAddress, ArrayList<Dependency>> GroupedDeps = new ConcurrentHashMap<InetAddress, ArrayList<Dependency>>();
-        for (Dependency dep : deps) {
-            List<InetAddress> localEndpoints = StorageService.instance.getLocalLiveNaturalEndpoints(keyspace, dep.getLocatorKey());
-            assert localEndpoints.size() == 1 : "Assumed for now";
-            InetAddress localEndpoint = localEndpoints.get(0);
-            if (GroupedDeps.get(localEndpoint) != null) {
-                GroupedDeps.get(localEndpoint).add(dep);
-            } else {
-                ArrayList<Dependency> depList = new ArrayList<Dependency>();
-                depList.add(dep);
-                GroupedDeps.put(localEndpoint, depList);
-            }
-        }
-        //HL TODO: as said in previous line, like checkFakeDependencies
-        DepCheckCallback depCheckCallback = new DepCheckCallback(completable, locatorKey, chosenTime, GroupedDeps.size());
-        for (InetAddress ep : GroupedDeps.keySet()) {
-            MessagingService.instance().sendRR(new DependencyCheck(GroupedDeps.get(ep)), ep, depCheckCallback);
-        }
+        //Send out all dep_checks in parallel, one per endpoint, possibly together with other writes' checks
+        batchDependencyChecks.enqueue(new BatchDependencyChecks.PendingCheck(keyspace, locatorKey, deps, completable, chosenTime));
         //DepCheckCallback will gather the responses and then complete the blocked action
     }
 }
@@ -118,7 +118,8 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         TRANSACTION_COORDINATOR,
         TRANSACTION_COHORT,
         //FAKE_DEPENDENCY_CHECK,   //HL: for fake dep_check of local writes
-        FETCH_TXNIDS        // use this instead of fake depcheck
+        FETCH_TXNIDS,       // use this instead of fake depcheck
+        TRANSACTIONAL_READ, // an owner's part of a read-only transaction coordinated by another server
         ;
         // remember to add new verbs at the end, since we serialize by ordinal
     }
@@ -152,12 +153,13 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         put(Verb.UNUSED_1, Stage.INTERNAL_RESPONSE);
         put(Verb.UNUSED_2, Stage.INTERNAL_RESPONSE);
         put(Verb.UNUSED_3, Stage.INTERNAL_RESPONSE);
-        put(Verb.DEPENDENCY_CHECK, Stage.MISC); //Perhaps should be on Replicate_on_write, or it's own stage
+        put(Verb.DEPENDENCY_CHECK, Stage.DEPENDENCY_CHECK);
         put(Verb.TRANSACTION_MESSAGE, Stage.MUTATION); //TODO: Should have its own stage
         put(Verb.TRANSACTION_COORDINATOR, Stage.MUTATION); //TODO: Should have its own stage
         put(Verb.TRANSACTION_COHORT, Stage.MUTATION); //TODO: Should have its own stage
         //put(Verb.FAKE_DEPENDENCY_CHECK, Stage.MISC);  //HL
         put(Verb.FETCH_TXNIDS, Stage.FETCHID); //HL
+        put(Verb.TRANSACTIONAL_READ, Stage.READ);
     }};
 
     private static int getRingDelay()
@@ -303,6 +305,7 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
         //HL: register new fake dep_check handler
         //MessagingService.instance().registerVerbHandlers(Verb.FAKE_DEPENDENCY_CHECK, new FakeDependencyCheckVerbHandler());
         MessagingService.instance().registerVerbHandlers(Verb.FETCH_TXNIDS, new FetchTxnIdsVerbHandler());
+        MessagingService.instance().registerVerbHandlers(Verb.TRANSACTIONAL_READ, new TransactionalReadVerbHandler());
 
         // spin up the streaming service so it is available for jmx tools.
         if (StreamingService.instance == null)
@@ -546,6 +549,7 @@ public class StorageService implements IEndpointStateChangeSubscriber, StorageSe
 
         MessagingService.instance().listen(FBUtilities.getLocalAddress());
         LoadBroadcaster.instance.startBroadcasting();
+        SatisfiedDependencyCache.instance.startBroadcasting();
         MigrationManager.passiveAnnounce(Schema.instance.getVersion());
         Gossiper.instance.addLocalApplicationState(ApplicationState.RELEASE_VERSION, valueFactory.releaseVersion());
 
@@ -1,5 +1,7 @@
 package org.apache.cassandra.thrift;
 
+import org.apache.cassandra.concurrent.AdaptiveBatchExecutor;
+import org.apache.cassandra.config.DatabaseDescriptor;
 import org.apache.cassandra.db.Dependency;
 import org.apache.cassandra.db.FetchIdCompletion;
 import org.apache.cassandra.db.FetchTxnIds;
@@ -18,53 +20,41 @@ import java.util.concurrent.*;
 /**
  * Created by yangyang333 on 16-4-24.
  */
-public class BatchWrites {
-    private int BATCH_INTERVAL_IN_MS = 10;
-    private static final int MAX_BATCH_WRITE_QUEUE_SIZE = 1000;
+public class BatchWrites extends AdaptiveBatchExecutor<Pair<Pair<RowMutation, IWriteResponseHandler>, Long>> {
     private static Logger logger = LoggerFactory.getLogger(BatchWrites.class);
-    private static BlockingQueue<Pair<Pair<RowMutation, IWriteResponseHandler>, Long>> batchedWritesQueue = new LinkedBlockingDeque<Pair<Pair<RowMutation, IWriteResponseHandler>, Long>>(MAX_BATCH_WRITE_QUEUE_SIZE);
-    public static boolean enqueue (Pair<Pair<RowMutation, IWriteResponseHandler>, Long> mutation) {
-        try {
-            batchedWritesQueue.put(mutation);
-        } catch (InterruptedException e) {
-            // re-check loop condition after interrupt
-            return false;
+
+    public BatchWrites() {
+        super("BatchWrites", DatabaseDescriptor.getWriteBatchMaxSize(), DatabaseDescriptor.getWriteBatchMaxWindowInMs());
+    }
+
+    /**
+     * Fetches the txn ids for a local write with deps, batched with other writes unless batching is disabled
+     */
+    public void enqueue(Pair<Pair<RowMutation, IWriteResponseHandler>, Long> mutation) {
+        if (DatabaseDescriptor.isBatchLocalTxnIdFetches()) {
+            add(mutation);
+        } else {
+            List<Pair<RowMutation, IWriteResponseHandler>> single = new ArrayList<Pair<RowMutation, IWriteResponseHandler>>(1);
+            single.add(mutation.left);
+            fetchTxnIds(single, mutation.right);
         }
-        return true;
     }
-    public BatchWrites() {
-        Runnable doBatchedWrites = new Runnable()
-        {
-            public void run()
-            {
-                logger.info("current time: " + System.currentTimeMillis() + "; queue size: " + batchedWritesQueue.size());
-                // check if no writes have been batched, simply return
-                if (batchedWritesQueue.isEmpty()) {
-                    return;
-                }
-                // group all batched writes so far together
-                long chosenTime_min = Integer.MAX_VALUE;
-                List<Pair<RowMutation, IWriteResponseHandler>> batchedMutations = new LinkedList<Pair<RowMutation, IWriteResponseHandler>>();
-                int elementCount = batchedWritesQueue.size();   // probably we dont need this...
-                while (!batchedWritesQueue.isEmpty() && elementCount != 0) {
-                    try {
-                        Pair<Pair<RowMutation, IWriteResponseHandler>, Long> mutations_handler = batchedWritesQueue.take();
-                        Pair<RowMutation, IWriteResponseHandler> mutations = mutations_handler.left;
-                        batchedMutations.add(mutations);
-                        if (mutations_handler.right < chosenTime_min) {
-                            chosenTime_min = mutations_handler.right;
-                        }
-                        --elementCount;
-                    } catch (InterruptedException e) {
-                        // re-check loop condition after interrupt
-                        continue;
-                    }
-                }
-                // do dep check for all batched mutations together
-                fetchTxnIds(batchedMutations, chosenTime_min);
+
+    @Override
+    protected void process(List<Pair<Pair<RowMutation, IWriteResponseHandler>, Long>> batch) {
+        // group all batched writes so far together
+        long chosenTime_min = Long.MAX_VALUE;
+        List<Pair<RowMutation, IWriteResponseHandler>> batchedMutations = new ArrayList<Pair<RowMutation, IWriteResponseHandler>>(batch.size());
+        for (Pair<Pair<RowMutation, IWriteResponseHandler>, Long> mutations_handler : batch) {
+            batchedMutations.add(mutations_handler.left);
+            if (mutations_handler.right < chosenTime_min) {
+                chosenTime_min = mutations_handler.right;
             }
-        };
-        StorageService.scheduledTasks.scheduleWithFixedDelay(doBatchedWrites, BATCH_INTERVAL_IN_MS, BATCH_INTERVAL_IN_MS, TimeUnit.MILLISECONDS);
+        }
+        if (logger.isDebugEnabled())
+            logger.debug("Fetching txn ids for {} writes, window {} us", batch.size(), getWindowMicros());
+        // do dep check for all batched mutations together
+        fetchTxnIds(batchedMutations, chosenTime_min);
     }
 
     public void fetchTxnIds(List<Pair<RowMutation, IWriteResponseHandler>> rowMutations, long chosenTime) {
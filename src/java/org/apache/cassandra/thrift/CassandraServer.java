@@ -232,6 +232,11 @@ public class CassandraServer implements Cassandra.Iface
             LamportClock.updateTime(lts >> 16); //snow: lts passed in is transid, which is ts + ip
             logger.debug("multiget_slice");
 
+            //a client that sent the whole transaction here, rather than to each key's owner, has
+            //this server coordinate it so the txn id is still checked where each key lives
+            if (!ReadTransactionCoordinator.ownsAll(state().getKeyspace(), keys))
+                return coordinatedMultigetSlice(keys, column_parent, predicate, consistency_level, lts);
+
             //HL check ReadTransactionIdTracker for each locator_key. Note: keys have keys have
             //multiple locator keys.
             //We check through each locator key, and split all keys into two key lists
@@ -239,7 +244,7 @@ public class CassandraServer implements Cassandra.Iface
             //Note: We're doing this because we need check transaction ids at locator_key granularity.
             List<ByteBuffer> keysToReturnOld = new ArrayList<ByteBuffer>();
             List<ByteBuffer> keysToReturnCurrent = new ArrayList<ByteBuffer>();
-            long chosenTime = Integer.MAX_VALUE;    //get chosen time for multiget_slice_by_time
+            long chosenTime = Long.MAX_VALUE;    //get chosen time for multiget_slice_by_time
             long transactionTime = LamportClock.getCurrentTime();   //used to put in transactionIdTracker
             for (ByteBuffer key : keys) {
                 long returnedTxnTime = ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, lts, false, 0L);
@@ -307,6 +312,62 @@ public class CassandraServer implements Cassandra.Iface
     }
 
 
+    private MultigetSliceResult coordinatedMultigetSlice(List<ByteBuffer> keys, ColumnParent column_parent, SlicePredicate predicate, ConsistencyLevel consistency_level, long transactionId)
+    throws InvalidRequestException, UnavailableException, TimedOutException
+    {
+        state().hasColumnFamilyAccess(column_parent.column_family, Permission.READ);
+        List<ReadCommand> commands = sliceCommands(state().getKeyspace(), keys, column_parent, predicate, consistency_level);
+        Map<ByteBuffer, ReadCommand> keyToCommand = new HashMap<ByteBuffer, ReadCommand>();
+        for (ReadCommand command : commands)
+            keyToCommand.put(command.key, command);
+
+        List<TransactionalReadResponse> responses;
+        try
+        {
+            schedule(DatabaseDescriptor.getRpcTimeout());
+            try
+            {
+                responses = ReadTransactionCoordinator.read(commands, transactionId);
+            }
+            finally
+            {
+                release();
+            }
+        }
+        catch (TimeoutException e)
+        {
+            logger.debug("... timed out");
+            throw new TimedOutException();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        Map<ByteBuffer, List<ColumnOrSuperColumn>> combinedResults = new HashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+        for (TransactionalReadResponse response : responses)
+        {
+            if (response.chosenTime == TransactionalReadResponse.CURRENT)
+            {
+                for (Row row : response.rows)
+                {
+                    ReadCommand command = keyToCommand.get(row.key.key);
+                    boolean reverseOrder = command instanceof SliceFromReadCommand && ((SliceFromReadCommand) command).reversed;
+                    combinedResults.put(command.key, ThriftConverter.thriftifyColumnFamily(row.cf, command.queryPath.superColumnName != null, reverseOrder));
+                }
+            }
+            else
+            {
+                //the owner already served part of this transaction, select what was visible at the chosen time
+                Map<ByteBuffer, Collection<IColumn>> keyToColumnFamily = new HashMap<ByteBuffer, Collection<IColumn>>();
+                for (Row row : response.rows)
+                    keyToColumnFamily.put(row.key.key, row.cf == null ? Collections.<IColumn>emptyList() : row.cf.getSortedColumns());
+                selectChosenResults(keyToColumnFamily, predicate, response.chosenTime, combinedResults, new HashSet<Long>());
+            }
+        }
+        return new MultigetSliceResult(combinedResults, LamportClock.sendTimestamp());
+    }
+
     private void selectChosenResults(Map<ByteBuffer, Collection<IColumn>> keyToColumnFamily, SlicePredicate predicate, long chosen_time, Map<ByteBuffer, List<ColumnOrSuperColumn>> keyToChosenColumns, Set<Long> pendingTransactionIds)
     {
         for(Entry<ByteBuffer, Collection<IColumn>> entry : keyToColumnFamily.entrySet()) {
@@ -391,6 +452,12 @@ public class CassandraServer implements Cassandra.Iface
 
     private ISliceMap multigetSliceInternal(String keyspace, List<ByteBuffer> keys, ColumnParent column_parent, SlicePredicate predicate, ConsistencyLevel consistency_level, boolean thriftify)
     throws InvalidRequestException, UnavailableException, TimedOutException
+    {
+        return getSlice(sliceCommands(keyspace, keys, column_parent, predicate, consistency_level), consistency_level, thriftify);
+    }
+
+    private List<ReadCommand> sliceCommands(String keyspace, List<ByteBuffer> keys, ColumnParent column_parent, SlicePredicate predicate, ConsistencyLevel consistency_level)
+    throws InvalidRequestException
     {
         CFMetaData metadata = ThriftValidation.validateColumnFamily(keyspace, column_parent.column_family);
         ThriftValidation.validateColumnParent(metadata, column_parent);
@@ -415,8 +482,7 @@ public class CassandraServer implements Cassandra.Iface
                 commands.add(new SliceFromReadCommand(keyspace, key, column_parent, range.start, range.finish, range.reversed, range.count));
             }
         }
-
-        return getSlice(commands, consistency_level, thriftify);
+        return commands;
     }
 
 
@@ -1125,6 +1191,19 @@ public class CassandraServer implements Cassandra.Iface
     {
         LamportClock.updateTime(lts);
         state().login(auth_request.getCredentials());
+
+        // only a client that logged in may lease a client id
+        if (ClientIdRegistry.isRegistration(auth_request.getCredentials()))
+        {
+            try
+            {
+                return ClientIdRegistry.instance.register(auth_request.getCredentials());
+            }
+            catch (IllegalStateException e)
+            {
+                throw new AuthenticationException(e.getMessage());
+            }
+        }
         return LamportClock.sendTimestamp();
     }
 
@@ -298,18 +298,20 @@ public class ThriftConverter
             return null;
         } else {
             Set<Long> pendingTransactionIds = new HashSet<Long>();
-            //lock for use of previousVersions
-            synchronized (currentlyVisibleColumn) {
-                for (IColumn oldColumn : currentlyVisibleColumn.previousVersions()) {
-                    if (oldColumn.earliestValidTime() > chosenTime) {
-                        continue;
-                    } else {
-                        if (oldColumn instanceof PendingTransactionColumn) {
-                            long transactionId = ((PendingTransactionColumn) oldColumn).getTransactionId();
-                            CommitOrNotYetTime checkResult = BatchMutateTransactionUtil.findCheckedTransactionResult(transactionId);
-                            if (checkResult == null) {
-                                pendingTransactionIds.add(transactionId);
-                            } else {
+            VersionChain previousVersions = currentlyVisibleColumn.previousVersions();
+            if (previousVersions != null) {
+                //only versions visible at or before the chosenTime matter, they are the tail of the chain
+                int start = previousVersions.indexAt(chosenTime);
+                for (int i = start < 0 ? previousVersions.size() : start; i < previousVersions.size(); i++) {
+                    IColumn oldColumn = previousVersions.get(i);
+                    if (oldColumn instanceof PendingTransactionColumn) {
+                        long transactionId = ((PendingTransactionColumn) oldColumn).getTransactionId();
+                        CommitOrNotYetTime checkResult = BatchMutateTransactionUtil.findCheckedTransactionResult(transactionId);
+                        if (checkResult == null) {
+                            pendingTransactionIds.add(transactionId);
+                        } else {
+                            //readers that rewrite validity times serialize on the column, writers never take this lock
+                            synchronized (currentlyVisibleColumn) {
                                 applyCheckTransactionUpdate(currentlyVisibleColumn, transactionId, checkResult);
                             }
                         }
@@ -320,20 +322,20 @@ public class ThriftConverter
         }
     }
 
-    //Assumes the lock on currentlyVisibleColumn is already held, so we can update it's previousVersions
+    //Assumes the lock on currentlyVisibleColumn is already held, so only one reader rewrites its versions at a time
     private static void applyCheckTransactionUpdate(org.apache.cassandra.db.Column currentlyVisibleColumn, long transactionId, CommitOrNotYetTime checkResult)
     {
         long newEarliestValidTime = checkResult.commitTime != null ? checkResult.commitTime : checkResult.notYetCommittedTime;
 
-        //To simplify this code I'll temporarily add the current versions to previousVersions to get all versions
-        //but it must be removed before the function returns
-        NavigableSet<IColumn> allVersions = currentlyVisibleColumn.previousVersions();
-        allVersions.add(currentlyVisibleColumn);
+        //To simplify this code look at a chain of all versions, previous and current, newest first
+        VersionChain previousVersions = currentlyVisibleColumn.previousVersions();
+        VersionChain allVersions = (previousVersions == null ? VersionChain.EMPTY : previousVersions).with(currentlyVisibleColumn);
 
         //first pass, find the update PTC and determine the minimumPendingTransactionTIme
         PendingTransactionColumn updatedColumn = null;
-        Long minPendingTransactionTime = Long.MAX_VALUE;
-        for (IColumn column : allVersions.descendingSet()) {
+        long minPendingTransactionTime = Long.MAX_VALUE;
+        for (int i = allVersions.size() - 1; i >= 0; i--) {
+            IColumn column = allVersions.get(i);
             if (column instanceof PendingTransactionColumn) {
                 if (((PendingTransactionColumn) column).getTransactionId() == transactionId) {
                     updatedColumn = (PendingTransactionColumn) column;
@@ -351,14 +353,12 @@ public class ThriftConverter
         //only do the update if we're actually moving the evt forward
         if (updatedColumn != null && newEarliestValidTime > updatedColumn.earliestValidTime()) {
 
-            //remove the updatedColumn and reinsert it with its new EVT
-            boolean removed = allVersions.remove(updatedColumn);
-            assert removed == true;
+            //move the updatedColumn to its new EVT
             updatedColumn.setEarliestValidTime(newEarliestValidTime);
-            allVersions.add(updatedColumn);
+            allVersions = allVersions.resort();
 
             //second pass, update all LVTs
-            Long previousEVT = null;
+            long previousEVT = org.apache.cassandra.db.Column.NO_TIME;
             for (IColumn column : allVersions) {
                 if (minPendingTransactionTime == Long.MAX_VALUE) {
                     column.setLatestValidTime(previousEVT);
@@ -366,14 +366,17 @@ public class ThriftConverter
                     column.setLatestValidTime(column.earliestValidTime());
                 } else {
                     assert minPendingTransactionTime > column.earliestValidTime();
-                    column.setLatestValidTime(Math.min(minPendingTransactionTime, previousEVT));
+                    column.setLatestValidTime(previousEVT == org.apache.cassandra.db.Column.NO_TIME
+                                              ? minPendingTransactionTime
+                                              : Math.min(minPendingTransactionTime, previousEVT));
                 }
                 previousEVT = column.earliestValidTime();
             }
-        }
 
-        //remove the visible version from previousVersion before returning
-        allVersions.remove(currentlyVisibleColumn);
+            if (updatedColumn != currentlyVisibleColumn) {
+                currentlyVisibleColumn.resortPreviousVersions();
+            }
+        }
     }
 
     public static class ChosenColumnResult
@@ -421,40 +424,16 @@ public class ThriftConverter
            assert chosenTime < LamportClock.getVersion() : "Client can't chose a logical time in the future";
 
            if (logger.isTraceEnabled()) {
-               if (column.previousVersions() != null) {
-                   String previousVersions = new String();
-                   synchronized (column) {
-                       for (IColumn oldColumn : column.previousVersions()) {
-                           previousVersions += ", " + oldColumn.earliestValidTime() + "-";
-                       }
-                   }
-                   previousVersions = "{" + previousVersions.substring(2) + "}";
-                   logger.trace("picking chosenTime={} from previousVersons={}, current={}-", new Object[]{chosenTime, previousVersions, currentlyVisibleColumn.earliestValidTime()});
-               } else {
-                   logger.trace("picking chosenTime={} from previousVersons=[], current={}-", chosenTime, currentlyVisibleColumn.earliestValidTime());
-               }
+               logger.trace("picking chosenTime={} from previousVersons={}, current={}-", new Object[]{chosenTime, currentlyVisibleColumn.previousVersions(), currentlyVisibleColumn.earliestValidTime()});
            }
 
-
-           if (column.earliestValidTime() <= chosenTime) {
-               Set<Long> pendingTransactionIds = findAndUpdatePendingTransactions((org.apache.cassandra.db.Column) column, chosenTime, currentlyVisibleColumn);
-               return new ChosenColumnResult(thriftifyIColumn(column), pendingTransactionIds);
-           } else {
-               synchronized (column) {
-                   if (column.previousVersions() != null) {
-                       for (IColumn oldColumn : column.previousVersions()) {
-                           // goes through column by most recent first
-                           if (oldColumn.earliestValidTime() <= chosenTime) {
-                               Set<Long> pendingTransactionIds = findAndUpdatePendingTransactions((org.apache.cassandra.db.Column) oldColumn, chosenTime, currentlyVisibleColumn);
-                               return new ChosenColumnResult(thriftifyIColumn(oldColumn), pendingTransactionIds);
-                           }
-                       }
-                   }
-               }
-
+           org.apache.cassandra.db.Column chosenColumn = currentlyVisibleColumn.versionAt(chosenTime);
+           if (chosenColumn == null) {
                // If no previous version matches, then the client's first round read value is valid
                return new ChosenColumnResult(markFirstRoundResultAsValid(currentlyVisibleColumn), new HashSet<Long>());
            }
+           Set<Long> pendingTransactionIds = findAndUpdatePendingTransactions(chosenColumn, chosenTime, currentlyVisibleColumn);
+           return new ChosenColumnResult(thriftifyIColumn(chosenColumn), pendingTransactionIds);
        }
    }
 }
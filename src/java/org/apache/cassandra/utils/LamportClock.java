@@ -1,5 +1,7 @@
 package org.apache.cassandra.utils;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.net.InetAddress;
@@ -11,6 +13,12 @@ import org.slf4j.LoggerFactory;
  * There should only be one LamportClock for each process, so this class is a
  * singleton (all static).
  *
+ * With -Dcassandra.hybrid_logical_clock=true the clock is a hybrid logical clock: a time is the
+ * wall clock in milliseconds since HYBRID_EPOCH shifted left by LOGICAL_BITS plus a counter of the
+ * events within that millisecond.  It never falls behind the wall clock, still ticks past every
+ * time it sees, and fits the same 48 bits under the node id, so versions keep their layout.  Every
+ * client and server of a cluster must use the same mode.
+ *
  * @author wlloyd
  *
  */
@@ -23,6 +31,13 @@ public class LamportClock {
     //COPS_UNSUPPORTED should only be used in code that we don't intend to support like Hadoop on top of cassandra
     public static final long COPS_UNSUPPORTED = -2;
 
+    public static final boolean HYBRID = Boolean.parseBoolean(System.getProperty("cassandra.hybrid_logical_clock", "false"));
+    // 2^8 events per millisecond before the counter carries into the millisecond.  Counting the
+    // milliseconds from HYBRID_EPOCH, 2024-01-01 UTC, keeps hybrid times below 2^47, and so versions
+    // positive, until 2041; counting from 1970 would only have left room for 5 bits
+    public static final int LOGICAL_BITS = 8;
+    public static final long HYBRID_EPOCH = 1704067200000L;
+
     private static AtomicLong logicalTime = new AtomicLong();
     private static Short localId = null;
 
@@ -36,7 +51,7 @@ public class LamportClock {
      * @return next "version" for this node, version is timestamp + nodeid
      */
     public static long getVersion() {
-        long localTime = logicalTime.incrementAndGet();
+        long localTime = tick();
         long version = (localTime << 16) + localId.shortValue();
         //logger.debug("getVersion {} = {} << 16 + {}", new Object[]{version, localTime, localId.shortValue()});
         return version;
@@ -49,27 +64,51 @@ public class LamportClock {
 
 
     public static long sendTimestamp() {
-        long newLocalTime = logicalTime.incrementAndGet();
+        long newLocalTime = tick();
         //logger.debug("sendTimestamp({})", newLocalTime);
         return newLocalTime;
     }
 
-    public static synchronized void updateTime(long updateTime) {
+    /**
+     * Moves the clock past updateTime (and, for a hybrid clock, up to the wall clock).
+     */
+    public static void updateTime(long updateTime) {
         if (updateTime == NO_CLOCK_TICK) {
             //logger.debug("updateTimestamp(NO_CLOCK_TICK == {})", updateTime);
             return;
         }
 
-        long localTime = logicalTime.longValue();
-        long timeDiff = updateTime - localTime;
+        while (true) {
+            long localTime = logicalTime.get();
+            long resultTime = Math.max(Math.max(localTime, updateTime) + 1, wallClock());
+            if (logicalTime.compareAndSet(localTime, resultTime))
+                return;
+        }
+    }
 
-        long resultTime;
-        if (timeDiff < 0) {
-            resultTime = logicalTime.incrementAndGet();
-        } else {
-            resultTime = logicalTime.addAndGet(timeDiff+1);
+    private static long tick() {
+        if (!HYBRID)
+            return logicalTime.incrementAndGet();
+
+        while (true) {
+            long localTime = logicalTime.get();
+            long resultTime = Math.max(localTime + 1, wallClock());
+            if (logicalTime.compareAndSet(localTime, resultTime))
+                return resultTime;
         }
-        //logger.debug("updateTimestamp({},{}) = {}", new Object[]{updateTime, localTime, resultTime});
+    }
+
+    // the wall clock as a time with no events yet, or 0 for a Lamport clock
+    private static long wallClock() {
+        return HYBRID ? fromPhysicalTime(System.currentTimeMillis()) : 0;
+    }
+
+    /**
+     * @return the earliest hybrid clock time at the wall clock time millis
+     */
+    static long fromPhysicalTime(long millis) {
+        assert HYBRID : "Lamport times have no wall clock time";
+        return (millis - HYBRID_EPOCH) << LOGICAL_BITS;
     }
 
     public static void setLocalId(short localId2) {
@@ -82,17 +121,38 @@ public class LamportClock {
     }
 
     //SNOW: for new way of generating txnid
-    private static long parseToLong(String ipStr) throws Exception {
+    private static long parseToLong(String ipStr, int clientId) throws Exception {
         if (ipStr.indexOf('.') < 0) {
             return 0L;
         }
         String[] strs = ipStr.split("\\.");
         //Using last 10 bits of ip address and 6 bits of thread. MAX of 64 threads per node
-        long l10bits = (((Integer.parseInt(strs[2])%4) << 8 ) + Integer.parseInt(strs[3]));
-        long uniqid = (l10bits << 6) + getThreadId();
+        //With registered client ids the top bit is left clear, it tags the ids leased from a ClientIdRegistry
+        int ipBits = REGISTERED_CLIENT_IDS ? 9 : 10;
+        long lbits = (((Integer.parseInt(strs[2]) % (1 << (ipBits - 8))) << 8 ) + Integer.parseInt(strs[3]));
+        long uniqid = (lbits << CLIENT_ID_BITS) + clientId;
         return uniqid;
     }
 
+    // whether clients lease their ids from a ClientIdRegistry; every client of a cluster must agree
+    public static final boolean REGISTERED_CLIENT_IDS = Boolean.parseBoolean(System.getProperty("cassandra.client.registered_client_ids", "false"));
+    // set in client ids leased from a ClientIdRegistry, and never in ones derived from an address
+    public static final int REGISTERED_CLIENT_ID_TAG = 1 << 15;
+
+    // the local address does not change, so its part of the txn id is worked out once; -1 until then
+    private static volatile long hostBits = -1;
+
+    private static long uniqueId(int clientId) throws Exception {
+        long bits = hostBits;
+        if (bits < 0) {
+            String ipStr = InetAddress.getLocalHost().getHostAddress();
+            // an address parseToLong can't use gives every client id 0, as it always has
+            bits = ipStr.indexOf('.') < 0 ? Long.MAX_VALUE : parseToLong(ipStr, 0);
+            hostBits = bits;
+        }
+        return bits == Long.MAX_VALUE ? 0L : bits + clientId;
+    }
+
     // Atomic integer containing the next thread ID to be assigned
     private static final AtomicInteger nextId = new AtomicInteger(0);
 
@@ -100,21 +160,65 @@ public class LamportClock {
     private static final ThreadLocal<Integer> threadId =
             new ThreadLocal<Integer>() {
                 @Override protected Integer initialValue() {
-                    return nextId.getAndIncrement();
+                    return allocateClientId();
                 }
             };
 
     // Returns the current thread's unique ID, assigning it if necessary
+    // throws IllegalStateException once the host's 64 ids are taken, like allocateClientId
     public static int getThreadId() {
         return threadId.get();
     }
 
+    // client ids are the low bits of a txn id, under this host's address bits
+    public static final int CLIENT_ID_BITS = 6;
+
+    // allocated client ids given back, handed out again before any new one
+    private static final Queue<Integer> releasedClientIds = new ConcurrentLinkedQueue<Integer>();
+
+    /**
+     * Takes a client id from the same space as the thread ids, for clients that run several
+     * read-only transactions at once and need a distinct id for each.  Give it back with
+     * releaseClientId once done with it.
+     *
+     * @throws IllegalStateException if every id that fits in CLIENT_ID_BITS is taken, as a larger
+     * one would run into this host's address bits and so collide with another client's ids
+     */
+    public static int allocateClientId() {
+        Integer released = releasedClientIds.poll();
+        if (released != null)
+            return released;
+        int clientId = nextId.getAndIncrement();
+        if (clientId >= (1 << CLIENT_ID_BITS))
+            throw new IllegalStateException("All " + (1 << CLIENT_ID_BITS) + " client ids of this host are taken by threads and pipelines"
+                                            + ", close unused pipelines or set cassandra.client.registered_client_ids");
+        return clientId;
+    }
+
+    public static void releaseClientId(int clientId) {
+        assert clientId >= 0 && clientId < (1 << CLIENT_ID_BITS);
+        releasedClientIds.offer(clientId);
+    }
+
     public static long extractClientId(long txnid) {
         return txnid & ((1<<16)-1);
     }
     public static long sendTranId() throws Exception {
-        long localTime = logicalTime.incrementAndGet();
-        long tranId = (localTime << 16) + parseToLong(InetAddress.getLocalHost().getHostAddress());
+        return sendTranId(getThreadId());
+    }
+
+    public static long sendTranId(int clientId) throws Exception {
+        long localTime = tick();
+        long tranId = (localTime << 16) + uniqueId(clientId);
         return tranId;
     }
+
+    /**
+     * @return a transaction id for a client id leased from a ClientIdRegistry, which is already
+     * unique so takes none of this host's address bits
+     */
+    public static long sendRegisteredTranId(int clientId) {
+        assert (clientId & REGISTERED_CLIENT_ID_TAG) != 0 && clientId < (1 << 16);
+        return (tick() << 16) + clientId;
+    }
 }
@@ -53,7 +53,7 @@ public class StatusLogger
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
         
         // everything from o.a.c.concurrent
-        logger.info(String.format("%-25s%10s%10s%10s", "Pool Name", "Active", "Pending", "Blocked"));
+        logger.info(String.format("%-25s%10s%10s%10s%15s", "Pool Name", "Active", "Pending", "Blocked", "Mean Svc (us)"));
         Set<ObjectName> request, internal;
         try
         {
@@ -68,8 +68,10 @@ public class StatusLogger
         {
             String poolName = objectName.getKeyProperty("type");
             JMXEnabledThreadPoolExecutorMBean threadPoolProxy = JMX.newMBeanProxy(server, objectName, JMXEnabledThreadPoolExecutorMBean.class);
-            logger.info(String.format("%-25s%10s%10s%10s",
-                                      poolName, threadPoolProxy.getActiveCount(), threadPoolProxy.getPendingTasks(), threadPoolProxy.getCurrentlyBlockedTasks()));
+            long completed = threadPoolProxy.getCompletedTasks();
+            long meanServiceMicros = completed == 0 ? 0 : threadPoolProxy.getTotalServiceTimeMicros() / completed;
+            logger.info(String.format("%-25s%10s%10s%10s%15s",
+                                      poolName, threadPoolProxy.getActiveCount(), threadPoolProxy.getPendingTasks(), threadPoolProxy.getCurrentlyBlockedTasks(), meanServiceMicros));
         }
         // one offs
         logger.info(String.format("%-25s%10s%10s",
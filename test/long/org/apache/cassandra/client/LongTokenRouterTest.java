@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.client;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.BigIntegerToken;
+import org.apache.cassandra.dht.RandomPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Compares partitioning a multiget's keys by local server the way ClientLibrary used to (a linear
+ * search of RingCache's ranges and a fresh list of endpoints per key, then a HashMap of ArrayLists)
+ * against TokenRouter, at 1, 32 and 1024 keys per call.  Reports the time and the bytes allocated
+ * per call.
+ */
+public class LongTokenRouterTest
+{
+    private static final int RANGES = 256;
+    private static final int LOCAL_SERVERS = 8;
+    private static final int[] KEYS_PER_CALL = { 1, 32, 1024 };
+    private static final long RUN_MILLIS = 2000;
+
+    private static final RandomPartitioner partitioner = new RandomPartitioner();
+
+    private interface Partitioner
+    {
+        Map<InetAddress, List<ByteBuffer>> partition(List<ByteBuffer> keys);
+    }
+
+    private static Multimap<Range<Token>, InetAddress> ring(InetAddress[] local, InetAddress[] remote)
+    {
+        Multimap<Range<Token>, InetAddress> rangeMap = ArrayListMultimap.create();
+        BigInteger step = RandomPartitioner.MAXIMUM.divide(BigInteger.valueOf(RANGES));
+        for (int i = 0; i < RANGES; i++)
+        {
+            Token left = new BigIntegerToken(step.multiply(BigInteger.valueOf(i)));
+            Token right = new BigIntegerToken(step.multiply(BigInteger.valueOf((i + 1) % RANGES)));
+            Range<Token> range = new Range<Token>(left, right, partitioner);
+            rangeMap.put(range, local[i % local.length]);
+            rangeMap.put(range, remote[i % remote.length]);
+        }
+        return rangeMap;
+    }
+
+    private static Partitioner ringCache(final Multimap<Range<Token>, InetAddress> rangeMap, final InetAddress[] local)
+    {
+        final Set<InetAddress> localSet = new HashSet<InetAddress>(Arrays.asList(local));
+        return new Partitioner()
+        {
+            public Map<InetAddress, List<ByteBuffer>> partition(List<ByteBuffer> keys)
+            {
+                Map<InetAddress, List<ByteBuffer>> addressToKeys = new HashMap<InetAddress, List<ByteBuffer>>();
+                for (ByteBuffer key : keys)
+                {
+                    Token token = partitioner.getToken(key);
+                    Range<Token> keyRange = null;
+                    for (Range<Token> range : rangeMap.keySet())
+                    {
+                        if (range.contains(token))
+                        {
+                            keyRange = range;
+                            break;
+                        }
+                    }
+                    InetAddress address = null;
+                    for (InetAddress endpoint : (List<InetAddress>) rangeMap.get(keyRange))
+                        if (localSet.contains(endpoint))
+                            address = endpoint;
+                    if (!addressToKeys.containsKey(address))
+                        addressToKeys.put(address, new ArrayList<ByteBuffer>());
+                    addressToKeys.get(address).add(key);
+                }
+                return addressToKeys;
+            }
+        };
+    }
+
+    private static Partitioner router(Multimap<Range<Token>, InetAddress> rangeMap, final InetAddress[] local)
+    {
+        final TokenRouter router = new TokenRouter(partitioner, local, rangeMap);
+        return new Partitioner()
+        {
+            public Map<InetAddress, List<ByteBuffer>> partition(List<ByteBuffer> keys)
+            {
+                return router.partition(keys, local);
+            }
+        };
+    }
+
+    private static long allocatedBytes()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private void run(String name, Partitioner partitioner, int keysPerCall)
+    {
+        Random random = new Random(0);
+        List<List<ByteBuffer>> calls = new ArrayList<List<ByteBuffer>>();
+        for (int i = 0; i < 64; i++)
+        {
+            List<ByteBuffer> keys = new ArrayList<ByteBuffer>(keysPerCall);
+            for (int j = 0; j < keysPerCall; j++)
+                keys.add(ByteBufferUtil.bytes(String.valueOf(random.nextLong())));
+            calls.add(keys);
+        }
+
+        // warm up
+        long end = System.currentTimeMillis() + RUN_MILLIS / 4;
+        for (int i = 0; System.currentTimeMillis() < end; i++)
+            partitioner.partition(calls.get(i % calls.size()));
+
+        long count = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        end = System.currentTimeMillis() + RUN_MILLIS;
+        while (System.currentTimeMillis() < end)
+        {
+            for (int i = 0; i < calls.size(); i++)
+                partitioner.partition(calls.get(i));
+            count += calls.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+
+        System.out.println(String.format("%s, %d keys per call: %.0f ns per call, %.0f ns per key, %.0f bytes allocated per call",
+                                         name, keysPerCall, (double) elapsed / count, (double) elapsed / count / keysPerCall,
+                                         (double) allocated / count));
+    }
+
+    @Test
+    public void testPartitionKeys() throws Exception
+    {
+        InetAddress[] local = new InetAddress[LOCAL_SERVERS];
+        InetAddress[] remote = new InetAddress[LOCAL_SERVERS];
+        for (int i = 0; i < LOCAL_SERVERS; i++)
+        {
+            local[i] = InetAddress.getByName("127.0.0." + (i + 1));
+            remote[i] = InetAddress.getByName("127.0.1." + (i + 1));
+        }
+        Multimap<Range<Token>, InetAddress> rangeMap = ring(local, remote);
+
+        for (int keysPerCall : KEYS_PER_CALL)
+        {
+            run("RingCache", ringCache(rangeMap, local), keysPerCall);
+            run("TokenRouter", router(rangeMap, local), keysPerCall);
+        }
+    }
+}
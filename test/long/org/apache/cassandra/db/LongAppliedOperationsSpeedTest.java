@@ -0,0 +1,161 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.util.*;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the per-origin watermark used by AppliedOperations with the TreeMap of op statuses
+ * it replaced, with a large number of ops pending from a single origin.
+ */
+public class LongAppliedOperationsSpeedTest
+{
+    private static final int PENDING_OPS = 1000000;
+    private static final int ROUNDS = 5;
+
+    enum OpStatus {
+        PENDING,
+        APPLIED
+    }
+
+    @Test
+    public void testWatermark()
+    {
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+            Random random = new Random(round);
+            long start = System.nanoTime();
+            for (int i = 0; i < PENDING_OPS; i++)
+                shard.addPending(version(i));
+            long added = System.nanoTime();
+            int satisfied = 0;
+            for (int i = 0; i < PENDING_OPS; i++)
+            {
+                shard.addApplied(version(appliedOrder(i)), Long.MAX_VALUE);
+                if (shard.isApplied(version(random.nextInt(i + 1))))
+                    satisfied++;
+            }
+            report("watermark", added - start, System.nanoTime() - added, satisfied);
+        }
+    }
+
+    @Test
+    public void testTreeMap()
+    {
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            TreeMapOps ops = new TreeMapOps();
+            Random random = new Random(round);
+            long start = System.nanoTime();
+            for (int i = 0; i < PENDING_OPS; i++)
+                ops.addPending(version(i));
+            long added = System.nanoTime();
+            int satisfied = 0;
+            for (int i = 0; i < PENDING_OPS; i++)
+            {
+                ops.addApplied(version(appliedOrder(i)));
+                if (ops.isApplied(version(random.nextInt(i + 1))))
+                    satisfied++;
+            }
+            report("treemap", added - start, System.nanoTime() - added, satisfied);
+        }
+    }
+
+    private static long version(int i)
+    {
+        return ((long) i << 16) + 1;
+    }
+
+    // mutation threads apply neighbouring ops out of order
+    private static int appliedOrder(int i)
+    {
+        if (i % 2 == 0)
+            return i + 1 < PENDING_OPS ? i + 1 : i;
+        return i - 1;
+    }
+
+    private void report(String name, long addNanos, long applyNanos, int satisfied)
+    {
+        assertTrue(satisfied > 0);
+        System.out.println(String.format("%s: %s: ops=%d add=%d ms apply+check=%d ms (%d ns/op)",
+                                         this.getClass().getName(),
+                                         name,
+                                         PENDING_OPS,
+                                         addNanos / 1000000,
+                                         applyNanos / 1000000,
+                                         applyNanos / PENDING_OPS));
+    }
+
+    /**
+     * The applied-prefix trimming and checks of the previous SortedMap based AppliedOperations.
+     */
+    private static class TreeMapOps
+    {
+        private final SortedMap<Long, OpStatus> pendingOps = new TreeMap<Long, OpStatus>();
+
+        public void addPending(long timestamp)
+        {
+            pendingOps.put(timestamp, OpStatus.PENDING);
+        }
+
+        public void addApplied(long timestamp)
+        {
+            pendingOps.put(timestamp, OpStatus.APPLIED);
+            if (pendingOps.size() > 1)
+            {
+                Iterator<Entry<Long, OpStatus>> firstNeededIt = pendingOps.entrySet().iterator();
+                Entry<Long, OpStatus> firstNeededOp = firstNeededIt.next();
+                Long lastAppliedKey = firstNeededOp.getValue() == OpStatus.PENDING ? null : firstNeededOp.getKey();
+                while (firstNeededIt.hasNext())
+                {
+                    firstNeededOp = firstNeededIt.next();
+                    if (firstNeededOp.getValue() == OpStatus.PENDING)
+                        break;
+                    lastAppliedKey = firstNeededOp.getKey();
+                }
+                if (lastAppliedKey != null)
+                {
+                    for (Iterator<Entry<Long, OpStatus>> opIt = pendingOps.entrySet().iterator(); opIt.hasNext(); )
+                    {
+                        Entry<Long, OpStatus> op = opIt.next();
+                        if (opIt.hasNext() && !op.getKey().equals(lastAppliedKey))
+                            opIt.remove();
+                        else
+                            break;
+                    }
+                }
+            }
+        }
+
+        public boolean isApplied(long timestamp)
+        {
+            if (pendingOps.isEmpty() || pendingOps.get(pendingOps.firstKey()) == OpStatus.PENDING)
+                return false;
+            if (timestamp <= pendingOps.firstKey())
+                return true;
+            return pendingOps.get(timestamp) == OpStatus.APPLIED;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the legacy and compact encodings of dep checks and dep check replies: bytes per
+ * dependency (or txn id) and serialize + deserialize CPU time per message.
+ *
+ * Dependencies carry versions from a few origin nodes close to the current lamport time, replies
+ * carry the latest txn ids of many clients, as in the stress tool's workloads.
+ */
+public class LongCompactEncodingTest
+{
+    private static final int MESSAGES = 20000;
+    private static final int NUM_ORIGINS = 4;
+    private static final int NUM_CLIENTS = 128;
+    private static final int[] DEPS_PER_MESSAGE = { 1, 10, 50 };
+
+    private final Random random = new Random(0);
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+
+    @Test
+    public void testDependencyCheckEncoding() throws IOException
+    {
+        InetAddress node = InetAddress.getByName("127.0.0.2");
+        for (int numDeps : DEPS_PER_MESSAGE)
+        {
+            DependencyCheck[] checks = new DependencyCheck[MESSAGES];
+            for (int m = 0; m < MESSAGES; m++)
+            {
+                long now = 1000000L + m * 10;
+                ArrayList<Dependency> deps = new ArrayList<Dependency>(numDeps);
+                for (int i = 0; i < numDeps; i++)
+                {
+                    ByteBuffer key = ByteBufferUtil.bytes(String.format("%010d", random.nextInt(100000)));
+                    deps.add(new Dependency(key, ((now - random.nextInt(1000)) << 16) + random.nextInt(NUM_ORIGINS)));
+                }
+                checks[m] = new DependencyCheck(deps, node);
+            }
+
+            // the first passes warm up
+            for (int pass = 0; pass < 3; pass++)
+            {
+                for (int version : new int[]{ MessagingService.VERSION_11, MessagingService.VERSION_COMPACT_DEPS })
+                {
+                    long bytes = 0;
+                    long start = threadMXBean.getCurrentThreadCpuTime();
+                    for (DependencyCheck check : checks)
+                    {
+                        byte[] body = check.getMessage(version).getMessageBody();
+                        bytes += body.length;
+                        assertEquals(numDeps, DependencyCheck.fromBytes(body, version).getDependencies().size());
+                    }
+                    long cpu = threadMXBean.getCurrentThreadCpuTime() - start;
+                    if (pass == 2)
+                        report("DependencyCheck", version, numDeps, bytes, cpu);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDepCheckReplyEncoding() throws IOException
+    {
+        for (int numIds : DEPS_PER_MESSAGE)
+        {
+            List<List<Long>> replies = new ArrayList<List<Long>>(MESSAGES);
+            for (int m = 0; m < MESSAGES; m++)
+            {
+                long now = 1000000L + m * 10;
+                Set<Long> ids = new HashSet<Long>();
+                while (ids.size() < numIds)
+                    ids.add(((now - random.nextInt(100)) << 16) + random.nextInt(NUM_CLIENTS));
+                replies.add(new ArrayList<Long>(ids));
+            }
+
+            // the first passes warm up
+            for (int pass = 0; pass < 3; pass++)
+            {
+                for (int version : new int[]{ MessagingService.VERSION_11, MessagingService.VERSION_COMPACT_DEPS })
+                {
+                    boolean compact = CompactEncoding.isCompact(version);
+                    long bytes = 0;
+                    List<Long> read = new ArrayList<Long>();
+                    long start = threadMXBean.getCurrentThreadCpuTime();
+                    for (List<Long> ids : replies)
+                    {
+                        // as in AppliedOperations.sendDepCheckReply and DepCheckCallback.updateTxnIdList
+                        DataOutputBuffer buffer = new DataOutputBuffer();
+                        byte[] body;
+                        if (compact)
+                        {
+                            CompactEncoding.writeIds(ids, buffer);
+                            body = CompactEncoding.wrap(buffer.getData(), buffer.getLength());
+                        }
+                        else
+                        {
+                            buffer.writeInt(ids.size());
+                            for (Long id : ids)
+                                buffer.writeLong(id);
+                            body = Arrays.copyOf(buffer.getData(), buffer.getLength());
+                        }
+                        bytes += body.length;
+    
+                        read.clear();
+                        if (compact)
+                        {
+                            CompactEncoding.readIds(CompactEncoding.unwrap(body), read);
+                        }
+                        else
+                        {
+                            DataInputStream in = new DataInputStream(new FastByteArrayInputStream(body));
+                            int size = in.readInt();
+                            for (int i = 0; i < size; i++)
+                                read.add(in.readLong());
+                        }
+                        assertEquals(numIds, read.size());
+                    }
+                    long cpu = threadMXBean.getCurrentThreadCpuTime() - start;
+                    if (pass == 2)
+                        report("DepCheckReply", version, numIds, bytes, cpu);
+                }
+            }
+        }
+    }
+
+    private void report(String message, int version, int perMessage, long bytes, long cpuNanos)
+    {
+        System.out.println(String.format("%s: %s version=%d entries/msg=%d: %.2f bytes/entry, %d ns cpu/msg",
+                                         this.getClass().getName(),
+                                         message,
+                                         version,
+                                         perMessage,
+                                         bytes / (double) (MESSAGES * perMessage),
+                                         cpuNanos / MESSAGES));
+    }
+}
@@ -0,0 +1,131 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures the allocation rate of ReadTransactionIdTracker under the stress tool's FacebookWorkload:
+ * 99.8% read-only transactions with the Facebook multiget batch sizes over gaussian distributed keys,
+ * and 0.2% single key writes whose dep checks collect and re-record the key's txn ids.
+ */
+public class LongReadTransactionIdTrackerTest
+{
+    private static final int NUM_KEYS = 100000;
+    private static final int NUM_CLIENTS = 128;
+    private static final int OPERATIONS = 500000;
+    private static final int ROUNDS = 5;
+    private static final double[] FB_READ_BATCH_FRACTIONS = { .515, .1, .12, .1, .08, .05, .02, .008, .004, .002 };
+
+    private final Random random = new Random(0);
+    private final Random batchSizeRandom = new Random(4);
+    private final ByteBuffer[] keys = new ByteBuffer[NUM_KEYS];
+    private long lamportTime = 0;
+
+    @Test
+    public void testFacebookWorkloadAllocation()
+    {
+        for (int i = 0; i < NUM_KEYS; i++)
+            keys[i] = ByteBufferUtil.bytes(String.format("%010d", i));
+
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            ReadTransactionIdTracker.clearContext();
+            long startBytes = allocatedBytes();
+            long start = System.nanoTime();
+            long keysTouched = run();
+            long nanos = System.nanoTime() - start;
+            long bytes = allocatedBytes() - startBytes;
+
+            assertTrue(keysTouched > 0);
+            System.out.println(String.format("%s: ops=%d keys=%d: %d ms, %d ns/key, %s bytes/key",
+                                             this.getClass().getName(),
+                                             OPERATIONS,
+                                             keysTouched,
+                                             nanos / 1000000,
+                                             nanos / keysTouched,
+                                             startBytes < 0 ? "n/a" : String.format("%.1f", bytes / (double) keysTouched)));
+        }
+    }
+
+    private long run()
+    {
+        long keysTouched = 0;
+        for (int op = 0; op < OPERATIONS; op++)
+        {
+            long txnId = (++lamportTime << 16) + random.nextInt(NUM_CLIENTS);
+            if (random.nextDouble() <= .002)
+            {
+                // a write's dep check: collect the key's ids and record them with the write's time
+                ByteBuffer key = keys[nextKey()];
+                ArrayList<Long> ids = ReadTransactionIdTracker.getReadTxnIds(key);
+                ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, ids, lamportTime);
+                keysTouched++;
+            }
+            else
+            {
+                int batchSize = fbReadBatchSize();
+                for (int i = 0; i < batchSize; i++)
+                    ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(keys[nextKey()], txnId, false, 0);
+                keysTouched += batchSize;
+            }
+        }
+        return keysTouched;
+    }
+
+    // Operation.generateGaussKey with the stress tool's default mean and sigma
+    private int nextKey()
+    {
+        for (;;)
+        {
+            double token = NUM_KEYS / 2 + random.nextGaussian() * NUM_KEYS * 0.1;
+            if (0 <= token && token < NUM_KEYS)
+                return (int) token;
+        }
+    }
+
+    // Operation.getFBReadBatchSize
+    private int fbReadBatchSize()
+    {
+        double toss = batchSizeRandom.nextDouble();
+        for (int i = 0; i < FB_READ_BATCH_FRACTIONS.length; i++)
+        {
+            if (toss < FB_READ_BATCH_FRACTIONS[i])
+                return 1 << i;
+            toss -= FB_READ_BATCH_FRACTIONS[i];
+        }
+        return 1024;
+    }
+
+    private static long allocatedBytes()
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
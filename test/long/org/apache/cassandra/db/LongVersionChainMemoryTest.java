@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Compares the heap held by previous versions kept in a per column TreeSet, with boxed Long
+ * timestamps in each version, against a VersionChain with primitive timestamps.
+ *
+ * The version columns themselves are shared by both layouts and not counted, so the numbers are
+ * the overhead per previous version on top of its name and value.
+ */
+public class LongVersionChainMemoryTest
+{
+    private static final int COLUMNS = 20000;
+    private static final int[] VERSIONS_PER_COLUMN = { 1, 4, 16 };
+    private static final int TIMES_PER_VERSION = 4;
+
+    // the ordering Column.previousVersions used to have, newest first
+    private static final Comparator<IColumn> EVT_COMPARATOR = new Comparator<IColumn>()
+    {
+        public int compare(IColumn lhs, IColumn rhs)
+        {
+            return lhs.earliestValidTime() > rhs.earliestValidTime() ? -1 : lhs.earliestValidTime() < rhs.earliestValidTime() ? 1 : 0;
+        }
+    };
+
+    // keeps what is being measured reachable until it has been measured
+    private Object retained;
+    // the versions are shared by both layouts and stay reachable throughout
+    private Column[] columns;
+
+    private static long usedHeap() throws InterruptedException
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++)
+        {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private double bytesPerVersion(Object[] holders, int versions, long base) throws InterruptedException
+    {
+        retained = holders;
+        long bytes = usedHeap() - base;
+        retained = null;
+        return (double) bytes / versions;
+    }
+
+    @Test
+    public void testVersionChainFootprint() throws InterruptedException
+    {
+        for (int versionsPerColumn : VERSIONS_PER_COLUMN)
+        {
+            int versions = COLUMNS * versionsPerColumn;
+            columns = null;
+            columns = new Column[versions];
+            for (int i = 0; i < versions; i++)
+            {
+                long evt = 1000000L + i;
+                columns[i] = new Column(ByteBufferUtil.bytes(i), ByteBufferUtil.EMPTY_BYTE_BUFFER, evt, evt, null, evt, null, null, null);
+            }
+
+            long base = usedHeap();
+            Object[] sets = new Object[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++)
+            {
+                NavigableSet<IColumn> set = new TreeSet<IColumn>(EVT_COMPARATOR);
+                for (int v = 0; v < versionsPerColumn; v++)
+                    set.add(columns[c * versionsPerColumn + v]);
+                sets[c] = set;
+            }
+            double treeSet = bytesPerVersion(sets, versions, base);
+            sets = null;
+
+            base = usedHeap();
+            Object[] chains = new Object[COLUMNS];
+            for (int c = 0; c < COLUMNS; c++)
+            {
+                VersionChain chain = VersionChain.EMPTY;
+                for (int v = 0; v < versionsPerColumn; v++)
+                    chain = chain.with(columns[c * versionsPerColumn + v]);
+                chains[c] = chain;
+            }
+            double chain = bytesPerVersion(chains, versions, base);
+            chains = null;
+
+            // lastAccessTime, lastAccessTimeOfAPreviousVersion, earliestValidTime and latestValidTime
+            base = usedHeap();
+            Long[] boxed = new Long[versions * TIMES_PER_VERSION];
+            for (int i = 0; i < boxed.length; i++)
+                boxed[i] = Long.valueOf(1000000L + i);
+            double boxedTimes = bytesPerVersion(new Object[]{ boxed }, versions, base);
+            boxed = null;
+
+            base = usedHeap();
+            long[] primitive = new long[versions * TIMES_PER_VERSION];
+            for (int i = 0; i < primitive.length; i++)
+                primitive[i] = 1000000L + i;
+            double primitiveTimes = bytesPerVersion(new Object[]{ primitive }, versions, base);
+            primitive = null;
+
+            System.out.println(String.format("%d versions per column: TreeSet + boxed times %.1f bytes per version, VersionChain + primitive times %.1f bytes per version",
+                                             versionsPerColumn, treeSet + boxedTimes, chain + primitiveTimes));
+            System.out.println(String.format("    (chain %.1f vs %.1f, times %.1f vs %.1f)", treeSet, chain, boxedTimes, primitiveTimes));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+/**
+ * Compares by-time lookups on a hot column while a writer adds versions to it at a fixed rate: a
+ * locked linear walk of a TreeSet (how previousVersions used to be read) against a lock-free
+ * binary search of a VersionChain.  Lookups pick a random time over all versions.
+ */
+public class LongVersionLookupTest
+{
+    private static final int INITIAL_VERSIONS = 64;
+    private static final long RUN_MILLIS = 2000;
+    private static final int[] WRITES_PER_SECOND = { 0, 1000, 5000 };
+
+    private static final Comparator<IColumn> EVT_COMPARATOR = new Comparator<IColumn>()
+    {
+        public int compare(IColumn lhs, IColumn rhs)
+        {
+            return lhs.earliestValidTime() > rhs.earliestValidTime() ? -1 : lhs.earliestValidTime() < rhs.earliestValidTime() ? 1 : 0;
+        }
+    };
+
+    private interface Versions
+    {
+        void add(Column version);
+        IColumn versionAt(long time);
+    }
+
+    private static Column version(long evt)
+    {
+        return new Column(ByteBufferUtil.bytes("name"), ByteBufferUtil.EMPTY_BYTE_BUFFER, evt, evt, null, evt, null, null, null);
+    }
+
+    private void run(String name, final Versions versions, final int writesPerSecond) throws InterruptedException
+    {
+        final AtomicLong newest = new AtomicLong();
+        for (int i = 0; i < INITIAL_VERSIONS; i++)
+            versions.add(version(newest.incrementAndGet()));
+
+        final long begin = System.currentTimeMillis();
+        final long end = begin + RUN_MILLIS;
+        Thread writer = new Thread()
+        {
+            public void run()
+            {
+                long written = 0;
+                long now;
+                while ((now = System.currentTimeMillis()) < end)
+                {
+                    if (written < (now - begin) * writesPerSecond / 1000)
+                    {
+                        versions.add(version(newest.incrementAndGet()));
+                        written++;
+                    }
+                    else
+                    {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        writer.start();
+
+        Random random = new Random(0);
+        long lookups = 0;
+        long start = System.nanoTime();
+        while (System.currentTimeMillis() < end)
+        {
+            for (int i = 0; i < 1000; i++)
+            {
+                IColumn version = versions.versionAt(1 + (long) (random.nextDouble() * newest.get()));
+                assert version != null;
+            }
+            lookups += 1000;
+        }
+        long elapsed = System.nanoTime() - start;
+        writer.join();
+
+        System.out.println(String.format("%s, %d writes/s: %.0f ns per lookup, %d versions at the end",
+                                         name, writesPerSecond, (double) elapsed / lookups, newest.get()));
+    }
+
+    private static Versions treeSet()
+    {
+        return new Versions()
+        {
+            private final NavigableSet<IColumn> set = new TreeSet<IColumn>(EVT_COMPARATOR);
+
+            public synchronized void add(Column version)
+            {
+                set.add(version);
+            }
+
+            public synchronized IColumn versionAt(long time)
+            {
+                for (IColumn version : set)
+                    if (version.earliestValidTime() <= time)
+                        return version;
+                return null;
+            }
+        };
+    }
+
+    private static Versions chain()
+    {
+        return new Versions()
+        {
+            private final AtomicReference<VersionChain> chain = new AtomicReference<VersionChain>(VersionChain.EMPTY);
+
+            public void add(Column version)
+            {
+                while (true)
+                {
+                    VersionChain current = chain.get();
+                    if (chain.compareAndSet(current, current.with(version)))
+                        return;
+                }
+            }
+
+            public IColumn versionAt(long time)
+            {
+                return chain.get().versionAt(time);
+            }
+        };
+    }
+
+    @Test
+    public void testLookupUnderWrites() throws InterruptedException
+    {
+        for (int writesPerSecond : WRITES_PER_SECOND)
+        {
+            run("TreeSet", treeSet(), writesPerSecond);
+            run("VersionChain", chain(), writesPerSecond);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.client;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import org.apache.cassandra.thrift.Dep;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientContextTest
+{
+    private static Dep dep(String key, long timestamp)
+    {
+        return new Dep(ByteBufferUtil.bytes(key), timestamp);
+    }
+
+    @Test
+    public void testNewestDepPerKey()
+    {
+        ClientContext context = new ClientContext(0);
+        context.addDep(dep("a", 5));
+        context.addDep(dep("a", 3));
+        context.addDep(dep("b", 1));
+        context.addDep(dep("a", 7));
+
+        Set<Dep> expected = new HashSet<Dep>();
+        expected.add(dep("a", 7));
+        expected.add(dep("b", 1));
+        assertEquals(expected, context.getDeps());
+    }
+
+    @Test
+    public void testWriteReplacesDeps()
+    {
+        ClientContext context = new ClientContext(0);
+        for (int i = 0; i < 10; i++)
+            context.addDep(dep("key" + i, i));
+
+        long writes = ClientContext.getTotalWrites();
+        long attached = ClientContext.getTotalDepsAttached();
+        context.clearDepsAfterWrite();
+        context.addDep(dep("written", 100));
+
+        assertEquals(1, context.size());
+        assertEquals(writes + 1, ClientContext.getTotalWrites());
+        assertEquals(attached + 10, ClientContext.getTotalDepsAttached());
+    }
+
+    @Test
+    public void testCapDropsOldest()
+    {
+        ClientContext context = new ClientContext(3);
+        long dropped = ClientContext.getTotalDepsDropped();
+        for (int i = 0; i < 5; i++)
+            context.addDep(dep("key" + i, 10 - i));
+
+        assertEquals(3, context.size());
+        assertEquals(dropped + 2, ClientContext.getTotalDepsDropped());
+        for (Dep dep : context.getDeps())
+            assertTrue(dep.timestamp >= 8);
+    }
+}
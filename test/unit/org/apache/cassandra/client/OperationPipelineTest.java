@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.client;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.cassandra.utils.LamportClock;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OperationPipelineTest
+{
+    /** records the order operations are sent in, and completes them only when told to */
+    private static class RecordingOperation extends OperationPipeline.Operation
+    {
+        private final List<RecordingOperation> sent;
+        private int clientId = -1;
+
+        RecordingOperation(boolean isWrite, List<RecordingOperation> sent)
+        {
+            super(isWrite);
+            this.sent = sent;
+        }
+
+        protected void send(int clientId)
+        {
+            this.clientId = clientId;
+            sent.add(this);
+        }
+    }
+
+    @Test
+    public void testReadsRunConcurrently()
+    {
+        OperationPipeline pipeline = new OperationPipeline(4);
+        List<RecordingOperation> sent = new ArrayList<RecordingOperation>();
+        Set<Integer> clientIds = new HashSet<Integer>();
+        for (int i = 0; i < 4; i++)
+            pipeline.submit(new RecordingOperation(false, sent));
+
+        assertEquals(4, sent.size());
+        assertEquals(4, pipeline.getOutstanding());
+        for (RecordingOperation operation : sent)
+            clientIds.add(operation.clientId);
+        assertEquals("each outstanding read needs its own client id", 4, clientIds.size());
+    }
+
+    @Test
+    public void testWriteIsABarrier()
+    {
+        OperationPipeline pipeline = new OperationPipeline(4);
+        List<RecordingOperation> sent = new ArrayList<RecordingOperation>();
+        RecordingOperation read1 = new RecordingOperation(false, sent);
+        RecordingOperation write = new RecordingOperation(true, sent);
+        RecordingOperation read2 = new RecordingOperation(false, sent);
+
+        pipeline.submit(read1);
+        pipeline.submit(write);
+        pipeline.submit(read2);
+        assertEquals("the write waits for the earlier read, and the later read for the write", 1, sent.size());
+
+        pipeline.completed(read1);
+        assertEquals(2, sent.size());
+        assertTrue(sent.get(1) == write);
+
+        pipeline.completed(write);
+        assertEquals(3, sent.size());
+        assertTrue(sent.get(2) == read2);
+
+        pipeline.completed(read2);
+        assertEquals(0, pipeline.getOutstanding());
+    }
+
+    @Test
+    public void testClientIdsAreReused()
+    {
+        OperationPipeline pipeline = new OperationPipeline(2);
+        List<RecordingOperation> sent = new ArrayList<RecordingOperation>();
+        Set<Integer> clientIds = new HashSet<Integer>();
+        for (int i = 0; i < 10; i++) {
+            RecordingOperation read = new RecordingOperation(false, sent);
+            pipeline.submit(read);
+            clientIds.add(read.clientId);
+            pipeline.completed(read);
+        }
+        assertTrue("ids come from the pipeline's own set", clientIds.size() <= 2);
+    }
+
+    @Test
+    public void testClosingReturnsClientIds()
+    {
+        List<OperationPipeline> pipelines = new ArrayList<OperationPipeline>();
+        boolean exhausted = false;
+        while (!exhausted && pipelines.size() <= (1 << LamportClock.CLIENT_ID_BITS))
+        {
+            try
+            {
+                pipelines.add(new OperationPipeline(4));
+            }
+            catch (IllegalStateException e)
+            {
+                exhausted = true;
+            }
+        }
+        assertTrue("running out of client ids fails", exhausted);
+
+        // a read still in flight keeps its pipeline's ids until it completes
+        OperationPipeline busy = pipelines.get(0);
+        RecordingOperation read = new RecordingOperation(false, new ArrayList<RecordingOperation>());
+        busy.submit(read);
+        for (OperationPipeline pipeline : pipelines)
+            pipeline.close();
+        int created = pipelines.size();
+        pipelines.clear();
+        for (int i = 0; i < created - 1; i++)
+            pipelines.add(new OperationPipeline(4));
+        exhausted = false;
+        try
+        {
+            new OperationPipeline(4);
+        }
+        catch (IllegalStateException e)
+        {
+            exhausted = true;
+        }
+        assertTrue("the busy pipeline still holds its ids", exhausted);
+
+        busy.completed(read);
+        pipelines.add(new OperationPipeline(4));
+        for (OperationPipeline pipeline : pipelines)
+            pipeline.close();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.client;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import org.apache.cassandra.dht.OrderPreservingPartitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.StringToken;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenRouterTest
+{
+    private static final OrderPreservingPartitioner partitioner = new OrderPreservingPartitioner();
+
+    private static InetAddress address(String ip) throws Exception
+    {
+        return InetAddress.getByName(ip);
+    }
+
+    private static Range<Token> range(String left, String right)
+    {
+        return new Range<Token>(new StringToken(left), new StringToken(right), partitioner);
+    }
+
+    // three ranges, each with a replica in the local datacenter (127.0.0.1, 127.0.0.2) and a remote one
+    private static TokenRouter router() throws Exception
+    {
+        Multimap<Range<Token>, InetAddress> rangeMap = ArrayListMultimap.create();
+        rangeMap.put(range("d", "m"), address("127.0.0.2"));
+        rangeMap.put(range("d", "m"), address("127.0.1.1"));
+        rangeMap.put(range("t", "d"), address("127.0.1.2"));
+        rangeMap.put(range("t", "d"), address("127.0.0.1"));
+        rangeMap.put(range("m", "t"), address("127.0.0.1"));
+        rangeMap.put(range("m", "t"), address("127.0.1.3"));
+        return new TokenRouter(partitioner, new InetAddress[]{ address("127.0.0.1"), address("127.0.0.2") }, rangeMap);
+    }
+
+    @Test
+    public void testRoute() throws Exception
+    {
+        TokenRouter router = router();
+        assertEquals(0, router.route(ByteBufferUtil.bytes("a")));
+        assertEquals(0, router.route(ByteBufferUtil.bytes("d")));
+        assertEquals(1, router.route(ByteBufferUtil.bytes("e")));
+        assertEquals(1, router.route(ByteBufferUtil.bytes("m")));
+        assertEquals(0, router.route(ByteBufferUtil.bytes("n")));
+        assertEquals(0, router.route(ByteBufferUtil.bytes("t")));
+        // past the last right token, wrapping around the ring
+        assertEquals(0, router.route(ByteBufferUtil.bytes("z")));
+    }
+
+    @Test
+    public void testPartition() throws Exception
+    {
+        TokenRouter router = router();
+        String[] targets = { "first", "second" };
+        List<ByteBuffer> keys = Arrays.asList(ByteBufferUtil.bytes("z"), ByteBufferUtil.bytes("e"), ByteBufferUtil.bytes("a"),
+                                              ByteBufferUtil.bytes("f"), ByteBufferUtil.bytes("n"));
+        Map<String, List<ByteBuffer>> partitioned = router.partition(keys, targets);
+        assertEquals(2, partitioned.size());
+        assertEquals(Arrays.asList(ByteBufferUtil.bytes("z"), ByteBufferUtil.bytes("a"), ByteBufferUtil.bytes("n")), partitioned.get("first"));
+        assertEquals(Arrays.asList(ByteBufferUtil.bytes("e"), ByteBufferUtil.bytes("f")), partitioned.get("second"));
+
+        // all on one server, and the scratch buffers are clean for the next call
+        partitioned = router.partition(Arrays.asList(ByteBufferUtil.bytes("g"), ByteBufferUtil.bytes("h")), targets);
+        assertEquals(1, partitioned.size());
+        assertEquals(Arrays.asList(ByteBufferUtil.bytes("g"), ByteBufferUtil.bytes("h")), partitioned.get("second"));
+    }
+}
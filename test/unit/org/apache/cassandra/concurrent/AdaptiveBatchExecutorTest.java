@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchExecutorTest
+{
+    private static class CollectingExecutor extends AdaptiveBatchExecutor<Integer>
+    {
+        final List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        final CountDownLatch done;
+
+        CollectingExecutor(int maxBatchSize, long maxWindowInMs, int expected)
+        {
+            super("AdaptiveBatchExecutorTest", maxBatchSize, maxWindowInMs);
+            done = new CountDownLatch(expected);
+        }
+
+        protected void process(List<Integer> batch)
+        {
+            synchronized (batches)
+            {
+                batches.add(batch);
+            }
+            for (int i = 0; i < batch.size(); i++)
+                done.countDown();
+        }
+    }
+
+    @Test
+    public void testAllItemsProcessedInOrder() throws InterruptedException
+    {
+        int items = 10000;
+        CollectingExecutor executor = new CollectingExecutor(100, 10, items);
+        for (int i = 0; i < items; i++)
+            executor.add(i);
+        assertTrue(executor.done.await(10, TimeUnit.SECONDS));
+
+        int next = 0;
+        synchronized (executor.batches)
+        {
+            for (List<Integer> batch : executor.batches)
+            {
+                assertTrue(batch.size() <= 100);
+                for (Integer item : batch)
+                    assertEquals(next++, item.intValue());
+            }
+        }
+        assertEquals(items, next);
+    }
+
+    @Test
+    public void testWindowAdapts() throws InterruptedException
+    {
+        CollectingExecutor executor = new CollectingExecutor(100, 10, 0);
+        assertEquals(0, executor.getWindowMicros());
+
+        // batching without waiting opens the window, then waiting doubles it up to the max
+        executor.adaptWindow(0, 2);
+        assertEquals(100, executor.getWindowMicros());
+        for (int i = 0; i < 20; i++)
+            executor.adaptWindow(1, 5);
+        assertEquals(10000, executor.getWindowMicros());
+
+        // full batches leave it alone
+        executor.adaptWindow(0, 100);
+        assertEquals(10000, executor.getWindowMicros());
+
+        // waiting for nothing closes it again
+        for (int i = 0; i < 20; i++)
+            executor.adaptWindow(0, 1);
+        assertEquals(0, executor.getWindowMicros());
+    }
+}
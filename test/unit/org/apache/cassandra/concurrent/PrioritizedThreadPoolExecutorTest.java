@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.concurrent;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PrioritizedThreadPoolExecutorTest
+{
+    @Test
+    public void testHighPriorityFirstThenFifo() throws InterruptedException
+    {
+        PrioritizedThreadPoolExecutor executor = new PrioritizedThreadPoolExecutor(1, 60, TimeUnit.SECONDS, new NamedThreadFactory("PrioritizedTest"), "internal");
+        try
+        {
+            final CountDownLatch release = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(4);
+            final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+
+            //occupy the only thread so the others queue up
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        release.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            executor.execute(record(1, order, done));
+            executor.execute(record(2, order, done));
+            executor.execute(record(3, order, done), PrioritizedThreadPoolExecutor.HIGH_PRIORITY);
+            executor.execute(record(4, order, done), PrioritizedThreadPoolExecutor.HIGH_PRIORITY);
+            release.countDown();
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(3, 4, 1, 2), order);
+            assertTrue(executor.getTotalServiceTimeMicros() > 0);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSubmittedTaskExceptionIsReported() throws InterruptedException
+    {
+        PrioritizedThreadPoolExecutor executor = new PrioritizedThreadPoolExecutor(1, 60, TimeUnit.SECONDS, new NamedThreadFactory("PrioritizedTest"), "internal");
+        Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        final AtomicReference<Throwable> reported = new AtomicReference<Throwable>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
+        {
+            public void uncaughtException(Thread t, Throwable e)
+            {
+                reported.set(e);
+                done.countDown();
+            }
+        });
+        try
+        {
+            //the FutureTask made by submit() catches the exception, afterExecute has to find it there
+            executor.submit(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    throw new IllegalStateException("expected");
+                }
+            });
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertTrue(reported.get() instanceof IllegalStateException);
+        }
+        finally
+        {
+            Thread.setDefaultUncaughtExceptionHandler(handler);
+            executor.shutdownNow();
+        }
+    }
+
+    private static Runnable record(final int id, final List<Integer> order, final CountDownLatch done)
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                order.add(id);
+                done.countDown();
+            }
+        };
+    }
+}
@@ -0,0 +1,142 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AppliedOperationsTest
+{
+    @Test
+    public void testWatermarkStopsAtPending()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        shard.addApplied(1L, Long.MAX_VALUE);
+        shard.addPending(2L);
+        shard.addApplied(3L, Long.MAX_VALUE);
+
+        assertEquals(1L, shard.appliedWatermark);
+        assertTrue(shard.isApplied(1L));
+        assertFalse(shard.isApplied(2L));
+        assertTrue(shard.isApplied(3L));
+        assertEquals(2, shard.pendingOps.size());
+
+        shard.addApplied(2L, Long.MAX_VALUE);
+
+        assertEquals(3L, shard.appliedWatermark);
+        assertTrue(shard.isApplied(2L));
+        assertEquals(0, shard.pendingOps.size());
+    }
+
+    @Test
+    public void testWatermarkBoundedByNewestOps()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        shard.addApplied(1L, 2L);
+        shard.addApplied(2L, 2L);
+        shard.addApplied(3L, 2L);
+
+        assertEquals(2L, shard.appliedWatermark);
+        assertTrue(shard.isApplied(3L));
+        assertFalse(shard.isApplied(4L));
+    }
+
+    @Test
+    public void testOutOfOrder()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        for (long i = 200; i > 0; i -= 2)
+            shard.addPending(i);
+        for (long i = 1; i < 200; i += 2)
+            shard.addApplied(i, Long.MAX_VALUE);
+        assertEquals(1L, shard.appliedWatermark);
+        assertEquals(199, shard.pendingOps.size());
+
+        for (long i = 2; i <= 200; i += 2)
+            shard.addApplied(i, Long.MAX_VALUE);
+        assertEquals(200L, shard.appliedWatermark);
+        assertEquals(0, shard.pendingOps.size());
+
+        //ops at or below the watermark stay applied
+        shard.addPending(150L);
+        assertTrue(shard.isApplied(150L));
+        assertEquals(0, shard.pendingOps.size());
+    }
+
+    @Test
+    public void testBlockedReleasedOnce()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        AppliedOperations.DepCheckReplyInfo dcri = new AppliedOperations.DepCheckReplyInfo(null, "1", null, null, null, 3, 60000);
+        shard.addPending(10L);
+        shard.addPending(12L);
+        assertTrue(shard.block(10L, dcri));
+        assertTrue(shard.block(11L, dcri));
+
+        assertNull(shard.addApplied(12L, Long.MAX_VALUE));
+        // the watermark moving past 11 releases its waiter along with 10's
+        List<AppliedOperations.DepCheckReplyInfo> released = shard.addApplied(10L, Long.MAX_VALUE);
+        assertEquals(12L, shard.appliedWatermark);
+        assertEquals(2, released.size());
+        assertTrue(shard.blockedDepChecks.isEmpty());
+
+        // and once applied, nothing blocks
+        assertFalse(shard.block(11L, dcri));
+        assertNull(shard.addApplied(11L, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testWatermarkNeverMovesBack()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        shard.addApplied(5L, Long.MAX_VALUE);
+        assertEquals(5L, shard.appliedWatermark);
+
+        shard.addApplied(4L, Long.MAX_VALUE);
+        assertEquals(5L, shard.appliedWatermark);
+        assertTrue(shard.isApplied(4L));
+        assertFalse(shard.isApplied(6L));
+    }
+
+    @Test
+    public void testExpireBlocked()
+    {
+        AppliedOperations.OriginShard shard = new AppliedOperations.OriginShard();
+        AppliedOperations.DepCheckReplyInfo expiring = new AppliedOperations.DepCheckReplyInfo(null, "1", null, null, null, 2, 0);
+        AppliedOperations.DepCheckReplyInfo waiting = new AppliedOperations.DepCheckReplyInfo(null, "2", null, null, null, 2, 60000);
+        assertTrue(shard.block(10L, expiring));
+        assertTrue(shard.block(10L, waiting));
+        assertTrue(shard.block(11L, waiting));
+
+        List<AppliedOperations.DepCheckReplyInfo> expired = shard.removeExpired(System.nanoTime());
+        assertEquals(1, expired.size());
+        assertSame(expiring, expired.get(0));
+        assertTrue(expiring.drop());
+        assertFalse(expiring.drop());
+        assertEquals(2, shard.blockedDepChecks.size());
+
+        // finished checks are cleaned up without being reported again
+        assertTrue(waiting.drop());
+        assertNull(shard.removeExpired(System.nanoTime()));
+        assertTrue(shard.blockedDepChecks.isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactEncodingTest
+{
+    private static DataInputStream input(DataOutputBuffer buffer)
+    {
+        return new DataInputStream(new FastByteArrayInputStream(buffer.getData(), 0, buffer.getLength()));
+    }
+
+    @Test
+    public void testVarLongs() throws IOException
+    {
+        long[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1, Long.MIN_VALUE };
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        for (long value : values)
+        {
+            CompactEncoding.writeUnsignedVarLong(value, buffer);
+            CompactEncoding.writeSignedVarLong(value, buffer);
+        }
+        DataInputStream in = input(buffer);
+        for (long value : values)
+        {
+            assertEquals(value, CompactEncoding.readUnsignedVarLong(in));
+            assertEquals(value, CompactEncoding.readSignedVarLong(in));
+        }
+    }
+
+    @Test
+    public void testIds() throws IOException
+    {
+        List<Long> ids = new ArrayList<Long>();
+        ids.add((1000L << 16) + 7);
+        ids.add((1003L << 16) + 7);
+        ids.add((999L << 16) + 65535);
+        ids.add((1000L << 16) + 3);
+        ids.add(0L);
+        ids.add(-1L);
+        ids.add(Long.MIN_VALUE);
+        ids.add(Long.MAX_VALUE);
+
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        CompactEncoding.writeIds(ids, buffer);
+        CompactEncoding.writeIds(Collections.<Long>emptyList(), buffer);
+        DataInputStream in = input(buffer);
+        List<Long> read = new ArrayList<Long>();
+        CompactEncoding.readIds(in, read);
+        assertEquals(new HashSet<Long>(ids), new HashSet<Long>(read));
+        assertEquals(ids.size(), read.size());
+        read.clear();
+        CompactEncoding.readIds(in, read);
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void testDependencyCheck() throws IOException
+    {
+        ArrayList<Dependency> deps = new ArrayList<Dependency>();
+        for (int i = 0; i < 100; i++)
+            deps.add(new Dependency(ByteBufferUtil.bytes("key" + i), ((5000L + i) << 16) + (i % 3)));
+        deps.add(new Dependency(ByteBufferUtil.bytes("min"), Long.MIN_VALUE));
+        deps.add(new Dependency(ByteBufferUtil.bytes("max"), Long.MAX_VALUE));
+        deps.add(new Dependency(ByteBufferUtil.EMPTY_BYTE_BUFFER, -1));
+        InetAddress node = InetAddress.getByName("127.0.0.2");
+        DependencyCheck check = new DependencyCheck(deps, node);
+
+        for (int version : new int[]{ MessagingService.VERSION_11, MessagingService.VERSION_COMPACT_DEPS })
+        {
+            DependencyCheck read = DependencyCheck.fromBytes(check.getMessage(version).getMessageBody(), version);
+            assertEquals(node, read.getInquiringNode());
+            assertEquals(asMap(deps), asMap(read.getDependencies()));
+            assertTrue(read.getWriteDependencies().isEmpty());
+        }
+
+        // a check for several writes keeps the deps of each
+        List<int[]> writeDependencies = Arrays.asList(new int[]{ 0, 1, 2 }, new int[]{ 1, 102 });
+        check = new DependencyCheck(deps, writeDependencies, node);
+        for (int version : new int[]{ MessagingService.VERSION_DEP_CHECK_WRITES, MessagingService.VERSION_COMPACT_DEPS })
+        {
+            DependencyCheck read = DependencyCheck.fromBytes(check.getMessage(version).getMessageBody(), version);
+            assertEquals(asMap(deps), asMap(read.getDependencies()));
+            assertEquals(2, read.getWriteDependencies().size());
+            assertTrue(Arrays.equals(writeDependencies.get(0), read.getWriteDependencies().get(0)));
+            assertTrue(Arrays.equals(writeDependencies.get(1), read.getWriteDependencies().get(1)));
+        }
+    }
+
+    @Test
+    public void testFetchTxnIds() throws IOException
+    {
+        Set<ByteBuffer> keys = new HashSet<ByteBuffer>();
+        for (int i = 0; i < 1000; i++)
+            keys.add(ByteBufferUtil.bytes("key" + i));
+        InetAddress node = InetAddress.getByName("127.0.0.2");
+        FetchTxnIds fetch = new FetchTxnIds(keys, node);
+
+        // large enough to be compressed
+        for (int version : new int[]{ MessagingService.VERSION_11, MessagingService.VERSION_COMPACT_DEPS })
+        {
+            FetchTxnIds read = FetchTxnIds.fromBytes(fetch.getMessage(version).getMessageBody(), version);
+            assertEquals(node, read.getInquiringNode());
+            assertEquals(keys, read.getInquiryKeys());
+        }
+    }
+
+    private static Map<ByteBuffer, Long> asMap(List<Dependency> deps)
+    {
+        Map<ByteBuffer, Long> map = new HashMap<ByteBuffer, Long>();
+        for (Dependency dep : deps)
+            map.put(dep.getLocatorKey(), dep.getTimestamp());
+        return map;
+    }
+}
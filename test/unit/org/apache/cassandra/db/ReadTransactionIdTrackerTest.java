@@ -0,0 +1,153 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.*;
+
+public class ReadTransactionIdTrackerTest
+{
+    private static long txnId(long time, int client)
+    {
+        return (time << 16) + client;
+    }
+
+    @Before
+    public void clear()
+    {
+        ReadTransactionIdTracker.clearContext();
+        for (int i = 0; i < ReadTransactionIdTracker.clientToMaxTxnId.length(); i++)
+            ReadTransactionIdTracker.clientToMaxTxnId.set(i, 0);
+    }
+
+    @Test
+    public void testRecordAndLookup()
+    {
+        ByteBuffer key = ByteBufferUtil.bytes("key");
+        long id = txnId(1, 1);
+        // a write's dep check records the id with its effective time
+        assertEquals(0, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, id, true, 100));
+        assertEquals(100, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, id, false, 0));
+        // the minimum effective time is kept
+        assertEquals(100, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, id, true, 50));
+        assertEquals(50, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, id, true, 200));
+        assertEquals(50, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, id, false, 0));
+
+        // a read records the id with no effective time
+        long readId = txnId(2, 2);
+        assertEquals(0, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, readId, false, 0));
+        assertEquals(0, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, readId, false, 0));
+    }
+
+    @Test
+    public void testOnlyLatestPerClient()
+    {
+        ByteBuffer key = ByteBufferUtil.bytes("key");
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, txnId(1, 1), false, 0);
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, txnId(1, 2), false, 0);
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key, txnId(2, 1), false, 0);
+
+        List<Long> ids = ReadTransactionIdTracker.getReadTxnIds(key);
+        Collections.sort(ids);
+        assertEquals(Arrays.asList(txnId(1, 2), txnId(2, 1)), ids);
+        assertTrue(ReadTransactionIdTracker.getReadTxnIds(ByteBufferUtil.bytes("other")).isEmpty());
+    }
+
+    @Test
+    public void testTableRemoveKeepsOthersReachable()
+    {
+        ByteBuffer key = ByteBufferUtil.bytes("key");
+        ReadTransactionIdTracker.TxnIdTable table = new ReadTransactionIdTracker.TxnIdTable();
+        Random random = new Random(0);
+        Set<Long> expected = new HashSet<Long>();
+        long now = 1000;
+        for (int round = 0; round < 50; round++)
+        {
+            for (int i = 0; i < 100; i++)
+            {
+                long id = txnId(round * 100 + i + 1, random.nextInt(1 << 16));
+                table.record(id, 0, false, now, 0, key);
+                ReadTransactionIdTracker.updateClientMaxTxnId(id);
+                expected.add(id);
+            }
+            int superseded = 0;
+            for (Iterator<Long> it = expected.iterator(); it.hasNext(); )
+            {
+                if (ReadTransactionIdTracker.isSuperseded(it.next()))
+                {
+                    it.remove();
+                    superseded++;
+                }
+            }
+            assertEquals(superseded, table.removeStale(now - ReadTransactionIdTracker.SAFTYTIMER));
+            List<Long> live = new ArrayList<Long>();
+            table.collectLatest(live, now);
+            assertEquals(expected, new HashSet<Long>(live));
+            assertEquals(expected.size(), table.size());
+            for (Long id : expected)
+                assertEquals(0, table.record(id, 7, true, now, 0, key));
+        }
+
+        // everything expires
+        List<Long> live = new ArrayList<Long>();
+        table.collectLatest(live, now + ReadTransactionIdTracker.SAFTYTIMER + 1);
+        assertTrue(live.isEmpty());
+        assertEquals(expected.size(), table.removeStale(now + 1));
+        assertEquals(0, table.size());
+        assertTrue(table.retireIfEmpty());
+        assertEquals(ReadTransactionIdTracker.TxnIdTable.RECLAIMED, table.record(txnId(1, 1), 0, false, now, 0, key));
+    }
+
+    @Test
+    public void testReclaimEpochs()
+    {
+        ByteBuffer key1 = ByteBufferUtil.bytes("key1");
+        ByteBuffer key2 = ByteBufferUtil.bytes("key2");
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key1, txnId(1, 1), false, 0);
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key2, txnId(1, 1), false, 0);
+        ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key2, txnId(1, 2), false, 0);
+        long now = System.currentTimeMillis();
+        assertEquals(3, ReadTransactionIdTracker.instance.getTrackedTxnIds());
+        assertEquals(2, ReadTransactionIdTracker.instance.getTrackedKeys());
+
+        // nothing has expired yet
+        ReadTransactionIdTracker.reclaim(now);
+        assertEquals(3, ReadTransactionIdTracker.instance.getTrackedTxnIds());
+
+        long reclaimedIds = ReadTransactionIdTracker.instance.getReclaimedTxnIds();
+        long reclaimedKeys = ReadTransactionIdTracker.instance.getReclaimedKeys();
+        ReadTransactionIdTracker.reclaim(now + ReadTransactionIdTracker.SAFTYTIMER + 2 * ReadTransactionIdTracker.EPOCH_IN_MS);
+        assertEquals(0, ReadTransactionIdTracker.instance.getTrackedTxnIds());
+        assertEquals(0, ReadTransactionIdTracker.instance.getTrackedKeys());
+        assertEquals(3, ReadTransactionIdTracker.instance.getReclaimedTxnIds() - reclaimedIds);
+        assertEquals(2, ReadTransactionIdTracker.instance.getReclaimedKeys() - reclaimedKeys);
+        assertTrue(ReadTransactionIdTracker.epochToKeys.isEmpty());
+
+        // a reclaimed key starts over with a new table
+        assertEquals(0, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key1, txnId(2, 1), true, 5));
+        assertEquals(5, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(key1, txnId(2, 1), false, 0));
+    }
+}
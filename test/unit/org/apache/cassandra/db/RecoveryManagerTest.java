@@ -19,6 +19,9 @@
 package org.apache.cassandra.db;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.cassandra.Util;
@@ -71,6 +74,90 @@ public class RecoveryManagerTest extends CleanupHelper
         assertColumns(Util.getColumnFamily(table2, dk, "Standard3"), "col2");
     }
 
+    @Test
+    public void testApplyAll() throws IOException, ExecutionException, InterruptedException
+    {
+        Table table1 = Table.open("Keyspace1");
+        Table table2 = Table.open("Keyspace2");
+
+        RowMutation rm1, rm2;
+        DecoratedKey dk = Util.dk("keygroup");
+        ColumnFamily cf;
+
+        rm1 = new RowMutation("Keyspace1", dk.key);
+        cf = ColumnFamily.create("Keyspace1", "Standard1");
+        cf.addColumn(column("col1", "val1", 1L));
+        rm1.add(cf);
+
+        rm2 = new RowMutation("Keyspace2", dk.key);
+        cf = ColumnFamily.create("Keyspace2", "Standard3");
+        cf.addColumn(column("col2", "val2", 1L));
+        rm2.add(cf);
+
+        Table.applyAll(Arrays.asList(rm1, rm2));
+        assertColumns(Util.getColumnFamily(table1, dk, "Standard1"), "col1");
+        assertColumns(Util.getColumnFamily(table2, dk, "Standard3"), "col2");
+
+        table1.getColumnFamilyStore("Standard1").clearUnsafe();
+        table2.getColumnFamilyStore("Standard3").clearUnsafe();
+
+        CommitLog.instance.resetUnsafe(); // disassociate segments from live CL
+        CommitLog.instance.recover();
+
+        assertColumns(Util.getColumnFamily(table1, dk, "Standard1"), "col1");
+        assertColumns(Util.getColumnFamily(table2, dk, "Standard3"), "col2");
+    }
+
+    @Test
+    public void testApplyAllInParallel() throws IOException
+    {
+        Table table1 = Table.open("Keyspace1");
+
+        List<RowMutation> mutations = new ArrayList<RowMutation>();
+        for (int i = 0; i < 32; i++)
+        {
+            RowMutation rm = new RowMutation("Keyspace1", Util.dk("keyparallel" + (i % 16)).key);
+            ColumnFamily cf = ColumnFamily.create("Keyspace1", "Standard1");
+            cf.addColumn(column("col" + i / 16, "val", 1L));
+            rm.add(cf);
+            mutations.add(rm);
+        }
+
+        // both mutations of a row land in the same group, in order
+        List<List<RowMutation>> groups = Table.groupByRow(mutations, 4);
+        assert groups.size() > 1;
+        for (List<RowMutation> group : groups)
+        {
+            for (RowMutation rm : group)
+            {
+                for (List<RowMutation> other : groups)
+                    assert other == group || !containsKey(other, rm);
+            }
+        }
+
+        Table.applyAll(mutations, true);
+        for (int i = 0; i < 16; i++)
+            assertColumns(Util.getColumnFamily(table1, Util.dk("keyparallel" + i), "Standard1"), "col0", "col1");
+
+        table1.getColumnFamilyStore("Standard1").clearUnsafe();
+
+        CommitLog.instance.resetUnsafe(); // disassociate segments from live CL
+        CommitLog.instance.recover();
+
+        for (int i = 0; i < 16; i++)
+            assertColumns(Util.getColumnFamily(table1, Util.dk("keyparallel" + i), "Standard1"), "col0", "col1");
+    }
+
+    private static boolean containsKey(List<RowMutation> mutations, RowMutation rm)
+    {
+        for (RowMutation mutation : mutations)
+        {
+            if (mutation.key().equals(rm.key()))
+                return true;
+        }
+        return false;
+    }
+
     @Test
     public void testRecoverCounter() throws IOException, ExecutionException, InterruptedException
     {
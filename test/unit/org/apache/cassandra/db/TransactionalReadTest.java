@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.db.filter.QueryPath;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.io.util.FastByteArrayInputStream;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TransactionalReadTest extends SchemaLoader
+{
+    @Test
+    public void testReadRoundTrip() throws Exception
+    {
+        ReadCommand byNames = new SliceByNamesReadCommand("Keyspace1", ByteBufferUtil.bytes("key1"), new QueryPath("Standard1"),
+                                                          Arrays.asList(ByteBufferUtil.bytes("col1"), ByteBufferUtil.bytes("col2")));
+        ReadCommand slice = new SliceFromReadCommand("Keyspace1", ByteBufferUtil.bytes("key2"), new QueryPath("Standard1"),
+                                                     ByteBufferUtil.EMPTY_BYTE_BUFFER, ByteBufferUtil.EMPTY_BYTE_BUFFER, true, 10);
+        TransactionalRead read = new TransactionalRead((1234L << 16) + 7, Arrays.asList(byNames, slice));
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        TransactionalRead.serializer().serialize(read, out, MessagingService.version_);
+        assertEquals(out.getLength(), TransactionalRead.serializer().serializedSize(read, MessagingService.version_));
+
+        TransactionalRead copy = TransactionalRead.serializer().deserialize(new DataInputStream(new FastByteArrayInputStream(out.getData(), 0, out.getLength())), MessagingService.version_);
+        assertEquals(read.transactionId, copy.transactionId);
+        assertEquals(2, copy.commands.size());
+        assertEquals(byNames.toString(), copy.commands.get(0).toString());
+        assertEquals(slice.toString(), copy.commands.get(1).toString());
+    }
+
+    @Test
+    public void testEmptyRowsRoundTrip() throws Exception
+    {
+        Row missing = new Row(StorageService.getPartitioner().decorateKey(ByteBufferUtil.bytes("key1")), null);
+        TransactionalReadResponse response = new TransactionalReadResponse(42L, Collections.singletonList(missing));
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        TransactionalReadResponse.serializer().serialize(response, out, MessagingService.version_);
+        TransactionalReadResponse copy = TransactionalReadResponse.serializer().deserialize(new DataInputStream(new FastByteArrayInputStream(out.getData(), 0, out.getLength())), MessagingService.version_);
+        assertEquals(42L, copy.chosenTime);
+        assertEquals(1, copy.rows.size());
+        assertEquals(missing.key, copy.rows.get(0).key);
+        assertNull(copy.rows.get(0).cf);
+    }
+}
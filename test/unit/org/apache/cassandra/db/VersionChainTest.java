@@ -0,0 +1,177 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.utils.ByteBufferUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class VersionChainTest
+{
+    private static Column version(long evt)
+    {
+        return version(evt, System.currentTimeMillis());
+    }
+
+    private static Column version(long evt, long lastAccessTime)
+    {
+        return new Column(ByteBufferUtil.bytes("name"), ByteBufferUtil.bytes(evt), evt, lastAccessTime, null, evt, null, null, null);
+    }
+
+    private static List<Long> evts(VersionChain chain)
+    {
+        List<Long> evts = new ArrayList<Long>();
+        for (IColumn column : chain)
+            evts.add(column.earliestValidTime());
+        return evts;
+    }
+
+    @Test
+    public void testNewestFirst()
+    {
+        VersionChain chain = VersionChain.EMPTY.with(version(5)).with(version(9)).with(version(1)).with(version(7));
+        assertEquals(Arrays.asList(9L, 7L, 5L, 1L), evts(chain));
+        for (int i = 0; i < chain.size(); i++)
+            assertEquals(chain.get(i).earliestValidTime(), chain.earliestValidTime(i));
+    }
+
+    @Test
+    public void testImmutable()
+    {
+        VersionChain chain = VersionChain.EMPTY.with(version(5));
+        VersionChain longer = chain.with(version(6));
+        assertEquals(Arrays.asList(5L), evts(chain));
+        assertEquals(Arrays.asList(6L, 5L), evts(longer));
+    }
+
+    @Test
+    public void testOneVersionPerEvt()
+    {
+        Column first = version(5);
+        VersionChain chain = VersionChain.EMPTY.with(first);
+        assertSame(chain, chain.with(version(5)));
+
+        VersionChain merged = chain.with(version(3)).withAll(VersionChain.EMPTY.with(version(5)).with(version(4)));
+        assertEquals(Arrays.asList(5L, 4L, 3L), evts(merged));
+        assertSame(first, merged.get(0));
+    }
+
+    @Test
+    public void testVersionAt()
+    {
+        VersionChain chain = VersionChain.EMPTY.with(version(10)).with(version(20)).with(version(30));
+        assertEquals(30L, chain.versionAt(35).earliestValidTime());
+        assertEquals(20L, chain.versionAt(20).earliestValidTime());
+        assertEquals(10L, chain.versionAt(19).earliestValidTime());
+        assertEquals(null, chain.versionAt(9));
+        assertEquals(-1, VersionChain.EMPTY.indexAt(100));
+    }
+
+    @Test
+    public void testColumnVersionAt()
+    {
+        Column v1 = version(10);
+        Column v2 = version(20);
+        Column visible = (Column) v1.reconcile(v2);
+        assertSame(v2, visible.versionAt(25));
+        assertSame(v1, visible.versionAt(15));
+        assertEquals(null, visible.versionAt(5));
+    }
+
+    @Test
+    public void testWithoutAccessedBefore()
+    {
+        VersionChain chain = VersionChain.EMPTY.with(version(3, 100)).with(version(2, 200)).with(version(1, 50));
+        //drops from the newest end, up to the first recently accessed version
+        assertEquals(Arrays.asList(2L, 1L), evts(chain.withoutAccessedBefore(150)));
+        assertEquals(Arrays.asList(3L, 2L, 1L), evts(chain.withoutAccessedBefore(75)));
+    }
+
+    @Test
+    public void testResort()
+    {
+        Column moved = version(2);
+        VersionChain chain = VersionChain.EMPTY.with(version(3)).with(moved).with(version(1));
+        moved.setEarliestValidTime(4);
+        assertEquals(Arrays.asList(4L, 3L, 1L), evts(chain.resort()));
+        assertEquals(4L, chain.resort().earliestValidTime(0));
+    }
+
+    @Test
+    public void testReconcileKeepsPreviousVersions()
+    {
+        Column v1 = version(1);
+        Column v2 = version(2);
+        Column v3 = version(3);
+        IColumn visible = v1.reconcile(v2).reconcile(v3);
+        assertSame(v3, visible);
+        assertEquals(Arrays.asList(2L, 1L), evts(visible.previousVersions()));
+        //the chain moved to the newest version
+        assertEquals(null, v2.previousVersions());
+    }
+
+    @Test
+    public void testReclaimPreviousVersions()
+    {
+        long now = System.currentTimeMillis();
+        Column visible = (Column) version(1, now).reconcile(version(2, now - 100)).reconcile(version(3));
+        assertEquals(Arrays.asList(2L, 1L), evts(visible.previousVersions()));
+        long bothSize = visible.previousVersionsSize();
+
+        assertEquals(0, visible.reclaimPreviousVersions(now - 200));
+        assertEquals(1, visible.reclaimPreviousVersions(now - 50));
+        assertEquals(Arrays.asList(1L), evts(visible.previousVersions()));
+        assertEquals(bothSize / 2, visible.previousVersionsSize());
+
+        //an empty chain is dropped altogether
+        assertEquals(1, visible.reclaimPreviousVersions(System.currentTimeMillis() + 1));
+        assertEquals(null, visible.previousVersions());
+        assertEquals(0, visible.previousVersionsSize());
+    }
+
+    @Test
+    public void testChainWrittenWithColumn() throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Column visible = (Column) version(1, now).reconcile(version(2, now - 100)).reconcile(version(3));
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        Column.serializer().serialize(visible, out);
+        Column read = Column.serializer().deserialize(new DataInputStream(new ByteArrayInputStream(out.getData(), 0, out.getLength())));
+        assertEquals(Arrays.asList(2L, 1L), evts(read.previousVersions()));
+        assertEquals(visible.previousVersionsSize(), read.previousVersionsSize());
+        assertEquals(2L, read.versionAt(2).earliestValidTime());
+
+        //what compaction does to a row read back from an sstable
+        assertEquals(1, read.reclaimPreviousVersions(now - 50));
+        assertEquals(Arrays.asList(1L), evts(read.previousVersions()));
+    }
+}
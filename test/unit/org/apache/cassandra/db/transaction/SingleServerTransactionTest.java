@@ -0,0 +1,148 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.db.transaction;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.CleanupHelper;
+import org.apache.cassandra.Util;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.db.*;
+import org.apache.cassandra.db.commitlog.CommitLog;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.cassandra.utils.ShortNodeId;
+
+import static org.junit.Assert.*;
+
+public class SingleServerTransactionTest extends CleanupHelper
+{
+    private static final ByteBuffer VALUE = ByteBufferUtil.bytes("value");
+    private static long nextTransactionId = 1;
+
+    @BeforeClass
+    public static void joinRing()
+    {
+        ShortNodeId.updateShortNodeIds(Collections.singletonMap(FBUtilities.getBroadcastAddress(), new String[]{ "DC1", "RAC1" }));
+        // this node owns every key, so no key of a transaction is remote
+        StorageService.instance.getTokenMetadata().updateNormalToken(StorageService.getPartitioner().getRandomToken(), FBUtilities.getBroadcastAddress());
+    }
+
+    @Test
+    public void testSingleRowWritesNoPendingColumn() throws Exception
+    {
+        commit("single");
+
+        IColumn column = getColumn("single");
+        assertFalse(hasPendingVersion(column));
+    }
+
+    @Test
+    public void testPendingColumnsStayOutOfCommitLog() throws Exception
+    {
+        commit("multi0", "multi1");
+        assertTrue(hasPendingVersion(getColumn("multi0")));
+        assertTrue(hasPendingVersion(getColumn("multi1")));
+
+        recover();
+
+        // the committed rows come back, the pending columns they replaced don't
+        for (String key : new String[]{ "multi0", "multi1" }) {
+            IColumn column = getColumn(key);
+            assertNotNull(column);
+            assertFalse(hasPendingVersion(column));
+        }
+    }
+
+    @Test
+    public void testFastPathOff() throws Exception
+    {
+        DatabaseDescriptor.setSingleServerTransactionFastPath(false);
+        try {
+            commit("off0");
+            commit("offmulti0", "offmulti1");
+            assertTrue(hasPendingVersion(getColumn("off0")));
+
+            recover();
+
+            assertTrue(hasPendingVersion(getColumn("off0")));
+            assertTrue(hasPendingVersion(getColumn("offmulti0")));
+            assertTrue(hasPendingVersion(getColumn("offmulti1")));
+        } finally {
+            DatabaseDescriptor.setSingleServerTransactionFastPath(true);
+        }
+    }
+
+    /**
+     * Commits one transaction writing col1 to each of keys, coordinated by the first.
+     */
+    private static void commit(String... keys) throws Exception
+    {
+        Map<ByteBuffer, Map<String, List<Mutation>>> mutationMap = new HashMap<ByteBuffer, Map<String, List<Mutation>>>();
+        for (String key : keys) {
+            org.apache.cassandra.thrift.Column thriftColumn = new org.apache.cassandra.thrift.Column(ByteBufferUtil.bytes("col1"));
+            thriftColumn.setValue(VALUE).setTimestamp(0);
+            Mutation mutation = new Mutation().setColumn_or_supercolumn(new ColumnOrSuperColumn().setColumn(thriftColumn));
+            mutationMap.put(ByteBufferUtil.bytes(key), Collections.singletonMap("Standard1", Collections.singletonList(mutation)));
+        }
+        ByteBuffer coordinatorKey = ByteBufferUtil.bytes(keys[0]);
+
+        BatchMutateTransactionCoordinator coordinator = new BatchMutateTransactionCoordinator();
+        coordinator.receiveLocalTransaction("Keyspace1", mutationMap, Collections.<Dependency>emptySet(), coordinatorKey,
+                                            new HashSet<ByteBuffer>(mutationMap.keySet()), nextTransactionId++);
+        coordinator.waitForLocalCommitNoInterruption();
+    }
+
+    private static void recover() throws Exception
+    {
+        Table.open("Keyspace1").getColumnFamilyStore("Standard1").clearUnsafe();
+        CommitLog.instance.resetUnsafe(); // disassociate segments from live CL
+        CommitLog.instance.recover();
+    }
+
+    private static IColumn getColumn(String key) throws Exception
+    {
+        ColumnFamily cf = Util.getColumnFamily(Table.open("Keyspace1"), Util.dk(key), "Standard1");
+        return cf == null ? null : cf.getColumn(ByteBufferUtil.bytes("col1"));
+    }
+
+    /**
+     * The memtable copies a pending column into a plain one, so tell it by the transaction id it
+     * holds in place of the value.
+     */
+    private static boolean hasPendingVersion(IColumn column)
+    {
+        if (!column.value().equals(VALUE))
+            return true;
+        if (column.previousVersions() != null) {
+            for (IColumn version : column.previousVersions()) {
+                if (!version.value().equals(VALUE))
+                    return true;
+            }
+        }
+        return false;
+    }
+}
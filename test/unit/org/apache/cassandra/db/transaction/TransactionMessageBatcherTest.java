@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db.transaction;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.Pair;
+
+import com.google.common.base.Predicates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionMessageBatcherTest
+{
+    @Test
+    public void testGroupByEndpointAndPhase() throws IOException
+    {
+        InetAddress a = InetAddress.getByName("127.0.0.1");
+        InetAddress b = InetAddress.getByName("127.0.0.2");
+        List<TransactionMessageBatcher.PendingMessage> batch = Arrays.asList(new TransactionMessageBatcher.PendingMessage(a, new CommitMessage(1, 10)),
+                                                                             new TransactionMessageBatcher.PendingMessage(b, new CommitMessage(2, 20)),
+                                                                             new TransactionMessageBatcher.PendingMessage(a, new PrepareMessage(3)),
+                                                                             new TransactionMessageBatcher.PendingMessage(a, new CommitMessage(4, 40)));
+
+        List<Pair<InetAddress, AbstractTransactionMessage>> grouped = TransactionMessageBatcher.group(batch, Predicates.<InetAddress>alwaysTrue());
+        assertEquals(3, grouped.size());
+
+        // a's commits are batched, in order
+        assertEquals(a, grouped.get(0).left);
+        BatchedTransactionMessage commits = (BatchedTransactionMessage) grouped.get(0).right;
+        assertEquals(AbstractTransactionMessage.TransactionMessageSerializer.COMMIT_MASK, commits.getMessageFlags());
+        assertEquals(2, commits.getMessages().size());
+        assertEquals(1, ((CommitMessage) commits.getMessages().get(0)).getTransactionId());
+        assertEquals(4, ((CommitMessage) commits.getMessages().get(1)).getTransactionId());
+
+        // single messages are sent as they are
+        assertEquals(a, grouped.get(1).left);
+        assertTrue(grouped.get(1).right instanceof PrepareMessage);
+        assertEquals(b, grouped.get(2).left);
+        assertEquals(2, ((CommitMessage) grouped.get(2).right).getTransactionId());
+    }
+
+    @Test
+    public void testOldEndpointsGetSingleMessages() throws IOException
+    {
+        final InetAddress a = InetAddress.getByName("127.0.0.1");
+        InetAddress old = InetAddress.getByName("127.0.0.2");
+        List<TransactionMessageBatcher.PendingMessage> batch = Arrays.asList(new TransactionMessageBatcher.PendingMessage(old, new CommitMessage(1, 10)),
+                                                                             new TransactionMessageBatcher.PendingMessage(a, new CommitMessage(2, 20)),
+                                                                             new TransactionMessageBatcher.PendingMessage(old, new CommitMessage(3, 30)),
+                                                                             new TransactionMessageBatcher.PendingMessage(a, new CommitMessage(4, 40)));
+
+        List<Pair<InetAddress, AbstractTransactionMessage>> grouped = TransactionMessageBatcher.group(batch, Predicates.equalTo(a));
+        assertEquals(3, grouped.size());
+        assertEquals(old, grouped.get(0).left);
+        assertEquals(1, ((CommitMessage) grouped.get(0).right).getTransactionId());
+        assertEquals(old, grouped.get(1).left);
+        assertEquals(3, ((CommitMessage) grouped.get(1).right).getTransactionId());
+        assertEquals(a, grouped.get(2).left);
+        assertEquals(2, ((BatchedTransactionMessage) grouped.get(2).right).getMessages().size());
+    }
+
+    @Test
+    public void testBatchUnreadableBeforeItsVersion() throws IOException
+    {
+        List<AbstractTransactionMessage> messages = new ArrayList<AbstractTransactionMessage>();
+        messages.add(new AckMessage(1, 1));
+        messages.add(new AckMessage(2, 1));
+        DataOutputBuffer out = new DataOutputBuffer();
+        AbstractTransactionMessage.serializer().serialize(new BatchedTransactionMessage(messages), out, MessagingService.VERSION_BATCHED_TXN_MESSAGES);
+        try
+        {
+            AbstractTransactionMessage.fromBytes(Arrays.copyOf(out.getData(), out.getLength()), MessagingService.VERSION_BATCHED_TXN_MESSAGES - 1);
+            throw new AssertionError("an older peer can't read a batch");
+        }
+        catch (IOException expected)
+        {
+        }
+    }
+
+    @Test
+    public void testSerializeBatch() throws IOException
+    {
+        List<AbstractTransactionMessage> messages = new ArrayList<AbstractTransactionMessage>();
+        for (int i = 0; i < 5; i++)
+            messages.add(new AckMessage(i, i + 1));
+        BatchedTransactionMessage batch = new BatchedTransactionMessage(messages);
+
+        DataOutputBuffer out = new DataOutputBuffer();
+        AbstractTransactionMessage.serializer().serialize(batch, out, MessagingService.version_);
+        assertEquals(out.getLength(), AbstractTransactionMessage.serializer().serializedSize(batch, MessagingService.version_));
+
+        AbstractTransactionMessage read = AbstractTransactionMessage.fromBytes(Arrays.copyOf(out.getData(), out.getLength()), MessagingService.version_);
+        BatchedTransactionMessage readBatch = (BatchedTransactionMessage) read;
+        assertEquals(AbstractTransactionMessage.TransactionMessageSerializer.ACK_MASK, readBatch.getMessageFlags());
+        assertEquals(5, readBatch.getMessages().size());
+        for (int i = 0; i < 5; i++)
+        {
+            AckMessage ack = (AckMessage) readBatch.getMessages().get(i);
+            assertEquals(i, ack.getTransactionId());
+            assertEquals(i + 1, ack.getLocalKeyCount());
+        }
+    }
+
+    @Test
+    public void testSerializeSingle() throws IOException
+    {
+        CommitMessage commit = new CommitMessage(7, 70);
+        DataOutputBuffer out = new DataOutputBuffer();
+        AbstractTransactionMessage.serializer().serialize(commit, out, MessagingService.version_);
+        assertEquals(out.getLength(), AbstractTransactionMessage.serializer().serializedSize(commit, MessagingService.version_));
+
+        CommitMessage read = (CommitMessage) AbstractTransactionMessage.fromBytes(Arrays.copyOf(out.getData(), out.getLength()), MessagingService.version_);
+        assertEquals(7, read.getTransactionId());
+        assertEquals(70, read.getCommitTime());
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.db.transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionStateTableTest
+{
+    @Test
+    public void testPutGetRemove()
+    {
+        TransactionStateTable<Long> table = new TransactionStateTable<Long>(0, 0);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42);
+
+        // ids from a few clients, so they collide in the low bits like real transaction ids
+        for (int i = 0; i < 20000; i++)
+        {
+            long id = ((long) random.nextInt(5000) << 16) + random.nextInt(4);
+            if (random.nextInt(3) == 0)
+            {
+                assertEquals(expected.remove(id), table.remove(id));
+            }
+            else
+            {
+                assertEquals(expected.put(id, (long) i), table.put(id, (long) i));
+            }
+        }
+
+        assertEquals(expected.size(), table.getSize());
+        for (Map.Entry<Long, Long> entry : expected.entrySet())
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+
+        for (Long id : expected.keySet())
+            table.remove(id);
+        assertEquals(0, table.getSize());
+        assertNull(table.get(expected.keySet().iterator().next()));
+    }
+
+    @Test
+    public void testExpiry()
+    {
+        TransactionStateTable<Long> table = new TransactionStateTable<Long>(100, 0);
+        table.put(1, 1L, 0);
+        table.put(2, 2L, 50);
+
+        // the first rotation keeps everything for another period
+        table.put(3, 3L, 100);
+        assertEquals(3, table.getSize());
+        assertEquals(Long.valueOf(1), table.get(1));
+
+        // updating an entry moves it to the current generation
+        table.put(2, 20L, 150);
+
+        // the second drops what was written before the first
+        table.put(4, 4L, 200);
+        assertNull(table.get(1));
+        assertEquals(Long.valueOf(20), table.get(2));
+        assertEquals(Long.valueOf(3), table.get(3));
+        assertEquals(1, table.getExpiredEntries());
+
+        table.put(5, 5L, 300);
+        table.put(6, 6L, 400);
+        assertNull(table.get(2));
+        assertNull(table.get(3));
+        assertNull(table.get(4));
+        assertEquals(2, table.getSize());
+        assertEquals(4, table.getExpiredEntries());
+    }
+
+    @Test
+    public void testReplace()
+    {
+        TransactionStateTable<Long> table = new TransactionStateTable<Long>(100, 0);
+        Long first = 1L;
+        assertTrue(table.replace(7, null, first, 0));
+        assertFalse(table.replace(7, null, 2L, 0));
+
+        // an entry in the previous generation can still be replaced
+        table.put(8, 8L, 100);
+        Long second = 2L;
+        assertTrue(table.replace(7, first, second, 100));
+        assertEquals(second, table.get(7));
+        assertEquals(2, table.getSize());
+    }
+
+    @Test
+    public void testCommitTimeOutlivesPendingColumns()
+    {
+        int retention = DatabaseDescriptor.getPreviousVersionRetentionInMs();
+        // compaction keeping previous versions far longer than any timeout
+        DatabaseDescriptor.setPreviousVersionRetentionInMs((int) (20 * DatabaseDescriptor.getRpcTimeout()));
+        try
+        {
+            long expiry = DatabaseDescriptor.getTransactionStateExpiryInMs();
+            assertTrue(expiry >= DatabaseDescriptor.getMinTransactionStateExpiryInMs());
+
+            TransactionStateTable<Long> commitTimes = new TransactionStateTable<Long>(expiry, 0);
+            commitTimes.put(1, 10L, 0);
+
+            // the last by-time read that can still find one of the transaction's pending columns, as
+            // a previous version, checks it as late as this; other transactions rotate the table meanwhile
+            long lastCheck = DatabaseDescriptor.getPreviousVersionRetentionInMs()
+                             + DatabaseDescriptor.getRpcTimeout()
+                             + DatabaseDescriptor.getGetTransactionTimeoutInMs();
+            for (long now = 0; now <= lastCheck; now += expiry / 4)
+                commitTimes.put(2, now, now);
+            commitTimes.put(2, lastCheck, lastCheck);
+            assertEquals("a commit time read as missing means not yet committed", Long.valueOf(10), commitTimes.get(1));
+        }
+        finally
+        {
+            DatabaseDescriptor.setPreviousVersionRetentionInMs(retention);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+import java.util.*;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.cassandra.SchemaLoader;
+import org.apache.cassandra.db.AppliedOperations;
+import org.apache.cassandra.db.CompactEncoding;
+import org.apache.cassandra.db.Dependency;
+import org.apache.cassandra.db.ReadTransactionIdTracker;
+import org.apache.cassandra.io.util.DataOutputBuffer;
+import org.apache.cassandra.net.ICompletable;
+import org.apache.cassandra.net.Message;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
+
+import static org.junit.Assert.*;
+
+public class BatchDependencyChecksTest extends SchemaLoader
+{
+    private static final ICompletable NOTHING = new ICompletable()
+    {
+        public void complete() {}
+    };
+
+    private static final Dependency SHARED = new Dependency(ByteBufferUtil.bytes("shared"), version(10, 1));
+
+    private static long version(long time, int origin)
+    {
+        return (time << 16) + origin;
+    }
+
+    @BeforeClass
+    public static void joinRing()
+    {
+        // this node checks every dep
+        StorageService.instance.getTokenMetadata().updateNormalToken(StorageService.getPartitioner().getRandomToken(), FBUtilities.getBroadcastAddress());
+    }
+
+    private static BatchDependencyChecks.PendingCheck write(String locatorKey, long chosenTime, Dependency... deps)
+    {
+        return new BatchDependencyChecks.PendingCheck("Keyspace1", ByteBufferUtil.bytes(locatorKey), new LinkedHashSet<Dependency>(Arrays.asList(deps)), NOTHING, chosenTime);
+    }
+
+    @Test
+    public void testDuplicateDepsSentOnce() throws Exception
+    {
+        BatchDependencyChecks counters = StorageProxy.batchDependencyChecks;
+        long requested = counters.getDependenciesRequested();
+        long sent = counters.getDependenciesSent();
+        long saved = counters.getMessagesSaved();
+
+        BatchDependencyChecks.PendingCheck first = write("first", 100, SHARED, new Dependency(ByteBufferUtil.bytes("a"), version(11, 1)));
+        BatchDependencyChecks.PendingCheck second = write("second", 200, SHARED, new Dependency(ByteBufferUtil.bytes("b"), version(12, 1)));
+        Map<InetAddress, BatchDependencyChecks.EndpointChecks> grouped = BatchDependencyChecks.group(Arrays.asList(first, second));
+
+        assertEquals(1, grouped.size());
+        BatchDependencyChecks.EndpointChecks endpointChecks = grouped.get(FBUtilities.getBroadcastAddress());
+        assertEquals(3, endpointChecks.deps.size());
+        // each write still names the shared dep, by its one index
+        List<int[]> writeDependencies = endpointChecks.writeDependencies();
+        assertEquals(2, writeDependencies.size());
+        assertEquals("[0, 1]", Arrays.toString(writeDependencies.get(0)));
+        assertEquals("[0, 2]", Arrays.toString(writeDependencies.get(1)));
+        assertEquals(1, first.unanswered.get());
+        assertEquals(1, second.unanswered.get());
+
+        assertEquals(1, BatchDependencyChecks.callbacks(FBUtilities.getBroadcastAddress(), endpointChecks, MessagingService.version_).size());
+
+        assertEquals(requested + 4, counters.getDependenciesRequested());
+        assertEquals(sent + 3, counters.getDependenciesSent());
+        assertEquals(saved + 1, counters.getMessagesSaved());
+        assertEquals(1 - (double) (sent + 3) / (requested + 4), counters.getDependencyDedupRatio(), 0.000001);
+    }
+
+    @Test
+    public void testOldEndpointGetsOneCheckPerWrite() throws Exception
+    {
+        BatchDependencyChecks counters = StorageProxy.batchDependencyChecks;
+        long saved = counters.getMessagesSaved();
+
+        BatchDependencyChecks.PendingCheck first = write("first", 100, SHARED);
+        BatchDependencyChecks.PendingCheck second = write("second", 200, SHARED);
+        Map<InetAddress, BatchDependencyChecks.EndpointChecks> grouped = BatchDependencyChecks.group(Arrays.asList(first, second));
+        BatchDependencyChecks.EndpointChecks endpointChecks = grouped.get(FBUtilities.getBroadcastAddress());
+
+        assertEquals(2, BatchDependencyChecks.callbacks(FBUtilities.getBroadcastAddress(), endpointChecks, MessagingService.VERSION_DEP_CHECK_WRITES - 1).size());
+        assertEquals(saved, counters.getMessagesSaved());
+    }
+
+    @Test
+    public void testRepliesRecordedPerWrite() throws Exception
+    {
+        for (int version : new int[]{ MessagingService.VERSION_DEP_CHECK_WRITES, MessagingService.version_ })
+        {
+            ReadTransactionIdTracker.clearContext();
+            BatchDependencyChecks.PendingCheck first = write("first", 100, SHARED);
+            BatchDependencyChecks.PendingCheck second = write("second", 200, SHARED);
+            Map<InetAddress, BatchDependencyChecks.EndpointChecks> grouped = BatchDependencyChecks.group(Arrays.asList(first, second));
+            List<DepCheckCallback> callbacks = BatchDependencyChecks.callbacks(FBUtilities.getBroadcastAddress(), grouped.get(FBUtilities.getBroadcastAddress()), version);
+            assertEquals(1, callbacks.size());
+
+            long firstTxnId = version(1, 1);
+            long secondTxnId = version(1, 2);
+            callbacks.get(0).response(reply(version, firstTxnId, secondTxnId));
+
+            assertEquals(0, first.unanswered.get());
+            assertEquals(0, second.unanswered.get());
+            assertEquals(Arrays.asList(firstTxnId), ReadTransactionIdTracker.getReadTxnIds(ByteBufferUtil.bytes("first")));
+            assertEquals(Arrays.asList(secondTxnId), ReadTransactionIdTracker.getReadTxnIds(ByteBufferUtil.bytes("second")));
+            // at each write's own chosen time
+            assertEquals(100, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(ByteBufferUtil.bytes("first"), firstTxnId, false, 0));
+            assertEquals(200, ReadTransactionIdTracker.checkIfTxnIdBeenRecorded(ByteBufferUtil.bytes("second"), secondTxnId, false, 0));
+        }
+    }
+
+    /**
+     * @return a satisfied reply listing one read txn id for each write
+     */
+    private static Message reply(int version, long... txnIds) throws Exception
+    {
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        buffer.writeByte(AppliedOperations.DEP_CHECK_SATISFIED);
+        byte[] body;
+        if (CompactEncoding.isCompact(version))
+        {
+            CompactEncoding.writeUnsignedVarLong(txnIds.length, buffer);
+            for (long txnId : txnIds)
+                CompactEncoding.writeIds(Collections.singletonList(txnId), buffer);
+            CompactEncoding.writeIds(Collections.<Long>emptyList(), buffer);
+            body = CompactEncoding.wrap(buffer.getData(), buffer.getLength());
+        }
+        else
+        {
+            buffer.writeInt(txnIds.length);
+            for (long txnId : txnIds)
+            {
+                buffer.writeInt(1);
+                buffer.writeLong(txnId);
+            }
+            body = Arrays.copyOf(buffer.getData(), buffer.getLength());
+        }
+        return new Message(FBUtilities.getBroadcastAddress(), StorageService.Verb.REQUEST_RESPONSE, body, version);
+    }
+}
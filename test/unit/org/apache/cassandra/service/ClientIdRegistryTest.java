@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.service;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.cassandra.utils.LamportClock;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientIdRegistryTest
+{
+    private static final long LEASE = 1000;
+
+    @Test
+    public void testRoundRobin()
+    {
+        ClientIdRegistry registry = new ClientIdRegistry(LEASE);
+        assertEquals(1, registry.register("a", 0, 0));
+        assertEquals(2, registry.register("b", 0, 0));
+        //renewing keeps the id
+        assertEquals(1, registry.register("a", 0, 100));
+        //a's lease ended, but its id isn't reused until every other id has been
+        assertEquals(3, registry.register("c", 0, 2 * LEASE));
+        assertEquals(3, registry.getLeasedIds());
+        assertEquals(0, registry.getExpiredLeases());
+    }
+
+    @Test
+    public void testIdsFitUnderTheTag()
+    {
+        //the largest id of the last datacenter ShortNodeId can number keeps the tag and stays in 16 bits
+        int last = ClientIdRegistry.leasedId((1 << ClientIdRegistry.DC_BITS) - 1, ClientIdRegistry.MAX_ID);
+        assertEquals(LamportClock.REGISTERED_CLIENT_ID_TAG, last & LamportClock.REGISTERED_CLIENT_ID_TAG);
+        assertTrue(last < (1 << 16));
+        //and datacenters don't share ids
+        assertTrue(ClientIdRegistry.leasedId(0, ClientIdRegistry.MAX_ID) < ClientIdRegistry.leasedId(1, 1));
+    }
+
+    @Test
+    public void testPreferredId()
+    {
+        ClientIdRegistry registry = new ClientIdRegistry(LEASE);
+        //a session whose lease was granted before a restart gets its id back
+        assertEquals(42, registry.register("a", 42, 0));
+        //but not one leased to another session
+        int id = registry.register("b", 42, 0);
+        assertTrue(id != 42);
+        //nor one out of range
+        assertTrue(registry.register("c", ClientIdRegistry.MAX_ID + 1, 0) <= ClientIdRegistry.MAX_ID);
+    }
+
+    @Test
+    public void testExpiredLeaseReused()
+    {
+        ClientIdRegistry registry = new ClientIdRegistry(LEASE);
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < ClientIdRegistry.MAX_ID; i++)
+            assertTrue(ids.add(registry.register("s" + i, 0, 0)));
+
+        try
+        {
+            registry.register("late", 0, LEASE - 1);
+            throw new AssertionError("all ids should be leased");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+
+        //s0 keeps renewing, so the next id to go is the one of s1
+        registry.register("s0", 0, LEASE - 1);
+        assertEquals(2, registry.register("late", 0, LEASE));
+        assertEquals(1, registry.getExpiredLeases());
+        //s1 comes back, and gets another (lapsed) id
+        int id = registry.register("s1", 2, LEASE);
+        assertTrue(id != 1 && id != 2);
+        assertEquals(2, registry.getExpiredLeases());
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.service;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.gms.VersionedValue;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SatisfiedDependencyCacheTest
+{
+    private static long version(long time, int origin)
+    {
+        return (time << 16) + origin;
+    }
+
+    @Test
+    public void testSatisfiedOnceOldEnough() throws Exception
+    {
+        SatisfiedDependencyCache cache = new SatisfiedDependencyCache();
+        InetAddress endpoint = InetAddress.getByName("127.0.0.2");
+        long minAge = SatisfiedDependencyCache.minAgeNanos();
+        long now = System.nanoTime();
+
+        cache.learn(endpoint, Arrays.asList(version(100, 1)), now);
+        //too recent: the reply could still have carried txn ids for it
+        assertFalse(cache.isSatisfied(endpoint, version(50, 1), now + minAge - 1));
+        assertTrue(cache.isSatisfied(endpoint, version(50, 1), now + minAge));
+        assertTrue(cache.isSatisfied(endpoint, version(100, 1), now + minAge));
+        assertFalse(cache.isSatisfied(endpoint, version(101, 1), now + minAge));
+
+        //other origins and endpoints know nothing
+        assertFalse(cache.isSatisfied(endpoint, version(50, 2), now + minAge));
+        assertFalse(cache.isSatisfied(InetAddress.getByName("127.0.0.3"), version(50, 1), now + minAge));
+    }
+
+    @Test
+    public void testNewerWatermarkKeepsOlderUsable() throws Exception
+    {
+        SatisfiedDependencyCache cache = new SatisfiedDependencyCache();
+        InetAddress endpoint = InetAddress.getByName("127.0.0.2");
+        long minAge = SatisfiedDependencyCache.minAgeNanos();
+        long now = System.nanoTime();
+
+        cache.learn(endpoint, Arrays.asList(version(100, 1)), now);
+        cache.learn(endpoint, Arrays.asList(version(200, 1)), now + minAge);
+        assertTrue(cache.isSatisfied(endpoint, version(100, 1), now + minAge + 1));
+        assertFalse(cache.isSatisfied(endpoint, version(150, 1), now + minAge + 1));
+        assertTrue(cache.isSatisfied(endpoint, version(200, 1), now + 2 * minAge));
+    }
+
+    @Test
+    public void testLearnedFromGossip() throws Exception
+    {
+        SatisfiedDependencyCache cache = new SatisfiedDependencyCache();
+        InetAddress endpoint = InetAddress.getByName("127.0.0.2");
+        VersionedValue.VersionedValueFactory valueFactory = new VersionedValue.VersionedValueFactory(null);
+        long now = System.nanoTime();
+
+        cache.onChange(endpoint, ApplicationState.APPLIED_WATERMARKS, valueFactory.appliedWatermarks(Arrays.asList(version(100, 1), version(300, 2))));
+        long later = now + 2 * SatisfiedDependencyCache.minAgeNanos();
+        assertTrue(cache.isSatisfied(endpoint, version(100, 1), later));
+        assertTrue(cache.isSatisfied(endpoint, version(300, 2), later));
+        assertFalse(cache.isSatisfied(endpoint, version(101, 1), later));
+
+        // nothing applied yet gossips an empty value
+        cache.onChange(endpoint, ApplicationState.APPLIED_WATERMARKS, valueFactory.appliedWatermarks(Arrays.<Long>asList()));
+        assertTrue(cache.isSatisfied(endpoint, version(100, 1), later));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.apache.cassandra.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HybridLamportClockTest
+{
+    static
+    {
+        // tests are forked one class per JVM, so this is set before LamportClock is loaded
+        System.setProperty("cassandra.hybrid_logical_clock", "true");
+    }
+
+    @Test
+    public void testFollowsWallClock()
+    {
+        assertTrue(LamportClock.HYBRID);
+        long before = System.currentTimeMillis();
+        long time = LamportClock.sendTimestamp();
+        long after = System.currentTimeMillis();
+        assertTrue(time >= LamportClock.fromPhysicalTime(before));
+        assertTrue(time < LamportClock.fromPhysicalTime(after + 1));
+    }
+
+    @Test
+    public void testPassesTimesFromAhead()
+    {
+        long millis = System.currentTimeMillis() + 60000;
+        long ahead = LamportClock.fromPhysicalTime(millis) + 3;
+        LamportClock.updateTime(ahead);
+        long time = LamportClock.sendTimestamp();
+        assertTrue(time > ahead);
+        // still in the same millisecond, the counter moved on instead
+        assertTrue(time < LamportClock.fromPhysicalTime(millis + 1));
+    }
+
+    @Test
+    public void testVersionsStayPositive()
+    {
+        LamportClock.setLocalId((short) 3);
+        long version = LamportClock.getVersion();
+        assertTrue(version > 0);
+        assertEquals(3, version & 0xffff);
+        // and will through 2040
+        assertTrue(LamportClock.fromPhysicalTime(2208988800000L) < (1L << 47));
+    }
+
+    @Test
+    public void testConcurrentTicksAreUnique() throws InterruptedException
+    {
+        final int threads = 4;
+        final int ticks = 10000;
+        final long[][] seen = new long[threads][ticks];
+        final AtomicBoolean ordered = new AtomicBoolean(true);
+        Thread[] tickers = new Thread[threads];
+        for (int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+            tickers[t] = new Thread()
+            {
+                public void run()
+                {
+                    for (int i = 0; i < ticks; i++)
+                    {
+                        seen[thread][i] = i % 2 == 0 ? LamportClock.sendTimestamp() : LamportClock.getVersion() >> 16;
+                        if (i > 0 && seen[thread][i] <= seen[thread][i - 1])
+                            ordered.set(false);
+                    }
+                }
+            };
+            tickers[t].start();
+        }
+        for (Thread ticker : tickers)
+            ticker.join();
+        assertTrue(ordered.get());
+
+        Set<Long> all = new HashSet<Long>();
+        for (long[] times : seen)
+            for (long time : times)
+                assertTrue(all.add(time));
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.cassandra.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LamportClockTest
+{
+    @Test
+    public void testThreadIdsRunOut() throws InterruptedException
+    {
+        final AtomicInteger assigned = new AtomicInteger();
+        final AtomicInteger refused = new AtomicInteger();
+        int threads = (1 << LamportClock.CLIENT_ID_BITS) + 4;
+        for (int i = 0; i < threads; i++)
+        {
+            // one at a time, so every thread gets its id before the next asks
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        assertTrue(LamportClock.getThreadId() < (1 << LamportClock.CLIENT_ID_BITS));
+                        assigned.incrementAndGet();
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        refused.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            thread.join();
+        }
+        // rather than running into this host's address bits
+        assertTrue(assigned.get() <= 1 << LamportClock.CLIENT_ID_BITS);
+        assertEquals(threads, assigned.get() + refused.get());
+        assertTrue(refused.get() >= 4);
+    }
+}
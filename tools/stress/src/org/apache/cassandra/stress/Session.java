@@ -131,6 +131,7 @@ public class Session implements Serializable
         availableOptions.addOption("", "useZipfian", true, "this stress run uses zipfian workload or not");
 	    availableOptions.addOption("", "zipfian-constant", true, "Set the zipfian constant for Zipfian distribution");
 	    availableOptions.addOption("", "use-per-node-zipf", false, "Generates key with independent zipf for each node");
+	    availableOptions.addOption("", "shared-client-library", false, "Share one thread safe client library between all threads, each thread is its own session");
 
 	    availableOptions.addOption("", "expt-duration", true, "Set the maximum running time for experiment");
 
@@ -217,6 +218,8 @@ public class Session implements Serializable
     // RO6: flag for zipfian
     private int useZipfian = 0;
     public boolean globalZipf = true;
+    private boolean sharedClientLibrary = false;
+    private ClientLibrary clientLibrary;
     // Khiem
     // RO6: zipfian constant
     // defines the skewness: the smaller the value is, the more skewness
@@ -541,6 +544,8 @@ public class Session implements Serializable
             }
             if (cmd.hasOption("use-per-node-zipf"))
                 globalZipf = false;
+            if (cmd.hasOption("shared-client-library"))
+                sharedClientLibrary = true;
             if (cmd.hasOption("zipfian-constant")) {
                 zipfianConstant = Double.parseDouble(cmd.getOptionValue("zipfian-constant"));
                 if (zipfianConstant < 0 || zipfianConstant >= 1) {
@@ -919,6 +924,8 @@ public class Session implements Serializable
         //}
 
         try {
+            if (sharedClientLibrary)
+                return getSharedClientLibrary();
             return new ClientLibrary(localServerIPAndPorts, "Keyspace1", this.getConsistencyLevel());
         } catch (Exception e) {
             e.printStackTrace();
@@ -927,6 +934,13 @@ public class Session implements Serializable
     }
 
 
+    private synchronized ClientLibrary getSharedClientLibrary() throws Exception
+    {
+        if (clientLibrary == null)
+            clientLibrary = new ClientLibrary(localServerIPAndPorts, "Keyspace1", this.getConsistencyLevel(), true);
+        return clientLibrary;
+    }
+
     public ByteBuffer getRandGeneratedKey(int serverNum)
     {
         int serverKeyCount = generatedKeysByServer.get(serverNum).size();
@@ -292,7 +292,7 @@ public class StressAction extends Thread
         Arrays.sort(readlatencies);
         Arrays.sort(writelatencies);
         /*
-        Expt,Key/Serv,#Serv,ValSize,Key/Read,WriteFrac,Zipf,NumClients,TotalThreads,LocalThreads,Client,NumOps,NumKeys,NumColumns,NumBytes,NUmReads,NumWrites,Duration,Throughput,Ravg,R50,R90,R95,R99,Wavg,W50,W90,W95,W99,#Tx2R,#K2R,#aggR,#aggW,Lsum,Lavg
+        Expt,Key/Serv,#Serv,ValSize,Key/Read,WriteFrac,Zipf,NumClients,TotalThreads,LocalThreads,Client,NumOps,NumKeys,NumColumns,NumBytes,NUmReads,NumWrites,Duration,Throughput,Ravg,R50,R90,R95,R99,Wavg,W50,W90,W95,W99,#Tx2R,#K2R,#aggR,#aggW,Lsum,Lavg,DepsPerWrite,#DepsDropped
          */
 
         int numReads = client.numReads.get();
@@ -358,6 +358,11 @@ public class StressAction extends Thread
         //Lsum, Lavg
         outputs.add(String.valueOf(latency));
         outputs.add(String.valueOf(latency*1000/numOps));
+
+        //DepsPerWrite, #DepsDropped
+        long writesWithContext = ClientContext.getTotalWrites();
+        outputs.add(writesWithContext > 0 ? String.format("%.2f", ClientContext.getTotalDepsAttached() / (double) writesWithContext) : "NaN");
+        outputs.add(String.valueOf(ClientContext.getTotalDepsDropped()));
         System.err.println(String.join(",",outputs));
 
     }